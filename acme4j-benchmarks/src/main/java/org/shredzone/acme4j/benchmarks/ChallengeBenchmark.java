@@ -0,0 +1,82 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmarks;
+
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.challenge.Http01Challenge;
+import org.shredzone.acme4j.challenge.TokenChallenge;
+import org.shredzone.acme4j.util.JSON;
+
+/**
+ * Measures the key authorization computation of a {@link TokenChallenge}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChallengeBenchmark {
+
+    private BenchmarkChallenge challenge;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(2048);
+        KeyPair keyPair = keyGen.generateKeyPair();
+
+        Session session = new Session(URI.create("https://acme.example.com/directory"), keyPair);
+        challenge = new BenchmarkChallenge(session);
+        challenge.unmarshall(JSON.parse("{\"type\":\"http-01\",\"status\":\"pending\","
+                        + "\"uri\":\"https://acme.example.com/acme/challenge/1\","
+                        + "\"token\":\"rSoI9JpyvFi-ltdnBW0W1DjKstzG7cHixjzcOjwzAEQ\"}"));
+    }
+
+    @Benchmark
+    public String computeAuthorization() {
+        return challenge.authorization();
+    }
+
+    /**
+     * Exposes {@link TokenChallenge#computeAuthorization()} to the benchmark.
+     */
+    private static class BenchmarkChallenge extends Http01Challenge {
+        private static final long serialVersionUID = 1L;
+
+        public BenchmarkChallenge(Session session) {
+            super(session);
+        }
+
+        public String authorization() {
+            return computeAuthorization();
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmarks;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.acme4j.util.CSRBuilder;
+import org.shredzone.acme4j.util.KeyPairUtils;
+
+/**
+ * Measures {@link CSRBuilder#sign(KeyPair)}, including the encoding of the CSR.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CsrBenchmark {
+
+    @Param({"RSA", "EC"})
+    private String keyType;
+
+    @Param({"1", "100"})
+    private int domains;
+
+    private KeyPair keyPair;
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+
+        if ("EC".equals(keyType)) {
+            keyPair = KeyPairUtils.createECKeyPair("secp256r1");
+        } else {
+            keyPair = KeyPairUtils.createKeyPair(2048);
+        }
+
+        names = new String[domains];
+        for (int ix = 0; ix < domains; ix++) {
+            names[ix] = "www" + ix + ".example.com";
+        }
+    }
+
+    @Benchmark
+    public byte[] sign() throws IOException {
+        CSRBuilder builder = new CSRBuilder();
+        builder.addDomains(names);
+        builder.setOrganization("Example Inc.");
+        builder.sign(keyPair);
+        return builder.getEncoded();
+    }
+
+}
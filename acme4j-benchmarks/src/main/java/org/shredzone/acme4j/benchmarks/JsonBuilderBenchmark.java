@@ -0,0 +1,72 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmarks;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.acme4j.util.JSONBuilder;
+
+/**
+ * Measures {@link JSONBuilder#toString()}, which is invoked for every signed request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonBuilderBenchmark {
+
+    @Param({"1", "100"})
+    private int domains;
+
+    private JSONBuilder claims;
+
+    @Setup
+    public void setup() {
+        claims = new JSONBuilder();
+        claims.putResource("new-cert");
+        claims.put("notBefore", Instant.parse("2017-01-01T00:00:00Z"));
+        claims.put("notAfter", Instant.parse("2017-12-31T23:59:59Z"));
+        claims.array("contact", "mailto:acme@example.com");
+        claims.putBase64("csr", new byte[1024]);
+        claims.object("identifier")
+                .put("type", "dns")
+                .put("value", "www.example.com");
+
+        String[] names = new String[domains];
+        for (int ix = 0; ix < domains; ix++) {
+            names[ix] = "www" + ix + ".example.com";
+        }
+        claims.array("domains", (Object[]) names);
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return claims.toString();
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmarks;
+
+import static java.util.stream.Collectors.joining;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jose4j.json.JsonUtil;
+import org.jose4j.lang.JoseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.acme4j.util.JSON;
+
+/**
+ * Compares the former line-joining jose4j parser with the streaming
+ * {@link JSON#parse(java.io.InputStream)}, on large server responses.
+ * <p>
+ * Run with {@code -prof gc} to compare the allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonParseBenchmark {
+
+    @Param({"authorization", "certificates"})
+    private String response;
+
+    @Param({"10", "1000"})
+    private int entries;
+
+    private byte[] json;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        if ("authorization".equals(response)) {
+            sb.append("{\n  \"identifier\": {\n    \"type\": \"dns\",\n    \"value\": \"example.org\"\n  },\n");
+            sb.append("  \"status\": \"pending\",\n  \"expires\": \"2017-12-31T23:59:59Z\",\n");
+            sb.append("  \"challenges\": [\n");
+            for (int ix = 0; ix < entries; ix++) {
+                sb.append(ix > 0 ? ",\n" : "");
+                sb.append("    {\n      \"type\": \"http-01\",\n      \"status\": \"pending\",\n");
+                sb.append("      \"uri\": \"https://example.com/acme/authz/asdf/").append(ix).append("\",\n");
+                sb.append("      \"token\": \"IlirfxKKXAsHtmzK29Pj8A").append(ix).append("\"\n    }");
+            }
+            sb.append("\n  ],\n  \"combinations\": [[0], [1]]\n}\n");
+        } else {
+            sb.append("{\n  \"certificates\": [\n");
+            for (int ix = 0; ix < entries; ix++) {
+                sb.append(ix > 0 ? ",\n" : "");
+                sb.append("    \"https://example.com/acme/cert/").append(ix).append("\"");
+            }
+            sb.append("\n  ]\n}\n");
+        }
+        json = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The former parser: the stream is read line by line, trimmed and joined to a
+     * string, which is then parsed by jose4j.
+     */
+    @Benchmark
+    public Map<String, Object> jose4j() throws IOException, JoseException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new ByteArrayInputStream(json), "utf-8"))) {
+            String str = reader.lines().map(String::trim).collect(joining());
+            return JsonUtil.parseJson(str);
+        }
+    }
+
+    /**
+     * The streaming parser.
+     */
+    @Benchmark
+    public JSON streaming() throws IOException {
+        return JSON.parse(new ByteArrayInputStream(json));
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+import org.jose4j.base64url.Base64Url;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.lang.JoseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.connector.AccountKeyContext;
+import org.shredzone.acme4j.connector.DefaultConnection;
+import org.shredzone.acme4j.connector.HttpConnector;
+import org.shredzone.acme4j.connector.JwsWriter;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.util.AcmeUtils;
+import org.shredzone.acme4j.util.JSONBuilder;
+
+/**
+ * Compares the jose4j based request signing with the {@link JwsWriter}, and measures
+ * a signed request through a {@link DefaultConnection} with a stubbed HTTP connection.
+ * <p>
+ * Run with {@code -prof gc} to compare the allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JwsBenchmark {
+
+    @Param({"RSA", "EC"})
+    private String keyType;
+
+    private final URI uri = URI.create("https://acme.example.com/acme/new-authz");
+    private final byte[] nonce = "aqxQ5B7cZxLkrjqPWe5Iz3Rk2uoIsWJl7j9FaLvEYXk".getBytes();
+    private JSONBuilder claims;
+    private KeyPair keyPair;
+    private AccountKeyContext keyContext;
+    private JwsWriter writer;
+    private Session session;
+    private HttpConnector stubConnector;
+
+    @Setup
+    public void setup() throws Exception {
+        if ("EC".equals(keyType)) {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
+            keyGen.initialize(new ECGenParameterSpec("secp256r1"));
+            keyPair = keyGen.generateKeyPair();
+        } else {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+            keyGen.initialize(2048);
+            keyPair = keyGen.generateKeyPair();
+        }
+
+        keyContext = new AccountKeyContext(keyPair);
+        writer = new JwsWriter();
+
+        session = new Session(URI.create("https://acme.example.com/acme"), keyPair);
+        StubHttpURLConnection stubConnection = new StubHttpURLConnection(uri);
+        stubConnector = new HttpConnector() {
+            @Override
+            public HttpURLConnection openConnection(URI uri) {
+                return stubConnection;
+            }
+
+            @Override
+            public void release(HttpURLConnection conn) {
+                // keep the stub
+            }
+        };
+
+        claims = new JSONBuilder();
+        claims.putResource("new-authz");
+        claims.object("identifier")
+                .put("type", "dns")
+                .put("value", "www.example.com");
+    }
+
+    /**
+     * The former signing path: JWK and algorithm are computed for every request, and
+     * jose4j builds the compact serialization as {@link String}.
+     */
+    @Benchmark
+    public byte[] jose4j() throws JoseException, UnsupportedEncodingException {
+        final PublicJsonWebKey jwk = PublicJsonWebKey.Factory.newPublicJwk(keyPair.getPublic());
+
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setPayload(claims.toString());
+        jws.getHeaders().setObjectHeaderValue("nonce", Base64Url.encode(nonce));
+        jws.getHeaders().setObjectHeaderValue("url", uri);
+        jws.getHeaders().setJwkHeaderValue("jwk", jwk);
+        jws.setAlgorithmHeaderValue(AcmeUtils.keyAlgorithm(jwk));
+        jws.setKey(keyPair.getPrivate());
+        return jws.getCompactSerialization().getBytes("utf-8");
+    }
+
+    /**
+     * The current signing path, using the {@link AccountKeyContext} and the
+     * {@link JwsWriter}.
+     */
+    @Benchmark
+    public int jwsWriter() throws UnsupportedEncodingException {
+        byte[] payload = claims.toString().getBytes("utf-8");
+        return writer.write(keyContext, nonce, uri, payload);
+    }
+
+    /**
+     * A signed request through a new {@link DefaultConnection}, as it is done for every
+     * request. The HTTP connection is stubbed, so only the client side costs are
+     * measured.
+     */
+    @Benchmark
+    public int defaultConnection() throws AcmeException {
+        session.setNonce(nonce);
+        try (DefaultConnection conn = new DefaultConnection(stubConnector)) {
+            conn.sendSignedRequest(uri, claims, session);
+            return conn.accept(HttpURLConnection.HTTP_CREATED);
+        }
+    }
+
+    /**
+     * A {@link HttpURLConnection} that discards the request and responds with
+     * {@code 201 Created}, without any headers or body.
+     */
+    private static class StubHttpURLConnection extends HttpURLConnection {
+        private final OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+                // discard
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                // discard
+            }
+        };
+
+        public StubHttpURLConnection(URI uri) throws IOException {
+            super(uri.toURL());
+        }
+
+        @Override
+        public void connect() {
+            // nothing to connect to
+        }
+
+        @Override
+        public void disconnect() {
+            // nothing to disconnect from
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return sink;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return HTTP_CREATED;
+        }
+    }
+
+}
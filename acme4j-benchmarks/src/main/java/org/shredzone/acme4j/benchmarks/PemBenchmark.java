@@ -0,0 +1,97 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.acme4j.util.CSRBuilder;
+import org.shredzone.acme4j.util.CertificateUtils;
+import org.shredzone.acme4j.util.KeyPairUtils;
+
+/**
+ * Measures the PEM reading and writing of {@link CertificateUtils}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PemBenchmark {
+
+    private X509Certificate certificate;
+    private X509Certificate[] chain;
+    private byte[] certificatePem;
+    private byte[] csrPem;
+
+    @Setup
+    public void setup() throws IOException {
+        KeyPair keyPair = KeyPairUtils.createKeyPair(2048);
+        certificate = CertificateUtils.createTlsSni02Certificate(keyPair,
+                        "a.acme.invalid", "b.acme.invalid");
+        chain = new X509Certificate[] {certificate, certificate};
+
+        StringWriter certWriter = new StringWriter();
+        CertificateUtils.writeX509Certificate(certificate, certWriter);
+        certificatePem = certWriter.toString().getBytes("utf-8");
+
+        CSRBuilder csrBuilder = new CSRBuilder();
+        csrBuilder.addDomain("example.org");
+        csrBuilder.sign(keyPair);
+        StringWriter csrWriter = new StringWriter();
+        csrBuilder.write(csrWriter);
+        csrPem = csrWriter.toString().getBytes("utf-8");
+    }
+
+    @Benchmark
+    public X509Certificate readCertificate() throws IOException {
+        return CertificateUtils.readX509Certificate(new ByteArrayInputStream(certificatePem));
+    }
+
+    @Benchmark
+    public String writeCertificate() throws IOException {
+        StringWriter w = new StringWriter();
+        CertificateUtils.writeX509Certificate(certificate, w);
+        return w.toString();
+    }
+
+    @Benchmark
+    public String writeCertificateChain() throws IOException {
+        StringWriter w = new StringWriter();
+        CertificateUtils.writeX509CertificateChain(w, certificate, chain);
+        return w.toString();
+    }
+
+    @Benchmark
+    public PKCS10CertificationRequest readCSR() throws IOException {
+        return CertificateUtils.readCSR(new ByteArrayInputStream(csrPem));
+    }
+
+}
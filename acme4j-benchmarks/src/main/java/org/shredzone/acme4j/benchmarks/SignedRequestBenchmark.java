@@ -0,0 +1,164 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.util.AcmeUtils;
+import org.shredzone.acme4j.util.JSON;
+import org.shredzone.acme4j.util.JSONBuilder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Measures a complete signed request round trip, using
+ * {@link Connection#sendSignedRequest(URI, JSONBuilder, Session)} against a stub ACME
+ * server on the loopback interface.
+ * <p>
+ * The stub server answers instantly, so the result is dominated by the client side
+ * costs of signing, connection handling and response parsing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignedRequestBenchmark {
+
+    private static final byte[] AUTHZ_RESPONSE = ("{\"identifier\":{\"type\":\"dns\","
+                    + "\"value\":\"example.org\"},\"status\":\"pending\","
+                    + "\"expires\":\"2017-12-31T23:59:59Z\",\"challenges\":[]}")
+                    .getBytes(StandardCharsets.UTF_8);
+
+    @Param({"RSA", "EC"})
+    private String keyType;
+
+    private final AtomicLong nonceCounter = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private Session session;
+    private URI newAuthzUri;
+    private JSONBuilder claims;
+
+    @Setup
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverExecutor);
+
+        URI baseUri = new URI("http://localhost:" + server.getAddress().getPort());
+        newAuthzUri = baseUri.resolve("/acme/new-authz");
+
+        byte[] directory = ("{\"new-nonce\":\"" + baseUri.resolve("/acme/new-nonce") + "\","
+                        + "\"new-authz\":\"" + newAuthzUri + "\"}")
+                        .getBytes(StandardCharsets.UTF_8);
+
+        server.createContext("/directory", ex -> respond(ex, 200, directory));
+        server.createContext("/acme/new-nonce", ex -> respond(ex, 204, null));
+        server.createContext("/acme/new-authz", ex -> respond(ex, 201, AUTHZ_RESPONSE));
+        server.start();
+
+        KeyPair keyPair;
+        if ("EC".equals(keyType)) {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
+            keyGen.initialize(new ECGenParameterSpec("secp256r1"));
+            keyPair = keyGen.generateKeyPair();
+        } else {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+            keyGen.initialize(2048);
+            keyPair = keyGen.generateKeyPair();
+        }
+
+        session = new Session(baseUri.resolve("/directory"), keyPair);
+
+        claims = new JSONBuilder();
+        claims.putResource("new-authz");
+        claims.object("identifier")
+                .put("type", "dns")
+                .put("value", "example.org");
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public JSON sendSignedRequest() throws AcmeException {
+        try (Connection conn = session.provider().connect()) {
+            conn.sendSignedRequest(newAuthzUri, claims, session);
+            conn.accept(201);
+            return conn.readJsonResponse();
+        }
+    }
+
+    /**
+     * Sends a response with a fresh replay nonce.
+     */
+    private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) >= 0) {
+                // drain the request body so the connection can be reused
+            }
+        }
+
+        String nonce = AcmeUtils.base64UrlEncode(
+                        Long.toString(nonceCounter.incrementAndGet()).getBytes(StandardCharsets.UTF_8));
+        exchange.getResponseHeaders().add("Replay-Nonce", nonce);
+
+        if (body != null) {
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } else {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        }
+    }
+
+}
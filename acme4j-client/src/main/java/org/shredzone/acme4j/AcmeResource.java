@@ -17,6 +17,11 @@ import java.io.Serializable;
 import java.net.URI;
 import java.util.Objects;
 
+import org.shredzone.acme4j.connector.AsyncConnection;
+import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.TraceSpan;
+import org.shredzone.acme4j.exception.AcmeException;
+
 /**
  * A generic ACME resource.
  */
@@ -85,4 +90,27 @@ public abstract class AcmeResource implements Serializable {
         return location;
     }
 
+    /**
+     * Performs an exchange with the ACME server, and traces it.
+     *
+     * @param span
+     *            {@link TraceSpan} of the exchange. It is the current span while the
+     *            exchange is performed, and is finished after the connection was
+     *            closed.
+     * @param exchange
+     *            {@link AsyncConnection.Exchange} to be performed
+     * @return Exchange result
+     */
+    protected <T> T exchange(TraceSpan span, AsyncConnection.Exchange<T> exchange)
+                throws AcmeException {
+        try (TraceSpan active = span.activate()) {
+            try (Connection conn = getSession().provider().connect()) {
+                return exchange.exchange(conn);
+            } catch (AcmeException | RuntimeException ex) {
+                active.fail(ex);
+                throw ex;
+            }
+        }
+    }
+
 }
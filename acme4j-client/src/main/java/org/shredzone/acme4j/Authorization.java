@@ -24,8 +24,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.connector.AsyncConnection;
 import org.shredzone.acme4j.connector.Connection;
 import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.exception.AcmeProtocolException;
@@ -176,13 +178,37 @@ public class Authorization extends AcmeResource {
     public void update() throws AcmeException {
         LOG.debug("update");
         try (Connection conn = getSession().provider().connect()) {
-            conn.sendRequest(getLocation(), getSession());
-            conn.accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_ACCEPTED);
+            update(conn);
+        }
+    }
+
+    /**
+     * Updates the {@link Authorization} asynchronously.
+     *
+     * @return {@link CompletableFuture} that is completed when the authorization was
+     *         updated. It is completed exceptionally with an
+     *         {@link AcmeRetryAfterException} if the authorization is still being
+     *         validated.
+     * @see #update()
+     */
+    public CompletableFuture<Void> updateAsync() {
+        LOG.debug("updateAsync");
+        return new AsyncConnection(getSession()).exchange(conn -> {
+            update(conn);
+            return null;
+        });
+    }
+
+    /**
+     * Updates the {@link Authorization}, using the given {@link Connection}.
+     */
+    private void update(Connection conn) throws AcmeException {
+        conn.sendRequest(getLocation(), getSession());
+        conn.accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_ACCEPTED);
 
-            unmarshalAuthorization(conn.readJsonResponse());
+        unmarshalAuthorization(conn.readJsonResponse());
 
-            conn.handleRetryAfter("authorization is not completed yet");
-        }
+        conn.handleRetryAfter("authorization is not completed yet");
     }
 
     /**
@@ -223,7 +249,7 @@ public class Authorization extends AcmeResource {
      *            JSON data
      */
     protected void unmarshalAuthorization(JSON json) {
-        this.status = Status.parse(json.get("status").asString(), Status.PENDING);
+        this.status = json.get("status").asStatusOrElse(Status.PENDING);
 
         String jsonExpires = json.get("expires").asString();
         if (jsonExpires != null) {
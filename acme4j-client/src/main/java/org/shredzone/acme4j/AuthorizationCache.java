@@ -0,0 +1,358 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import static org.shredzone.acme4j.util.AcmeUtils.toAce;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.shredzone.acme4j.connector.ResourceIterator;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeRetryAfterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the valid {@link Authorization} of an account, by domain name.
+ * <p>
+ * Only authorizations with {@link Status#VALID} and an expiry date are cached. The
+ * domain names are stored in their ACE form, so lookups for IDN domains and their ACE
+ * counterparts are equivalent. An authorization is regarded as valid as long as it does
+ * not expire within the configured safety margin.
+ * <p>
+ * The cache can be seeded from the authorizations of the {@link Registration}, and
+ * optionally be persisted to a file, so it survives a restart.
+ * <p>
+ * An {@link AuthorizationCache} is thread safe.
+ */
+public class AuthorizationCache {
+    private static final Logger LOG = LoggerFactory.getLogger(AuthorizationCache.class);
+
+    private static final int SEED_CONCURRENCY = 8;
+
+    private final Session session;
+    private final Duration margin;
+    private final Path file;
+    private final ConcurrentMap<String, Entry> byDomain = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entry> byExpiry = new ConcurrentSkipListSet<>();
+
+    /**
+     * Creates a new in-memory {@link AuthorizationCache} with a safety margin of one day.
+     *
+     * @param session
+     *            {@link Session} of the account
+     */
+    public AuthorizationCache(Session session) {
+        this(session, Duration.ofDays(1), null);
+    }
+
+    /**
+     * Creates a new {@link AuthorizationCache}.
+     *
+     * @param session
+     *            {@link Session} of the account
+     * @param margin
+     *            Authorizations expiring within this margin are not returned any more
+     * @param file
+     *            File to persist the cache to, or {@code null} for an in-memory cache.
+     *            If the file exists, the cache is loaded from it.
+     */
+    public AuthorizationCache(Session session, Duration margin, Path file) {
+        this.session = Objects.requireNonNull(session, "session");
+        this.margin = Objects.requireNonNull(margin, "margin");
+        this.file = file;
+
+        if (file != null && Files.exists(file)) {
+            try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                load(r);
+            } catch (IOException ex) {
+                LOG.warn("Could not read authorization cache " + file, ex);
+            }
+        }
+    }
+
+    /**
+     * Adds the {@link Authorization} to the cache, if it is valid. If it is not valid
+     * any more, and it is the authorization that is cached for the domain, the cached
+     * authorization is removed. Other authorizations of the domain are left untouched.
+     *
+     * @param auth
+     *            {@link Authorization} to add
+     */
+    public void put(Authorization auth) {
+        String domain = auth.getDomain();
+        if (domain == null) {
+            return;
+        }
+
+        if (auth.getStatus() == Status.VALID && auth.getExpires() != null) {
+            put(new Entry(toAce(domain), auth.getLocation(), auth.getExpires()));
+        } else {
+            Entry entry = byDomain.get(toAce(domain));
+            if (entry != null && entry.location.equals(auth.getLocation())
+                            && byDomain.remove(entry.domain, entry)) {
+                byExpiry.remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the valid {@link Authorization} of a domain.
+     *
+     * @param domain
+     *            Domain name
+     * @return {@link Authorization}, or {@code null} if there is no valid authorization
+     *         of that domain in the cache. The authorization is lazily loaded.
+     */
+    public Authorization get(String domain) {
+        Entry entry = find(domain);
+        return entry != null ? Authorization.bind(session, entry.location) : null;
+    }
+
+    /**
+     * Checks if there is a valid authorization of the domain in the cache.
+     *
+     * @param domain
+     *            Domain name
+     * @return {@code true} if the domain is authorized
+     */
+    public boolean isAuthorized(String domain) {
+        return find(domain) != null;
+    }
+
+    /**
+     * Returns the expiry date of the cached authorization of a domain.
+     *
+     * @param domain
+     *            Domain name
+     * @return Expiry date, or {@code null} if there is no valid authorization of that
+     *         domain in the cache
+     */
+    public Instant getExpires(String domain) {
+        Entry entry = find(domain);
+        return entry != null ? entry.expires : null;
+    }
+
+    /**
+     * Removes the authorization of a domain, e.g. after it was deactivated.
+     *
+     * @param domain
+     *            Domain name
+     */
+    public void remove(String domain) {
+        Entry entry = byDomain.remove(toAce(domain));
+        if (entry != null) {
+            byExpiry.remove(entry);
+        }
+    }
+
+    /**
+     * Removes all authorizations that expire within the safety margin.
+     *
+     * @return Number of removed authorizations
+     */
+    public int purge() {
+        Instant limit = Instant.now().plus(margin);
+        int count = 0;
+
+        for (Entry entry : byExpiry) {
+            if (!entry.expires.isBefore(limit)) {
+                break;
+            }
+            if (byExpiry.remove(entry)) {
+                byDomain.remove(entry.domain, entry);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of cached authorizations, including the expired ones that
+     * have not been purged yet.
+     */
+    public int size() {
+        return byDomain.size();
+    }
+
+    /**
+     * Seeds the cache with the authorizations of the {@link Registration}. The
+     * authorizations are loaded in parallel.
+     *
+     * @param registration
+     *            {@link Registration} of the account
+     * @return Number of valid authorizations that were added
+     */
+    public int seed(Registration registration) throws AcmeException {
+        int count = 0;
+        try (ResourceIterator<Authorization> it = registration.getAuthorizations()) {
+            it.prefetch(true);
+            it.preload(SEED_CONCURRENCY, auth -> {
+                try {
+                    auth.update();
+                } catch (AcmeRetryAfterException ex) {
+                    // still pending, status is updated anyway
+                }
+            });
+
+            while (it.hasNext()) {
+                Authorization auth = it.next();
+                put(auth);
+                if (auth.getStatus() == Status.VALID && auth.getDomain() != null
+                                && isAuthorized(auth.getDomain())) {
+                    count++;
+                }
+            }
+        }
+        LOG.debug("Seeded {} valid authorizations", count);
+        return count;
+    }
+
+    /**
+     * Writes the cache to the file it was created with. Expired authorizations are
+     * purged before. The file is replaced atomically.
+     */
+    public void flush() throws IOException {
+        if (file == null) {
+            throw new IllegalStateException("cache has no file");
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            save(w);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the cache. Expired authorizations are purged before.
+     * <p>
+     * Each authorization is written as a line containing the ACE domain name, the
+     * expiry date and the location, separated by a single space.
+     *
+     * @param w
+     *            {@link Writer} to write to
+     */
+    public void save(Writer w) throws IOException {
+        purge();
+
+        BufferedWriter bw = w instanceof BufferedWriter ? (BufferedWriter) w : new BufferedWriter(w);
+        for (Entry entry : byExpiry) {
+            bw.write(entry.domain);
+            bw.write(' ');
+            bw.write(entry.expires.toString());
+            bw.write(' ');
+            bw.write(entry.location.toString());
+            bw.write('\n');
+        }
+        bw.flush();
+    }
+
+    /**
+     * Reads authorizations that were written by {@link #save(Writer)}, and adds them to
+     * the cache. Malformed lines are skipped.
+     *
+     * @param r
+     *            {@link Reader} to read from
+     */
+    public void load(Reader r) throws IOException {
+        BufferedReader br = r instanceof BufferedReader ? (BufferedReader) r : new BufferedReader(r);
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] parts = line.trim().split(" ");
+            if (parts.length != 3) {
+                continue;
+            }
+
+            try {
+                put(new Entry(parts[0], URI.create(parts[2]), Instant.parse(parts[1])));
+            } catch (RuntimeException ex) {
+                LOG.debug("Skipping malformed line: {}", line, ex);
+            }
+        }
+    }
+
+    /**
+     * Finds the entry of a domain, if it does not expire within the safety margin.
+     */
+    private Entry find(String domain) {
+        Entry entry = byDomain.get(toAce(domain));
+        if (entry != null && entry.expires.isAfter(Instant.now().plus(margin))) {
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Adds an entry. If there is already an entry of the domain, the one that expires
+     * later is kept.
+     */
+    private void put(Entry entry) {
+        Entry[] replaced = new Entry[1];
+        Entry current = byDomain.compute(entry.domain, (domain, old) -> {
+            if (old != null && !entry.expires.isAfter(old.expires)) {
+                return old;
+            }
+            replaced[0] = old;
+            return entry;
+        });
+
+        if (current == entry) {
+            byExpiry.add(entry);
+            if (replaced[0] != null) {
+                byExpiry.remove(replaced[0]);
+            }
+        }
+    }
+
+    /**
+     * A cached authorization.
+     */
+    private static class Entry implements Comparable<Entry> {
+        private final String domain;
+        private final URI location;
+        private final Instant expires;
+
+        public Entry(String domain, URI location, Instant expires) {
+            this.domain = Objects.requireNonNull(domain, "domain");
+            this.location = Objects.requireNonNull(location, "location");
+            this.expires = Objects.requireNonNull(expires, "expires");
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            int cmp = expires.compareTo(o.expires);
+            if (cmp == 0) {
+                cmp = domain.compareTo(o.domain);
+            }
+            return cmp;
+        }
+    }
+
+}
@@ -0,0 +1,670 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.connector.TraceSpan;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Issues certificates for many domain groups.
+ * <p>
+ * Each domain group is processed in a pipeline of stages. All domains of the group are
+ * authorized, their challenges are provisioned, triggered and polled, and finally a CSR
+ * is generated and the certificate is requested. Every stage has its own queue and a
+ * limit of concurrently running tasks, so a slow stage (e.g. waiting for DNS
+ * propagation) does not block the other stages. All network requests are performed
+ * asynchronously, using the {@link Session#getExecutor()} of the {@link Registration}.
+ * <p>
+ * The {@link ChallengeProvisioner} and the {@link CsrFactory} may block, e.g. while
+ * waiting for DNS propagation. They are invoked on a separate pool of daemon threads
+ * that is owned by the {@link BulkIssuer}, so they never occupy the threads of the
+ * session's {@link Executor}. The number of these threads is bounded by the provision
+ * and CSR concurrency, and idle threads are terminated after a minute.
+ * <p>
+ * If the session traces, each domain group is traced in an {@code order} span. The
+ * spans of all its operations and requests are children of it.
+ * <p>
+ * The total number of domain groups in the pipeline is limited as well.
+ * {@link #submit(Collection)} blocks until there is room for another group, so the
+ * pipeline is never flooded.
+ * <p>
+ * A {@link BulkIssuer} is thread safe. It must be closed when it is not needed any
+ * more.
+ */
+public class BulkIssuer implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkIssuer.class);
+
+    private final Registration registration;
+    private final ChallengeProvisioner provisioner;
+    private final CsrFactory csrFactory;
+    private final Executor executor;
+    private final ExecutorService blockingExecutor;
+    private final Stage authorizeStage = new Stage("authorize", 16);
+    private final Stage provisionStage = new Stage("provision", 16);
+    private final Stage validateStage = new Stage("validate", 64);
+    private final Stage csrStage = new Stage("csr", Runtime.getRuntime().availableProcessors());
+    private final Stage requestStage = new Stage("request", 4);
+    private final int maxGroups;
+    private final Semaphore groups;
+    private final PollingScheduler scheduler;
+    private final boolean ownScheduler;
+    private volatile AuthorizationCache authorizationCache;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new {@link BulkIssuer} with a limit of 256 domain groups in the
+     * pipeline, and its own {@link PollingScheduler}.
+     *
+     * @param registration
+     *            {@link Registration} to issue the certificates for
+     * @param provisioner
+     *            {@link ChallengeProvisioner} that prepares the challenges
+     * @param csrFactory
+     *            {@link CsrFactory} that generates the CSR of a domain group
+     */
+    public BulkIssuer(Registration registration, ChallengeProvisioner provisioner, CsrFactory csrFactory) {
+        this(registration, provisioner, csrFactory, 256, null);
+    }
+
+    /**
+     * Creates a new {@link BulkIssuer}.
+     *
+     * @param registration
+     *            {@link Registration} to issue the certificates for
+     * @param provisioner
+     *            {@link ChallengeProvisioner} that prepares the challenges
+     * @param csrFactory
+     *            {@link CsrFactory} that generates the CSR of a domain group
+     * @param maxGroups
+     *            Maximum number of domain groups in the pipeline
+     * @param scheduler
+     *            {@link PollingScheduler} to be used for polling the challenges. It is
+     *            not closed by this {@link BulkIssuer}. If {@code null}, an own
+     *            {@link PollingScheduler} is used.
+     */
+    public BulkIssuer(Registration registration, ChallengeProvisioner provisioner,
+                CsrFactory csrFactory, int maxGroups, PollingScheduler scheduler) {
+        this.registration = Objects.requireNonNull(registration, "registration");
+        this.provisioner = Objects.requireNonNull(provisioner, "provisioner");
+        this.csrFactory = Objects.requireNonNull(csrFactory, "csrFactory");
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("maxGroups must be positive");
+        }
+        this.executor = registration.getSession().getExecutor();
+
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "acme4j-bulk-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.blockingExecutor = Executors.newCachedThreadPool(factory);
+        this.maxGroups = maxGroups;
+        this.groups = new Semaphore(maxGroups);
+        this.ownScheduler = scheduler == null;
+        this.scheduler = ownScheduler ? new PollingScheduler() : scheduler;
+    }
+
+    /**
+     * Sets the maximum number of concurrent {@code new-authz} requests. Default is 16.
+     */
+    public void setAuthorizeConcurrency(int concurrency) {
+        authorizeStage.setLimit(concurrency);
+    }
+
+    /**
+     * Sets the maximum number of challenges that are provisioned concurrently. Default
+     * is 16. Each challenge in provisioning occupies a thread of the provisioner pool
+     * while the {@link ChallengeProvisioner} blocks.
+     */
+    public void setProvisionConcurrency(int concurrency) {
+        provisionStage.setLimit(concurrency);
+    }
+
+    /**
+     * Sets the maximum number of challenges that are validated concurrently, including
+     * the time that is spent polling. Default is 64.
+     */
+    public void setValidateConcurrency(int concurrency) {
+        validateStage.setLimit(concurrency);
+    }
+
+    /**
+     * Sets the maximum number of CSRs that are generated concurrently. Default is the
+     * number of available processors.
+     */
+    public void setCsrConcurrency(int concurrency) {
+        csrStage.setLimit(concurrency);
+    }
+
+    /**
+     * Sets the maximum number of concurrent {@code new-cert} requests. Default is 4.
+     */
+    public void setRequestConcurrency(int concurrency) {
+        requestStage.setLimit(concurrency);
+    }
+
+    /**
+     * Sets an {@link AuthorizationCache}. Domains with a valid authorization in the cache
+     * are not authorized again, and new valid authorizations are added to the cache.
+     *
+     * @param authorizationCache
+     *            {@link AuthorizationCache} to be used, or {@code null} to authorize all
+     *            domains
+     */
+    public void setAuthorizationCache(AuthorizationCache authorizationCache) {
+        this.authorizationCache = authorizationCache;
+    }
+
+    /**
+     * Submits a domain group for issuance. Blocks if the pipeline is full.
+     *
+     * @param domains
+     *            Domains to get a common certificate for
+     * @return {@link CompletableFuture} that is completed with the {@link Result} of the
+     *         domain group. It is never completed exceptionally.
+     */
+    public CompletableFuture<Result> submit(Collection<String> domains) throws InterruptedException {
+        Objects.requireNonNull(domains, "domains");
+        if (domains.isEmpty()) {
+            throw new IllegalArgumentException("domains must not be empty");
+        }
+        if (closed) {
+            throw new IllegalStateException("issuer is closed");
+        }
+
+        groups.acquire();
+
+        Group group = new Group(domains);
+        try {
+            group.start();
+        } catch (RuntimeException ex) {
+            group.fail(ex);
+        }
+        return group.result;
+    }
+
+    /**
+     * Issues certificates for all the given domain groups, and waits until all of them
+     * are completed.
+     *
+     * @param domainGroups
+     *            Domain groups to get a certificate for
+     * @return List of {@link Result}, in the order of the domain groups
+     */
+    public List<Result> issueAll(Collection<? extends Collection<String>> domainGroups)
+                throws InterruptedException {
+        List<CompletableFuture<Result>> futures = new ArrayList<>(domainGroups.size());
+        for (Collection<String> domains : domainGroups) {
+            futures.add(submit(domains));
+        }
+
+        List<Result> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<Result> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * Returns the number of domain groups that are currently in the pipeline.
+     */
+    public int getPending() {
+        return maxGroups - groups.availablePermits();
+    }
+
+    /**
+     * Stops accepting new domain groups. Groups that are already in the pipeline are
+     * not cancelled. If the {@link BulkIssuer} uses its own {@link PollingScheduler}, it
+     * is closed, so challenges that are still polled will fail. The threads of the
+     * provisioner and CSR pool are stopped when the last group is completed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (ownScheduler) {
+            scheduler.close();
+        }
+        shutdownIfIdle();
+    }
+
+    /**
+     * Shuts down the provisioner and CSR pool if the issuer is closed and there are no
+     * more domain groups in the pipeline.
+     */
+    private void shutdownIfIdle() {
+        if (closed && getPending() == 0) {
+            blockingExecutor.shutdown();
+        }
+    }
+
+    /**
+     * A domain group that is processed in the pipeline.
+     */
+    private class Group {
+        private final List<String> domains;
+        private final Map<String, Status> status = new LinkedHashMap<>();
+        private final Map<String, Throwable> failures = new LinkedHashMap<>();
+        private final CompletableFuture<Result> result = new CompletableFuture<>();
+        private final TraceSpan span;
+        private boolean finished = false;
+
+        public Group(Collection<String> domains) {
+            this.domains = new ArrayList<>(domains);
+            this.domains.forEach(d -> status.put(d, Status.UNKNOWN));
+            this.span = registration.getSession().startSpan("order")
+                            .tag("domains", String.join(",", this.domains));
+        }
+
+        /**
+         * Starts the authorization of all domains, and continues with the certificate
+         * request when all domains are authorized.
+         */
+        public void start() {
+            CompletableFuture<?>[] authorized = domains.stream()
+                    .map(this::authorize)
+                    .toArray(CompletableFuture<?>[]::new);
+
+            CompletableFuture.allOf(authorized).whenComplete((v, ex) -> {
+                if (hasFailures()) {
+                    finish(null, null);
+                    return;
+                }
+
+                csrStage.submit(() -> CompletableFuture.supplyAsync(() -> {
+                            try (TraceSpan csrSpan = span.child("csr").activate()) {
+                                return csrFactory.createCsr(domains);
+                            } catch (AcmeException aex) {
+                                throw new CompletionException(aex);
+                            }
+                        }, blockingExecutor))
+                    .thenCompose(csr -> requestStage.submit(
+                            () -> span.within(() -> registration.requestCertificateAsync(csr))))
+                    .whenComplete((cert, cex) -> finish(cert, unwrap(cex)));
+            });
+        }
+
+        /**
+         * Authorizes a single domain, and records the outcome.
+         */
+        private CompletableFuture<Status> authorize(String domain) {
+            AuthorizationCache cache = authorizationCache;
+            CompletableFuture<Status> validation;
+            if (cache != null && cache.isAuthorized(domain)) {
+                LOG.debug("{} has a cached authorization", domain);
+                validation = CompletableFuture.completedFuture(Status.VALID);
+            } else {
+                validation = authorizeStage.submit(
+                            () -> span.within(() -> registration.authorizeDomainAsync(domain)))
+                    .thenCompose(auth -> {
+                        if (auth.getStatus() == Status.VALID) {
+                            LOG.debug("{} is already authorized", domain);
+                            if (cache != null) {
+                                cache.put(auth);
+                            }
+                            return CompletableFuture.completedFuture(Status.VALID);
+                        }
+                        return provisionStage
+                                .submit(() -> CompletableFuture.supplyAsync(
+                                        () -> span.within(() -> prepare(auth)), blockingExecutor))
+                                .thenCompose(challenge -> validateStage.submit(
+                                        () -> span.within(() -> validate(challenge))))
+                                .thenCompose(st -> remember(cache, auth, st));
+                    });
+            }
+
+            return validation
+                .whenComplete((st, ex) -> {
+                    synchronized (this) {
+                        if (ex != null) {
+                            status.put(domain, Status.INVALID);
+                            failures.put(domain, unwrap(ex));
+                        } else {
+                            status.put(domain, st);
+                            if (st != Status.VALID) {
+                                failures.put(domain, new AcmeException("challenge of " + domain
+                                        + " failed with status " + st));
+                            }
+                        }
+                    }
+                });
+        }
+
+        /**
+         * Updates the {@link Authorization} after its challenge was validated, and adds
+         * it to the {@link AuthorizationCache}. A failed update is not fatal, as the
+         * domain was authorized anyway.
+         */
+        private CompletableFuture<Status> remember(AuthorizationCache cache, Authorization auth, Status status) {
+            if (cache == null || status != Status.VALID) {
+                return CompletableFuture.completedFuture(status);
+            }
+
+            return span.within(auth::updateAsync).handle((v, ex) -> {
+                if (ex == null) {
+                    cache.put(auth);
+                } else {
+                    LOG.debug("Could not update authorization", ex);
+                }
+                return status;
+            });
+        }
+
+        /**
+         * Lets the {@link ChallengeProvisioner} prepare a challenge of the
+         * {@link Authorization}.
+         */
+        private Challenge prepare(Authorization auth) {
+            try (TraceSpan provision = span.child("provision").tag("domain", auth.getDomain()).activate()) {
+                Challenge challenge = provisioner.prepare(auth);
+                if (challenge == null) {
+                    throw new AcmeException("no challenge was provisioned for " + auth.getDomain());
+                }
+                return challenge;
+            } catch (AcmeException ex) {
+                throw new CompletionException(ex);
+            }
+        }
+
+        /**
+         * Triggers the challenge and polls it until it is completed. The challenge is
+         * cleaned up afterwards.
+         */
+        private CompletableFuture<Status> validate(Challenge challenge) {
+            CompletableFuture<Status> validation;
+            if (challenge.getStatus() == Status.VALID) {
+                validation = CompletableFuture.completedFuture(Status.VALID);
+            } else {
+                validation = challenge.triggerAsync()
+                        .thenCompose(v -> span.within(() -> scheduler.poll(challenge)));
+            }
+
+            return validation.whenComplete((st, ex) -> {
+                try {
+                    provisioner.cleanup(challenge);
+                } catch (RuntimeException | AcmeException cex) {
+                    LOG.debug("Failed to clean up challenge", cex);
+                }
+            });
+        }
+
+        private synchronized boolean hasFailures() {
+            return !failures.isEmpty();
+        }
+
+        /**
+         * Fails the domain group before it was started.
+         */
+        public void fail(Throwable ex) {
+            finish(null, ex);
+        }
+
+        /**
+         * Completes the domain group and releases its pipeline slot.
+         */
+        private void finish(Certificate certificate, Throwable failure) {
+            Result res;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                res = new Result(domains, status, failures, certificate, failure);
+            }
+            span.tag("successful", res.isSuccessful()).fail(failure).close();
+            groups.release();
+            shutdownIfIdle();
+            result.complete(res);
+        }
+    }
+
+    /**
+     * Unwraps the {@link CompletionException} of a failed {@link CompletableFuture}.
+     */
+    private static Throwable unwrap(Throwable ex) {
+        if (ex instanceof CompletionException && ex.getCause() != null) {
+            return ex.getCause();
+        }
+        return ex;
+    }
+
+    /**
+     * A pipeline stage with its own queue, and a limit of concurrently running tasks.
+     */
+    private class Stage {
+        private final String name;
+        private final Queue<Runnable> queue = new ArrayDeque<>();
+        private int limit;
+        private int running;
+
+        public Stage(String name, int limit) {
+            this.name = name;
+            setLimit(limit);
+        }
+
+        public synchronized void setLimit(int limit) {
+            if (limit < 1) {
+                throw new IllegalArgumentException(name + " concurrency must be positive");
+            }
+            this.limit = limit;
+        }
+
+        /**
+         * Submits a task. It is started as soon as the stage has a free slot.
+         *
+         * @param task
+         *            Task that starts the asynchronous operation
+         * @return {@link CompletableFuture} with the result of the operation
+         */
+        public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            Runnable run = () -> {
+                CompletableFuture<T> op;
+                try {
+                    op = task.get();
+                } catch (RuntimeException ex) {
+                    op = new CompletableFuture<>();
+                    op.completeExceptionally(ex);
+                }
+                op.whenComplete((r, ex) -> {
+                    release();
+                    if (ex != null) {
+                        future.completeExceptionally(unwrap(ex));
+                    } else {
+                        future.complete(r);
+                    }
+                });
+            };
+
+            boolean start;
+            synchronized (this) {
+                start = running < limit;
+                if (start) {
+                    running++;
+                } else {
+                    queue.add(run);
+                }
+            }
+
+            if (start) {
+                run.run();
+            }
+            return future;
+        }
+
+        /**
+         * Releases a slot, and starts the next queued task. The task is started by the
+         * executor, so long queues do not nest on the stack.
+         */
+        private void release() {
+            Runnable next;
+            synchronized (this) {
+                next = queue.poll();
+                if (next == null) {
+                    running--;
+                }
+            }
+
+            if (next != null) {
+                try {
+                    executor.execute(next);
+                } catch (RejectedExecutionException ex) {
+                    next.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Prepares the challenge of an {@link Authorization}, e.g. by publishing a token on
+     * a web server or in the DNS.
+     */
+    public interface ChallengeProvisioner {
+
+        /**
+         * Finds a challenge of the {@link Authorization} and prepares it, so it can be
+         * triggered. The method may block until the challenge is ready.
+         *
+         * @param auth
+         *            {@link Authorization} to prepare a challenge for
+         * @return Prepared {@link Challenge}
+         */
+        Challenge prepare(Authorization auth) throws AcmeException;
+
+        /**
+         * Cleans up after the challenge was validated or failed. The default
+         * implementation does nothing.
+         *
+         * @param challenge
+         *            {@link Challenge} to clean up
+         */
+        default void cleanup(Challenge challenge) throws AcmeException {
+            // does nothing by default
+        }
+
+    }
+
+    /**
+     * Generates the CSR of a domain group.
+     */
+    @FunctionalInterface
+    public interface CsrFactory {
+
+        /**
+         * Generates a signed CSR for the given domains.
+         *
+         * @param domains
+         *            Domains of the certificate
+         * @return Binary representation of the CSR
+         */
+        byte[] createCsr(List<String> domains) throws AcmeException;
+
+    }
+
+    /**
+     * The outcome of the issuance of a domain group.
+     */
+    public static class Result {
+        private final List<String> domains;
+        private final Map<String, Status> status;
+        private final Map<String, Throwable> failures;
+        private final Certificate certificate;
+        private final Throwable failure;
+
+        private Result(List<String> domains, Map<String, Status> status,
+                    Map<String, Throwable> failures, Certificate certificate, Throwable failure) {
+            this.domains = unmodifiableList(new ArrayList<>(domains));
+            this.status = unmodifiableMap(new LinkedHashMap<>(status));
+            this.failures = unmodifiableMap(new LinkedHashMap<>(failures));
+            this.certificate = certificate;
+            this.failure = failure;
+        }
+
+        /**
+         * Returns the domains of this group.
+         */
+        public List<String> getDomains() {
+            return domains;
+        }
+
+        /**
+         * Returns {@code true} if the certificate was issued.
+         */
+        public boolean isSuccessful() {
+            return certificate != null;
+        }
+
+        /**
+         * Returns the issued {@link Certificate}, or {@code null} if the issuance failed.
+         */
+        public Certificate getCertificate() {
+            return certificate;
+        }
+
+        /**
+         * Returns the authorization {@link Status} of the given domain.
+         * {@link Status#UNKNOWN} if the authorization has not been completed.
+         */
+        public Status getStatus(String domain) {
+            return status.getOrDefault(domain, Status.UNKNOWN);
+        }
+
+        /**
+         * Returns the failures of the domains that could not be authorized, by domain
+         * name.
+         */
+        public Map<String, Throwable> getDomainFailures() {
+            return failures;
+        }
+
+        /**
+         * Returns the reason why the certificate could not be issued although all
+         * domains were authorized, or {@code null} if there was no such failure.
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            return "Result[" + domains + (isSuccessful() ? ": issued" : ": failed") + "]";
+        }
+    }
+
+}
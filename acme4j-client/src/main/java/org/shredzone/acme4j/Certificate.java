@@ -19,7 +19,10 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import org.shredzone.acme4j.connector.AsyncConnection;
+import org.shredzone.acme4j.connector.ChainCache;
 import org.shredzone.acme4j.connector.Connection;
 import org.shredzone.acme4j.connector.Resource;
 import org.shredzone.acme4j.exception.AcmeException;
@@ -88,19 +91,47 @@ public class Certificate extends AcmeResource {
         if (cert == null) {
             LOG.debug("download");
             try (Connection conn = getSession().provider().connect()) {
-                conn.sendRequest(getLocation(), getSession());
-                conn.accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_ACCEPTED);
-                conn.handleRetryAfter("certificate is not available for download yet");
-
-                chainCertUri = conn.getLink("up");
-                cert = conn.readCertificate();
+                download(conn);
             }
         }
         return cert;
     }
 
+    /**
+     * Downloads the certificate asynchronously. The result is cached.
+     *
+     * @return {@link CompletableFuture} of the {@link X509Certificate}. It is completed
+     *         exceptionally with an {@link AcmeRetryAfterException} if the certificate is
+     *         still being created.
+     * @see #download()
+     */
+    public CompletableFuture<X509Certificate> downloadAsync() {
+        if (cert != null) {
+            return CompletableFuture.completedFuture(cert);
+        }
+
+        LOG.debug("downloadAsync");
+        return new AsyncConnection(getSession()).exchange(this::download);
+    }
+
+    /**
+     * Downloads the certificate, using the given {@link Connection}.
+     */
+    private X509Certificate download(Connection conn) throws AcmeException {
+        conn.sendRequest(getLocation(), getSession());
+        conn.accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_ACCEPTED);
+        conn.handleRetryAfter("certificate is not available for download yet");
+
+        chainCertUri = conn.getLink("up");
+        cert = conn.readCertificate();
+        return cert;
+    }
+
     /**
      * Downloads the certificate chain. The result is cached.
+     * <p>
+     * The issuer certificates are taken from the {@link ChainCache} of the session, so
+     * certificates sharing the same issuers do not need to download them again.
      *
      * @return Chain of {@link X509Certificate}s
      * @throws AcmeRetryAfterException
@@ -122,15 +153,12 @@ public class Certificate extends AcmeResource {
             LOG.debug("downloadChain");
 
             List<X509Certificate> certChain = new ArrayList<>();
+            ChainCache cache = getSession().getChainCache();
             URI link = chainCertUri;
             while (link != null && certChain.size() < MAX_CHAIN_LENGTH) {
-                try (Connection conn = getSession().provider().connect()) {
-                    conn.sendRequest(chainCertUri, getSession());
-                    conn.accept(HttpURLConnection.HTTP_OK);
-
-                    certChain.add(conn.readCertificate());
-                    link = conn.getLink("up");
-                }
+                ChainCache.Issuer issuer = cache.fetch(getSession(), link);
+                certChain.add(issuer.getCertificate());
+                link = issuer.getIssuerLocation();
             }
             if (link != null) {
                 throw new AcmeProtocolException("Recursion limit reached (" + MAX_CHAIN_LENGTH
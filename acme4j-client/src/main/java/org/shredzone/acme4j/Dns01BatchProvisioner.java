@@ -0,0 +1,308 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.shredzone.acme4j.Dns01Provisioner.TxtRecord;
+import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.challenge.Dns01Challenge;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BulkIssuer.ChallengeProvisioner} that publishes the {@link Dns01Challenge}
+ * of many authorizations in batches.
+ * <p>
+ * The TXT records of concurrently prepared challenges are collected per zone. A batch
+ * is closed when it reaches the maximum batch size, or when the batch delay has passed
+ * since its first record was added. All records of the batch are then published by the
+ * {@link Dns01Provisioner} in a single change-set, and the propagation is awaited once
+ * for the entire batch. Only then {@link #prepare(Authorization)} returns, so the
+ * challenges are triggered when their records are visible.
+ * <p>
+ * The records are removed in batches as well, after the challenges were validated.
+ * <p>
+ * {@link #prepare(Authorization)} blocks the calling thread for at least the batch
+ * delay (unless the batch is filled earlier) plus the propagation time. Each challenge
+ * that waits for its batch occupies a thread, so it must never be invoked from the
+ * common {@link java.util.concurrent.ForkJoinPool} or the {@link Session#getExecutor()},
+ * where it would starve all other tasks. The {@link BulkIssuer} invokes it on its own
+ * pool of threads, and limits the number of concurrently prepared challenges, see
+ * {@link BulkIssuer#setProvisionConcurrency(int)}. It should be at least as large as
+ * the maximum batch size, otherwise the batches are never filled.
+ * <p>
+ * A {@link Dns01BatchProvisioner} is thread safe. It must be closed when it is not
+ * needed any more.
+ */
+public class Dns01BatchProvisioner implements BulkIssuer.ChallengeProvisioner, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(Dns01BatchProvisioner.class);
+
+    private final Dns01Provisioner provisioner;
+    private final ExecutorService executor;
+    private final Object lock = new Object();
+    private final Map<String, Batch> openPublish = new HashMap<>();
+    private final Map<String, Batch> openRemove = new HashMap<>();
+    private final ConcurrentMap<String, Object> zoneLocks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Challenge, Published> published = new ConcurrentHashMap<>();
+    private final LongAdder changeSets = new LongAdder();
+    private volatile Duration batchDelay = Duration.ofSeconds(2);
+    private volatile int maxBatchSize = 100;
+
+    /**
+     * Creates a new {@link Dns01BatchProvisioner}.
+     *
+     * @param provisioner
+     *            {@link Dns01Provisioner} that publishes the TXT records
+     */
+    public Dns01BatchProvisioner(Dns01Provisioner provisioner) {
+        this.provisioner = Objects.requireNonNull(provisioner, "provisioner");
+
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "acme4j-dns01-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = Executors.newCachedThreadPool(factory);
+    }
+
+    /**
+     * Gets the time that a batch waits for more records.
+     */
+    public Duration getBatchDelay() {
+        return batchDelay;
+    }
+
+    /**
+     * Sets the time that a batch waits for more records, after its first record was
+     * added. Default is 2 seconds.
+     */
+    public void setBatchDelay(Duration batchDelay) {
+        this.batchDelay = Objects.requireNonNull(batchDelay, "batchDelay");
+    }
+
+    /**
+     * Gets the maximum number of records in a batch.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of records in a batch. A full batch is published
+     * immediately. Default is 100.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Returns the number of change-sets that were sent to the {@link Dns01Provisioner}.
+     */
+    public long getChangeSets() {
+        return changeSets.sum();
+    }
+
+    /**
+     * Finds the {@link Dns01Challenge} of the {@link Authorization}, and publishes its
+     * TXT record with the next batch of its zone. Blocks until the batch was published
+     * and has propagated.
+     */
+    @Override
+    public Challenge prepare(Authorization auth) throws AcmeException {
+        Dns01Challenge challenge = auth.findChallenge(Dns01Challenge.TYPE);
+        if (challenge == null) {
+            throw new AcmeException("no " + Dns01Challenge.TYPE + " challenge for " + auth.getDomain());
+        }
+        if (challenge.getStatus() == Status.VALID) {
+            return challenge;
+        }
+
+        String zone = provisioner.getZone(auth.getDomain());
+        TxtRecord record = TxtRecord.of(auth.getDomain(), challenge);
+
+        Batch batch = add(openPublish, zone, record, true);
+        try {
+            batch.done.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AcmeException("interrupted while publishing " + record, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof AcmeException) {
+                throw (AcmeException) ex.getCause();
+            }
+            throw new AcmeException("could not publish " + record, ex.getCause());
+        }
+
+        published.put(challenge, new Published(zone, record));
+        return challenge;
+    }
+
+    /**
+     * Removes the TXT record of the challenge with the next removal batch of its zone.
+     * Does not block.
+     */
+    @Override
+    public void cleanup(Challenge challenge) {
+        Published pub = published.remove(challenge);
+        if (pub != null) {
+            add(openRemove, pub.zone, pub.record, false);
+        }
+    }
+
+    /**
+     * Stops the background threads. Batches that are still open are published or
+     * removed immediately.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            openPublish.values().forEach(b -> b.sealed = true);
+            openRemove.values().forEach(b -> b.sealed = true);
+            openPublish.clear();
+            openRemove.clear();
+            lock.notifyAll();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Adds a record to the open batch of the zone. If there is no open batch, a new one
+     * is started.
+     */
+    private Batch add(Map<String, Batch> open, String zone, TxtRecord record, boolean publish) {
+        Batch batch;
+        boolean start = false;
+
+        synchronized (lock) {
+            batch = open.get(zone);
+            if (batch == null) {
+                batch = new Batch(zone, publish);
+                open.put(zone, batch);
+                start = true;
+            }
+            batch.records.add(record);
+            if (batch.records.size() >= maxBatchSize) {
+                open.remove(zone);
+                batch.sealed = true;
+                lock.notifyAll();
+            }
+        }
+
+        if (start) {
+            Batch b = batch;
+            try {
+                executor.execute(() -> run(open, b));
+            } catch (RejectedExecutionException ex) {
+                run(open, b);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Waits until the batch is closed, and then sends its change-set.
+     */
+    private void run(Map<String, Batch> open, Batch batch) {
+        List<TxtRecord> records;
+        synchronized (lock) {
+            long deadline = System.currentTimeMillis() + batchDelay.toMillis();
+            long remaining;
+            while (!batch.sealed && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (!batch.sealed) {
+                open.remove(batch.zone, batch);
+                batch.sealed = true;
+            }
+            records = new ArrayList<>(batch.records);
+        }
+
+        try {
+            synchronized (zoneLocks.computeIfAbsent(batch.zone, z -> new Object())) {
+                if (batch.publish) {
+                    LOG.debug("Publishing {} records in zone {}", records.size(), batch.zone);
+                    provisioner.publish(batch.zone, records);
+                } else {
+                    LOG.debug("Removing {} records from zone {}", records.size(), batch.zone);
+                    provisioner.remove(batch.zone, records);
+                }
+                changeSets.increment();
+            }
+
+            if (batch.publish) {
+                provisioner.awaitPropagation(batch.zone, records);
+            }
+            batch.done.complete(null);
+        } catch (AcmeException | RuntimeException ex) {
+            LOG.debug("Change-set of zone {} failed", batch.zone, ex);
+            batch.done.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * A batch of records of a single zone.
+     */
+    private static class Batch {
+        private final String zone;
+        private final boolean publish;
+        private final List<TxtRecord> records = new ArrayList<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private boolean sealed = false;
+
+        public Batch(String zone, boolean publish) {
+            this.zone = zone;
+            this.publish = publish;
+        }
+    }
+
+    /**
+     * A published record, and its zone.
+     */
+    private static class Published {
+        private final String zone;
+        private final TxtRecord record;
+
+        public Published(String zone, TxtRecord record) {
+            this.zone = zone;
+            this.record = record;
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import java.util.Collection;
+import java.util.Objects;
+
+import org.shredzone.acme4j.challenge.Dns01Challenge;
+import org.shredzone.acme4j.exception.AcmeException;
+
+/**
+ * Publishes the TXT records of {@link Dns01Challenge} in the DNS.
+ * <p>
+ * Implementations connect to the API of a DNS provider, or write zone files. Records
+ * are always passed in change-sets of a single zone, so all of them can be published
+ * with a single update of the zone. Implementations must be thread safe. However,
+ * {@link #publish(String, Collection)} and {@link #remove(String, Collection)} are never
+ * invoked concurrently for the same zone.
+ *
+ * @see Dns01BatchProvisioner
+ */
+public interface Dns01Provisioner {
+
+    /**
+     * Returns the zone that contains the {@code _acme-challenge} record of a domain.
+     * <p>
+     * The default implementation returns the last two labels of the domain name, e.g.
+     * {@code example.org} for {@code www.example.org}. Implementations should override
+     * this method if they know the zones they are responsible for.
+     *
+     * @param domain
+     *            Domain name to be authorized
+     * @return Name of the zone
+     */
+    default String getZone(String domain) {
+        int dot = domain.lastIndexOf('.');
+        if (dot > 0) {
+            dot = domain.lastIndexOf('.', dot - 1);
+        }
+        return dot >= 0 ? domain.substring(dot + 1) : domain;
+    }
+
+    /**
+     * Adds TXT records to a zone, in a single change-set.
+     *
+     * @param zone
+     *            Name of the zone
+     * @param records
+     *            {@link TxtRecord} to add
+     */
+    void publish(String zone, Collection<TxtRecord> records) throws AcmeException;
+
+    /**
+     * Removes TXT records from a zone, in a single change-set.
+     *
+     * @param zone
+     *            Name of the zone
+     * @param records
+     *            {@link TxtRecord} to remove
+     */
+    void remove(String zone, Collection<TxtRecord> records) throws AcmeException;
+
+    /**
+     * Waits until the published TXT records are visible to the CA, e.g. by querying
+     * the authoritative name servers of the zone.
+     * <p>
+     * The default implementation does not wait.
+     *
+     * @param zone
+     *            Name of the zone
+     * @param records
+     *            {@link TxtRecord} that were published
+     */
+    default void awaitPropagation(String zone, Collection<TxtRecord> records) throws AcmeException {
+        // does not wait by default
+    }
+
+    /**
+     * A TXT record of a {@link Dns01Challenge}.
+     */
+    class TxtRecord {
+        private final String name;
+        private final String value;
+
+        /**
+         * Creates a new {@link TxtRecord}.
+         *
+         * @param name
+         *            Fully qualified record name, without trailing dot
+         * @param value
+         *            Record value
+         */
+        public TxtRecord(String name, String value) {
+            this.name = Objects.requireNonNull(name, "name");
+            this.value = Objects.requireNonNull(value, "value");
+        }
+
+        /**
+         * Creates the {@link TxtRecord} of a {@link Dns01Challenge}.
+         *
+         * @param domain
+         *            Domain name to be authorized
+         * @param challenge
+         *            {@link Dns01Challenge} of that domain
+         * @return {@link TxtRecord}
+         */
+        public static TxtRecord of(String domain, Dns01Challenge challenge) {
+            return new TxtRecord("_acme-challenge." + domain, challenge.getDigest());
+        }
+
+        /**
+         * Returns the fully qualified record name, e.g.
+         * {@code _acme-challenge.www.example.org}.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the record value.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TxtRecord)) {
+                return false;
+            }
+            TxtRecord other = (TxtRecord) obj;
+            return name.equals(other.name) && value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name + " TXT \"" + value + '"';
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.connector.TraceSpan;
+import org.shredzone.acme4j.exception.AcmeRetryAfterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls the status of {@link Challenge} and {@link Authorization} resources until the
+ * validation is completed.
+ * <p>
+ * All polls are managed by a single timer thread. It wakes up once per tick, and
+ * starts the updates of all resources that are due, so polls that are due at about the
+ * same time are coalesced. The updates themselves are performed asynchronously, using
+ * the {@link Session#getExecutor()} of the resource. No thread is blocked while a
+ * resource is waiting for its next poll.
+ * <p>
+ * The delay between two polls starts with the initial delay, and is doubled after each
+ * poll, until the maximum delay is reached. A random jitter is applied, so polls of
+ * resources that were added at the same time are spread over time. If the server sends
+ * a {@code Retry-After} header, its time is used instead.
+ * <p>
+ * If a {@link TraceSpan} is current when the polling is started, all updates are traced
+ * in a {@code poll} span that is a child of it.
+ * <p>
+ * A {@link PollingScheduler} is thread safe, and should be shared. It must be closed
+ * when it is not needed any more.
+ */
+public class PollingScheduler implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(PollingScheduler.class);
+
+    private static final double BACKOFF_MULTIPLIER = 2.0;
+    private static final double JITTER = 0.2;
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final long tick;
+    private final DelayQueue<PollTask> queue = new DelayQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Creates a new {@link PollingScheduler} with an initial delay of 3 seconds and a
+     * maximum delay of 1 minute.
+     */
+    public PollingScheduler() {
+        this(Duration.ofSeconds(3), Duration.ofMinutes(1), Duration.ofMillis(250));
+    }
+
+    /**
+     * Creates a new {@link PollingScheduler}.
+     *
+     * @param initialDelay
+     *            Delay before the first poll
+     * @param maxDelay
+     *            Maximum delay between two polls
+     * @param tick
+     *            Resolution of the timer. Polls that are due within the same tick are
+     *            started together.
+     */
+    public PollingScheduler(Duration initialDelay, Duration maxDelay, Duration tick) {
+        Objects.requireNonNull(initialDelay, "initialDelay");
+        Objects.requireNonNull(maxDelay, "maxDelay");
+        Objects.requireNonNull(tick, "tick");
+        if (initialDelay.isNegative() || maxDelay.compareTo(initialDelay) < 0) {
+            throw new IllegalArgumentException("bad delay range " + initialDelay + " - " + maxDelay);
+        }
+        if (tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+
+        this.initialDelay = initialDelay.toNanos();
+        this.maxDelay = maxDelay.toNanos();
+        this.tick = tick.toNanos();
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "acme4j-polling-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.scheduleWithFixedDelay(this::dispatchDue, this.tick, this.tick, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Polls the {@link Challenge} until its validation is completed. The challenge must
+     * have been triggered before.
+     *
+     * @param challenge
+     *            {@link Challenge} to poll
+     * @return {@link CompletableFuture} that is completed with the final {@link Status}
+     *         of the challenge. It is completed exceptionally if an update failed.
+     *         Cancel the future to stop polling.
+     */
+    public CompletableFuture<Status> poll(Challenge challenge) {
+        Objects.requireNonNull(challenge, "challenge");
+        return schedule(challenge::updateAsync, challenge::getStatus);
+    }
+
+    /**
+     * Polls the {@link Authorization} until its validation is completed.
+     *
+     * @param authorization
+     *            {@link Authorization} to poll
+     * @return {@link CompletableFuture} that is completed with the final {@link Status}
+     *         of the authorization. It is completed exceptionally if an update failed.
+     *         Cancel the future to stop polling.
+     */
+    public CompletableFuture<Status> poll(Authorization authorization) {
+        Objects.requireNonNull(authorization, "authorization");
+        return schedule(authorization::updateAsync, authorization::getStatus);
+    }
+
+    /**
+     * Returns the number of resources that are currently polled.
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the scheduler. The futures of all resources that are still polled are
+     * cancelled.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+
+        for (Object task : queue.toArray()) {
+            cancel((PollTask) task);
+        }
+    }
+
+    /**
+     * Schedules a new resource for polling.
+     */
+    private CompletableFuture<Status> schedule(Supplier<CompletableFuture<Void>> updater,
+                Supplier<Status> status) {
+        if (timer.isShutdown()) {
+            throw new IllegalStateException("scheduler is closed");
+        }
+
+        TraceSpan parent = TraceSpan.current();
+        TraceSpan span = parent != null ? parent.child("poll") : TraceSpan.NONE;
+
+        PollTask task = new PollTask(updater, status, span);
+        task.future.whenComplete((st, ex) -> span.tag("polls", task.attempt).fail(ex).close());
+        pending.incrementAndGet();
+        enqueue(task, initialDelay);
+        return task.future;
+    }
+
+    /**
+     * Starts the updates of all resources that are due. Invoked by the timer thread.
+     */
+    private void dispatchDue() {
+        PollTask task;
+        while ((task = queue.poll()) != null) {
+            if (task.future.isDone()) {
+                pending.decrementAndGet();
+                continue;
+            }
+
+            PollTask current = task;
+            try {
+                current.span.within(current.updater).whenComplete((v, ex) -> evaluate(current, ex));
+            } catch (RuntimeException ex) {
+                evaluate(current, ex);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the result of an update, and either completes the future or schedules
+     * the next poll.
+     */
+    private void evaluate(PollTask task, Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null
+                        ? ex.getCause() : ex;
+
+        if (cause != null && !(cause instanceof AcmeRetryAfterException)) {
+            pending.decrementAndGet();
+            task.future.completeExceptionally(cause);
+            return;
+        }
+
+        Status status;
+        try {
+            status = task.status.get();
+        } catch (RuntimeException rex) {
+            pending.decrementAndGet();
+            task.future.completeExceptionally(rex);
+            return;
+        }
+
+        if (isFinal(status)) {
+            pending.decrementAndGet();
+            task.future.complete(status);
+            return;
+        }
+
+        long delay;
+        if (cause != null) {
+            Instant retryAfter = ((AcmeRetryAfterException) cause).getRetryAfter();
+            delay = Duration.between(Instant.now(), retryAfter).toNanos();
+            LOG.debug("Server requested a retry after {}", retryAfter);
+        } else {
+            delay = backoff(task.attempt);
+        }
+
+        task.attempt++;
+        enqueue(task, Math.max(delay, tick));
+        if (timer.isShutdown()) {
+            cancel(task);
+        }
+    }
+
+    /**
+     * Computes the jittered exponential backoff delay for the given attempt.
+     */
+    private long backoff(int attempt) {
+        double delay = initialDelay * Math.pow(BACKOFF_MULTIPLIER, attempt);
+        double jitter = 1.0 + JITTER * (2.0 * ThreadLocalRandom.current().nextDouble() - 1.0);
+        return (long) (Math.min(delay, maxDelay) * jitter);
+    }
+
+    /**
+     * Removes a task from the queue, and cancels its future.
+     */
+    private void cancel(PollTask task) {
+        if (queue.remove(task)) {
+            pending.decrementAndGet();
+            task.future.cancel(false);
+        }
+    }
+
+    private void enqueue(PollTask task, long delay) {
+        task.due = System.nanoTime() + delay;
+        queue.add(task);
+    }
+
+    /**
+     * Checks if the {@link Status} is final, so polling can be stopped.
+     */
+    private static boolean isFinal(Status status) {
+        return status == Status.VALID || status == Status.INVALID
+                        || status == Status.DEACTIVATED || status == Status.REVOKED;
+    }
+
+    /**
+     * A resource that is polled.
+     */
+    private static class PollTask implements Delayed {
+        private final Supplier<CompletableFuture<Void>> updater;
+        private final Supplier<Status> status;
+        private final TraceSpan span;
+        private final CompletableFuture<Status> future = new CompletableFuture<>();
+        private volatile long due;
+        private int attempt = 1;
+
+        public PollTask(Supplier<CompletableFuture<Void>> updater, Supplier<Status> status,
+                    TraceSpan span) {
+            this.updater = updater;
+            this.status = status;
+            this.span = span;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(due, ((PollTask) o).due);
+        }
+    }
+
+}
@@ -13,9 +13,10 @@
  */
 package org.shredzone.acme4j;
 
-import org.jose4j.jwk.PublicJsonWebKey;
 import org.jose4j.jws.JsonWebSignature;
 import org.jose4j.lang.JoseException;
+import org.shredzone.acme4j.connector.AccountKeyContext;
+import org.shredzone.acme4j.connector.AsyncConnection;
 import org.shredzone.acme4j.connector.Connection;
 import org.shredzone.acme4j.connector.Resource;
 import org.shredzone.acme4j.connector.ResourceIterator;
@@ -34,8 +35,8 @@ import java.security.KeyPair;
 import java.security.cert.X509Certificate;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
-import static org.shredzone.acme4j.util.AcmeUtils.keyAlgorithm;
 import static org.shredzone.acme4j.util.AcmeUtils.toAce;
 
 /**
@@ -114,12 +115,12 @@ public class Registration extends AcmeResource {
      * <p>
      * Using the iterator will initiate one or more requests to the ACME server.
      *
-     * @return {@link Iterator} instance that returns {@link Authorization} objects.
+     * @return {@link ResourceIterator} instance that returns {@link Authorization} objects.
      *         {@link Iterator#hasNext()} and {@link Iterator#next()} may throw
      *         {@link AcmeProtocolException} if a batch of authorization URIs could not be
      *         fetched from the server.
      */
-    public Iterator<Authorization> getAuthorizations() throws AcmeException {
+    public ResourceIterator<Authorization> getAuthorizations() throws AcmeException {
         LOG.debug("getAuthorizations");
         load();
         return new ResourceIterator<>(getSession(), KEY_AUTHORIZATIONS, authorizations, Authorization::bind);
@@ -131,12 +132,12 @@ public class Registration extends AcmeResource {
      * <p>
      * Using the iterator will initiate one or more requests to the ACME server.
      *
-     * @return {@link Iterator} instance that returns {@link Certificate} objects.
+     * @return {@link ResourceIterator} instance that returns {@link Certificate} objects.
      *         {@link Iterator#hasNext()} and {@link Iterator#next()} may throw
      *         {@link AcmeProtocolException} if a batch of certificate URIs could not be
      *         fetched from the server.
      */
-    public Iterator<Certificate> getCertificates() throws AcmeException {
+    public ResourceIterator<Certificate> getCertificates() throws AcmeException {
         LOG.debug("getCertificates");
         load();
         return new ResourceIterator<>(getSession(), KEY_CERTIFICATES, certificates, Certificate::bind);
@@ -174,27 +175,61 @@ public class Registration extends AcmeResource {
      * @return {@link Authorization} object for this domain
      */
     public Authorization authorizeDomain(String domain) throws AcmeException {
-        Objects.requireNonNull(domain, "domain");
-        if (domain.isEmpty()) {
-            throw new IllegalArgumentException("domain must not be empty");
-        }
+        checkDomain(domain);
 
         LOG.debug("authorizeDomain {}", domain);
-        try (Connection conn = getSession().provider().connect()) {
-            JSONBuilder claims = new JSONBuilder();
-            claims.putResource(Resource.NEW_AUTHZ);
-            claims.object("identifier")
-                    .put("type", "dns")
-                    .put("value", toAce(domain));
+        return exchange(getSession().startSpan("authorizeDomain").tag("domain", domain),
+                        conn -> authorizeDomain(conn, domain));
+    }
 
-            conn.sendSignedRequest(getSession().resourceUri(Resource.NEW_AUTHZ), claims, getSession());
-            conn.accept(HttpURLConnection.HTTP_CREATED);
+    /**
+     * Authorizes a domain asynchronously. The domain is associated with this
+     * registration.
+     * <p>
+     * IDN domain names will be ACE encoded automatically.
+     *
+     * @param domain
+     *            Domain name to be authorized
+     * @return {@link CompletableFuture} of the {@link Authorization} object for this
+     *         domain
+     * @see #authorizeDomain(String)
+     */
+    public CompletableFuture<Authorization> authorizeDomainAsync(String domain) {
+        checkDomain(domain);
 
-            JSON json = conn.readJsonResponse();
+        LOG.debug("authorizeDomainAsync {}", domain);
+        return new AsyncConnection(getSession()).exchange(
+                        getSession().startSpan("authorizeDomain").tag("domain", domain),
+                        conn -> authorizeDomain(conn, domain));
+    }
+
+    /**
+     * Authorizes a domain, using the given {@link Connection}.
+     */
+    private Authorization authorizeDomain(Connection conn, String domain) throws AcmeException {
+        JSONBuilder claims = new JSONBuilder();
+        claims.putResource(Resource.NEW_AUTHZ);
+        claims.object("identifier")
+                .put("type", "dns")
+                .put("value", toAce(domain));
 
-            Authorization auth = new Authorization(getSession(), conn.getLocation());
-            auth.unmarshalAuthorization(json);
-            return auth;
+        conn.sendSignedRequest(getSession().resourceUri(Resource.NEW_AUTHZ), claims, getSession());
+        conn.accept(HttpURLConnection.HTTP_CREATED);
+
+        JSON json = conn.readJsonResponse();
+
+        Authorization auth = new Authorization(getSession(), conn.getLocation());
+        auth.unmarshalAuthorization(json);
+        return auth;
+    }
+
+    /**
+     * Checks that the domain name is valid for an authorization.
+     */
+    private static void checkDomain(String domain) {
+        Objects.requireNonNull(domain, "domain");
+        if (domain.isEmpty()) {
+            throw new IllegalArgumentException("domain must not be empty");
         }
     }
 
@@ -231,81 +266,137 @@ public class Registration extends AcmeResource {
         Objects.requireNonNull(csr, "csr");
 
         LOG.debug("requestCertificate");
-        try (Connection conn = getSession().provider().connect()) {
-            JSONBuilder claims = new JSONBuilder();
-            claims.putResource(Resource.NEW_CERT);
-            claims.putBase64("csr", csr);
-            if (notBefore != null) {
-                claims.put("notBefore", notBefore);
-            }
-            if (notAfter != null) {
-                claims.put("notAfter", notAfter);
-            }
+        return exchange(getSession().startSpan("requestCertificate"),
+                        conn -> requestCertificate(conn, csr, notBefore, notAfter));
+    }
+
+    /**
+     * Requests a certificate for the given CSR asynchronously.
+     * <p>
+     * All domains given in the CSR must be authorized before.
+     *
+     * @param csr
+     *            PKCS#10 Certificate Signing Request to be sent to the server
+     * @return {@link CompletableFuture} of the {@link Certificate}
+     * @see #requestCertificate(byte[])
+     */
+    public CompletableFuture<Certificate> requestCertificateAsync(byte[] csr) {
+        return requestCertificateAsync(csr, null, null);
+    }
 
-            conn.sendSignedRequest(getSession().resourceUri(Resource.NEW_CERT), claims, getSession());
-            int rc = conn.accept(HttpURLConnection.HTTP_CREATED, HttpURLConnection.HTTP_ACCEPTED);
+    /**
+     * Requests a certificate for the given CSR asynchronously.
+     * <p>
+     * All domains given in the CSR must be authorized before.
+     *
+     * @param csr
+     *            PKCS#10 Certificate Signing Request to be sent to the server
+     * @param notBefore
+     *            requested value of the notBefore field in the certificate, {@code null}
+     *            for default. May be ignored by the server.
+     * @param notAfter
+     *            requested value of the notAfter field in the certificate, {@code null}
+     *            for default. May be ignored by the server.
+     * @return {@link CompletableFuture} of the {@link Certificate}
+     * @see #requestCertificate(byte[], Instant, Instant)
+     */
+    public CompletableFuture<Certificate> requestCertificateAsync(byte[] csr, Instant notBefore,
+                Instant notAfter) {
+        Objects.requireNonNull(csr, "csr");
 
-            X509Certificate cert = null;
-            if (rc == HttpURLConnection.HTTP_CREATED) {
-                try {
-                    cert = conn.readCertificate();
-                } catch (AcmeProtocolException ex) {
-                    LOG.warn("Could not parse attached certificate", ex);
-                }
-            }
+        LOG.debug("requestCertificateAsync");
+        return new AsyncConnection(getSession()).exchange(getSession().startSpan("requestCertificate"),
+                        conn -> requestCertificate(conn, csr, notBefore, notAfter));
+    }
 
-            URI chainCertUri = conn.getLink("up");
+    /**
+     * Requests a certificate for the given CSR, using the given {@link Connection}.
+     */
+    private Certificate requestCertificate(Connection conn, byte[] csr, Instant notBefore,
+                Instant notAfter) throws AcmeException {
+        JSONBuilder claims = new JSONBuilder();
+        claims.putResource(Resource.NEW_CERT);
+        claims.putBase64("csr", csr);
+        if (notBefore != null) {
+            claims.put("notBefore", notBefore);
+        }
+        if (notAfter != null) {
+            claims.put("notAfter", notAfter);
+        }
 
-            return new Certificate(getSession(), conn.getLocation(), chainCertUri, cert);
+        conn.sendSignedRequest(getSession().resourceUri(Resource.NEW_CERT), claims, getSession());
+        int rc = conn.accept(HttpURLConnection.HTTP_CREATED, HttpURLConnection.HTTP_ACCEPTED);
+
+        X509Certificate cert = null;
+        if (rc == HttpURLConnection.HTTP_CREATED) {
+            try {
+                cert = conn.readCertificate();
+            } catch (AcmeProtocolException ex) {
+                LOG.warn("Could not parse attached certificate", ex);
+            }
         }
+
+        URI chainCertUri = conn.getLink("up");
+
+        return new Certificate(getSession(), conn.getLocation(), chainCertUri, cert);
     }
 
     /**
      * Changes the {@link KeyPair} associated with the registration.
      * <p>
      * After a successful call, the new key pair is used in the bound {@link Session},
-     * and the old key pair can be disposed of.
+     * and the old key pair can be disposed of. Concurrent key changes of the same
+     * {@link Session} are performed one after the other.
      *
      * @param newKeyPair
      *            new {@link KeyPair} to be used for identifying this account
      */
     public void changeKey(KeyPair newKeyPair) throws AcmeException {
         Objects.requireNonNull(newKeyPair, "newKeyPair");
-        if (Arrays.equals(getSession().getKeyPair().getPrivate().getEncoded(),
-                        newKeyPair.getPrivate().getEncoded())) {
-            throw new IllegalArgumentException("newKeyPair must actually be a new key pair");
-        }
+        Session session = getSession();
 
-        LOG.debug("key-change");
+        synchronized (session.keyChangeLock()) {
+            KeyPair oldKeyPair = session.getKeyPair();
+            if (Arrays.equals(oldKeyPair.getPrivate().getEncoded(),
+                            newKeyPair.getPrivate().getEncoded())) {
+                throw new IllegalArgumentException("newKeyPair must actually be a new key pair");
+            }
 
-        try (Connection conn = getSession().provider().connect()) {
-            URI keyChangeUri = getSession().resourceUri(Resource.KEY_CHANGE);
-            PublicJsonWebKey newKeyJwk = PublicJsonWebKey.Factory.newPublicJwk(newKeyPair.getPublic());
-
-            JSONBuilder payloadClaim = new JSONBuilder();
-            payloadClaim.put("account", getLocation());
-            payloadClaim.putKey("newKey", newKeyPair.getPublic());
-
-            JsonWebSignature innerJws = new JsonWebSignature();
-            innerJws.setPayload(payloadClaim.toString());
-            innerJws.getHeaders().setObjectHeaderValue("url", keyChangeUri);
-            innerJws.getHeaders().setJwkHeaderValue("jwk", newKeyJwk);
-            innerJws.setAlgorithmHeaderValue(keyAlgorithm(newKeyJwk));
-            innerJws.setKey(newKeyPair.getPrivate());
-            innerJws.sign();
-
-            JSONBuilder outerClaim = new JSONBuilder();
-            outerClaim.putResource(Resource.KEY_CHANGE); // Let's Encrypt needs the resource here
-            outerClaim.put("protected", innerJws.getHeaders().getEncodedHeader());
-            outerClaim.put("signature", innerJws.getEncodedSignature());
-            outerClaim.put("payload", innerJws.getEncodedPayload());
-
-            conn.sendSignedRequest(keyChangeUri, outerClaim, getSession());
-            conn.accept(HttpURLConnection.HTTP_OK);
-
-            getSession().setKeyPair(newKeyPair);
-        } catch (JoseException ex) {
-            throw new AcmeProtocolException("Cannot sign key-change", ex);
+            LOG.debug("key-change");
+
+            try (Connection conn = session.provider().connect()) {
+                URI keyChangeUri = session.resourceUri(Resource.KEY_CHANGE);
+                AccountKeyContext newKeyContext = new AccountKeyContext(newKeyPair);
+
+                JSONBuilder payloadClaim = new JSONBuilder();
+                payloadClaim.put("account", getLocation());
+                payloadClaim.putKey("newKey", newKeyPair.getPublic());
+
+                JsonWebSignature innerJws = new JsonWebSignature();
+                innerJws.setPayload(payloadClaim.toString());
+                innerJws.getHeaders().setObjectHeaderValue("url", keyChangeUri);
+                innerJws.getHeaders().setObjectHeaderValue("jwk", newKeyContext.getJwkParams());
+                innerJws.setAlgorithmHeaderValue(newKeyContext.getAlgorithm());
+                innerJws.setKey(newKeyPair.getPrivate());
+                innerJws.sign();
+
+                JSONBuilder outerClaim = new JSONBuilder();
+                outerClaim.putResource(Resource.KEY_CHANGE); // Let's Encrypt needs the resource here
+                outerClaim.put("protected", innerJws.getHeaders().getEncodedHeader());
+                outerClaim.put("signature", innerJws.getEncodedSignature());
+                outerClaim.put("payload", innerJws.getEncodedPayload());
+
+                conn.sendSignedRequest(keyChangeUri, outerClaim, session);
+                conn.accept(HttpURLConnection.HTTP_OK);
+
+                if (!session.replaceKeyPair(oldKeyPair, newKeyPair)) {
+                    // the key pair was set by someone else, but the server only knows the new one
+                    LOG.debug("key pair was changed concurrently, using the new key pair");
+                    session.setKeyPair(newKeyPair);
+                }
+            } catch (JoseException ex) {
+                throw new AcmeProtocolException("Cannot sign key-change", ex);
+            }
         }
     }
 
@@ -366,9 +457,7 @@ public class Registration extends AcmeResource {
         this.authorizations = json.get(KEY_AUTHORIZATIONS).asURI();
         this.certificates = json.get(KEY_CERTIFICATES).asURI();
 
-        if (json.contains(KEY_STATUS)) {
-            this.status = Status.parse(json.get(KEY_STATUS).asString());
-        }
+        this.status = json.get(KEY_STATUS).asStatusOrElse(this.status);
 
         URI location = conn.getLocation();
         if (location != null) {
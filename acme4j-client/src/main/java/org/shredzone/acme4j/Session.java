@@ -16,40 +16,78 @@ package org.shredzone.acme4j;
 import java.net.URI;
 import java.security.KeyPair;
 import java.time.Duration;
-import java.time.Instant;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.ServiceLoader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.StreamSupport;
 
 import org.shredzone.acme4j.challenge.Challenge;
 import org.shredzone.acme4j.challenge.TokenChallenge;
+import org.shredzone.acme4j.connector.AccountKeyContext;
+import org.shredzone.acme4j.connector.ChainCache;
+import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.ConnectionMetrics;
+import org.shredzone.acme4j.connector.DirectoryCache;
+import org.shredzone.acme4j.connector.NoncePool;
+import org.shredzone.acme4j.connector.RateLimiter;
+import org.shredzone.acme4j.connector.RequestTracer;
 import org.shredzone.acme4j.connector.Resource;
+import org.shredzone.acme4j.connector.TraceSpan;
 import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.provider.AcmeProvider;
 import org.shredzone.acme4j.util.JSON;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A session stores the ACME server URI and the account's key pair. It also tracks
  * communication parameters.
  * <p>
+ * {@link Session} objects are thread safe. A single session per account can be shared by
+ * any number of threads. The directory is read once and then published atomically, so
+ * reading resources and metadata does not block. An expired directory is revalidated in
+ * the background, while the cached directory is still used. Every signed request takes its own
+ * nonce from the nonce pool, and a key change is applied atomically after the server
+ * has confirmed it.
+ * <p>
  * Note that {@link Session} objects are not serializable, as they contain a keypair and
  * volatile data.
  */
 public class Session {
-    private final AtomicReference<Map<Resource, URI>> resourceMap = new AtomicReference<>();
-    private final AtomicReference<Metadata> metadata = new AtomicReference<>();
+    private static final Logger LOG = LoggerFactory.getLogger(Session.class);
+    private static final Duration DIRECTORY_RETRY = Duration.ofMinutes(1);
+    private static final int DEFAULT_POOL_SIZE = 8;
+    private static final long DEFAULT_POOL_KEEPALIVE_SECONDS = 60L;
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final AtomicReference<Directory> directory = new AtomicReference<>();
+    private final AtomicReference<KeyPair> keyPair = new AtomicReference<>();
+    private final Object keyChangeLock = new Object();
+    private final Object executorLock = new Object();
+    private volatile AccountKeyContext keyContext;
     private final URI serverUri;
     private final AcmeProvider provider;
+    private final NoncePool noncePool = new NoncePool();
+    private final RateLimiter rateLimiter = new RateLimiter();
+    private volatile ChainCache chainCache = new ChainCache();
+    private volatile DirectoryCache directoryCache = new DirectoryCache();
+    private volatile ConnectionMetrics metrics = ConnectionMetrics.NONE;
+    private volatile RequestTracer tracer = RequestTracer.NONE;
+    private final AtomicBoolean nonceRefill = new AtomicBoolean();
 
-    private KeyPair keyPair;
-    private byte[] nonce;
-    private JSON directoryJson;
-    private Locale locale = Locale.getDefault();
-    protected Instant directoryCacheExpiry;
+    private volatile Locale locale = Locale.getDefault();
+    private volatile Executor executor;
 
     /**
      * Creates a new {@link Session}.
@@ -75,7 +113,7 @@ public class Session {
      */
     public Session(URI serverUri, KeyPair keyPair) {
         this.serverUri = Objects.requireNonNull(serverUri, "serverUri");
-        this.keyPair = Objects.requireNonNull(keyPair, "keyPair");
+        this.keyPair.set(Objects.requireNonNull(keyPair, "keyPair"));
 
         final URI localServerUri = serverUri;
 
@@ -102,28 +140,184 @@ public class Session {
      * Gets the {@link KeyPair} of the ACME account.
      */
     public KeyPair getKeyPair() {
-        return keyPair;
+        return keyPair.get();
     }
 
     /**
      * Sets a different {@link KeyPair}.
      */
     public void setKeyPair(KeyPair keyPair) {
-        this.keyPair = keyPair;
+        this.keyPair.set(keyPair);
+        this.keyContext = null;
+    }
+
+    /**
+     * Gets the {@link AccountKeyContext} of the current {@link KeyPair}. It is created
+     * on first use, and replaced when the key pair is changed.
+     */
+    public AccountKeyContext getKeyContext() {
+        KeyPair current = getKeyPair();
+        AccountKeyContext context = keyContext;
+        if (context == null || context.getKeyPair() != current) {
+            context = new AccountKeyContext(current);
+            keyContext = context;
+        }
+        return context;
+    }
+
+    /**
+     * Replaces the {@link KeyPair}, but only if it is still the expected one.
+     *
+     * @param expected
+     *            {@link KeyPair} that is expected to be the current key pair
+     * @param keyPair
+     *            New {@link KeyPair}
+     * @return {@code true} if the key pair was replaced, {@code false} if the current
+     *         key pair was not the expected one
+     */
+    boolean replaceKeyPair(KeyPair expected, KeyPair keyPair) {
+        if (this.keyPair.compareAndSet(expected, keyPair)) {
+            this.keyContext = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the lock that serializes key changes of this session.
+     */
+    Object keyChangeLock() {
+        return keyChangeLock;
     }
 
     /**
-     * Gets the last nonce, or {@code null} if the session is new.
+     * Gets the most recent unused nonce, or {@code null} if there is none. The nonce is
+     * not consumed.
      */
     public byte[] getNonce() {
-        return nonce;
+        return noncePool.peek();
     }
 
     /**
-     * Sets the nonce received by the server.
+     * Adds a nonce received by the server to the nonce pool. {@code null} removes all
+     * nonces from the pool.
      */
     public void setNonce(byte[] nonce) {
-        this.nonce = nonce;
+        if (nonce != null) {
+            noncePool.offer(nonce);
+        } else {
+            noncePool.clear();
+        }
+    }
+
+    /**
+     * Takes an unused nonce from the nonce pool. If the pool drops below its low-water
+     * mark, it is refilled in the background.
+     *
+     * @return Nonce, or {@code null} if there is no unused nonce
+     */
+    public byte[] takeNonce() {
+        byte[] nonce = noncePool.take();
+        if (noncePool.needsRefill()) {
+            refillNonces();
+        }
+        return nonce;
+    }
+
+    /**
+     * Gets the {@link NoncePool} of this session, e.g. for changing its low-water mark.
+     */
+    public NoncePool getNoncePool() {
+        return noncePool;
+    }
+
+    /**
+     * Gets the {@link RateLimiter} of this session, e.g. for setting the rate limits of
+     * the resources.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Gets the {@link ChainCache} of this session, which caches the issuer certificates
+     * of the downloaded certificate chains.
+     */
+    public ChainCache getChainCache() {
+        return chainCache;
+    }
+
+    /**
+     * Sets the {@link ChainCache} of this session. It can be shared between sessions
+     * connecting to the same CA.
+     */
+    public void setChainCache(ChainCache chainCache) {
+        this.chainCache = Objects.requireNonNull(chainCache, "chainCache");
+    }
+
+    /**
+     * Gets the {@link DirectoryCache} of this session, which caches the provider's
+     * directory.
+     */
+    public DirectoryCache getDirectoryCache() {
+        return directoryCache;
+    }
+
+    /**
+     * Sets the {@link DirectoryCache} of this session. It can be shared between
+     * sessions, so the directory is only fetched once for all of them.
+     */
+    public void setDirectoryCache(DirectoryCache directoryCache) {
+        this.directoryCache = Objects.requireNonNull(directoryCache, "directoryCache");
+    }
+
+    /**
+     * Gets the {@link ConnectionMetrics} that receive the metrics of all requests of
+     * this session.
+     */
+    public ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the {@link ConnectionMetrics} that receive the metrics of all requests of
+     * this session. By default, {@link ConnectionMetrics#NONE} is used, which discards
+     * all metrics.
+     */
+    public void setMetrics(ConnectionMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
+    }
+
+    /**
+     * Gets the {@link RequestTracer} that receives the spans of this session.
+     */
+    public RequestTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Sets the {@link RequestTracer} that receives the spans of this session. By
+     * default, {@link RequestTracer#NONE} is used, which does not trace at all.
+     */
+    public void setTracer(RequestTracer tracer) {
+        this.tracer = Objects.requireNonNull(tracer, "tracer");
+    }
+
+    /**
+     * Starts a new {@link TraceSpan}, e.g. for tying together all operations of an
+     * order. It becomes a child of the span that is current on this thread.
+     *
+     * @param name
+     *            Name of the span
+     * @return {@link TraceSpan} that was started, or {@link TraceSpan#NONE} if this
+     *         session does not trace
+     */
+    public TraceSpan startSpan(String name) {
+        RequestTracer t = tracer;
+        if (t == RequestTracer.NONE) {
+            return TraceSpan.NONE;
+        }
+        return TraceSpan.start(t, TraceSpan.current(), name);
     }
 
     /**
@@ -141,6 +335,40 @@ public class Session {
         this.locale = locale;
     }
 
+    /**
+     * Gets the {@link Executor} that is used for asynchronous requests.
+     * <p>
+     * Unless another {@link Executor} was set, a pool of up to 8 daemon threads is
+     * created on first use. It is owned by this session, and idle threads are
+     * terminated after a minute.
+     */
+    public Executor getExecutor() {
+        Executor result = executor;
+        if (result == null) {
+            synchronized (executorLock) {
+                result = executor;
+                if (result == null) {
+                    result = createDefaultExecutor();
+                    executor = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sets the {@link Executor} that is used for asynchronous requests.
+     * <p>
+     * Requests are blocking while waiting for the server's response, so every request
+     * in progress occupies a thread of the {@link Executor}. The number of threads limits
+     * the number of concurrent requests. Do not use the common
+     * {@link java.util.concurrent.ForkJoinPool} here, as the blocked threads would
+     * starve all other tasks of the JVM.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "executor");
+    }
+
     /**
      * Returns the {@link AcmeProvider} that is used for this session.
      *
@@ -183,8 +411,7 @@ public class Session {
      * @return {@link URI}, or {@code null} if the server does not offer that resource
      */
     public URI resourceUri(Resource resource) throws AcmeException {
-        readDirectory();
-        return resourceMap.get().get(Objects.requireNonNull(resource, "resource"));
+        return readDirectory().resources.get(Objects.requireNonNull(resource, "resource"));
     }
 
     /**
@@ -194,39 +421,157 @@ public class Session {
      * @return {@link Metadata}. May contain no data, but is never {@code null}.
      */
     public Metadata getMetadata() throws AcmeException {
-        readDirectory();
-        return metadata.get();
+        return readDirectory().metadata;
+    }
+
+    /**
+     * Creates the default {@link Executor}, a bounded pool of daemon threads.
+     */
+    private static Executor createDefaultExecutor() {
+        int poolId = POOL_COUNTER.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(DEFAULT_POOL_SIZE, DEFAULT_POOL_SIZE,
+                        DEFAULT_POOL_KEEPALIVE_SECONDS, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(), task -> {
+                            Thread thread = new Thread(task, "acme4j-session-" + poolId
+                                            + "-" + threadCounter.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 
     /**
-     * Reads the provider's directory, then rebuild the resource map. The response is
-     * cached.
+     * Refills the nonce pool up to its low-water mark, using the session's
+     * {@link Executor}. Does nothing if a refill is already in progress.
      */
-    private void readDirectory() throws AcmeException {
-        synchronized (this) {
-            Instant now = Instant.now();
-            if (directoryJson != null && directoryCacheExpiry.isAfter(now)) {
-                return;
+    private void refillNonces() {
+        if (!nonceRefill.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            getExecutor().execute(() -> {
+                try (Connection conn = provider().connect()) {
+                    for (int ix = noncePool.getLowWaterMark(); ix > 0 && noncePool.needsRefill(); ix--) {
+                        conn.resetNonce(this);
+                    }
+                } catch (AcmeException | RuntimeException ex) {
+                    LOG.debug("Failed to refill nonce pool", ex);
+                } finally {
+                    nonceRefill.set(false);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("Failed to refill nonce pool", ex);
+            nonceRefill.set(false);
+        }
+    }
+
+    /**
+     * Returns the provider's directory. The response is cached in the
+     * {@link DirectoryCache}.
+     * <p>
+     * A cached directory is returned without locking, even if it is expired. An expired
+     * directory is revalidated in the background. If there is no cached directory yet,
+     * concurrent threads wait for the first one to read it.
+     */
+    private Directory readDirectory() throws AcmeException {
+        DirectoryCache cache = directoryCache;
+        DirectoryCache.Entry entry = cache.get(serverUri);
+
+        if (entry == null) {
+            synchronized (this) {
+                entry = cache.get(serverUri);
+                if (entry == null) {
+                    entry = fetchDirectory(cache, null);
+                }
             }
-            directoryJson = provider().directory(this, getServerUri());
-            directoryCacheExpiry = now.plus(Duration.ofHours(1));
+        } else if (entry.isExpired()) {
+            refreshDirectory(cache, entry);
         }
 
-        JSON meta = directoryJson.get("meta").asObject();
-        if (meta != null) {
-            metadata.set(new Metadata(meta));
-        } else {
-            metadata.set(new Metadata(JSON.empty()));
+        Directory current = directory.get();
+        if (current == null || current.json != entry.getDirectory()) {
+            current = new Directory(entry.getDirectory());
+            directory.set(current);
+        }
+        return current;
+    }
+
+    /**
+     * Reads the provider's directory, and puts it into the {@link DirectoryCache}.
+     *
+     * @param cache
+     *            {@link DirectoryCache} to put the directory into
+     * @param cached
+     *            Cached directory to be revalidated, or {@code null}
+     * @return Cached {@link DirectoryCache.Entry}
+     */
+    private DirectoryCache.Entry fetchDirectory(DirectoryCache cache, DirectoryCache.Entry cached)
+                throws AcmeException {
+        AcmeProvider prov = provider();
+        DirectoryCache.Entry entry = prov.directory(this, serverUri, cached);
+        if (entry == null) {
+            entry = new DirectoryCache.Entry(prov.directory(this, serverUri), null, null, null);
         }
+        return cache.put(serverUri, entry);
+    }
+
+    /**
+     * Revalidates an expired directory, using the session's {@link Executor}. Does
+     * nothing if the directory is already being revalidated. If the directory could not
+     * be read, the cached directory is used for another minute.
+     */
+    private void refreshDirectory(DirectoryCache cache, DirectoryCache.Entry cached) {
+        if (!cache.startRefresh(serverUri)) {
+            return;
+        }
+
+        try {
+            getExecutor().execute(() -> {
+                try {
+                    fetchDirectory(cache, cached);
+                } catch (AcmeException | RuntimeException ex) {
+                    LOG.debug("Failed to refresh directory", ex);
+                    cache.postpone(serverUri, DIRECTORY_RETRY);
+                } finally {
+                    cache.endRefresh(serverUri);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("Failed to refresh directory", ex);
+            cache.endRefresh(serverUri);
+        }
+    }
+
+    /**
+     * An immutable snapshot of the provider's directory.
+     */
+    private static class Directory {
+        private final JSON json;
+        private final Map<Resource, URI> resources;
+        private final Metadata metadata;
+
+        private Directory(JSON directoryJson) {
+            json = directoryJson;
+            JSON meta = directoryJson.get("meta").asObject();
+            if (meta != null) {
+                metadata = new Metadata(meta);
+            } else {
+                metadata = new Metadata(JSON.empty());
+            }
 
-        Map<Resource, URI> map = new EnumMap<>(Resource.class);
-        for (Resource res : Resource.values()) {
-            URI uri = directoryJson.get(res.path()).asURI();
-            if (uri != null) {
-                map.put(res, uri);
+            Map<Resource, URI> map = new EnumMap<>(Resource.class);
+            for (Resource res : Resource.values()) {
+                URI uri = directoryJson.get(res.path()).asURI();
+                if (uri != null) {
+                    map.put(res, uri);
+                }
             }
+            resources = Collections.unmodifiableMap(map);
         }
-        resourceMap.set(map);
     }
 
 }
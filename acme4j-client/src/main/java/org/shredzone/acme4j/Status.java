@@ -13,7 +13,11 @@
  */
 package org.shredzone.acme4j;
 
-import java.util.Arrays;
+import static java.util.Collections.unmodifiableMap;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Status codes of challenges and authorizations.
@@ -22,6 +26,17 @@ public enum Status {
 
     PENDING, PROCESSING, VALID, INVALID, REVOKED, DEACTIVATED, GOOD, UNKNOWN;
 
+    private static final Map<String, Status> BY_NAME;
+
+    static {
+        Map<String, Status> map = new HashMap<>();
+        for (Status s : values()) {
+            map.put(s.name(), s);
+            map.put(s.name().toLowerCase(Locale.ENGLISH), s);
+        }
+        BY_NAME = unmodifiableMap(map);
+    }
+
     /**
      * Parses the string and returns a corresponding Status object.
      *
@@ -31,11 +46,11 @@ public enum Status {
      *         no match
      */
     public static Status parse(String str) {
-        String check = str.toUpperCase();
-        return Arrays.stream(values())
-                .filter(s -> s.name().equals(check))
-                .findFirst()
-                .orElse(Status.UNKNOWN);
+        Status result = BY_NAME.get(str);
+        if (result == null) {
+            result = BY_NAME.getOrDefault(str.toUpperCase(Locale.ENGLISH), Status.UNKNOWN);
+        }
+        return result;
     }
 
     /**
@@ -17,11 +17,14 @@ import java.net.HttpURLConnection;
 import java.net.URI;
 import java.time.Instant;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import org.shredzone.acme4j.AcmeResource;
 import org.shredzone.acme4j.Session;
 import org.shredzone.acme4j.Status;
+import org.shredzone.acme4j.connector.AsyncConnection;
 import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.TraceSpan;
 import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.exception.AcmeProtocolException;
 import org.shredzone.acme4j.exception.AcmeRetryAfterException;
@@ -99,7 +102,7 @@ public class Challenge extends AcmeResource {
      * Returns the current status of the challenge.
      */
     public Status getStatus() {
-        return Status.parse(data.get(KEY_STATUS).asString(), Status.PENDING);
+        return data.get(KEY_STATUS).asStatusOrElse(Status.PENDING);
     }
 
     /**
@@ -178,16 +181,26 @@ public class Challenge extends AcmeResource {
      */
     public void trigger() throws AcmeException {
         LOG.debug("trigger");
-        try (Connection conn = getSession().provider().connect()) {
-            JSONBuilder claims = new JSONBuilder();
-            claims.putResource("challenge");
-            respond(claims);
-
-            conn.sendSignedRequest(getLocation(), claims, getSession());
-            conn.accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_ACCEPTED);
+        exchange(getSession().startSpan("trigger").tag("type", getType()), conn -> {
+            trigger(conn);
+            return null;
+        });
+    }
 
-            unmarshall(conn.readJsonResponse());
-        }
+    /**
+     * Triggers this {@link Challenge} asynchronously.
+     *
+     * @return {@link CompletableFuture} that is completed when the ACME server has been
+     *         requested to validate the response
+     * @see #trigger()
+     */
+    public CompletableFuture<Void> triggerAsync() {
+        LOG.debug("triggerAsync");
+        TraceSpan span = getSession().startSpan("trigger").tag("type", getType());
+        return new AsyncConnection(getSession()).exchange(span, conn -> {
+            trigger(conn);
+            return null;
+        });
     }
 
     /**
@@ -203,13 +216,50 @@ public class Challenge extends AcmeResource {
     public void update() throws AcmeException {
         LOG.debug("update");
         try (Connection conn = getSession().provider().connect()) {
-            conn.sendRequest(getLocation(), getSession());
-            conn.accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_ACCEPTED);
+            update(conn);
+        }
+    }
+
+    /**
+     * Updates the state of this challenge asynchronously.
+     *
+     * @return {@link CompletableFuture} that is completed when the challenge was
+     *         updated. It is completed exceptionally with an
+     *         {@link AcmeRetryAfterException} if the challenge is still being validated.
+     * @see #update()
+     */
+    public CompletableFuture<Void> updateAsync() {
+        LOG.debug("updateAsync");
+        return new AsyncConnection(getSession()).exchange(conn -> {
+            update(conn);
+            return null;
+        });
+    }
 
-            unmarshall(conn.readJsonResponse());
+    /**
+     * Triggers this {@link Challenge}, using the given {@link Connection}.
+     */
+    private void trigger(Connection conn) throws AcmeException {
+        JSONBuilder claims = new JSONBuilder();
+        claims.putResource("challenge");
+        respond(claims);
 
-            conn.handleRetryAfter("challenge is not completed yet");
-        }
+        conn.sendSignedRequest(getLocation(), claims, getSession());
+        conn.accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_ACCEPTED);
+
+        unmarshall(conn.readJsonResponse());
+    }
+
+    /**
+     * Updates the state of this challenge, using the given {@link Connection}.
+     */
+    private void update(Connection conn) throws AcmeException {
+        conn.sendRequest(getLocation(), getSession());
+        conn.accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_ACCEPTED);
+
+        unmarshall(conn.readJsonResponse());
+
+        conn.handleRetryAfter("challenge is not completed yet");
     }
 
 }
@@ -13,14 +13,7 @@
  */
 package org.shredzone.acme4j.challenge;
 
-import static org.shredzone.acme4j.util.AcmeUtils.base64UrlEncode;
-
-import java.security.PublicKey;
-
-import org.jose4j.jwk.PublicJsonWebKey;
-import org.jose4j.lang.JoseException;
 import org.shredzone.acme4j.Session;
-import org.shredzone.acme4j.exception.AcmeProtocolException;
 import org.shredzone.acme4j.util.JSONBuilder;
 
 /**
@@ -75,15 +68,7 @@ public class TokenChallenge extends Challenge {
      * @return Authorization string
      */
     protected String computeAuthorization() {
-        try {
-            PublicKey pk = getSession().getKeyPair().getPublic();
-            PublicJsonWebKey jwk = PublicJsonWebKey.Factory.newPublicJwk(pk);
-            return getToken()
-                        + '.'
-                        + base64UrlEncode(jwk.calculateThumbprint("SHA-256"));
-        } catch (JoseException ex) {
-            throw new AcmeProtocolException("Cannot compute key thumbprint", ex);
-        }
+        return getToken() + '.' + getSession().getKeyContext().getThumbprint();
     }
 
     @Override
@@ -0,0 +1,239 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.shredzone.acme4j.util.AcmeUtils.base64UrlEncode;
+import static org.shredzone.acme4j.util.AcmeUtils.keyAlgorithm;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.lang.JoseException;
+import org.shredzone.acme4j.exception.AcmeProtocolException;
+
+/**
+ * Everything that is derived from an account {@link KeyPair} for signing requests.
+ * <p>
+ * The JWK, its JSON representation, the JWS algorithm identifier and the JWK thumbprint
+ * are computed once when the context is created. Initialized {@link Signature} instances
+ * are kept for reuse.
+ * <p>
+ * Instances are thread safe. The {@link org.shredzone.acme4j.Session} creates a new
+ * context whenever its key pair is changed.
+ */
+public final class AccountKeyContext {
+
+    private final KeyPair keyPair;
+    private final PublicJsonWebKey jwk;
+    private final Map<String, Object> jwkParams;
+    private final String jwkJson;
+    private final String algorithm;
+    private final String thumbprint;
+    private final String signatureAlgorithm;
+    private final int ecdsaPartLength;
+    private final byte[] jwsHeaderTail;
+    private final Queue<Signature> signatures = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a new {@link AccountKeyContext}.
+     *
+     * @param keyPair
+     *            Account {@link KeyPair}
+     * @throws AcmeProtocolException
+     *             if the key pair is not supported
+     */
+    public AccountKeyContext(KeyPair keyPair) {
+        this.keyPair = Objects.requireNonNull(keyPair, "keyPair");
+
+        try {
+            jwk = PublicJsonWebKey.Factory.newPublicJwk(keyPair.getPublic());
+        } catch (JoseException ex) {
+            throw new AcmeProtocolException("Invalid key", ex);
+        }
+
+        try {
+            algorithm = keyAlgorithm(jwk);
+        } catch (IllegalArgumentException ex) {
+            throw new AcmeProtocolException("Unsupported key", ex);
+        }
+
+        jwkParams = Collections.unmodifiableMap(jwk.toParams(JsonWebKey.OutputControlLevel.PUBLIC_ONLY));
+        jwkJson = jwk.toJson(JsonWebKey.OutputControlLevel.PUBLIC_ONLY);
+        thumbprint = base64UrlEncode(jwk.calculateThumbprint("SHA-256"));
+        jwsHeaderTail = ("\"alg\":\"" + algorithm + "\",\"jwk\":" + jwkJson + "}")
+                        .getBytes(StandardCharsets.UTF_8);
+
+        switch (algorithm) {
+            case AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256:
+                signatureAlgorithm = "SHA256withECDSA";
+                ecdsaPartLength = 32;
+                break;
+
+            case AlgorithmIdentifiers.ECDSA_USING_P384_CURVE_AND_SHA384:
+                signatureAlgorithm = "SHA384withECDSA";
+                ecdsaPartLength = 48;
+                break;
+
+            case AlgorithmIdentifiers.ECDSA_USING_P521_CURVE_AND_SHA512:
+                signatureAlgorithm = "SHA512withECDSA";
+                ecdsaPartLength = 66;
+                break;
+
+            default:
+                signatureAlgorithm = "SHA256withRSA";
+                ecdsaPartLength = 0;
+        }
+    }
+
+    /**
+     * Gets the {@link KeyPair} of this context.
+     */
+    public KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    /**
+     * Gets the {@link PublicJsonWebKey} of the account's public key.
+     */
+    public PublicJsonWebKey getJwk() {
+        return jwk;
+    }
+
+    /**
+     * Gets the public JWK parameters, ready for being used as {@code jwk} header.
+     */
+    public Map<String, Object> getJwkParams() {
+        return jwkParams;
+    }
+
+    /**
+     * Gets the public JWK as JSON string.
+     */
+    public String getJwkJson() {
+        return jwkJson;
+    }
+
+    /**
+     * Gets the JWS algorithm identifier, e.g. "RS256".
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Gets the base64url encoded SHA-256 thumbprint of the JWK.
+     */
+    public String getThumbprint() {
+        return thumbprint;
+    }
+
+    /**
+     * Gets the constant end of the JWS protected header, containing the algorithm and
+     * the JWK, and closing the header object.
+     */
+    byte[] getJwsHeaderTail() {
+        return jwsHeaderTail;
+    }
+
+    /**
+     * Signs the given data with the account's private key.
+     *
+     * @param data
+     *            Data to be signed
+     * @return Signature, in the format required by JWS (RFC 7518). ECDSA signatures
+     *         are converted from DER to the concatenation of R and S.
+     */
+    public byte[] sign(byte[] data) {
+        return sign(data, 0, data.length);
+    }
+
+    /**
+     * Signs a part of the given data with the account's private key.
+     *
+     * @param data
+     *            Data to be signed
+     * @param off
+     *            Offset of the first byte to be signed
+     * @param len
+     *            Number of bytes to be signed
+     * @return Signature, in the format required by JWS (RFC 7518)
+     */
+    public byte[] sign(byte[] data, int off, int len) {
+        Signature signature = signatures.poll();
+        try {
+            if (signature == null) {
+                signature = Signature.getInstance(signatureAlgorithm);
+                signature.initSign(keyPair.getPrivate());
+            }
+
+            signature.update(data, off, len);
+            byte[] result = signature.sign();
+            signatures.offer(signature);
+            return ecdsaPartLength > 0 ? derToConcat(result, ecdsaPartLength) : result;
+        } catch (GeneralSecurityException ex) {
+            throw new AcmeProtocolException("Could not sign with " + signatureAlgorithm, ex);
+        }
+    }
+
+    /**
+     * Converts a DER encoded ECDSA signature to the concatenation of R and S, as
+     * required by JWS.
+     *
+     * @param der
+     *            DER encoded signature
+     * @param partLength
+     *            Length of R and S, in bytes
+     * @return Concatenated signature
+     */
+    private static byte[] derToConcat(byte[] der, int partLength) throws GeneralSecurityException {
+        if (der.length < 8 || der[0] != 0x30) {
+            throw new GeneralSecurityException("Invalid ECDSA signature");
+        }
+
+        int offset = (der[1] & 0x80) != 0 ? 3 : 2; // skip SEQUENCE header
+        byte[] result = new byte[partLength * 2];
+        for (int part = 0; part < 2; part++) {
+            if (der[offset] != 0x02) {
+                throw new GeneralSecurityException("Invalid ECDSA signature");
+            }
+            int length = der[offset + 1] & 0xFF;
+            int start = offset + 2;
+
+            // strip leading zero bytes, then right-align the integer
+            int skip = 0;
+            while (length - skip > partLength && der[start + skip] == 0) {
+                skip++;
+            }
+            if (length - skip > partLength) {
+                throw new GeneralSecurityException("Invalid ECDSA signature");
+            }
+            System.arraycopy(der, start + skip, result,
+                            (part + 1) * partLength - (length - skip), length - skip);
+
+            offset = start + length;
+        }
+        return result;
+    }
+
+}
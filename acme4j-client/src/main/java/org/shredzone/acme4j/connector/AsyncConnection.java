@@ -0,0 +1,138 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeException;
+
+/**
+ * Asynchronous counterpart of {@link Connection}.
+ * <p>
+ * An {@link AsyncConnection} performs a complete exchange with the ACME server in the
+ * background, using the {@link Executor} of the {@link Session}. A new
+ * {@link Connection} is opened for the exchange, and closed afterwards. The result is
+ * returned as {@link CompletableFuture}, which is completed exceptionally with the
+ * {@link AcmeException} if the exchange failed.
+ * <p>
+ * If the session traces, the {@link TraceSpan} that is current when the exchange is
+ * started is also the current span of the exchange.
+ */
+public class AsyncConnection {
+
+    private final Session session;
+
+    /**
+     * Creates a new {@link AsyncConnection}.
+     *
+     * @param session
+     *            {@link Session} that provides the {@link Connection} and the
+     *            {@link Executor}
+     */
+    public AsyncConnection(Session session) {
+        this.session = Objects.requireNonNull(session, "session");
+    }
+
+    /**
+     * Performs an exchange with the ACME server in the background.
+     *
+     * @param exchange
+     *            {@link Exchange} to be performed
+     * @return {@link CompletableFuture} of the exchange result
+     */
+    public <T> CompletableFuture<T> exchange(Exchange<T> exchange) {
+        return exchange(TraceSpan.NONE, exchange);
+    }
+
+    /**
+     * Performs an exchange with the ACME server in the background, and traces it.
+     *
+     * @param span
+     *            {@link TraceSpan} of the exchange. It is the current span while the
+     *            exchange is performed, and is finished after the connection was
+     *            closed.
+     * @param exchange
+     *            {@link Exchange} to be performed
+     * @return {@link CompletableFuture} of the exchange result
+     */
+    public <T> CompletableFuture<T> exchange(TraceSpan span, Exchange<T> exchange) {
+        Objects.requireNonNull(span, "span");
+        Objects.requireNonNull(exchange, "exchange");
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        TraceSpan parent = span == TraceSpan.NONE && session.getTracer() != RequestTracer.NONE
+                        ? TraceSpan.current() : null;
+        try {
+            session.getExecutor().execute(() -> {
+                if (future.isDone()) {
+                    span.close();
+                    return; // cancelled before it was started
+                }
+
+                T result = null;
+                Exception failure = null;
+                TraceSpan previous = parent != null ? TraceSpan.swap(parent) : null;
+                try (TraceSpan active = span.activate()) {
+                    try (Connection conn = session.provider().connect()) {
+                        result = exchange.exchange(conn);
+                    } catch (Exception ex) {
+                        active.fail(ex);
+                        failure = ex;
+                    }
+                } finally {
+                    if (parent != null) {
+                        TraceSpan.swap(previous);
+                    }
+                }
+
+                // Complete only after the connection was closed, so dependent stages
+                // do not run while it still holds its resources.
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                } else {
+                    future.complete(result);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            span.fail(ex).close();
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * An exchange with the ACME server.
+     *
+     * @param <T>
+     *            Result type
+     */
+    @FunctionalInterface
+    public interface Exchange<T> {
+
+        /**
+         * Sends the request and evaluates the response.
+         *
+         * @param conn
+         *            {@link Connection} to be used. It is closed after the exchange.
+         * @return Result of the exchange
+         */
+        T exchange(Connection conn) throws AcmeException;
+
+    }
+
+}
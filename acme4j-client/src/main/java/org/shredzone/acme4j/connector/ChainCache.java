@@ -0,0 +1,191 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread safe cache of the issuer certificates of a certificate chain, by their
+ * location.
+ * <p>
+ * Usually all certificates of a CA share the same one or two issuer certificates, so
+ * they only need to be downloaded once. A cached issuer certificate is used without
+ * contacting the server until it is older than the maximum age. After that, it is
+ * revalidated with a conditional request, using the {@code ETag} and
+ * {@code Last-Modified} headers of the server's response.
+ * <p>
+ * The cache is bounded in size. If it is full, the least recently used issuer
+ * certificate is dropped.
+ */
+public class ChainCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ChainCache.class);
+
+    private final Map<URI, CachedIssuer> entries = new LinkedHashMap<URI, CachedIssuer>(16, 0.75f, true) {
+        private static final long serialVersionUID = 3154817592873262531L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<URI, CachedIssuer> eldest) {
+            return size() > capacity;
+        }
+    };
+    private int capacity = 64;
+    private Duration maxAge = Duration.ofHours(1);
+
+    /**
+     * Returns the issuer certificate at the given location. It is downloaded if it is
+     * not in the cache, and revalidated if its maximum age is exceeded.
+     *
+     * @param session
+     *            {@link Session} to be used for downloading
+     * @param location
+     *            Location of the issuer certificate
+     * @return {@link Issuer}
+     */
+    public Issuer fetch(Session session, URI location) throws AcmeException {
+        Objects.requireNonNull(session, "session");
+        Objects.requireNonNull(location, "location");
+
+        CachedIssuer entry;
+        long maxAgeNanos;
+        synchronized (this) {
+            entry = entries.computeIfAbsent(location, k -> new CachedIssuer());
+            maxAgeNanos = maxAge.toNanos();
+        }
+
+        synchronized (entry) {
+            if (entry.issuer != null && System.nanoTime() - entry.validated < maxAgeNanos) {
+                return entry.issuer;
+            }
+
+            try (Connection conn = session.provider().connect()) {
+                if (entry.issuer == null) {
+                    LOG.debug("Downloading issuer certificate {}", location);
+                    conn.sendRequest(location, session);
+                } else if (!conn.sendConditionalRequest(location, session,
+                                entry.eTag, entry.lastModified)) {
+                    LOG.debug("Issuer certificate {} is unchanged", location);
+                    entry.validated = System.nanoTime();
+                    return entry.issuer;
+                }
+
+                conn.accept(HttpURLConnection.HTTP_OK);
+                entry.issuer = new Issuer(conn.readCertificate(), conn.getLink("up"));
+                entry.eTag = conn.getETag();
+                entry.lastModified = conn.getLastModified();
+                entry.validated = System.nanoTime();
+                return entry.issuer;
+            }
+        }
+    }
+
+    /**
+     * Gets the maximum number of cached issuer certificates.
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum number of cached issuer certificates. Default is 64.
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        while (entries.size() > capacity) {
+            entries.remove(entries.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Gets the maximum age of a cached issuer certificate before it is revalidated.
+     */
+    public synchronized Duration getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets the maximum age of a cached issuer certificate before it is revalidated.
+     * Default is one hour.
+     */
+    public synchronized void setMaxAge(Duration maxAge) {
+        this.maxAge = Objects.requireNonNull(maxAge, "maxAge");
+    }
+
+    /**
+     * Returns the number of cached issuer certificates.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all issuer certificates from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * An issuer certificate, and the location of its own issuer.
+     */
+    public static class Issuer {
+        private final X509Certificate certificate;
+        private final URI issuerLocation;
+
+        public Issuer(X509Certificate certificate, URI issuerLocation) {
+            this.certificate = Objects.requireNonNull(certificate, "certificate");
+            this.issuerLocation = issuerLocation;
+        }
+
+        /**
+         * Returns the issuer certificate.
+         */
+        public X509Certificate getCertificate() {
+            return certificate;
+        }
+
+        /**
+         * Returns the location of the next issuer certificate of the chain, or
+         * {@code null} if this is the last one.
+         */
+        public URI getIssuerLocation() {
+            return issuerLocation;
+        }
+    }
+
+    /**
+     * A cache entry.
+     */
+    private static class CachedIssuer {
+        private Issuer issuer;
+        private String eTag;
+        private Instant lastModified;
+        private long validated;
+    }
+
+}
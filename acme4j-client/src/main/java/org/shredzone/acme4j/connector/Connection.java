@@ -15,6 +15,7 @@ package org.shredzone.acme4j.connector;
 
 import java.net.URI;
 import java.security.cert.X509Certificate;
+import java.time.Instant;
 import java.util.Collection;
 
 import org.shredzone.acme4j.Session;
@@ -28,6 +29,20 @@ import org.shredzone.acme4j.util.JSONBuilder;
  */
 public interface Connection extends AutoCloseable {
 
+    /**
+     * Fetches a fresh nonce from the server, and adds it to the nonce pool of the
+     * {@link Session}.
+     * <p>
+     * The default implementation does nothing. The nonce pool is then only filled by
+     * the nonces of regular responses.
+     *
+     * @param session
+     *            {@link Session} instance to be used for tracking
+     */
+    default void resetNonce(Session session) throws AcmeException {
+        // does nothing by default
+    }
+
     /**
      * Sends a simple GET request.
      *
@@ -38,6 +53,31 @@ public interface Connection extends AutoCloseable {
      */
     void sendRequest(URI uri, Session session) throws AcmeException;
 
+    /**
+     * Sends a conditional GET request. The resource is only sent by the server if it
+     * does not match the given validators.
+     * <p>
+     * The default implementation ignores the validators, sends a simple GET request, and
+     * always returns {@code true}.
+     *
+     * @param uri
+     *            {@link URI} to send the request to.
+     * @param session
+     *            {@link Session} instance to be used for tracking
+     * @param eTag
+     *            ETag of the cached resource, or {@code null} if unknown
+     * @param lastModified
+     *            Last modification date of the cached resource, or {@code null} if
+     *            unknown
+     * @return {@code true} if the resource was sent, {@code false} if the server
+     *         responded that the cached resource is still up to date
+     */
+    default boolean sendConditionalRequest(URI uri, Session session, String eTag,
+                Instant lastModified) throws AcmeException {
+        sendRequest(uri, session);
+        return true;
+    }
+
     /**
      * Sends a signed POST request.
      *
@@ -123,6 +163,34 @@ public interface Connection extends AutoCloseable {
      */
     Collection<URI> getLinks(String relation);
 
+    /**
+     * Gets the value of the {@code ETag} header.
+     *
+     * @return ETag, or {@code null} if no ETag header was set
+     */
+    default String getETag() {
+        return null;
+    }
+
+    /**
+     * Gets the value of the {@code Last-Modified} header.
+     *
+     * @return Last modification date, or {@code null} if no Last-Modified header was set
+     */
+    default Instant getLastModified() {
+        return null;
+    }
+
+    /**
+     * Gets the expiration date of the response, as given by the {@code Cache-Control}
+     * or {@code Expires} header.
+     *
+     * @return Expiration date, or {@code null} if no such header was set
+     */
+    default Instant getExpiration() {
+        return null;
+    }
+
     /**
      * Closes the {@link Connection}, releasing all resources.
      */
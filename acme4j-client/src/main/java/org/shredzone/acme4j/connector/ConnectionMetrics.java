@@ -0,0 +1,92 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+/**
+ * Receives metrics of the requests that are sent by a {@link Connection}.
+ * <p>
+ * All methods do nothing by default, so implementations only need to override the
+ * metrics they are interested in. They are invoked synchronously by the connection, so
+ * they must be fast and thread safe, and must not throw exceptions.
+ * <p>
+ * By default, a {@link org.shredzone.acme4j.Session} uses {@link #NONE}. In that case,
+ * the connection does not even take the time of the requests.
+ */
+public interface ConnectionMetrics {
+
+    /**
+     * {@link ConnectionMetrics} that discards all metrics.
+     */
+    ConnectionMetrics NONE = new ConnectionMetrics() {};
+
+    /**
+     * A request was completed.
+     *
+     * @param resource
+     *            {@link Resource} the request was sent to, or {@code null} if the
+     *            request was sent to another URI (e.g. a registration or an
+     *            authorization)
+     * @param method
+     *            HTTP method, e.g. {@code "POST"}
+     * @param status
+     *            HTTP status code, or 0 if no response was received
+     * @param error
+     *            ACME error type, without the error prefix (e.g. {@code "badNonce"}).
+     *            {@code null} if the server did not send a problem document, or if it
+     *            was not read.
+     * @param nanos
+     *            Time from sending the request until the response was received, in
+     *            nanoseconds
+     */
+    default void request(Resource resource, String method, int status, String error, long nanos) {
+        // does nothing by default
+    }
+
+    /**
+     * A nonce was required for a signed request.
+     *
+     * @param pooled
+     *            {@code true} if the nonce was taken from the {@link NoncePool},
+     *            {@code false} if a new nonce had to be fetched from the server first
+     */
+    default void nonce(boolean pooled) {
+        // does nothing by default
+    }
+
+    /**
+     * A signed request is sent again.
+     *
+     * @param resource
+     *            {@link Resource} the request was sent to, or {@code null}
+     * @param reason
+     *            ACME error type that caused the retry, either {@code "badNonce"} or
+     *            {@code "rateLimited"}
+     */
+    default void retry(Resource resource, String reason) {
+        // does nothing by default
+    }
+
+    /**
+     * A signed request had to wait for a permit of the {@link RateLimiter}.
+     *
+     * @param resource
+     *            {@link Resource} that is rate limited
+     * @param nanos
+     *            Waiting time, in nanoseconds
+     */
+    default void rateLimitWait(Resource resource, long nanos) {
+        // does nothing by default
+    }
+
+}
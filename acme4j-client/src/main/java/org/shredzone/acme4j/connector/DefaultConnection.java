@@ -14,9 +14,6 @@
 package org.shredzone.acme4j.connector;
 
 import org.jose4j.base64url.Base64Url;
-import org.jose4j.jwk.PublicJsonWebKey;
-import org.jose4j.jws.JsonWebSignature;
-import org.jose4j.lang.JoseException;
 import org.shredzone.acme4j.Session;
 import org.shredzone.acme4j.exception.*;
 import org.shredzone.acme4j.util.AcmeUtils;
@@ -29,17 +26,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.*;
-import java.security.KeyPair;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static org.shredzone.acme4j.util.AcmeUtils.keyAlgorithm;
-
 /**
  * Default implementation of {@link Connection}.
  */
@@ -49,18 +44,39 @@ public class DefaultConnection implements Connection {
     private static final String ACCEPT_HEADER = "Accept";
     private static final String ACCEPT_CHARSET_HEADER = "Accept-Charset";
     private static final String ACCEPT_LANGUAGE_HEADER = "Accept-Language";
+    private static final String CACHE_CONTROL_HEADER = "Cache-Control";
     private static final String CONTENT_TYPE_HEADER = "Content-Type";
     private static final String DATE_HEADER = "Date";
+    private static final String ETAG_HEADER = "ETag";
+    private static final String EXPIRES_HEADER = "Expires";
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
     private static final String LINK_HEADER = "Link";
     private static final String LOCATION_HEADER = "Location";
     private static final String REPLAY_NONCE_HEADER = "Replay-Nonce";
     private static final String RETRY_AFTER_HEADER = "Retry-After";
     private static final String DEFAULT_CHARSET = "utf-8";
+    private static final int MAX_ATTEMPTS = 2;
+    private static final int MAX_RATE_LIMIT_ATTEMPTS = 3;
+    private static final long RATE_LIMIT_WAIT_THRESHOLD = 1_000_000L;
 
     private static final Pattern BASE64URL_PATTERN = Pattern.compile("[0-9A-Za-z_-]+");
+    private static final Pattern MAX_AGE_PATTERN = Pattern.compile("max-age\\s*=\\s*\"?(\\d+)\"?");
+
+    // the JWS buffers are reused by all connections of a thread
+    private static final ThreadLocal<JwsWriter> JWS_WRITER = ThreadLocal.withInitial(JwsWriter::new);
 
     protected final HttpConnector httpConnector;
     protected HttpURLConnection conn;
+    private JSON jsonResponse;
+    private ConnectionMetrics metrics = ConnectionMetrics.NONE;
+    private Resource requestResource;
+    private String requestMethod;
+    private long requestStart;
+    private long requestNanos;
+    private int responseCode;
+    private TraceSpan span;
+    private TraceSpan outerSpan;
 
     /**
      * Creates a new {@link DefaultConnection}.
@@ -73,23 +89,27 @@ public class DefaultConnection implements Connection {
     }
 
     @Override
-    public void sendRequest(URI uri, Session session) throws AcmeException {
-        Objects.requireNonNull(uri, "uri");
+    public void resetNonce(Session session) throws AcmeException {
         Objects.requireNonNull(session, "session");
         assertConnectionIsClosed();
 
-        LOG.debug("GET {}", uri);
-
-        try {
-            conn = httpConnector.openConnection(uri);
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty(ACCEPT_CHARSET_HEADER, DEFAULT_CHARSET);
-            conn.setRequestProperty(ACCEPT_LANGUAGE_HEADER, session.getLocale().toLanguageTag());
-            conn.setDoOutput(false);
+        byte[] nonce = fetchNonce(session);
+        if (nonce != null) {
+            session.setNonce(nonce);
+        }
+    }
 
-            conn.connect();
+    @Override
+    public void sendRequest(URI uri, Session session) throws AcmeException {
+        sendGetRequest(uri, session, null, null);
+    }
 
-            logHeaders();
+    @Override
+    public boolean sendConditionalRequest(URI uri, Session session, String eTag, Instant lastModified)
+                throws AcmeException {
+        sendGetRequest(uri, session, eTag, lastModified);
+        try {
+            return conn.getResponseCode() != HttpURLConnection.HTTP_NOT_MODIFIED;
         } catch (IOException ex) {
             throw new AcmeNetworkException(ex);
         }
@@ -103,57 +123,105 @@ public class DefaultConnection implements Connection {
         assertConnectionIsClosed();
 
         try {
-            KeyPair keypair = session.getKeyPair();
+            AccountKeyContext keyContext = session.getKeyContext();
+            RateLimiter rateLimiter = session.getRateLimiter();
+            Resource limited = rateLimiter.findResource(session, uri);
+            int rateLimitAttempt = 1;
+
+            ConnectionMetrics requestMetrics = session.getMetrics();
+            boolean measured = requestMetrics != ConnectionMetrics.NONE;
+            Resource resource = limited;
+            if (measured && resource == null) {
+                resource = findResource(session, uri);
+            }
+
+            for (int attempt = 1; ; attempt++) {
+                startSpan(session, "POST", uri);
+
+                if (limited != null) {
+                    long waitStart = measured || span != null ? System.nanoTime() : 0L;
+                    rateLimiter.acquire(limited);
+                    if (measured) {
+                        long waited = System.nanoTime() - waitStart;
+                        if (waited >= RATE_LIMIT_WAIT_THRESHOLD) {
+                            requestMetrics.rateLimitWait(limited, waited);
+                        }
+                    }
+                    phase("rateLimit", waitStart);
+                }
+
+                byte[] nonce = session.takeNonce();
+                if (measured) {
+                    requestMetrics.nonce(nonce != null);
+                }
+                if (nonce == null) {
+                    long nonceStart = tick();
+                    nonce = fetchNonce(session);
+                    phase("nonce", nonceStart);
+                }
+
+                if (nonce == null) {
+                    throw new AcmeProtocolException("Server did not provide a nonce");
+                }
+
+                LOG.debug("POST {} with claims: {}", uri, claims);
 
-            if (session.getNonce() == null) {
-                LOG.debug("Getting initial nonce, HEAD {}", session.resourceUri(Resource.NEW_NONCE));
-                conn = httpConnector.openConnection(session.resourceUri(Resource.NEW_NONCE));
-                conn.setRequestMethod("HEAD");
+                long signStart = tick();
+                byte[] payload = claims.toString().getBytes(DEFAULT_CHARSET);
+                JwsWriter jwsWriter = JWS_WRITER.get();
+                int length = jwsWriter.write(keyContext, nonce, uri, payload);
+                phase("sign", signStart);
+
+                begin(session, resource, "POST");
+                conn = httpConnector.openConnection(uri);
+                conn.setRequestMethod("POST");
+                conn.setRequestProperty(ACCEPT_HEADER, "application/json");
+                conn.setRequestProperty(ACCEPT_CHARSET_HEADER, DEFAULT_CHARSET);
                 conn.setRequestProperty(ACCEPT_LANGUAGE_HEADER, session.getLocale().toLanguageTag());
-                conn.connect();
-                updateSession(session);
-                conn = null;
-            }
+                conn.setRequestProperty(CONTENT_TYPE_HEADER, "application/jose+json");
+                conn.setDoOutput(true);
+                conn.setFixedLengthStreamingMode(length);
+                connect(uri);
+
+                long sendStart = tick();
+                try (OutputStream out = conn.getOutputStream()) {
+                    out.write(jwsWriter.getBuffer(), 0, length);
+                }
+                phase("send", sendStart);
 
-            if (session.getNonce() == null) {
-                throw new AcmeProtocolException("Server did not provide a nonce");
-            }
+                responded(tick());
+                logHeaders();
 
-            LOG.debug("POST {} with claims: {}", uri, claims);
+                updateSession(session);
 
-            conn = httpConnector.openConnection(uri);
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty(ACCEPT_HEADER, "application/json");
-            conn.setRequestProperty(ACCEPT_CHARSET_HEADER, DEFAULT_CHARSET);
-            conn.setRequestProperty(ACCEPT_LANGUAGE_HEADER, session.getLocale().toLanguageTag());
-            conn.setRequestProperty(CONTENT_TYPE_HEADER, "application/jose+json");
-            conn.setDoOutput(true);
-
-            final PublicJsonWebKey jwk = PublicJsonWebKey.Factory.newPublicJwk(keypair.getPublic());
-
-            JsonWebSignature jws = new JsonWebSignature();
-            jws.setPayload(claims.toString());
-            jws.getHeaders().setObjectHeaderValue("nonce", Base64Url.encode(session.getNonce()));
-            jws.getHeaders().setObjectHeaderValue("url", uri);
-            jws.getHeaders().setJwkHeaderValue("jwk", jwk);
-            jws.setAlgorithmHeaderValue(keyAlgorithm(jwk));
-            jws.setKey(keypair.getPrivate());
-            byte[] outputData = jws.getCompactSerialization().getBytes(DEFAULT_CHARSET);
-            System.out.println(new String(outputData));
-            conn.setFixedLengthStreamingMode(outputData.length);
-            conn.connect();
-
-            try (OutputStream out = conn.getOutputStream()) {
-                out.write(outputData);
-            }
+                if (attempt < MAX_ATTEMPTS && isBadNonce()) {
+                    LOG.debug("Bad nonce, retrying with a fresh nonce");
+                    release();
+                    if (measured) {
+                        requestMetrics.retry(resource, "badNonce");
+                    }
+                    continue;
+                }
 
-            logHeaders();
+                if (limited != null && isRateLimited()) {
+                    Instant retryAfter = getRetryAfterHeader().orElse(null);
+                    rateLimiter.park(limited, retryAfter);
+                    if (rateLimitAttempt++ < MAX_RATE_LIMIT_ATTEMPTS && isWithin(retryAfter, rateLimiter.getMaxWait())) {
+                        LOG.debug("Rate limit exceeded, retrying after {}", retryAfter);
+                        release();
+                        if (measured) {
+                            requestMetrics.retry(resource, "rateLimited");
+                        }
+                        attempt = 0;
+                        continue;
+                    }
+                }
 
-            updateSession(session);
+                break;
+            }
         } catch (IOException ex) {
+            discard();
             throw new AcmeNetworkException(ex);
-        } catch (JoseException ex) {
-            throw new AcmeProtocolException("Failed to generate a JSON request", ex);
         }
     }
 
@@ -194,20 +262,24 @@ public class DefaultConnection implements Connection {
             throw new AcmeProtocolException("Unexpected content type: " + contentType);
         }
 
-        JSON result = null;
+        if (jsonResponse != null) {
+            return jsonResponse;
+        }
 
         try {
+            long parseStart = tick();
             InputStream in =
                     conn.getResponseCode() < 400 ? conn.getInputStream() : conn.getErrorStream();
             if (in != null) {
-                result = JSON.parse(in);
-                LOG.debug("Result JSON: {}", result);
+                jsonResponse = JSON.parse(in);
+                LOG.debug("Result JSON: {}", jsonResponse);
             }
+            phase("parse", parseStart);
         } catch (IOException ex) {
             throw new AcmeNetworkException(ex);
         }
 
-        return result;
+        return jsonResponse;
     }
 
     @Override
@@ -219,9 +291,12 @@ public class DefaultConnection implements Connection {
             throw new AcmeProtocolException("Unexpected content type: " + contentType);
         }
 
+        long parseStart = tick();
         try (InputStream in = conn.getInputStream()) {
             CertificateFactory cf = CertificateFactory.getInstance("X.509");
-            return (X509Certificate) cf.generateCertificate(in);
+            X509Certificate cert = (X509Certificate) cf.generateCertificate(in);
+            phase("parse", parseStart);
+            return cert;
         } catch (IOException ex) {
             throw new AcmeNetworkException(ex);
         } catch (CertificateException ex) {
@@ -249,18 +324,10 @@ public class DefaultConnection implements Connection {
     public void updateSession(Session session) {
         assertConnectionIsOpen();
 
-        String nonceHeader = conn.getHeaderField(REPLAY_NONCE_HEADER);
-        if (nonceHeader == null || nonceHeader.trim().isEmpty()) {
-            return;
+        byte[] nonce = readNonce();
+        if (nonce != null) {
+            session.setNonce(nonce);
         }
-
-        if (!BASE64URL_PATTERN.matcher(nonceHeader).matches()) {
-            throw new AcmeProtocolException("Invalid replay nonce: " + nonceHeader);
-        }
-
-        LOG.debug("Replay Nonce: {}", nonceHeader);
-
-        session.setNonce(Base64Url.decode(nonceHeader));
     }
 
     @Override
@@ -312,9 +379,85 @@ public class DefaultConnection implements Connection {
         return !result.isEmpty() ? result : null;
     }
 
+    @Override
+    public String getETag() {
+        assertConnectionIsOpen();
+        return conn.getHeaderField(ETAG_HEADER);
+    }
+
+    @Override
+    public Instant getLastModified() {
+        assertConnectionIsOpen();
+        long date = conn.getHeaderFieldDate(LAST_MODIFIED_HEADER, 0L);
+        return date != 0L ? Instant.ofEpochMilli(date) : null;
+    }
+
+    @Override
+    public Instant getExpiration() {
+        assertConnectionIsOpen();
+
+        String cacheControl = conn.getHeaderField(CACHE_CONTROL_HEADER);
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                String value = directive.trim().toLowerCase(Locale.ENGLISH);
+                if ("no-cache".equals(value) || "no-store".equals(value)) {
+                    return Instant.now();
+                }
+
+                Matcher m = MAX_AGE_PATTERN.matcher(value);
+                if (m.matches()) {
+                    long date = conn.getHeaderFieldDate(DATE_HEADER, 0L);
+                    Instant base = date != 0L ? Instant.ofEpochMilli(date) : Instant.now();
+                    return base.plusSeconds(Long.parseLong(m.group(1)));
+                }
+            }
+        }
+
+        long expires = conn.getHeaderFieldDate(EXPIRES_HEADER, 0L);
+        return expires != 0L ? Instant.ofEpochMilli(expires) : null;
+    }
+
     @Override
     public void close() {
-        conn = null;
+        release();
+    }
+
+    /**
+     * Sends a GET request, optionally with the validators of a cached resource.
+     */
+    private void sendGetRequest(URI uri, Session session, String eTag, Instant lastModified)
+                throws AcmeException {
+        Objects.requireNonNull(uri, "uri");
+        Objects.requireNonNull(session, "session");
+        assertConnectionIsClosed();
+
+        LOG.debug("GET {}", uri);
+
+        try {
+            startSpan(session, "GET", uri);
+            begin(session, null, "GET");
+            conn = httpConnector.openConnection(uri);
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty(ACCEPT_CHARSET_HEADER, DEFAULT_CHARSET);
+            conn.setRequestProperty(ACCEPT_LANGUAGE_HEADER, session.getLocale().toLanguageTag());
+            if (eTag != null) {
+                conn.setRequestProperty(IF_NONE_MATCH_HEADER, eTag);
+            }
+            if (lastModified != null) {
+                conn.setIfModifiedSince(lastModified.toEpochMilli());
+            }
+            conn.setDoOutput(false);
+
+            connect(uri);
+
+            responded(tick());
+            logHeaders();
+
+            updateSession(session);
+        } catch (IOException ex) {
+            discard();
+            throw new AcmeNetworkException(ex);
+        }
     }
 
     /**
@@ -378,6 +521,272 @@ public class DefaultConnection implements Connection {
         return new AcmeServerException(type, detail);
     }
 
+    /**
+     * Checks if the server rejected the request because of a bad nonce.
+     */
+    private boolean isBadNonce() throws AcmeException, IOException {
+        if (conn.getResponseCode() != HttpURLConnection.HTTP_BAD_REQUEST
+                || !"application/problem+json".equals(conn.getHeaderField(CONTENT_TYPE_HEADER))) {
+            return false;
+        }
+
+        JSON json = readJsonResponse();
+        return json != null
+                && "badNonce".equals(AcmeUtils.stripErrorPrefix(json.get("type").asString()));
+    }
+
+    /**
+     * Checks if the server rejected the request because of an exceeded rate limit.
+     */
+    private boolean isRateLimited() throws AcmeException, IOException {
+        if (conn.getResponseCode() != 429
+                || !"application/problem+json".equals(conn.getHeaderField(CONTENT_TYPE_HEADER))) {
+            return false;
+        }
+
+        JSON json = readJsonResponse();
+        return json != null
+                && "rateLimited".equals(AcmeUtils.stripErrorPrefix(json.get("type").asString()));
+    }
+
+    /**
+     * Checks if the given moment is known, and not later than the maximum wait time.
+     */
+    private static boolean isWithin(Instant instant, Duration maxWait) {
+        return instant != null && !Instant.now().plus(maxWait).isBefore(instant);
+    }
+
+    /**
+     * Fetches a fresh nonce from the server. The nonce is returned to the caller instead
+     * of being added to the nonce pool, so it cannot be taken by another thread.
+     *
+     * @param session
+     *            {@link Session} instance to be used for tracking
+     * @return Nonce, or {@code null} if the server did not provide one
+     */
+    private byte[] fetchNonce(Session session) throws AcmeException {
+        try {
+            URI newNonceUri = session.resourceUri(Resource.NEW_NONCE);
+            LOG.debug("Getting new nonce, HEAD {}", newNonceUri);
+            startSpan(session, "HEAD", newNonceUri);
+            begin(session, Resource.NEW_NONCE, "HEAD");
+            conn = httpConnector.openConnection(newNonceUri);
+            conn.setRequestMethod("HEAD");
+            conn.setRequestProperty(ACCEPT_LANGUAGE_HEADER, session.getLocale().toLanguageTag());
+            connect(newNonceUri);
+            responded(tick());
+            byte[] nonce = readNonce();
+            release();
+            return nonce;
+        } catch (IOException ex) {
+            discard();
+            throw new AcmeNetworkException(ex);
+        }
+    }
+
+    /**
+     * Reads the nonce from the {@code Replay-Nonce} header of the current connection.
+     *
+     * @return Nonce, or {@code null} if there is no such header
+     */
+    private byte[] readNonce() {
+        String nonceHeader = conn.getHeaderField(REPLAY_NONCE_HEADER);
+        if (nonceHeader == null || nonceHeader.trim().isEmpty()) {
+            return null;
+        }
+
+        if (!BASE64URL_PATTERN.matcher(nonceHeader).matches()) {
+            throw new AcmeProtocolException("Invalid replay nonce: " + nonceHeader);
+        }
+
+        LOG.debug("Replay Nonce: {}", nonceHeader);
+
+        return Base64Url.decode(nonceHeader);
+    }
+
+    /**
+     * Hands the current connection back to the {@link HttpConnector}, so the underlying
+     * socket can be reused. Does nothing if there is no current connection.
+     */
+    private void release() {
+        if (conn != null) {
+            report();
+            httpConnector.release(conn);
+            conn = null;
+            jsonResponse = null;
+        }
+        finishSpan();
+    }
+
+    /**
+     * Discards the current connection after a failure, so it won't be reused. Does
+     * nothing if there is no current connection.
+     */
+    private void discard() {
+        if (conn != null) {
+            report();
+            httpConnector.discard(conn);
+            conn = null;
+            jsonResponse = null;
+        }
+        finishSpan();
+    }
+
+    /**
+     * Starts taking the metrics of a new request, if the session collects metrics.
+     *
+     * @param session
+     *            {@link Session} that is used for the request
+     * @param resource
+     *            {@link Resource} the request is sent to, or {@code null}
+     * @param method
+     *            HTTP method
+     */
+    private void begin(Session session, Resource resource, String method) {
+        metrics = session.getMetrics();
+        if (metrics != ConnectionMetrics.NONE) {
+            requestResource = resource;
+            requestMethod = method;
+            requestNanos = -1L;
+            responseCode = 0;
+            requestStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Waits for the response, and takes the response time and the HTTP status of the
+     * current request, if the session collects metrics or traces.
+     *
+     * @param sent
+     *            Time when the request was sent, as given by {@link #tick()}
+     */
+    private void responded(long sent) throws IOException {
+        if (metrics != ConnectionMetrics.NONE || span != null) {
+            responseCode = conn.getResponseCode();
+            requestNanos = System.nanoTime() - requestStart;
+            phase("server", sent);
+            if (span != null) {
+                span.tag("status", responseCode);
+            }
+        }
+    }
+
+    /**
+     * Connects to the server. If the session traces, the host name is resolved first,
+     * so the time of the lookup can be told apart from the time of the connection.
+     *
+     * @param uri
+     *            {@link URI} to connect to
+     */
+    private void connect(URI uri) throws IOException {
+        if (span != null && uri.getHost() != null) {
+            long resolveStart = System.nanoTime();
+            try {
+                InetAddress.getAllByName(uri.getHost());
+            } catch (UnknownHostException ex) {
+                // leave it to the connection, it may be using a proxy
+            }
+            phase("resolve", resolveStart);
+        }
+
+        long connectStart = tick();
+        conn.connect();
+        phase("connect", connectStart);
+    }
+
+    /**
+     * Starts tracing a new request, if the session traces. If another request is traced
+     * by this connection (e.g. a signed request that needs a fresh nonce), the new
+     * request is traced as its child.
+     *
+     * @param session
+     *            {@link Session} that is used for the request
+     * @param method
+     *            HTTP method
+     * @param uri
+     *            Request {@link URI}
+     */
+    private void startSpan(Session session, String method, URI uri) {
+        RequestTracer tracer = session.getTracer();
+        if (tracer == RequestTracer.NONE) {
+            return;
+        }
+
+        outerSpan = span;
+        span = TraceSpan.start(tracer, span != null ? span : TraceSpan.current(), method)
+                        .tag("uri", uri);
+    }
+
+    /**
+     * Finishes tracing the current request. Does nothing if no request is traced.
+     */
+    private void finishSpan() {
+        if (span != null) {
+            TraceSpan finished = span;
+            span = outerSpan;
+            outerSpan = null;
+            finished.close();
+        }
+    }
+
+    /**
+     * Returns the current {@link System#nanoTime()} if the session collects metrics or
+     * traces, 0 otherwise.
+     */
+    private long tick() {
+        return metrics != ConnectionMetrics.NONE || span != null ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Reports a phase of the current request that has just ended. Does nothing if no
+     * request is traced.
+     *
+     * @param name
+     *            Name of the phase
+     * @param start
+     *            Start of the phase, as given by {@link #tick()}
+     */
+    private void phase(String name, long start) {
+        if (span != null) {
+            span.record(name, start);
+        }
+    }
+
+    /**
+     * Reports the metrics of the current request. The ACME error type is only reported
+     * if the problem document was read. Does nothing if the session does not collect
+     * metrics, or if the request was already reported.
+     */
+    private void report() {
+        if (metrics == ConnectionMetrics.NONE || requestMethod == null) {
+            return;
+        }
+
+        String error = null;
+        if (responseCode >= 400 && jsonResponse != null) {
+            error = AcmeUtils.stripErrorPrefix(jsonResponse.get("type").asString());
+        }
+
+        long nanos = requestNanos >= 0L ? requestNanos : System.nanoTime() - requestStart;
+        metrics.request(requestResource, requestMethod, responseCode, error, nanos);
+        requestMethod = null;
+    }
+
+    /**
+     * Finds the {@link Resource} of the given URI.
+     *
+     * @return {@link Resource}, or {@code null} if the URI is not a resource of the
+     *         directory
+     */
+    private static Resource findResource(Session session, URI uri) throws AcmeException {
+        for (Resource resource : Resource.values()) {
+            if (uri.equals(session.resourceUri(resource))) {
+                return resource;
+            }
+        }
+        return null;
+    }
+
     /**
      * Asserts that the connection is currently open. Throws an exception if not.
      */
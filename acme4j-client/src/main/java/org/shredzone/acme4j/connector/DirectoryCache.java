@@ -0,0 +1,351 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.util.JSON;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread safe cache of ACME server directories, by server URI.
+ * <p>
+ * By default, every {@link Session} has its own cache. If the same instance is set to
+ * many sessions (e.g. one session per account), the directory is only fetched once for
+ * all of them.
+ * <p>
+ * The expiry date of a directory is taken from the {@code Cache-Control} and
+ * {@code Expires} headers of the server's response. If there are no such headers, the
+ * default maximum age is used. Expired directories are still returned, while they are
+ * revalidated in the background, using the {@code ETag} and {@code Last-Modified}
+ * headers of the previous response.
+ * <p>
+ * The cache can optionally be persisted to a file, so the directories are instantly
+ * available after a restart.
+ */
+public class DirectoryCache {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectoryCache.class);
+
+    private final ConcurrentMap<URI, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<URI> refreshing = ConcurrentHashMap.newKeySet();
+    private final Path file;
+    private volatile Duration defaultMaxAge = Duration.ofHours(1);
+    private volatile Duration minimumMaxAge = Duration.ofMinutes(1);
+
+    /**
+     * Creates a new in-memory {@link DirectoryCache}.
+     */
+    public DirectoryCache() {
+        this(null);
+    }
+
+    /**
+     * Creates a new {@link DirectoryCache} that is persisted to a file.
+     *
+     * @param file
+     *            File to persist the cache to, or {@code null} for an in-memory cache.
+     *            If the file exists, the cache is loaded from it.
+     */
+    public DirectoryCache(Path file) {
+        this.file = file;
+
+        if (file != null && Files.exists(file)) {
+            try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                load(r);
+            } catch (IOException ex) {
+                LOG.warn("Could not read directory cache " + file, ex);
+            }
+        }
+    }
+
+    /**
+     * Gets the maximum age of a directory if the server did not send cache headers.
+     */
+    public Duration getDefaultMaxAge() {
+        return defaultMaxAge;
+    }
+
+    /**
+     * Sets the maximum age of a directory if the server did not send cache headers.
+     * Default is one hour.
+     */
+    public void setDefaultMaxAge(Duration defaultMaxAge) {
+        this.defaultMaxAge = Objects.requireNonNull(defaultMaxAge, "defaultMaxAge");
+    }
+
+    /**
+     * Gets the minimum time a directory is used before it is revalidated.
+     */
+    public Duration getMinimumMaxAge() {
+        return minimumMaxAge;
+    }
+
+    /**
+     * Sets the minimum time a directory is used before it is revalidated, even if the
+     * cache headers of the server demand a shorter period. Default is one minute.
+     */
+    public void setMinimumMaxAge(Duration minimumMaxAge) {
+        this.minimumMaxAge = Objects.requireNonNull(minimumMaxAge, "minimumMaxAge");
+    }
+
+    /**
+     * Returns the cached directory of a server, even if it is expired.
+     *
+     * @param serverUri
+     *            Server {@link URI}
+     * @return {@link Entry}, or {@code null} if the directory is not cached
+     */
+    public Entry get(URI serverUri) {
+        return entries.get(serverUri);
+    }
+
+    /**
+     * Puts a directory into the cache. If the entry has no expiry date, or expires
+     * earlier than the minimum maximum age, its expiry date is adjusted.
+     *
+     * @param serverUri
+     *            Server {@link URI}
+     * @param entry
+     *            {@link Entry} to put
+     * @return The {@link Entry} that was put into the cache
+     */
+    public Entry put(URI serverUri, Entry entry) {
+        Objects.requireNonNull(serverUri, "serverUri");
+        Objects.requireNonNull(entry, "entry");
+
+        Instant now = Instant.now();
+        Instant minimum = now.plus(minimumMaxAge);
+        Instant expires = entry.expires != null ? entry.expires : now.plus(defaultMaxAge);
+        if (expires.isBefore(minimum)) {
+            expires = minimum;
+        }
+
+        Entry stored = new Entry(entry.directory, entry.eTag, entry.lastModified, expires);
+        entries.put(serverUri, stored);
+        persist();
+        return stored;
+    }
+
+    /**
+     * Postpones the expiry of a cached directory, e.g. after it could not be
+     * revalidated.
+     *
+     * @param serverUri
+     *            Server {@link URI}
+     * @param delay
+     *            Delay from now
+     */
+    public void postpone(URI serverUri, Duration delay) {
+        Instant expires = Instant.now().plus(delay);
+        entries.computeIfPresent(serverUri,
+                        (uri, e) -> new Entry(e.directory, e.eTag, e.lastModified, expires));
+    }
+
+    /**
+     * Removes the directory of a server from the cache, so it is fetched again on next
+     * use.
+     *
+     * @param serverUri
+     *            Server {@link URI}
+     */
+    public void invalidate(URI serverUri) {
+        entries.remove(serverUri);
+        persist();
+    }
+
+    /**
+     * Marks the directory of a server as being refreshed.
+     *
+     * @param serverUri
+     *            Server {@link URI}
+     * @return {@code true} if the caller should refresh the directory, {@code false} if
+     *         it is already being refreshed
+     */
+    public boolean startRefresh(URI serverUri) {
+        return refreshing.add(serverUri);
+    }
+
+    /**
+     * Marks the refresh of the directory of a server as finished.
+     *
+     * @param serverUri
+     *            Server {@link URI}
+     */
+    public void endRefresh(URI serverUri) {
+        refreshing.remove(serverUri);
+    }
+
+    /**
+     * Writes the cache.
+     * <p>
+     * Each directory is written as a line containing the server URI, the expiry date,
+     * the ETag, the last modification date and the directory JSON, separated by tab
+     * characters. Missing values are written as {@code -}.
+     *
+     * @param w
+     *            {@link Writer} to write to
+     */
+    public void save(Writer w) throws IOException {
+        BufferedWriter bw = w instanceof BufferedWriter ? (BufferedWriter) w : new BufferedWriter(w);
+        for (Map.Entry<URI, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            bw.write(e.getKey().toString());
+            bw.write('\t');
+            bw.write(entry.expires.toString());
+            bw.write('\t');
+            bw.write(entry.eTag != null ? entry.eTag : "-");
+            bw.write('\t');
+            bw.write(entry.lastModified != null ? entry.lastModified.toString() : "-");
+            bw.write('\t');
+            bw.write(entry.directory.toString());
+            bw.write('\n');
+        }
+        bw.flush();
+    }
+
+    /**
+     * Reads directories that were written by {@link #save(Writer)}, and adds them to the
+     * cache. Malformed lines are skipped.
+     *
+     * @param r
+     *            {@link Reader} to read from
+     */
+    public void load(Reader r) throws IOException {
+        BufferedReader br = r instanceof BufferedReader ? (BufferedReader) r : new BufferedReader(r);
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] parts = line.split("\t", 5);
+            if (parts.length != 5) {
+                continue;
+            }
+
+            try {
+                entries.put(URI.create(parts[0]), new Entry(
+                                JSON.parse(parts[4]),
+                                "-".equals(parts[2]) ? null : parts[2],
+                                "-".equals(parts[3]) ? null : Instant.parse(parts[3]),
+                                Instant.parse(parts[1])));
+            } catch (RuntimeException ex) {
+                LOG.debug("Skipping malformed line: {}", line, ex);
+            }
+        }
+    }
+
+    /**
+     * Writes the cache to its file, if it has one. The file is replaced atomically.
+     */
+    private void persist() {
+        if (file == null) {
+            return;
+        }
+
+        synchronized (entries) {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    save(w);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                LOG.warn("Could not write directory cache " + file, ex);
+            }
+        }
+    }
+
+    /**
+     * A cached directory, and the cache headers of the server's response.
+     */
+    public static class Entry {
+        private final JSON directory;
+        private final String eTag;
+        private final Instant lastModified;
+        private final Instant expires;
+
+        /**
+         * Creates a new {@link Entry}.
+         *
+         * @param directory
+         *            Directory JSON
+         * @param eTag
+         *            ETag of the response, or {@code null}
+         * @param lastModified
+         *            Last modification date of the response, or {@code null}
+         * @param expires
+         *            Expiry date of the response, or {@code null} if the server did not
+         *            send cache headers
+         */
+        public Entry(JSON directory, String eTag, Instant lastModified, Instant expires) {
+            this.directory = Objects.requireNonNull(directory, "directory");
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+        /**
+         * Returns the directory JSON.
+         */
+        public JSON getDirectory() {
+            return directory;
+        }
+
+        /**
+         * Returns the ETag of the server's response, or {@code null} if there was none.
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * Returns the last modification date of the server's response, or {@code null}
+         * if there was none.
+         */
+        public Instant getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns the expiry date, or {@code null} if the server did not send cache
+         * headers.
+         */
+        public Instant getExpires() {
+            return expires;
+        }
+
+        /**
+         * Checks if the directory is expired, and should be revalidated.
+         */
+        public boolean isExpired() {
+            return expires != null && !expires.isAfter(Instant.now());
+        }
+    }
+
+}
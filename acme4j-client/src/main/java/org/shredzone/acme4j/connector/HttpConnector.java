@@ -19,6 +19,7 @@ import java.net.HttpURLConnection;
 import java.net.URI;
 import java.util.Properties;
 
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
@@ -29,8 +30,10 @@ import org.slf4j.LoggerFactory;
  * certificate.
  */
 public class HttpConnector {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpConnector.class);
 
     private static final int TIMEOUT = 10000;
+    private static final int MAX_DRAIN = 64 * 1024;
     private static final String USER_AGENT;
 
     static {
@@ -42,7 +45,7 @@ public class HttpConnector {
             agent.append('/').append(prop.getProperty("version"));
         } catch (IOException ex) {
             // Ignore, just don't use a version
-            LoggerFactory.getLogger(HttpConnector.class).warn("Could not read library version", ex);
+            LOG.warn("Could not read library version", ex);
         }
 
         agent.append(" Java/").append(System.getProperty("java.version"));
@@ -71,6 +74,40 @@ public class HttpConnector {
         return conn;
     }
 
+    /**
+     * Releases a {@link HttpURLConnection} that was opened by this connector, after the
+     * response has been evaluated.
+     * <p>
+     * The remaining response body is drained and the stream is closed, so the underlying
+     * socket can be reused by the keep-alive cache for subsequent requests to the same
+     * host. Must only be invoked after the request has been sent.
+     *
+     * @param conn
+     *            {@link HttpURLConnection} to release
+     */
+    public void release(HttpURLConnection conn) {
+        try {
+            InputStream in = conn.getResponseCode() < 400 ? conn.getInputStream() : conn.getErrorStream();
+            if (in != null) {
+                drain(in);
+            }
+        } catch (IOException ex) {
+            // Stream was already consumed or the connection broke, nothing to reuse
+            LOG.debug("Could not drain response", ex);
+        }
+    }
+
+    /**
+     * Discards a {@link HttpURLConnection} that was opened by this connector, but cannot
+     * be reused, e.g. because the request failed. The connection is closed.
+     *
+     * @param conn
+     *            {@link HttpURLConnection} to discard
+     */
+    public void discard(HttpURLConnection conn) {
+        conn.disconnect();
+    }
+
     /**
      * Configures the new {@link HttpURLConnection}.
      * <p>
@@ -87,4 +124,22 @@ public class HttpConnector {
         conn.setRequestProperty("User-Agent", USER_AGENT);
     }
 
+    /**
+     * Reads the remaining content of the {@link InputStream}, then closes it. If the
+     * remaining content is unexpectedly large, the stream is just closed.
+     *
+     * @param in
+     *            {@link InputStream} to drain
+     */
+    private static void drain(InputStream in) throws IOException {
+        try (InputStream din = in) {
+            byte[] buffer = new byte[4096];
+            int total = 0;
+            int len;
+            while (total < MAX_DRAIN && (len = din.read(buffer)) >= 0) {
+                total += len;
+            }
+        }
+    }
+
 }
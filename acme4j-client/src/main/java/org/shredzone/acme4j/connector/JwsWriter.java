@@ -0,0 +1,217 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Writes JWS requests in compact serialization.
+ * <p>
+ * The protected header, the payload and the signature are base64url encoded directly
+ * into a byte buffer, which is reused for all further requests. The constant part of
+ * the protected header (algorithm and JWK) is serialized only once per
+ * {@link AccountKeyContext}.
+ * <p>
+ * This class is not thread safe. {@link DefaultConnection} keeps one instance per
+ * thread, so the buffers are reused across connections.
+ */
+public class JwsWriter {
+
+    private static final byte[] BASE64URL_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(US_ASCII);
+    private static final byte[] HEADER_NONCE = "{\"nonce\":\"".getBytes(US_ASCII);
+    private static final byte[] HEADER_URL = "\",\"url\":\"".getBytes(US_ASCII);
+    private static final byte[] HEADER_END = "\",".getBytes(US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(US_ASCII);
+
+    private byte[] header = new byte[1024];
+    private byte[] buffer = new byte[4096];
+    private int length;
+
+    /**
+     * Writes a signed JWS.
+     *
+     * @param keyContext
+     *            {@link AccountKeyContext} of the account key
+     * @param nonce
+     *            Nonce to be used
+     * @param url
+     *            Request {@link URI}
+     * @param payload
+     *            UTF-8 encoded payload
+     * @return Length of the JWS in the buffer
+     */
+    public int write(AccountKeyContext keyContext, byte[] nonce, URI url, byte[] payload) {
+        Objects.requireNonNull(keyContext, "keyContext");
+        Objects.requireNonNull(nonce, "nonce");
+        Objects.requireNonNull(url, "url");
+        Objects.requireNonNull(payload, "payload");
+
+        String urlString = url.toString();
+        byte[] headerTail = keyContext.getJwsHeaderTail();
+
+        header = ensureCapacity(header, 0, HEADER_NONCE.length + encodedLength(nonce.length)
+                + HEADER_URL.length + urlString.length() * 6 + HEADER_END.length
+                + headerTail.length);
+        int hpos = put(HEADER_NONCE, header, 0);
+        hpos = encode(nonce, 0, nonce.length, header, hpos);
+        hpos = put(HEADER_URL, header, hpos);
+        hpos = putJsonString(urlString, header, hpos);
+        hpos = put(HEADER_END, header, hpos);
+        hpos = put(headerTail, header, hpos);
+
+        buffer = ensureCapacity(buffer, 0, encodedLength(hpos) + encodedLength(payload.length) + 2);
+        int pos = encode(header, 0, hpos, buffer, 0);
+        buffer[pos++] = '.';
+        pos = encode(payload, 0, payload.length, buffer, pos);
+
+        byte[] signature = keyContext.sign(buffer, 0, pos);
+
+        buffer = ensureCapacity(buffer, pos, encodedLength(signature.length) + 1);
+        buffer[pos++] = '.';
+        pos = encode(signature, 0, signature.length, buffer, pos);
+
+        length = pos;
+        return length;
+    }
+
+    /**
+     * Gets the buffer containing the JWS that was written last. Only the first
+     * {@link #getLength()} bytes are valid.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Gets the length of the JWS that was written last.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the JWS that was written last, as compact serialization string.
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, US_ASCII);
+    }
+
+    /**
+     * Returns the length of the base64url encoding of the given number of bytes,
+     * without padding.
+     */
+    private static int encodedLength(int length) {
+        return (length / 3) * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+    }
+
+    /**
+     * Makes sure there are at least {@code required} bytes available after
+     * {@code pos}, keeping the existing content.
+     */
+    private static byte[] ensureCapacity(byte[] array, int pos, int required) {
+        if (array.length - pos >= required) {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(array.length * 2, pos + required));
+    }
+
+    /**
+     * Copies the source bytes to the target at the given position.
+     *
+     * @return Position after the copied bytes
+     */
+    private static int put(byte[] src, byte[] dst, int pos) {
+        System.arraycopy(src, 0, dst, pos, src.length);
+        return pos + src.length;
+    }
+
+    /**
+     * Writes the string as UTF-8 encoded JSON string content, escaping all characters
+     * where necessary. Up to 6 bytes per character are written.
+     *
+     * @return Position after the written bytes
+     */
+    private static int putJsonString(String str, byte[] dst, int pos) {
+        int p = pos;
+        for (int ix = 0; ix < str.length(); ix++) {
+            char c = str.charAt(ix);
+            if (c == '"' || c == '\\') {
+                dst[p++] = '\\';
+                dst[p++] = (byte) c;
+            } else if (c < 0x20) {
+                dst[p++] = '\\';
+                dst[p++] = 'u';
+                dst[p++] = '0';
+                dst[p++] = '0';
+                dst[p++] = HEX[c >> 4];
+                dst[p++] = HEX[c & 0x0F];
+            } else if (c < 0x80) {
+                dst[p++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[p++] = (byte) (0xC0 | (c >> 6));
+                dst[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && ix + 1 < str.length()
+                        && Character.isLowSurrogate(str.charAt(ix + 1))) {
+                int cp = Character.toCodePoint(c, str.charAt(++ix));
+                dst[p++] = (byte) (0xF0 | (cp >> 18));
+                dst[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                dst[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                dst[p++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                dst[p++] = (byte) (0xE0 | (c >> 12));
+                dst[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Base64url encodes the source bytes into the target, without padding.
+     *
+     * @return Position after the encoded bytes
+     */
+    private static int encode(byte[] src, int off, int len, byte[] dst, int pos) {
+        int p = pos;
+        int end = off + len - len % 3;
+        int ix = off;
+        while (ix < end) {
+            int bits = (src[ix++] & 0xFF) << 16 | (src[ix++] & 0xFF) << 8 | (src[ix++] & 0xFF);
+            dst[p++] = BASE64URL_ALPHABET[(bits >>> 18) & 0x3F];
+            dst[p++] = BASE64URL_ALPHABET[(bits >>> 12) & 0x3F];
+            dst[p++] = BASE64URL_ALPHABET[(bits >>> 6) & 0x3F];
+            dst[p++] = BASE64URL_ALPHABET[bits & 0x3F];
+        }
+
+        int remaining = off + len - ix;
+        if (remaining == 1) {
+            int bits = (src[ix] & 0xFF) << 16;
+            dst[p++] = BASE64URL_ALPHABET[(bits >>> 18) & 0x3F];
+            dst[p++] = BASE64URL_ALPHABET[(bits >>> 12) & 0x3F];
+        } else if (remaining == 2) {
+            int bits = (src[ix] & 0xFF) << 16 | (src[ix + 1] & 0xFF) << 8;
+            dst[p++] = BASE64URL_ALPHABET[(bits >>> 18) & 0x3F];
+            dst[p++] = BASE64URL_ALPHABET[(bits >>> 12) & 0x3F];
+            dst[p++] = BASE64URL_ALPHABET[(bits >>> 6) & 0x3F];
+        }
+        return p;
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * A thread safe pool of unused nonces.
+ * <p>
+ * Every nonce that is received from the server is offered to the pool. Each signed
+ * request takes a nonce from the pool, so a nonce is never used twice, even if requests
+ * are sent concurrently. The most recent nonce is taken first. Nonces that are older
+ * than the maximum age are dropped, as the server is likely to have forgotten them.
+ * <p>
+ * If the number of nonces drops below the low-water mark, the pool should be refilled.
+ * The low-water mark is 0 by default, so the pool is only refilled on demand.
+ */
+public class NoncePool {
+
+    private final Deque<Entry> nonces = new ArrayDeque<>();
+    private int capacity = 16;
+    private int lowWaterMark = 0;
+    private Duration maxAge = Duration.ofMinutes(5);
+
+    /**
+     * Offers a nonce that was received from the server. The nonce is ignored if it is
+     * already in the pool. If the pool is full, the oldest nonce is dropped.
+     *
+     * @param nonce
+     *            Nonce to be added
+     */
+    public synchronized void offer(byte[] nonce) {
+        Objects.requireNonNull(nonce, "nonce");
+
+        if (nonces.stream().anyMatch(e -> Arrays.equals(e.nonce, nonce))) {
+            return;
+        }
+
+        nonces.addFirst(new Entry(nonce, System.nanoTime()));
+        while (nonces.size() > capacity) {
+            nonces.removeLast();
+        }
+    }
+
+    /**
+     * Takes the most recent nonce from the pool.
+     *
+     * @return Nonce, or {@code null} if the pool is empty
+     */
+    public synchronized byte[] take() {
+        expire();
+        Entry entry = nonces.pollFirst();
+        return entry != null ? entry.nonce : null;
+    }
+
+    /**
+     * Returns the most recent nonce, without removing it from the pool.
+     *
+     * @return Nonce, or {@code null} if the pool is empty
+     */
+    public synchronized byte[] peek() {
+        expire();
+        Entry entry = nonces.peekFirst();
+        return entry != null ? entry.nonce : null;
+    }
+
+    /**
+     * Returns the number of nonces in the pool.
+     */
+    public synchronized int size() {
+        expire();
+        return nonces.size();
+    }
+
+    /**
+     * Removes all nonces from the pool.
+     */
+    public synchronized void clear() {
+        nonces.clear();
+    }
+
+    /**
+     * Checks if the number of nonces is below the low-water mark, so the pool should be
+     * refilled.
+     *
+     * @return {@code true} if the pool should be refilled
+     */
+    public synchronized boolean needsRefill() {
+        return size() < lowWaterMark;
+    }
+
+    /**
+     * Gets the maximum number of nonces in the pool.
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum number of nonces in the pool. Default is 16.
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        while (nonces.size() > capacity) {
+            nonces.removeLast();
+        }
+    }
+
+    /**
+     * Gets the low-water mark.
+     */
+    public synchronized int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    /**
+     * Sets the low-water mark. If there are less nonces in the pool, it is refilled in
+     * the background. Default is 0, which disables background refilling.
+     */
+    public synchronized void setLowWaterMark(int lowWaterMark) {
+        if (lowWaterMark < 0 || lowWaterMark > capacity) {
+            throw new IllegalArgumentException("lowWaterMark must be between 0 and " + capacity);
+        }
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    /**
+     * Gets the maximum age of a nonce.
+     */
+    public synchronized Duration getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets the maximum age of a nonce. Older nonces are dropped from the pool. Default
+     * is 5 minutes.
+     */
+    public synchronized void setMaxAge(Duration maxAge) {
+        this.maxAge = Objects.requireNonNull(maxAge, "maxAge");
+    }
+
+    /**
+     * Removes all nonces that have exceeded their maximum age.
+     */
+    private void expire() {
+        long now = System.nanoTime();
+        long maxAgeNanos = maxAge.toNanos();
+        Iterator<Entry> it = nonces.descendingIterator();
+        while (it.hasNext() && now - it.next().received >= maxAgeNanos) {
+            it.remove();
+        }
+    }
+
+    /**
+     * A nonce and the time it was received.
+     */
+    private static class Entry {
+        private final byte[] nonce;
+        private final long received;
+
+        private Entry(byte[] nonce, long received) {
+            this.nonce = nonce;
+            this.received = received;
+        }
+    }
+
+}
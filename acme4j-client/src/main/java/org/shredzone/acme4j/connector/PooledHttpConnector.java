@@ -0,0 +1,342 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link HttpConnector} that keeps connections to the ACME server alive, and bounds
+ * the number of concurrent connections per host.
+ * <p>
+ * The sockets themselves are kept in the keep-alive cache of the JRE. This connector
+ * makes sure that every response is drained before the connection is released, so the
+ * socket is actually reused and no new TLS handshake is required. A connection that is
+ * requested while all connections to the host are in use, will wait for another
+ * connection to be released.
+ * <p>
+ * Hosts that have not been used for the idle timeout are evicted from the pool. Use
+ * {@link #getStatistics()} for monitoring the pool.
+ * <p>
+ * Instances are thread safe and are supposed to be shared, e.g. by returning the same
+ * instance in {@code AbstractAcmeProvider#createHttpConnector()}.
+ */
+public class PooledHttpConnector extends HttpConnector {
+
+    private final ConcurrentMap<String, HostPool> pools = new ConcurrentHashMap<>();
+    private final ConcurrentMap<HttpURLConnection, HostPool> leases = new ConcurrentHashMap<>();
+    private final int maxPerHost;
+    private final Duration acquireTimeout;
+    private final Duration idleTimeout;
+    private final AtomicLong lastEviction = new AtomicLong(System.nanoTime());
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong releaseCount = new AtomicLong();
+    private final AtomicLong discardCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Creates a new {@link PooledHttpConnector} with 10 connections per host, a timeout
+     * of 30 seconds for waiting for a free connection, and an idle timeout of 1 minute.
+     */
+    public PooledHttpConnector() {
+        this(10, Duration.ofSeconds(30), Duration.ofMinutes(1));
+    }
+
+    /**
+     * Creates a new {@link PooledHttpConnector}.
+     *
+     * @param maxPerHost
+     *            Maximum number of concurrent connections per host
+     * @param acquireTimeout
+     *            Maximum time to wait for a free connection
+     * @param idleTimeout
+     *            Time after which an unused host is evicted from the pool
+     */
+    public PooledHttpConnector(int maxPerHost, Duration acquireTimeout, Duration idleTimeout) {
+        if (maxPerHost < 1) {
+            throw new IllegalArgumentException("maxPerHost must be positive");
+        }
+        this.maxPerHost = maxPerHost;
+        this.acquireTimeout = Objects.requireNonNull(acquireTimeout, "acquireTimeout");
+        this.idleTimeout = Objects.requireNonNull(idleTimeout, "idleTimeout");
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Waits until a connection to the host is available.
+     *
+     * @throws IOException
+     *             if no connection became available within the acquire timeout
+     */
+    @Override
+    public HttpURLConnection openConnection(URI uri) throws IOException {
+        evictIdle();
+
+        HostPool pool = pools.compute(hostKey(uri), (k, p) -> (p != null ? p : new HostPool()).reserve());
+        pool.acquire(uri);
+        try {
+            HttpURLConnection conn = super.openConnection(uri);
+            conn.setRequestProperty("Connection", "keep-alive");
+            leases.put(conn, pool);
+            return conn;
+        } catch (IOException | RuntimeException ex) {
+            pool.release();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void release(HttpURLConnection conn) {
+        try {
+            super.release(conn);
+            releaseCount.incrementAndGet();
+        } finally {
+            returnLease(conn);
+        }
+    }
+
+    @Override
+    public void discard(HttpURLConnection conn) {
+        try {
+            super.discard(conn);
+            discardCount.incrementAndGet();
+        } finally {
+            returnLease(conn);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the current pool statistics.
+     *
+     * @return {@link Statistics}
+     */
+    public Statistics getStatistics() {
+        int leased = pools.values().stream().mapToInt(HostPool::leased).sum();
+        return new Statistics(pools.size(), leased, requestCount.get(), waitCount.get(),
+                        timeoutCount.get(), releaseCount.get(), discardCount.get(),
+                        evictionCount.get());
+    }
+
+    /**
+     * Evicts all hosts that have neither leased connections nor callers waiting for one,
+     * and have not been used for the idle timeout. The check is performed at most once
+     * per idle timeout.
+     */
+    protected void evictIdle() {
+        long now = System.nanoTime();
+        long last = lastEviction.get();
+        if (now - last < idleTimeout.toNanos() || !lastEviction.compareAndSet(last, now)) {
+            return;
+        }
+
+        for (String key : pools.keySet()) {
+            pools.computeIfPresent(key, (k, pool) -> {
+                if (pool.isIdle(now)) {
+                    evictionCount.incrementAndGet();
+                    return null;
+                }
+                return pool;
+            });
+        }
+    }
+
+    /**
+     * Returns the lease of the given connection to its host pool.
+     */
+    private void returnLease(HttpURLConnection conn) {
+        HostPool pool = leases.remove(conn);
+        if (pool != null) {
+            pool.release();
+        }
+    }
+
+    /**
+     * Returns the key of the host pool the {@link URI} belongs to.
+     */
+    private static String hostKey(URI uri) {
+        int port = uri.getPort();
+        if (port < 0) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return uri.getScheme() + "://" + uri.getHost() + ':' + port;
+    }
+
+    /**
+     * Connection leases of a single host.
+     */
+    private class HostPool {
+        private final Semaphore permits = new Semaphore(maxPerHost, true);
+        private final AtomicInteger users = new AtomicInteger();
+        private volatile long lastUsed = System.nanoTime();
+
+        /**
+         * Registers a caller that is going to lease a connection, so the host is not
+         * evicted before the connection was leased and returned. Must be invoked while
+         * the host pool is being computed in the map.
+         */
+        private HostPool reserve() {
+            users.incrementAndGet();
+            return this;
+        }
+
+        /**
+         * Leases a connection, waiting for a free connection if necessary. The
+         * reservation is cancelled if no connection could be leased.
+         */
+        private void acquire(URI uri) throws IOException {
+            requestCount.incrementAndGet();
+            if (permits.tryAcquire()) {
+                return;
+            }
+
+            waitCount.incrementAndGet();
+            try {
+                if (!permits.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    timeoutCount.incrementAndGet();
+                    users.decrementAndGet();
+                    throw new IOException("Timeout while waiting for a connection to " + uri.getHost());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                users.decrementAndGet();
+                throw new IOException("Interrupted while waiting for a connection to " + uri.getHost(), ex);
+            }
+        }
+
+        /**
+         * Returns a leased connection.
+         */
+        private void release() {
+            lastUsed = System.nanoTime();
+            permits.release();
+            users.decrementAndGet();
+        }
+
+        /**
+         * Returns the number of currently leased connections.
+         */
+        private int leased() {
+            return maxPerHost - permits.availablePermits();
+        }
+
+        /**
+         * Checks if this host is idle at the given time.
+         */
+        private boolean isIdle(long now) {
+            return users.get() == 0 && now - lastUsed >= idleTimeout.toNanos();
+        }
+    }
+
+    /**
+     * An immutable snapshot of the statistics of a {@link PooledHttpConnector}.
+     */
+    public static final class Statistics {
+        private final int hosts;
+        private final int leased;
+        private final long requests;
+        private final long waits;
+        private final long timeouts;
+        private final long released;
+        private final long discarded;
+        private final long evicted;
+
+        private Statistics(int hosts, int leased, long requests, long waits, long timeouts,
+                long released, long discarded, long evicted) {
+            this.hosts = hosts;
+            this.leased = leased;
+            this.requests = requests;
+            this.waits = waits;
+            this.timeouts = timeouts;
+            this.released = released;
+            this.discarded = discarded;
+            this.evicted = evicted;
+        }
+
+        /**
+         * Number of hosts currently in the pool.
+         */
+        public int getHosts() {
+            return hosts;
+        }
+
+        /**
+         * Number of connections that are currently in use.
+         */
+        public int getLeased() {
+            return leased;
+        }
+
+        /**
+         * Total number of requested connections.
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * Total number of connection requests that had to wait for a free connection.
+         */
+        public long getWaits() {
+            return waits;
+        }
+
+        /**
+         * Total number of connection requests that timed out while waiting.
+         */
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        /**
+         * Total number of connections that were drained and released for reuse.
+         */
+        public long getReleased() {
+            return released;
+        }
+
+        /**
+         * Total number of connections that were discarded after a failure.
+         */
+        public long getDiscarded() {
+            return discarded;
+        }
+
+        /**
+         * Total number of hosts that were evicted because they were idle.
+         */
+        public long getEvicted() {
+            return evicted;
+        }
+
+        @Override
+        public String toString() {
+            return "hosts=" + hosts + ", leased=" + leased + ", requests=" + requests
+                    + ", waits=" + waits + ", timeouts=" + timeouts + ", released=" + released
+                    + ", discarded=" + discarded + ", evicted=" + evicted;
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeRateLimitExceededException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread safe, client side governor for the rate limits of the ACME server.
+ * <p>
+ * A token bucket can be configured for each {@link Resource}. Every signed request to
+ * that resource takes a token from the bucket, and waits if the bucket is empty. This
+ * way, requests are paced before the server's rate limit is hit.
+ * <p>
+ * If the server still responds with a {@code rateLimited} error, the resource is parked
+ * until the moment given in the {@code Retry-After} header. All requests to that
+ * resource wait until then, and the rejected request is automatically resent, as long
+ * as the waiting time does not exceed the maximum wait time.
+ * <p>
+ * Resources without a configured limit are not governed. By default, no limits are
+ * configured.
+ */
+public class RateLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimiter.class);
+
+    private static final Duration DEFAULT_PARK = Duration.ofMinutes(1);
+
+    private final Map<Resource, Bucket> buckets = new EnumMap<>(Resource.class);
+    private Duration maxWait = Duration.ofMinutes(5);
+
+    /**
+     * Sets the rate limit of a {@link Resource}.
+     *
+     * @param resource
+     *            {@link Resource} to be limited
+     * @param permits
+     *            Number of requests that are permitted within the period. This is also
+     *            the number of requests that can be sent in a burst.
+     * @param period
+     *            Period of time
+     */
+    public synchronized void setLimit(Resource resource, int permits, Duration period) {
+        Objects.requireNonNull(resource, "resource");
+        Objects.requireNonNull(period, "period");
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be positive");
+        }
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        buckets.put(resource, new Bucket(permits, period.toNanos()));
+        notifyAll();
+    }
+
+    /**
+     * Removes the rate limit of a {@link Resource}.
+     *
+     * @param resource
+     *            {@link Resource} that is not limited any more
+     */
+    public synchronized void removeLimit(Resource resource) {
+        buckets.remove(resource);
+        notifyAll();
+    }
+
+    /**
+     * Checks if the {@link Resource} is governed by this {@link RateLimiter}.
+     */
+    public synchronized boolean isLimited(Resource resource) {
+        return buckets.containsKey(resource);
+    }
+
+    /**
+     * Gets the maximum time a request waits for a permit.
+     */
+    public synchronized Duration getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Sets the maximum time a request waits for a permit. If the resource is parked for a
+     * longer time, the request fails with an {@link AcmeRateLimitExceededException}
+     * immediately. Default is 5 minutes.
+     */
+    public synchronized void setMaxWait(Duration maxWait) {
+        this.maxWait = Objects.requireNonNull(maxWait, "maxWait");
+    }
+
+    /**
+     * Takes a permit for a request to the {@link Resource}. Waits until a permit is
+     * available. Returns immediately if the resource is not limited.
+     *
+     * @param resource
+     *            {@link Resource} to be requested
+     * @throws AcmeRateLimitExceededException
+     *             if no permit will be available within the maximum wait time
+     */
+    public void acquire(Resource resource) throws AcmeException {
+        Objects.requireNonNull(resource, "resource");
+
+        long deadline = System.nanoTime() + getMaxWait().toNanos();
+
+        synchronized (this) {
+            for (;;) {
+                Bucket bucket = buckets.get(resource);
+                if (bucket == null) {
+                    return;
+                }
+
+                long now = System.nanoTime();
+                long wait = bucket.tryTake(now);
+                if (wait <= 0) {
+                    return;
+                }
+
+                if (now + wait - deadline > 0) {
+                    throw new AcmeRateLimitExceededException(
+                            "urn:ietf:params:acme:error:rateLimited",
+                            "Client side rate limit of " + resource.path() + " exceeded",
+                            Instant.now().plusNanos(wait), null);
+                }
+
+                LOG.debug("Rate limit of {} reached, waiting {} ms", resource.path(),
+                                TimeUnit.NANOSECONDS.toMillis(wait));
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, wait);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new AcmeException("Interrupted while waiting for a permit", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parks a {@link Resource} after the server rejected a request because of a rate
+     * limit. Requests to that resource will wait until the given moment. Does nothing if
+     * the resource is not limited.
+     *
+     * @param resource
+     *            {@link Resource} to be parked
+     * @param until
+     *            Moment the requests are expected to succeed again, or {@code null} if
+     *            unknown
+     */
+    public synchronized void park(Resource resource, Instant until) {
+        Bucket bucket = buckets.get(resource);
+        if (bucket == null) {
+            return;
+        }
+
+        Duration delay = until != null ? Duration.between(Instant.now(), until) : DEFAULT_PARK;
+        if (!delay.isNegative()) {
+            LOG.debug("Parking {} for {}", resource.path(), delay);
+            bucket.park(System.nanoTime() + delay.toNanos());
+        }
+    }
+
+    /**
+     * Returns the moment a parked {@link Resource} is resumed.
+     *
+     * @param resource
+     *            {@link Resource} to check
+     * @return Moment the resource is resumed, or {@code null} if it is not parked
+     */
+    public synchronized Instant getParkedUntil(Resource resource) {
+        Bucket bucket = buckets.get(resource);
+        if (bucket == null) {
+            return null;
+        }
+
+        long remaining = bucket.parkedUntil - System.nanoTime();
+        return remaining > 0 ? Instant.now().plusNanos(remaining) : null;
+    }
+
+    /**
+     * Finds the limited {@link Resource} of a request {@link URI}.
+     *
+     * @param session
+     *            {@link Session} to resolve the resource {@link URI} with
+     * @param uri
+     *            Request {@link URI}
+     * @return Limited {@link Resource}, or {@code null} if the request is not governed
+     */
+    Resource findResource(Session session, URI uri) throws AcmeException {
+        List<Resource> limited;
+        synchronized (this) {
+            if (buckets.isEmpty()) {
+                return null;
+            }
+            limited = new ArrayList<>(buckets.keySet());
+        }
+
+        for (Resource resource : limited) {
+            if (uri.equals(session.resourceUri(resource))) {
+                return resource;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A token bucket.
+     */
+    private static class Bucket {
+        private final int capacity;
+        private final long nanosPerToken;
+        private double tokens;
+        private long refilled;
+        private long parkedUntil;
+
+        public Bucket(int capacity, long period) {
+            this.capacity = capacity;
+            this.nanosPerToken = Math.max(period / capacity, 1L);
+            this.tokens = capacity;
+            this.refilled = System.nanoTime();
+            this.parkedUntil = refilled;
+        }
+
+        /**
+         * Takes a token.
+         *
+         * @return 0 if a token was taken, otherwise the time in nanoseconds until the
+         *         next token is available
+         */
+        public long tryTake(long now) {
+            if (parkedUntil - now > 0) {
+                return parkedUntil - now;
+            }
+
+            tokens = Math.min(capacity, tokens + (double) (now - refilled) / nanosPerToken);
+            refilled = now;
+
+            if (tokens >= 1.0) {
+                tokens -= 1.0;
+                return 0L;
+            }
+
+            return Math.max((long) ((1.0 - tokens) * nanosPerToken), 1L);
+        }
+
+        /**
+         * Parks the bucket. After resuming, a single request is permitted, and further
+         * requests are paced again.
+         */
+        public void park(long until) {
+            if (until - parkedUntil > 0) {
+                parkedUntil = until;
+            }
+            tokens = 1.0;
+            refilled = parkedUntil;
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+/**
+ * Receives the timed {@link TraceSpan} of a {@link org.shredzone.acme4j.Session}.
+ * <p>
+ * Every request of a {@link Connection} is traced by a span that is named after the
+ * HTTP method, and is tagged with the {@code uri} and the HTTP {@code status}. It has
+ * child spans for each phase of the request:
+ * <ul>
+ * <li>{@code rateLimit}: Waiting for a permit of the {@link RateLimiter}</li>
+ * <li>{@code nonce}: Fetching a fresh nonce, if the {@link NoncePool} was empty</li>
+ * <li>{@code sign}: Signing the request</li>
+ * <li>{@code resolve}: Resolving the host name of the server</li>
+ * <li>{@code connect}: Connecting to the server, including the TLS handshake. This is
+ * very short if a pooled connection is reused.</li>
+ * <li>{@code send}: Sending the request body</li>
+ * <li>{@code server}: Waiting for the response of the server</li>
+ * <li>{@code parse}: Parsing the response body</li>
+ * </ul>
+ * The request spans are children of the span that is current when the request is sent.
+ * The resource objects open spans for the operations {@code authorizeDomain},
+ * {@code trigger} and {@code requestCertificate}, and the
+ * {@link org.shredzone.acme4j.PollingScheduler} opens a {@code poll} span. The
+ * {@link org.shredzone.acme4j.BulkIssuer} ties all of them together in an
+ * {@code order} span per domain group.
+ * <p>
+ * The method is invoked synchronously when a span is finished, so child spans are
+ * reported before their parents. It must be fast and thread safe, and must not throw
+ * exceptions.
+ * <p>
+ * By default, a {@link org.shredzone.acme4j.Session} uses {@link #NONE}. In that case,
+ * no spans are created at all.
+ */
+public interface RequestTracer {
+
+    /**
+     * {@link RequestTracer} that discards all spans.
+     */
+    RequestTracer NONE = new RequestTracer() {};
+
+    /**
+     * A span was finished.
+     *
+     * @param span
+     *            Finished {@link TraceSpan}
+     */
+    default void finished(TraceSpan span) {
+        // does nothing by default
+    }
+
+}
@@ -16,11 +16,21 @@ package org.shredzone.acme4j.connector;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.shredzone.acme4j.AcmeResource;
 import org.shredzone.acme4j.Session;
@@ -31,18 +41,34 @@ import org.shredzone.acme4j.util.JSON;
 /**
  * An {@link Iterator} that fetches a batch of URIs from the ACME server, and generates
  * {@link AcmeResource} instances.
+ * <p>
+ * By default, the batches are fetched lazily, on the calling thread. Optionally, the
+ * next batch can be fetched in the background while the current batch is consumed, see
+ * {@link #prefetch(boolean)}, and the resources can be loaded from the server in the
+ * background as well, see {@link #preload(int, ResourceLoader)}. Background requests
+ * use the {@link Session#getExecutor()}.
+ * <p>
+ * If background requests are enabled and the iteration is aborted early,
+ * {@link #close()} should be invoked, so pending background requests are cancelled.
+ * <p>
+ * A {@link ResourceIterator} is not thread safe.
  *
  * @param <T>
  *            {@link AcmeResource} type to iterate over
  */
-public class ResourceIterator<T extends AcmeResource> implements Iterator<T> {
+public class ResourceIterator<T extends AcmeResource> implements Iterator<T>, AutoCloseable {
 
     private final Session session;
     private final String field;
     private final Deque<URI> uriList = new ArrayDeque<>();
+    private final Deque<CompletableFuture<T>> loading = new ArrayDeque<>();
     private final BiFunction<Session, URI, T> creator;
     private boolean eol = false;
+    private boolean prefetch = false;
+    private int concurrency;
+    private ResourceLoader<? super T> loader;
     private URI nextUri;
+    private CompletableFuture<Batch> nextBatch;
 
     /**
      * Creates a new {@link ResourceIterator}.
@@ -64,6 +90,44 @@ public class ResourceIterator<T extends AcmeResource> implements Iterator<T> {
         this.creator = Objects.requireNonNull(creator, "creator");
     }
 
+    /**
+     * Enables or disables fetching the next batch of URIs in the background. It is
+     * disabled by default.
+     *
+     * @param prefetch
+     *            {@code true} to fetch the next batch while the current batch is
+     *            consumed, {@code false} to fetch it when the current batch is drained
+     * @return itself
+     */
+    public ResourceIterator<T> prefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+        if (!prefetch && nextBatch != null) {
+            nextBatch.cancel(false);
+            nextBatch = null;
+        }
+        return this;
+    }
+
+    /**
+     * Loads the resources in the background, before they are returned by the iterator.
+     * The resources are still returned in the original order.
+     *
+     * @param concurrency
+     *            Maximum number of resources that are loaded at the same time
+     * @param loader
+     *            {@link ResourceLoader} that loads a resource, e.g.
+     *            {@code Authorization::update}
+     * @return itself
+     */
+    public ResourceIterator<T> preload(int concurrency, ResourceLoader<? super T> loader) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+        this.loader = Objects.requireNonNull(loader, "loader");
+        return this;
+    }
+
     /**
      * Checks if there is another object in the result.
      *
@@ -72,6 +136,103 @@ public class ResourceIterator<T extends AcmeResource> implements Iterator<T> {
      */
     @Override
     public boolean hasNext() {
+        return !loading.isEmpty() || hasNextLocation();
+    }
+
+    /**
+     * Returns the next object of the result.
+     *
+     * @throws AcmeProtocolException
+     *             if the next batch of URIs could not be fetched from the server, or if
+     *             the resource could not be preloaded
+     * @throws NoSuchElementException
+     *             if there are no more entries
+     */
+    @Override
+    public T next() {
+        if (loader == null) {
+            return creator.apply(session, nextLocation());
+        }
+
+        while (loading.size() < concurrency && hasNextLocation()) {
+            loading.add(load(uriList.poll()));
+        }
+
+        CompletableFuture<T> next = loading.poll();
+        if (next == null) {
+            throw new NoSuchElementException("no more " + field);
+        }
+
+        return await(next, "failed to load " + field);
+    }
+
+    /**
+     * Unsupported operation, only here to satisfy the {@link Iterator} interface.
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("cannot remove " + field);
+    }
+
+    /**
+     * Returns a sequential {@link Stream} of the remaining resources. Closing the stream
+     * closes this iterator.
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL),
+                        false).onClose(this::close);
+    }
+
+    /**
+     * Returns a sequential {@link Stream} of the locations of the remaining resources.
+     * The resources are neither created nor preloaded. Closing the stream closes this
+     * iterator.
+     * <p>
+     * The stream consumes the same batches as the iterator, so both must not be used
+     * together.
+     */
+    public Stream<URI> locations() {
+        Iterator<URI> it = new Iterator<URI>() {
+            @Override
+            public boolean hasNext() {
+                return hasNextLocation();
+            }
+
+            @Override
+            public URI next() {
+                return nextLocation();
+            }
+        };
+
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL),
+                        false).onClose(this::close);
+    }
+
+    /**
+     * Stops the iteration. Background requests that have not been started yet are
+     * cancelled. Afterwards, the iterator has no more elements.
+     */
+    @Override
+    public void close() {
+        eol = true;
+        uriList.clear();
+        nextUri = null;
+
+        if (nextBatch != null) {
+            nextBatch.cancel(false);
+            nextBatch = null;
+        }
+
+        loading.forEach(f -> f.cancel(false));
+        loading.clear();
+    }
+
+    /**
+     * Checks if there is another URI in the result.
+     */
+    private boolean hasNextLocation() {
         if (eol) {
             return false;
         }
@@ -88,15 +249,9 @@ public class ResourceIterator<T extends AcmeResource> implements Iterator<T> {
     }
 
     /**
-     * Returns the next object of the result.
-     *
-     * @throws AcmeProtocolException
-     *             if the next batch of URIs could not be fetched from the server
-     * @throws NoSuchElementException
-     *             if there are no more entries
+     * Returns the next URI of the result.
      */
-    @Override
-    public T next() {
+    private URI nextLocation() {
         if (!eol && uriList.isEmpty()) {
             fetch();
         }
@@ -107,62 +262,135 @@ public class ResourceIterator<T extends AcmeResource> implements Iterator<T> {
             throw new NoSuchElementException("no more " + field);
         }
 
-        return creator.apply(session, next);
-    }
-
-    /**
-     * Unsupported operation, only here to satisfy the {@link Iterator} interface.
-     */
-    @Override
-    public void remove() {
-        throw new UnsupportedOperationException("cannot remove " + field);
+        return next;
     }
 
     /**
      * Fetches the next batch of URIs. Handles exceptions. Does nothing if there is no
      * URI of the next batch.
+     * <p>
+     * If the next batch is already being prefetched, its result is used. Otherwise it is
+     * read synchronously. Afterwards, the prefetch of the following batch is started.
      */
     private void fetch() {
         if (nextUri == null) {
             return;
         }
 
-        try {
-            readAndQueue();
-        } catch (AcmeException ex) {
-            throw new AcmeProtocolException("failed to read next set of " + field, ex);
+        Batch batch;
+        if (nextBatch != null) {
+            CompletableFuture<Batch> pending = nextBatch;
+            nextBatch = null;
+            batch = await(pending, "failed to read next set of " + field);
+        } else {
+            try (Connection conn = session.provider().connect()) {
+                batch = readBatch(conn, nextUri);
+            } catch (AcmeException ex) {
+                throw new AcmeProtocolException("failed to read next set of " + field, ex);
+            }
+        }
+
+        uriList.addAll(batch.uris);
+        nextUri = batch.next;
+
+        if (prefetch && nextUri != null) {
+            URI uri = nextUri;
+            nextBatch = new AsyncConnection(session).exchange(conn -> readBatch(conn, uri));
         }
     }
 
     /**
-     * Reads the next batch of URIs from the server, and fills the queue with the URIs. If
-     * there is a "next" header, it is used for the next batch of URIs.
+     * Reads a batch of URIs from the server. If there is a "next" header, it is used for
+     * the next batch of URIs.
      */
-    private void readAndQueue() throws AcmeException {
-        try (Connection conn = session.provider().connect()) {
-            conn.sendRequest(nextUri, session);
-            conn.accept(HttpURLConnection.HTTP_OK);
+    private Batch readBatch(Connection conn, URI uri) throws AcmeException {
+        conn.sendRequest(uri, session);
+        conn.accept(HttpURLConnection.HTTP_OK);
 
-            JSON json = conn.readJsonResponse();
-            fillUriList(json);
-
-            nextUri = conn.getLink("next");
-        }
+        JSON json = conn.readJsonResponse();
+        return new Batch(readUriList(json), conn.getLink("next"));
     }
 
     /**
-     * Fills the uri list with the URIs found in the desired field.
+     * Reads the URIs found in the desired field.
      *
      * @param json
      *            JSON map to read from
      */
-    private void fillUriList(JSON json) {
+    private List<URI> readUriList(JSON json) {
         JSON.Array array = json.get(field).asArray();
         if (array == null) {
-            return;
+            return Collections.emptyList();
+        }
+
+        List<URI> result = new ArrayList<>(array.size());
+        array.stream().map(JSON.Value::asURI).forEach(result::add);
+        return result;
+    }
+
+    /**
+     * Creates the resource of the given URI, and loads it in the background.
+     */
+    private CompletableFuture<T> load(URI uri) {
+        return CompletableFuture.supplyAsync(() -> {
+            T resource = creator.apply(session, uri);
+            try {
+                loader.load(resource);
+            } catch (AcmeException ex) {
+                throw new CompletionException(ex);
+            }
+            return resource;
+        }, session.getExecutor());
+    }
+
+    /**
+     * Waits for the result of a background operation, and unwraps its exception.
+     */
+    private <R> R await(CompletableFuture<R> future, String message) {
+        try {
+            return future.join();
+        } catch (CancellationException ex) {
+            close();
+            throw new NoSuchElementException("iteration of " + field + " was cancelled");
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new AcmeProtocolException(message, cause);
         }
+    }
+
+    /**
+     * Loads an {@link AcmeResource} from the server.
+     *
+     * @param <T>
+     *            {@link AcmeResource} type
+     */
+    @FunctionalInterface
+    public interface ResourceLoader<T> {
+
+        /**
+         * Loads the resource.
+         *
+         * @param resource
+         *            Resource to be loaded
+         */
+        void load(T resource) throws AcmeException;
 
-        array.stream().map(JSON.Value::asURI).forEach(uriList::add);
+    }
+
+    /**
+     * A batch of URIs, and the URI of the next batch.
+     */
+    private static class Batch {
+        private final List<URI> uris;
+        private final URI next;
+
+        public Batch(List<URI> uris, URI next) {
+            this.uris = uris;
+            this.next = next;
+        }
     }
 
 }
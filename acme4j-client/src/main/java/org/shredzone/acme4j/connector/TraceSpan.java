@@ -0,0 +1,317 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A timed span of a trace, e.g. an ACME operation, a request, or a phase of a request.
+ * <p>
+ * Spans are created by {@link org.shredzone.acme4j.Session#startSpan(String)} or
+ * {@link #child(String)}, and are reported to the {@link RequestTracer} when they are
+ * closed. A span can be made the current span of the thread, so all spans that are
+ * started on that thread become its children. If the session does not trace, all
+ * spans are {@link #NONE}.
+ */
+public class TraceSpan implements AutoCloseable {
+
+    /**
+     * A span that is not traced. All its methods do nothing.
+     */
+    public static final TraceSpan NONE = new TraceSpan();
+
+    private static final AtomicLong IDS = new AtomicLong();
+    private static final ThreadLocal<TraceSpan> CURRENT = new ThreadLocal<>();
+    private static final Instant BASE_TIME = Instant.now();
+    private static final long BASE_NANOS = System.nanoTime();
+
+    private final RequestTracer tracer;
+    private final TraceSpan parent;
+    private final String name;
+    private final long id;
+    private final long traceId;
+    private final long startNanos;
+    private final Map<String, Object> tags = new LinkedHashMap<>();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile long durationNanos = -1L;
+    private volatile Throwable failure;
+    private TraceSpan previous;
+    private boolean active;
+
+    /**
+     * Creates {@link #NONE}.
+     */
+    private TraceSpan() {
+        this.tracer = RequestTracer.NONE;
+        this.parent = null;
+        this.name = "none";
+        this.id = 0L;
+        this.traceId = 0L;
+        this.startNanos = 0L;
+        this.finished.set(true);
+    }
+
+    /**
+     * Creates a new {@link TraceSpan}.
+     *
+     * @param tracer
+     *            {@link RequestTracer} the span is reported to
+     * @param parent
+     *            Parent span, or {@code null} if this is the root span of a trace
+     * @param name
+     *            Name of the span
+     * @param startNanos
+     *            Start of the span, as given by {@link System#nanoTime()}
+     */
+    private TraceSpan(RequestTracer tracer, TraceSpan parent, String name, long startNanos) {
+        this.tracer = tracer;
+        this.parent = parent;
+        this.name = Objects.requireNonNull(name, "name");
+        this.id = IDS.incrementAndGet();
+        this.traceId = parent != null ? parent.traceId : id;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Starts a new span.
+     *
+     * @param tracer
+     *            {@link RequestTracer} the span is reported to. If it is
+     *            {@link RequestTracer#NONE}, {@link #NONE} is returned.
+     * @param parent
+     *            Parent span, or {@code null} if this is the root span of a trace
+     * @param name
+     *            Name of the span
+     * @return {@link TraceSpan} that was started
+     */
+    public static TraceSpan start(RequestTracer tracer, TraceSpan parent, String name) {
+        Objects.requireNonNull(tracer, "tracer");
+        if (tracer == RequestTracer.NONE) {
+            return NONE;
+        }
+        return new TraceSpan(tracer, parent != NONE ? parent : null, name, System.nanoTime());
+    }
+
+    /**
+     * Returns the span that is current on this thread, or {@code null} if there is none.
+     */
+    public static TraceSpan current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Sets the current span of this thread.
+     *
+     * @param span
+     *            New current span, may be {@code null}
+     * @return Previous current span, may be {@code null}
+     */
+    static TraceSpan swap(TraceSpan span) {
+        TraceSpan prev = CURRENT.get();
+        if (span != null) {
+            CURRENT.set(span);
+        } else {
+            CURRENT.remove();
+        }
+        return prev;
+    }
+
+    /**
+     * Starts a child span of this span.
+     *
+     * @param name
+     *            Name of the child span
+     * @return {@link TraceSpan} that was started
+     */
+    public TraceSpan child(String name) {
+        if (this == NONE) {
+            return NONE;
+        }
+        return new TraceSpan(tracer, this, name, System.nanoTime());
+    }
+
+    /**
+     * Reports a child span that has already ended, e.g. a phase of a request.
+     *
+     * @param name
+     *            Name of the child span
+     * @param startNanos
+     *            Start of the child span, as given by {@link System#nanoTime()}. The
+     *            child span ends now.
+     */
+    public void record(String name, long startNanos) {
+        if (this != NONE) {
+            new TraceSpan(tracer, this, name, startNanos).close();
+        }
+    }
+
+    /**
+     * Adds a tag to this span.
+     *
+     * @param key
+     *            Tag key
+     * @param value
+     *            Tag value. {@code null} values are ignored.
+     * @return itself
+     */
+    public TraceSpan tag(String key, Object value) {
+        if (this != NONE && value != null) {
+            synchronized (tags) {
+                tags.put(Objects.requireNonNull(key, "key"), value);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Marks this span as failed.
+     *
+     * @param failure
+     *            Cause of the failure
+     * @return itself
+     */
+    public TraceSpan fail(Throwable failure) {
+        if (this != NONE) {
+            this.failure = failure;
+        }
+        return this;
+    }
+
+    /**
+     * Makes this span the current span of this thread, until it is closed. It must be
+     * closed on the same thread.
+     *
+     * @return itself
+     */
+    public TraceSpan activate() {
+        if (this != NONE && !active) {
+            previous = swap(this);
+            active = true;
+        }
+        return this;
+    }
+
+    /**
+     * Invokes the {@link Supplier} while this span is the current span of this thread.
+     *
+     * @param supplier
+     *            {@link Supplier} to invoke
+     * @return Result of the {@link Supplier}
+     */
+    public <T> T within(Supplier<T> supplier) {
+        if (this == NONE) {
+            return supplier.get();
+        }
+
+        TraceSpan prev = swap(this);
+        try {
+            return supplier.get();
+        } finally {
+            swap(prev);
+        }
+    }
+
+    /**
+     * Finishes this span and reports it to the {@link RequestTracer}. If the span was
+     * activated, the previous span becomes the current span of this thread again. Does
+     * nothing if the span was already finished.
+     */
+    @Override
+    public void close() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+
+        durationNanos = System.nanoTime() - startNanos;
+        if (active) {
+            swap(previous);
+            previous = null;
+            active = false;
+        }
+        tracer.finished(this);
+    }
+
+    /**
+     * Returns the unique ID of this span.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the ID of the trace, which is the ID of its root span.
+     */
+    public long getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Returns the parent span, or {@code null} if this is a root span.
+     */
+    public TraceSpan getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns the name of this span.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the tags of this span.
+     */
+    public Map<String, Object> getTags() {
+        synchronized (tags) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(tags));
+        }
+    }
+
+    /**
+     * Returns the moment when this span was started.
+     */
+    public Instant getStartTime() {
+        return BASE_TIME.plusNanos(startNanos - BASE_NANOS);
+    }
+
+    /**
+     * Returns the duration of this span, in nanoseconds. -1 if the span is not
+     * finished yet.
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Returns the cause of the failure, or {@code null} if the span did not fail.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return name + '#' + id + (parent != null ? " < " + parent.name + '#' + parent.id : "")
+                        + ' ' + getTags() + (durationNanos >= 0L ? " " + durationNanos + "ns" : "");
+    }
+
+}
@@ -29,6 +29,7 @@ import org.shredzone.acme4j.challenge.OutOfBand01Challenge;
 import org.shredzone.acme4j.challenge.TlsSni02Challenge;
 import org.shredzone.acme4j.connector.Connection;
 import org.shredzone.acme4j.connector.DefaultConnection;
+import org.shredzone.acme4j.connector.DirectoryCache;
 import org.shredzone.acme4j.connector.HttpConnector;
 import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.util.JSON;
@@ -44,9 +45,12 @@ public abstract class AbstractAcmeProvider implements AcmeProvider {
 
     private static final Map<String, Function<Session, Challenge>> CHALLENGES = challengeMap();
 
+    private final boolean customDirectory = overridesDirectory();
+    private HttpConnector httpConnector;
+
     @Override
     public Connection connect() {
-        return new DefaultConnection(createHttpConnector());
+        return new DefaultConnection(getHttpConnector());
     }
 
     @Override
@@ -62,6 +66,54 @@ public abstract class AbstractAcmeProvider implements AcmeProvider {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If a subclass overrides {@link #directory(Session, URI)}, {@code null} is returned,
+     * so the overridden method is used instead.
+     */
+    @Override
+    public DirectoryCache.Entry directory(Session session, URI serverUri, DirectoryCache.Entry cached)
+                throws AcmeException {
+        if (customDirectory) {
+            return null;
+        }
+
+        try (Connection conn = connect()) {
+            URI directoryUri = resolve(serverUri);
+
+            if (cached != null && (cached.getETag() != null || cached.getLastModified() != null)) {
+                if (!conn.sendConditionalRequest(directoryUri, session,
+                                cached.getETag(), cached.getLastModified())) {
+                    // not modified, just extend the expiry date
+                    return new DirectoryCache.Entry(cached.getDirectory(),
+                                    cached.getETag(), cached.getLastModified(),
+                                    conn.getExpiration());
+                }
+            } else {
+                conn.sendRequest(directoryUri, session);
+            }
+
+            conn.accept(HttpURLConnection.HTTP_OK);
+            conn.updateSession(session);
+
+            return new DirectoryCache.Entry(conn.readJsonResponse(),
+                            conn.getETag(), conn.getLastModified(), conn.getExpiration());
+        }
+    }
+
+    /**
+     * Checks if {@link #directory(Session, URI)} was overridden by a subclass.
+     */
+    private boolean overridesDirectory() {
+        try {
+            return getClass().getMethod("directory", Session.class, URI.class)
+                    .getDeclaringClass() != AbstractAcmeProvider.class;
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException("directory method not found", ex);
+        }
+    }
+
     @SuppressWarnings("deprecation") // must still provide deprecated challenges
     private static Map<String, Function<Session, Challenge>> challengeMap() {
         Map<String, Function<Session, Challenge>> map = new HashMap<>();
@@ -88,10 +140,24 @@ public abstract class AbstractAcmeProvider implements AcmeProvider {
         return constructor.apply(session);
     }
 
+    /**
+     * Returns the {@link HttpConnector} of this provider. It is created on first use by
+     * {@link #createHttpConnector()}, and then shared by all connections of this
+     * provider.
+     */
+    protected synchronized HttpConnector getHttpConnector() {
+        if (httpConnector == null) {
+            httpConnector = createHttpConnector();
+        }
+        return httpConnector;
+    }
+
     /**
      * Creates a {@link HttpConnector}.
      * <p>
-     * Subclasses may override this method to configure the {@link HttpConnector}.
+     * Subclasses may override this method to configure the {@link HttpConnector}, e.g.
+     * to return a {@link org.shredzone.acme4j.connector.PooledHttpConnector} for
+     * connection pooling.
      */
     protected HttpConnector createHttpConnector() {
         return new HttpConnector();
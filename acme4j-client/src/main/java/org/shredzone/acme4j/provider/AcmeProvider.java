@@ -19,6 +19,7 @@ import java.util.ServiceLoader;
 import org.shredzone.acme4j.Session;
 import org.shredzone.acme4j.challenge.Challenge;
 import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.DirectoryCache;
 import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.util.JSON;
 
@@ -73,6 +74,30 @@ public interface AcmeProvider {
      */
     JSON directory(Session session, URI serverUri) throws AcmeException;
 
+    /**
+     * Returns the provider's directory, along with the cache headers of the server's
+     * response. If a cached directory is given, it is revalidated by a conditional
+     * request.
+     * <p>
+     * The default implementation returns {@code null}, so
+     * {@link #directory(Session, URI)} is used instead, and the directory is cached for
+     * the default time. {@link AbstractAcmeProvider} only uses conditional requests if
+     * {@link #directory(Session, URI)} was not overridden.
+     *
+     * @param session
+     *            {@link Session} to be used
+     * @param serverUri
+     *            Server {@link URI}
+     * @param cached
+     *            Cached directory to be revalidated, or {@code null} if there is none
+     * @return {@link DirectoryCache.Entry} with the current directory, or {@code null}
+     *         if conditional requests are not supported by this provider
+     */
+    default DirectoryCache.Entry directory(Session session, URI serverUri, DirectoryCache.Entry cached)
+                throws AcmeException {
+        return null;
+    }
+
     /**
      * Creates a {@link Challenge} instance for the given challenge type.
      * <p>
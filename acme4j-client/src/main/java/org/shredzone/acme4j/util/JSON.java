@@ -13,20 +13,20 @@
  */
 package org.shredzone.acme4j.util;
 
-import static java.util.stream.Collectors.joining;
 import static org.shredzone.acme4j.util.AcmeUtils.parseTimestamp;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.HashMap;
@@ -36,11 +36,14 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import org.jose4j.json.JsonUtil;
-import org.jose4j.lang.JoseException;
+import org.shredzone.acme4j.Status;
 import org.shredzone.acme4j.exception.AcmeProtocolException;
 
 /**
@@ -54,6 +57,7 @@ public final class JSON implements Serializable {
 
     private final String path;
     private Map<String, Object> data;
+    private transient volatile ConcurrentMap<String, Value> valueCache;
 
     /**
      * Creates a new {@link JSON} root object.
@@ -80,15 +84,17 @@ public final class JSON implements Serializable {
 
     /**
      * Parses JSON from an {@link InputStream}.
+     * <p>
+     * The UTF-8 encoded stream is parsed in a single pass, without reading it into a
+     * string first.
      *
      * @param in
      *            {@link InputStream} to read from. Will be closed after use.
      * @return {@link JSON} of the read content.
      */
     public static JSON parse(InputStream in) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, "utf-8"))) {
-            String json = reader.lines().map(String::trim).collect(joining());
-            return parse(json);
+        try (InputStream jsonIn = in) {
+            return new JSON(new JSONReader(jsonIn).readObject());
         }
     }
 
@@ -101,12 +107,25 @@ public final class JSON implements Serializable {
      */
     public static JSON parse(String json) {
         try {
-            return new JSON(JsonUtil.parseJson(json));
-        } catch (JoseException ex) {
+            return new JSON(parseMap(json));
+        } catch (AcmeProtocolException ex) {
             throw new AcmeProtocolException("Bad JSON: " + json, ex);
         }
     }
 
+    /**
+     * Parses a JSON object string into a {@link Map}.
+     */
+    private static Map<String, Object> parseMap(String json) {
+        try {
+            return new JSONReader(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))
+                            .readObject();
+        } catch (IOException ex) {
+            // cannot happen on a ByteArrayInputStream
+            throw new UncheckedIOException(ex);
+        }
+    }
+
     /**
      * Returns a {@link JSON} of an empty document.
      *
@@ -138,15 +157,30 @@ public final class JSON implements Serializable {
 
     /**
      * Returns the {@link Value} of the given key.
+     * <p>
+     * The {@link Value} instance is cached, so repeated calls return the same instance,
+     * along with its already converted values.
      *
      * @param key
      *            Key to read
      * @return {@link Value} of the key
      */
     public Value get(String key) {
-        return new Value(
-                path.isEmpty() ? key : path + '.' + key,
-                data.get(key));
+        ConcurrentMap<String, Value> cache = valueCache;
+        if (cache == null) {
+            cache = new ConcurrentHashMap<>();
+            valueCache = cache;
+        }
+
+        Value value = cache.get(key);
+        if (value == null) {
+            value = new Value(this, key, -1, data.get(key));
+            Value existing = cache.putIfAbsent(key, value);
+            if (existing != null) {
+                value = existing;
+            }
+        }
+        return value;
     }
 
     /**
@@ -170,9 +204,9 @@ public final class JSON implements Serializable {
      */
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         try {
-            data = new HashMap<>(JsonUtil.parseJson(in.readUTF()));
+            data = parseMap(in.readUTF());
             in.defaultReadObject();
-        } catch (JoseException ex) {
+        } catch (AcmeProtocolException ex) {
             throw new AcmeProtocolException("Cannot deserialize", ex);
         }
     }
@@ -181,20 +215,22 @@ public final class JSON implements Serializable {
      * Represents a JSON array.
      */
     public static final class Array implements Iterable<Value> {
-        private final String path;
+        private final Value owner;
         private final List<Object> data;
+        private final AtomicReferenceArray<Value> values;
 
         /**
          * Creates a new {@link Array} object.
          *
-         * @param path
-         *            JSON path to this array.
+         * @param owner
+         *            {@link Value} containing this array
          * @param data
          *            Array data
          */
-        private Array(String path, List<Object> data) {
-            this.path = path;
+        private Array(Value owner, List<Object> data) {
+            this.owner = owner;
             this.data = data;
+            this.values = new AtomicReferenceArray<>(data.size());
         }
 
         /**
@@ -214,7 +250,14 @@ public final class JSON implements Serializable {
          * @return {@link Value} at this index
          */
         public Value get(int index) {
-            return new Value(path + '[' + index + ']', data.get(index));
+            Value value = values.get(index);
+            if (value == null) {
+                value = new Value(owner, null, index, data.get(index));
+                if (!values.compareAndSet(index, null, value)) {
+                    value = values.get(index);
+                }
+            }
+            return value;
         }
 
         /**
@@ -237,21 +280,39 @@ public final class JSON implements Serializable {
 
     /**
      * A single JSON value. This instance also covers {@code null} values.
+     * <p>
+     * Converted values are computed on first access, and then cached. The JSON path of
+     * the value is only computed when an error is to be reported.
      */
     public static final class Value {
-        private final String path;
+        private final Object parent;
+        private final String key;
+        private final int index;
         private final Object val;
 
+        private volatile JSON object;
+        private volatile Array array;
+        private volatile URI uri;
+        private volatile URL url;
+        private volatile Instant instant;
+        private volatile Status status;
+
         /**
          * Creates a new {@link Value}.
          *
-         * @param path
-         *            JSON path to this value
+         * @param parent
+         *            {@link JSON} object or array {@link Value} containing this value
+         * @param key
+         *            Key of this value in the object, or {@code null} in an array
+         * @param index
+         *            Index of this value in the array
          * @param val
          *            Value, may be {@code null}
          */
-        private Value(String path, Object val) {
-            this.path = path;
+        private Value(Object parent, String key, int index, Object val) {
+            this.parent = parent;
+            this.key = key;
+            this.index = index;
             this.val = val;
         }
 
@@ -263,7 +324,7 @@ public final class JSON implements Serializable {
          */
         public Value required() {
             if (val == null) {
-                throw new AcmeProtocolException(path + ": required, but not set");
+                throw new AcmeProtocolException(path() + ": required, but not set");
             }
             return this;
         }
@@ -287,11 +348,16 @@ public final class JSON implements Serializable {
                 return null;
             }
 
-            try {
-                return new JSON(path, (Map<String, Object>) val);
-            } catch (ClassCastException ex) {
-                throw new AcmeProtocolException(path + ": expected an object", ex);
+            JSON result = object;
+            if (result == null) {
+                try {
+                    result = new JSON(path(), (Map<String, Object>) val);
+                } catch (ClassCastException ex) {
+                    throw new AcmeProtocolException(path() + ": expected an object", ex);
+                }
+                object = result;
             }
+            return result;
         }
 
         /**
@@ -304,11 +370,16 @@ public final class JSON implements Serializable {
                 return null;
             }
 
-            try {
-                return new Array(path, (List<Object>) val);
-            } catch (ClassCastException ex) {
-                throw new AcmeProtocolException(path + ": expected an array", ex);
+            Array result = array;
+            if (result == null) {
+                try {
+                    result = new Array(this, (List<Object>) val);
+                } catch (ClassCastException ex) {
+                    throw new AcmeProtocolException(path() + ": expected an array", ex);
+                }
+                array = result;
             }
+            return result;
         }
 
         /**
@@ -322,7 +393,7 @@ public final class JSON implements Serializable {
             try {
                 return ((Number) val).intValue();
             } catch (ClassCastException ex) {
-                throw new AcmeProtocolException(path + ": bad number " + val, ex);
+                throw new AcmeProtocolException(path() + ": bad number " + val, ex);
             }
         }
 
@@ -336,11 +407,16 @@ public final class JSON implements Serializable {
                 return null;
             }
 
-            try {
-                return new URI(val.toString());
-            } catch (URISyntaxException ex) {
-                throw new AcmeProtocolException(path + ": bad URI " + val, ex);
+            URI result = uri;
+            if (result == null) {
+                try {
+                    result = new URI(val.toString());
+                } catch (URISyntaxException ex) {
+                    throw new AcmeProtocolException(path() + ": bad URI " + val, ex);
+                }
+                uri = result;
             }
+            return result;
         }
 
         /**
@@ -353,11 +429,16 @@ public final class JSON implements Serializable {
                 return null;
             }
 
-            try {
-                return new URL(val.toString());
-            } catch (MalformedURLException ex) {
-                throw new AcmeProtocolException(path + ": bad URL " + val, ex);
+            URL result = url;
+            if (result == null) {
+                try {
+                    result = new URL(val.toString());
+                } catch (MalformedURLException ex) {
+                    throw new AcmeProtocolException(path() + ": bad URL " + val, ex);
+                }
+                url = result;
             }
+            return result;
         }
 
         /**
@@ -370,11 +451,48 @@ public final class JSON implements Serializable {
                 return null;
             }
 
-            try {
-                return parseTimestamp(val.toString());
-            } catch (IllegalArgumentException ex) {
-                throw new AcmeProtocolException(path + ": bad date " + val, ex);
+            Instant result = instant;
+            if (result == null) {
+                try {
+                    result = parseTimestamp(val.toString());
+                } catch (IllegalArgumentException ex) {
+                    throw new AcmeProtocolException(path() + ": bad date " + val, ex);
+                }
+                instant = result;
+            }
+            return result;
+        }
+
+        /**
+         * Returns the value as {@link Status}.
+         *
+         * @param def
+         *            {@link Status} to be returned if the value was not set
+         * @return {@link Status}, {@link Status#UNKNOWN} if the value is not a known
+         *         status, or {@code def} if the value was not set.
+         */
+        public Status asStatusOrElse(Status def) {
+            if (val == null) {
+                return def;
+            }
+
+            Status result = status;
+            if (result == null) {
+                result = Status.parse(val.toString());
+                status = result;
+            }
+            return result;
+        }
+
+        /**
+         * Returns the JSON path to this value.
+         */
+        private String path() {
+            if (parent instanceof JSON) {
+                String parentPath = ((JSON) parent).path;
+                return parentPath.isEmpty() ? key : parentPath + '.' + key;
             }
+            return ((Value) parent).path() + '[' + index + ']';
         }
 
         @Override
@@ -0,0 +1,400 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.shredzone.acme4j.exception.AcmeProtocolException;
+
+/**
+ * A single pass JSON reader that parses UTF-8 encoded JSON directly from an
+ * {@link InputStream}.
+ * <p>
+ * Objects are read into {@link LinkedHashMap}, arrays into {@link ArrayList}. Integral
+ * numbers are read as {@link Long}, all other numbers as {@link Double}. This is the
+ * same model that {@code org.jose4j.json.JsonUtil} creates. Like that parser, unescaped
+ * control characters in strings are tolerated and preserved.
+ */
+final class JSONReader {
+    private static final int MAX_DEPTH = 256;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int bufferPos = 0;
+    private int bufferLen = 0;
+    private long position = 0;
+    private char[] chars = new char[256];
+
+    /**
+     * Creates a new {@link JSONReader}.
+     *
+     * @param in
+     *            {@link InputStream} to read from. It is not closed by the reader.
+     */
+    JSONReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads a JSON object. The stream must not contain anything but whitespaces after
+     * the object.
+     *
+     * @return Map of the JSON object
+     * @throws AcmeProtocolException
+     *             if the stream does not contain a valid JSON object
+     */
+    Map<String, Object> readObject() throws IOException {
+        if (skipWhitespace() != '{') {
+            throw error("expected an object");
+        }
+        read();
+        Map<String, Object> result = readObjectContent(1);
+        if (skipWhitespace() != -1) {
+            throw error("unexpected content after object");
+        }
+        return result;
+    }
+
+    /**
+     * Reads a value, starting with the next non-whitespace character.
+     */
+    private Object readValue(int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw error("nested too deeply");
+        }
+
+        int c = skipWhitespace();
+        switch (c) {
+            case '{':
+                read();
+                return readObjectContent(depth + 1);
+
+            case '[':
+                read();
+                return readArrayContent(depth + 1);
+
+            case '"':
+                read();
+                return readString();
+
+            case 't':
+                expectLiteral("true");
+                return Boolean.TRUE;
+
+            case 'f':
+                expectLiteral("false");
+                return Boolean.FALSE;
+
+            case 'n':
+                expectLiteral("null");
+                return null;
+
+            case -1:
+                throw error("unexpected end of JSON");
+
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return readNumber();
+                }
+                throw error("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * Reads the content of an object, after the opening brace.
+     */
+    private Map<String, Object> readObjectContent(int depth) throws IOException {
+        Map<String, Object> result = new LinkedHashMap<>();
+
+        int c = skipWhitespace();
+        if (c == '}') {
+            read();
+            return result;
+        }
+
+        while (true) {
+            if (c != '"') {
+                throw error("expected a key");
+            }
+            read();
+            String key = readString();
+
+            if (skipWhitespace() != ':') {
+                throw error("expected ':'");
+            }
+            read();
+
+            Object value = readValue(depth);
+            if (result.containsKey(key)) {
+                throw error("duplicate key '" + key + "'");
+            }
+            result.put(key, value);
+
+            c = skipWhitespace();
+            read();
+            if (c == '}') {
+                return result;
+            }
+            if (c != ',') {
+                throw error("expected ',' or '}'");
+            }
+            c = skipWhitespace();
+        }
+    }
+
+    /**
+     * Reads the content of an array, after the opening bracket.
+     */
+    private List<Object> readArrayContent(int depth) throws IOException {
+        List<Object> result = new ArrayList<>();
+
+        if (skipWhitespace() == ']') {
+            read();
+            return result;
+        }
+
+        while (true) {
+            result.add(readValue(depth));
+
+            int c = skipWhitespace();
+            read();
+            if (c == ']') {
+                return result;
+            }
+            if (c != ',') {
+                throw error("expected ',' or ']'");
+            }
+        }
+    }
+
+    /**
+     * Reads a string, after the opening quote.
+     */
+    private String readString() throws IOException {
+        int len = 0;
+        while (true) {
+            int b = read();
+            if (b == '"') {
+                return new String(chars, 0, len);
+            }
+
+            if (len + 2 > chars.length) {
+                chars = Arrays.copyOf(chars, chars.length * 2);
+            }
+
+            if (b == '\\') {
+                chars[len++] = readEscape();
+            } else if (b < 0) {
+                throw error("unterminated string");
+            } else if (b < 0x80) {
+                // unescaped control characters are accepted, like line breaks
+                chars[len++] = (char) b;
+            } else {
+                int cp = readUtf8(b);
+                if (Character.isSupplementaryCodePoint(cp)) {
+                    chars[len++] = Character.highSurrogate(cp);
+                    chars[len++] = Character.lowSurrogate(cp);
+                } else {
+                    chars[len++] = (char) cp;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads an escape sequence, after the backslash.
+     */
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"':  return '"';
+            case '\\': return '\\';
+            case '/':  return '/';
+            case 'b':  return '\b';
+            case 'f':  return '\f';
+            case 'n':  return '\n';
+            case 'r':  return '\r';
+            case 't':  return '\t';
+            case 'u':
+                int value = 0;
+                for (int ix = 0; ix < 4; ix++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw error("bad unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                throw error("bad escape sequence");
+        }
+    }
+
+    /**
+     * Decodes a multi-byte UTF-8 sequence, starting with the given lead byte.
+     */
+    private int readUtf8(int lead) throws IOException {
+        int count;
+        int cp;
+        if ((lead & 0xE0) == 0xC0) {
+            count = 1;
+            cp = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            count = 2;
+            cp = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            count = 3;
+            cp = lead & 0x07;
+        } else {
+            throw error("bad UTF-8 encoding");
+        }
+
+        for (int ix = 0; ix < count; ix++) {
+            int b = read();
+            if ((b & 0xC0) != 0x80) {
+                throw error("bad UTF-8 encoding");
+            }
+            cp = (cp << 6) | (b & 0x3F);
+        }
+
+        if (cp > Character.MAX_CODE_POINT) {
+            throw error("bad UTF-8 encoding");
+        }
+        return cp;
+    }
+
+    /**
+     * Reads a number.
+     */
+    private Object readNumber() throws IOException {
+        int len = 0;
+        boolean integral = true;
+
+        while (true) {
+            int c = peek();
+            if ((c >= '0' && c <= '9') || c == '-') {
+                // part of an integral number
+            } else if (c == '.' || c == 'e' || c == 'E' || c == '+') {
+                integral = false;
+            } else {
+                break;
+            }
+
+            if (len == chars.length) {
+                chars = Arrays.copyOf(chars, chars.length * 2);
+            }
+            chars[len++] = (char) read();
+        }
+
+        String number = new String(chars, 0, len);
+        try {
+            if (integral) {
+                try {
+                    return Long.valueOf(number);
+                } catch (NumberFormatException ex) {
+                    // too large for a long, fall back to a double
+                }
+            }
+            return Double.valueOf(number);
+        } catch (NumberFormatException ex) {
+            throw error("bad number " + number);
+        }
+    }
+
+    /**
+     * Reads the expected literal.
+     */
+    private void expectLiteral(String literal) throws IOException {
+        for (int ix = 0; ix < literal.length(); ix++) {
+            if (read() != literal.charAt(ix)) {
+                throw error("expected '" + literal + "'");
+            }
+        }
+    }
+
+    /**
+     * Skips all whitespaces.
+     *
+     * @return Next non-whitespace byte, which is not consumed, or -1 at the end of the
+     *         stream
+     */
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+            read();
+        }
+    }
+
+    /**
+     * Returns the next byte without consuming it.
+     *
+     * @return Next byte, or -1 at the end of the stream
+     */
+    private int peek() throws IOException {
+        if (bufferPos == bufferLen && !fill()) {
+            return -1;
+        }
+        return buffer[bufferPos] & 0xFF;
+    }
+
+    /**
+     * Reads the next byte.
+     *
+     * @return Next byte, or -1 at the end of the stream
+     */
+    private int read() throws IOException {
+        if (bufferPos == bufferLen && !fill()) {
+            return -1;
+        }
+        position++;
+        return buffer[bufferPos++] & 0xFF;
+    }
+
+    /**
+     * Fills the buffer.
+     *
+     * @return {@code false} if the end of the stream was reached
+     */
+    private boolean fill() throws IOException {
+        int len;
+        do {
+            len = in.read(buffer);
+        } while (len == 0);
+
+        if (len < 0) {
+            return false;
+        }
+        bufferPos = 0;
+        bufferLen = len;
+        return true;
+    }
+
+    /**
+     * Creates an {@link AcmeProtocolException} for a parse error at the current
+     * position.
+     */
+    private AcmeProtocolException error(String message) {
+        return new AcmeProtocolException("Bad JSON at position " + position + ": " + message);
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.connector.ResourceIterator;
+
+/**
+ * Unit tests for {@link AuthorizationCache}.
+ */
+public class AuthorizationCacheTest {
+
+    private final Instant inTenDays = Instant.now().plus(10, ChronoUnit.DAYS).truncatedTo(ChronoUnit.SECONDS);
+
+    private Session session;
+    private AuthorizationCache cache;
+
+    @Before
+    public void setup() {
+        session = mock(Session.class);
+        cache = new AuthorizationCache(session);
+    }
+
+    /**
+     * Test that valid authorizations are cached by their ACE domain name.
+     */
+    @Test
+    public void testPutAndGet() {
+        cache.put(mockAuthorization("ëxample.org", Status.VALID, inTenDays, 1));
+
+        assertThat(cache.size(), is(1));
+        assertThat(cache.isAuthorized("ëxample.org"), is(true));
+        assertThat(cache.isAuthorized("xn--xample-ova.org"), is(true));
+        assertThat(cache.isAuthorized("example.org"), is(false));
+        assertThat(cache.getExpires("Ëxample.org"), is(inTenDays));
+
+        Authorization auth = cache.get("xn--xample-ova.org");
+        assertThat(auth, is(notNullValue()));
+        assertThat(auth.getLocation(), is(URI.create("https://example.com/acme/authz/1")));
+        assertThat(cache.get("example.org"), is(nullValue()));
+    }
+
+    /**
+     * Test that invalid authorizations are not cached, and replace valid ones.
+     */
+    @Test
+    public void testInvalid() {
+        cache.put(mockAuthorization("example.org", Status.PENDING, inTenDays, 1));
+        cache.put(mockAuthorization("example.com", Status.VALID, null, 2));
+        assertThat(cache.size(), is(0));
+
+        cache.put(mockAuthorization("example.org", Status.VALID, inTenDays, 3));
+        assertThat(cache.isAuthorized("example.org"), is(true));
+
+        cache.put(mockAuthorization("example.org", Status.DEACTIVATED, inTenDays, 3));
+        assertThat(cache.isAuthorized("example.org"), is(false));
+        assertThat(cache.size(), is(0));
+    }
+
+    /**
+     * Test that a stale authorization does not evict the valid authorization of the
+     * same domain, regardless of the order.
+     */
+    @Test
+    public void testStaleDoesNotEvictValid() {
+        Authorization valid = mockAuthorization("example.org", Status.VALID, inTenDays, 1);
+        Authorization invalid = mockAuthorization("example.org", Status.INVALID, inTenDays, 2);
+
+        cache.put(valid);
+        cache.put(invalid);
+        assertThat(cache.isAuthorized("example.org"), is(true));
+        assertThat(cache.get("example.org").getLocation(),
+                        is(URI.create("https://example.com/acme/authz/1")));
+
+        AuthorizationCache reversed = new AuthorizationCache(session);
+        reversed.put(invalid);
+        reversed.put(valid);
+        assertThat(reversed.isAuthorized("example.org"), is(true));
+        assertThat(reversed.get("example.org").getLocation(),
+                        is(URI.create("https://example.com/acme/authz/1")));
+    }
+
+    /**
+     * Test that seeding is independent of the order of valid and stale authorizations.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSeedWithStale() throws Exception {
+        Authorization valid = mockAuthorization("example.org", Status.VALID, inTenDays, 1);
+        Authorization invalid = mockAuthorization("example.org", Status.INVALID, inTenDays, 2);
+
+        for (Authorization[] order : new Authorization[][] {{valid, invalid}, {invalid, valid}}) {
+            ResourceIterator<Authorization> it = mock(ResourceIterator.class);
+            when(it.hasNext()).thenReturn(true, true, false);
+            when(it.next()).thenReturn(order[0], order[1]);
+
+            Registration registration = mock(Registration.class);
+            when(registration.getAuthorizations()).thenReturn(it);
+
+            AuthorizationCache seeded = new AuthorizationCache(session);
+            assertThat(seeded.seed(registration), is(1));
+            assertThat(seeded.isAuthorized("example.org"), is(true));
+            assertThat(seeded.size(), is(1));
+        }
+    }
+
+    /**
+     * Test that the authorization expiring last is kept.
+     */
+    @Test
+    public void testLatestExpiry() {
+        Instant later = inTenDays.plus(5, ChronoUnit.DAYS);
+
+        cache.put(mockAuthorization("example.org", Status.VALID, inTenDays, 1));
+        cache.put(mockAuthorization("example.org", Status.VALID, later, 2));
+        cache.put(mockAuthorization("example.org", Status.VALID, inTenDays, 3));
+
+        assertThat(cache.size(), is(1));
+        assertThat(cache.getExpires("example.org"), is(later));
+        assertThat(cache.get("example.org").getLocation(),
+                        is(URI.create("https://example.com/acme/authz/2")));
+    }
+
+    /**
+     * Test that authorizations expiring within the margin are not returned, and purged.
+     */
+    @Test
+    public void testMarginAndPurge() {
+        cache.put(mockAuthorization("example.org", Status.VALID, Instant.now().plus(1, ChronoUnit.HOURS), 1));
+        cache.put(mockAuthorization("example.com", Status.VALID, inTenDays, 2));
+
+        assertThat(cache.isAuthorized("example.org"), is(false));
+        assertThat(cache.isAuthorized("example.com"), is(true));
+        assertThat(cache.size(), is(2));
+
+        assertThat(cache.purge(), is(1));
+        assertThat(cache.size(), is(1));
+        assertThat(cache.isAuthorized("example.com"), is(true));
+
+        cache.remove("example.com");
+        assertThat(cache.size(), is(0));
+    }
+
+    /**
+     * Test that the cache is saved and loaded.
+     */
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        cache.put(mockAuthorization("example.org", Status.VALID, inTenDays, 1));
+        cache.put(mockAuthorization("example.com", Status.VALID, inTenDays.plusSeconds(60), 2));
+
+        StringWriter out = new StringWriter();
+        cache.save(out);
+
+        assertThat(out.toString(), is(
+                "example.org " + inTenDays + " https://example.com/acme/authz/1\n" +
+                "example.com " + inTenDays.plusSeconds(60) + " https://example.com/acme/authz/2\n"));
+
+        AuthorizationCache loaded = new AuthorizationCache(session);
+        loaded.load(new StringReader(out.toString() + "garbage\nfoo bar baz\n"));
+        assertThat(loaded.size(), is(2));
+        assertThat(loaded.getExpires("example.org"), is(inTenDays));
+        assertThat(loaded.get("example.com").getLocation(),
+                        is(URI.create("https://example.com/acme/authz/2")));
+    }
+
+    /**
+     * Test that the cache is persisted to a file.
+     */
+    @Test
+    public void testFile() throws Exception {
+        Path file = Files.createTempFile("acme4j", ".authz");
+        try {
+            Files.delete(file);
+
+            AuthorizationCache fileCache = new AuthorizationCache(session, Duration.ofDays(1), file);
+            assertThat(fileCache.size(), is(0));
+            fileCache.put(mockAuthorization("example.org", Status.VALID, inTenDays, 1));
+            fileCache.flush();
+
+            AuthorizationCache reloaded = new AuthorizationCache(session, Duration.ofDays(1), file);
+            assertThat(reloaded.isAuthorized("example.org"), is(true));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Test that the cache is seeded from the {@link Registration}.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSeed() throws Exception {
+        Authorization valid = mockAuthorization("example.org", Status.VALID, inTenDays, 1);
+        Authorization pending = mockAuthorization("example.com", Status.PENDING, inTenDays, 2);
+
+        ResourceIterator<Authorization> it = mock(ResourceIterator.class);
+        when(it.hasNext()).thenReturn(true, true, false);
+        when(it.next()).thenReturn(valid, pending);
+
+        Registration registration = mock(Registration.class);
+        when(registration.getAuthorizations()).thenReturn(it);
+
+        assertThat(cache.seed(registration), is(1));
+        assertThat(cache.isAuthorized("example.org"), is(true));
+        assertThat(cache.isAuthorized("example.com"), is(false));
+        verify(it).prefetch(true);
+        verify(it).close();
+    }
+
+    /**
+     * Mocks an {@link Authorization}.
+     */
+    private Authorization mockAuthorization(String domain, Status status, Instant expires, int id) {
+        Authorization auth = mock(Authorization.class);
+        when(auth.getDomain()).thenReturn(domain);
+        when(auth.getStatus()).thenReturn(status);
+        when(auth.getExpires()).thenReturn(expires);
+        when(auth.getLocation()).thenReturn(URI.create("https://example.com/acme/authz/" + id));
+        return auth;
+    }
+
+}
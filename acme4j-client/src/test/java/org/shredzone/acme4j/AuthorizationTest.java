@@ -170,6 +170,50 @@ public class AuthorizationTest {
         provider.close();
     }
 
+    /**
+     * Test that an authorization can be updated asynchronously.
+     */
+    @Test
+    public void testUpdateAsync() throws Exception {
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void sendRequest(URI uri, Session session) {
+                assertThat(uri, is(locationUri));
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                assertThat(httpStatus, isIntArrayContainingInAnyOrder(
+                        HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_ACCEPTED));
+                return HttpURLConnection.HTTP_OK;
+            }
+
+            @Override
+            public JSON readJsonResponse() {
+                return getJsonAsObject("updateAuthorizationResponse");
+            }
+
+            @Override
+            public void handleRetryAfter(String message) throws AcmeException {
+                // Just do nothing
+            }
+        };
+
+        Session session = provider.createSession();
+        session.setExecutor(Runnable::run);
+
+        provider.putTestChallenge("http-01", new Http01Challenge(session));
+        provider.putTestChallenge("dns-01", new Dns01Challenge(session));
+
+        Authorization auth = new Authorization(session, locationUri);
+        auth.updateAsync().get();
+
+        assertThat(auth.getDomain(), is("example.org"));
+        assertThat(auth.getStatus(), is(Status.VALID));
+
+        provider.close();
+    }
+
     /**
      * Test lazy loading.
      */
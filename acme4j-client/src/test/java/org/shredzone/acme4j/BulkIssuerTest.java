@@ -0,0 +1,352 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.BulkIssuer.ChallengeProvisioner;
+import org.shredzone.acme4j.BulkIssuer.CsrFactory;
+import org.shredzone.acme4j.BulkIssuer.Result;
+import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.connector.RequestTracer;
+import org.shredzone.acme4j.connector.TraceSpan;
+import org.shredzone.acme4j.exception.AcmeException;
+
+/**
+ * Unit tests for {@link BulkIssuer}.
+ */
+public class BulkIssuerTest {
+
+    private static final byte[] CSR = new byte[] {1, 2, 3};
+
+    private Registration registration;
+    private ChallengeProvisioner provisioner;
+    private CsrFactory csrFactory;
+    private PollingScheduler scheduler;
+    private Challenge challenge;
+    private Certificate certificate;
+    private Session session;
+
+    @Before
+    public void setup() throws Exception {
+        session = mock(Session.class);
+        when(session.getExecutor()).thenReturn(Runnable::run);
+        when(session.startSpan(any())).thenReturn(TraceSpan.NONE);
+
+        registration = mock(Registration.class);
+        when(registration.getSession()).thenReturn(session);
+
+        challenge = mock(Challenge.class);
+        when(challenge.getStatus()).thenReturn(Status.PENDING);
+        when(challenge.triggerAsync()).thenReturn(CompletableFuture.completedFuture(null));
+
+        provisioner = mock(ChallengeProvisioner.class);
+        when(provisioner.prepare(any(Authorization.class))).thenReturn(challenge);
+
+        csrFactory = mock(CsrFactory.class);
+        when(csrFactory.createCsr(any())).thenReturn(CSR);
+
+        scheduler = mock(PollingScheduler.class);
+        when(scheduler.poll(challenge)).thenReturn(CompletableFuture.completedFuture(Status.VALID));
+
+        certificate = mock(Certificate.class);
+        when(registration.requestCertificateAsync(CSR)).thenReturn(CompletableFuture.completedFuture(certificate));
+    }
+
+    /**
+     * Test that certificates are issued for all domain groups.
+     */
+    @Test
+    public void testIssueAll() throws Exception {
+        mockAuthorization("example.org", Status.PENDING);
+        mockAuthorization("www.example.org", Status.PENDING);
+        mockAuthorization("example.com", Status.PENDING);
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, provisioner, csrFactory, 10, scheduler)) {
+            List<Result> results = issuer.issueAll(Arrays.asList(
+                            Arrays.asList("example.org", "www.example.org"),
+                            Collections.singletonList("example.com")));
+
+            assertThat(results, hasSize(2));
+            assertThat(results.get(0).getDomains(), contains("example.org", "www.example.org"));
+            assertThat(results.get(0).isSuccessful(), is(true));
+            assertThat(results.get(0).getCertificate(), is(sameInstance(certificate)));
+            assertThat(results.get(0).getStatus("www.example.org"), is(Status.VALID));
+            assertThat(results.get(0).getDomainFailures().isEmpty(), is(true));
+            assertThat(results.get(0).getFailure(), is(nullValue()));
+            assertThat(results.get(1).getDomains(), contains("example.com"));
+            assertThat(results.get(1).isSuccessful(), is(true));
+            assertThat(issuer.getPending(), is(0));
+        }
+
+        verify(csrFactory).createCsr(Arrays.asList("example.org", "www.example.org"));
+        verify(csrFactory).createCsr(Collections.singletonList("example.com"));
+        verify(challenge, times(3)).triggerAsync();
+        verify(provisioner, times(3)).cleanup(challenge);
+        verify(registration, times(2)).requestCertificateAsync(CSR);
+    }
+
+    /**
+     * Test that the stages of a domain group are traced in an order span.
+     */
+    @Test
+    public void testTracing() throws Exception {
+        final List<String> spans = new ArrayList<>();
+        final List<TraceSpan> orders = new ArrayList<>();
+        RequestTracer tracer = new RequestTracer() {
+            @Override
+            public void finished(TraceSpan span) {
+                spans.add(span.getName() + "<" + (span.getParent() != null ? span.getParent().getName() : null));
+                if ("order".equals(span.getName())) {
+                    orders.add(span);
+                }
+            }
+        };
+        when(session.startSpan("order")).thenAnswer(inv -> TraceSpan.start(tracer, null, "order"));
+
+        mockAuthorization("example.org", Status.PENDING);
+        mockAuthorization("www.example.org", Status.PENDING);
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, provisioner, csrFactory, 10, scheduler)) {
+            Result result = issuer.submit(Arrays.asList("example.org", "www.example.org")).get();
+            assertThat(result.isSuccessful(), is(true));
+        }
+
+        assertThat(spans, contains("provision<order", "provision<order", "csr<order", "order<null"));
+        assertThat(orders.get(0).getTags().get("domains"), is((Object) "example.org,www.example.org"));
+        assertThat(orders.get(0).getTags().get("successful"), is((Object) Boolean.TRUE));
+        assertThat(orders.get(0).getFailure(), is(nullValue()));
+        assertThat(TraceSpan.current(), is(nullValue()));
+    }
+
+    /**
+     * Test that no challenge is provisioned for domains that are already authorized.
+     */
+    @Test
+    public void testAlreadyAuthorized() throws Exception {
+        mockAuthorization("example.org", Status.VALID);
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, provisioner, csrFactory, 10, scheduler)) {
+            Result result = issuer.submit(Collections.singletonList("example.org")).get();
+            assertThat(result.isSuccessful(), is(true));
+            assertThat(result.getStatus("example.org"), is(Status.VALID));
+        }
+
+        verify(provisioner, never()).prepare(any(Authorization.class));
+        verify(challenge, never()).triggerAsync();
+    }
+
+    /**
+     * Test that a failed challenge is reported, and no certificate is requested.
+     */
+    @Test
+    public void testChallengeFailed() throws Exception {
+        Challenge failing = mock(Challenge.class);
+        when(failing.getStatus()).thenReturn(Status.PENDING);
+        when(failing.triggerAsync()).thenReturn(CompletableFuture.completedFuture(null));
+        when(scheduler.poll(failing)).thenReturn(CompletableFuture.completedFuture(Status.INVALID));
+
+        Authorization good = mockAuthorization("example.org", Status.PENDING);
+        Authorization bad = mockAuthorization("www.example.org", Status.PENDING);
+        when(provisioner.prepare(good)).thenReturn(challenge);
+        when(provisioner.prepare(bad)).thenReturn(failing);
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, provisioner, csrFactory, 10, scheduler)) {
+            Result result = issuer.submit(Arrays.asList("example.org", "www.example.org")).get();
+            assertThat(result.isSuccessful(), is(false));
+            assertThat(result.getCertificate(), is(nullValue()));
+            assertThat(result.getStatus("example.org"), is(Status.VALID));
+            assertThat(result.getStatus("www.example.org"), is(Status.INVALID));
+            assertThat(result.getDomainFailures().keySet(), contains("www.example.org"));
+        }
+
+        verify(provisioner).cleanup(failing);
+        verify(csrFactory, never()).createCsr(any());
+        verify(registration, never()).requestCertificateAsync(any());
+    }
+
+    /**
+     * Test that a failed certificate request is reported.
+     */
+    @Test
+    public void testRequestFailed() throws Exception {
+        AcmeException failure = new AcmeException("rejected");
+        CompletableFuture<Certificate> failed = new CompletableFuture<>();
+        failed.completeExceptionally(failure);
+        when(registration.requestCertificateAsync(CSR)).thenReturn(failed);
+
+        mockAuthorization("example.org", Status.VALID);
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, provisioner, csrFactory, 10, scheduler)) {
+            Result result = issuer.submit(Collections.singletonList("example.org")).get();
+            assertThat(result.isSuccessful(), is(false));
+            assertThat(result.getDomainFailures().isEmpty(), is(true));
+            assertThat(result.getFailure(), is(sameInstance((Throwable) failure)));
+        }
+    }
+
+    /**
+     * Test that the blocking provisioner and CSR factory are not invoked on the
+     * session's executor.
+     */
+    @Test
+    public void testBlockingExecutor() throws Exception {
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        when(provisioner.prepare(any(Authorization.class))).thenAnswer(invocation -> {
+            threads.add(Thread.currentThread().getName());
+            return challenge;
+        });
+        when(csrFactory.createCsr(any())).thenAnswer(invocation -> {
+            threads.add(Thread.currentThread().getName());
+            return CSR;
+        });
+        mockAuthorization("example.org", Status.PENDING);
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, provisioner, csrFactory, 10, scheduler)) {
+            Result result = issuer.submit(Collections.singletonList("example.org")).get();
+            assertThat(result.isSuccessful(), is(true));
+        }
+
+        assertThat(threads, hasSize(2));
+        assertThat(threads, everyItem(startsWith("acme4j-bulk-")));
+    }
+
+    /**
+     * Test that the number of concurrent authorizations is limited.
+     */
+    @Test
+    public void testStageLimit() throws Exception {
+        List<CompletableFuture<Authorization>> pending = new ArrayList<>();
+        when(registration.authorizeDomainAsync(any())).thenAnswer(invocation -> {
+            CompletableFuture<Authorization> future = new CompletableFuture<>();
+            pending.add(future);
+            return future;
+        });
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, provisioner, csrFactory, 10, scheduler)) {
+            issuer.setAuthorizeConcurrency(2);
+
+            CompletableFuture<Result> result = issuer.submit(
+                            Arrays.asList("a.example.org", "b.example.org", "c.example.org"));
+            assertThat(pending, hasSize(2));
+
+            Authorization auth = mock(Authorization.class);
+            when(auth.getStatus()).thenReturn(Status.VALID);
+            pending.get(0).complete(auth);
+            assertThat(pending, hasSize(3));
+
+            pending.get(1).complete(auth);
+            pending.get(2).complete(auth);
+            assertThat(result.get().isSuccessful(), is(true));
+        }
+    }
+
+    /**
+     * Test that submitting blocks while the pipeline is full.
+     */
+    @Test(timeout = 5000L)
+    public void testBackpressure() throws Exception {
+        CompletableFuture<Authorization> pending = new CompletableFuture<>();
+        when(registration.authorizeDomainAsync("example.org")).thenReturn(pending);
+        mockAuthorization("example.com", Status.VALID);
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, provisioner, csrFactory, 1, scheduler)) {
+            issuer.submit(Collections.singletonList("example.org"));
+            assertThat(issuer.getPending(), is(1));
+
+            CountDownLatch submitted = new CountDownLatch(1);
+            Thread thread = new Thread(() -> {
+                try {
+                    issuer.submit(Collections.singletonList("example.com"));
+                    submitted.countDown();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+
+            assertThat(submitted.await(200, TimeUnit.MILLISECONDS), is(false));
+
+            Authorization auth = mock(Authorization.class);
+            when(auth.getStatus()).thenReturn(Status.VALID);
+            pending.complete(auth);
+
+            assertThat(submitted.await(2, TimeUnit.SECONDS), is(true));
+            thread.join();
+        }
+    }
+
+    /**
+     * Test that cached authorizations are used, and new ones are added to the cache.
+     */
+    @Test
+    public void testAuthorizationCache() throws Exception {
+        AuthorizationCache cache = mock(AuthorizationCache.class);
+        when(cache.isAuthorized("example.org")).thenReturn(true);
+
+        Authorization auth = mockAuthorization("www.example.org", Status.PENDING);
+        when(auth.updateAsync()).thenReturn(CompletableFuture.completedFuture(null));
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, provisioner, csrFactory, 10, scheduler)) {
+            issuer.setAuthorizationCache(cache);
+            Result result = issuer.submit(Arrays.asList("example.org", "www.example.org")).get();
+            assertThat(result.isSuccessful(), is(true));
+            assertThat(result.getStatus("example.org"), is(Status.VALID));
+        }
+
+        verify(registration, never()).authorizeDomainAsync("example.org");
+        verify(auth).updateAsync();
+        verify(cache).put(auth);
+    }
+
+    /**
+     * Test that a closed issuer does not accept new domain groups.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws Exception {
+        BulkIssuer issuer = new BulkIssuer(registration, provisioner, csrFactory, 10, scheduler);
+        issuer.close();
+        issuer.submit(Collections.singletonList("example.org"));
+    }
+
+    /**
+     * Mocks an {@link Authorization} of the given domain.
+     */
+    private Authorization mockAuthorization(String domain, Status status) {
+        Authorization auth = mock(Authorization.class);
+        when(auth.getDomain()).thenReturn(domain);
+        when(auth.getStatus()).thenReturn(status);
+        when(registration.authorizeDomainAsync(domain)).thenReturn(CompletableFuture.completedFuture(auth));
+        return auth;
+    }
+
+}
@@ -25,6 +25,8 @@ import java.security.KeyPair;
 import java.security.cert.X509Certificate;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.shredzone.acme4j.connector.Resource;
@@ -90,6 +92,16 @@ public class CertificateTest {
                     default: return null;
                 }
             }
+
+            @Override
+            public String getETag() {
+                return null;
+            }
+
+            @Override
+            public Instant getLastModified() {
+                return null;
+            }
         };
 
         Certificate cert = new Certificate(provider.createSession(), locationUri);
@@ -104,6 +116,78 @@ public class CertificateTest {
         provider.close();
     }
 
+    /**
+     * Test that the issuer certificates of a chain are shared between certificates.
+     */
+    @Test
+    public void testSharedChain() throws AcmeException, IOException {
+        final X509Certificate originalCert = TestUtils.createCertificate();
+        final URI location2Uri = URI.create("http://example.com/acme/certificate2");
+        final URI rootUri = URI.create("http://example.com/acme/root");
+        final AtomicInteger chainRequests = new AtomicInteger();
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            private URI requestUri;
+
+            @Override
+            public void sendRequest(URI uri, Session session) {
+                assertThat(uri, isOneOf(locationUri, location2Uri, chainUri, rootUri));
+                requestUri = uri;
+                if (uri.equals(chainUri) || uri.equals(rootUri)) {
+                    chainRequests.incrementAndGet();
+                }
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                return HttpURLConnection.HTTP_OK;
+            }
+
+            @Override
+            public void handleRetryAfter(String message) throws AcmeException {
+                // Just do nothing
+            }
+
+            @Override
+            public X509Certificate readCertificate() {
+                return originalCert;
+            }
+
+            @Override
+            public URI getLink(String relation) {
+                if (requestUri.equals(chainUri)) {
+                    return rootUri;
+                } else if (requestUri.equals(rootUri)) {
+                    return null;
+                }
+                return chainUri;
+            }
+
+            @Override
+            public String getETag() {
+                return "\"1\"";
+            }
+
+            @Override
+            public Instant getLastModified() {
+                return null;
+            }
+        };
+
+        Session session = provider.createSession();
+
+        Certificate cert1 = new Certificate(session, locationUri);
+        assertThat(cert1.downloadChain().length, is(2));
+        assertThat(chainRequests.get(), is(2));
+
+        Certificate cert2 = new Certificate(session, location2Uri);
+        assertThat(cert2.downloadChain().length, is(2));
+        assertThat(chainRequests.get(), is(2));
+        assertThat(session.getChainCache().size(), is(2));
+
+        provider.close();
+    }
+
     /**
      * Test that a {@link AcmeRetryAfterException} is thrown.
      */
@@ -143,6 +227,46 @@ public class CertificateTest {
         provider.close();
     }
 
+    /**
+     * Test that an asynchronous download fails with {@link AcmeRetryAfterException}.
+     */
+    @Test
+    public void testRetryAfterAsync() throws Exception {
+        final Instant retryAfter = Instant.now().plus(Duration.ofSeconds(30));
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void sendRequest(URI uri, Session session) {
+                assertThat(uri, is(locationUri));
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                return HttpURLConnection.HTTP_ACCEPTED;
+            }
+
+            @Override
+            public void handleRetryAfter(String message) throws AcmeException {
+                throw new AcmeRetryAfterException(message, retryAfter);
+            }
+        };
+
+        Session session = provider.createSession();
+        session.setExecutor(Runnable::run);
+
+        Certificate cert = new Certificate(session, locationUri);
+
+        try {
+            cert.downloadAsync().get();
+            fail("Expected AcmeRetryAfterException");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), is(instanceOf(AcmeRetryAfterException.class)));
+            assertThat(((AcmeRetryAfterException) ex.getCause()).getRetryAfter(), is(retryAfter));
+        }
+
+        provider.close();
+    }
+
     /**
      * Test that a certificate can be revoked.
      */
@@ -0,0 +1,239 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.Dns01Provisioner.TxtRecord;
+import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.challenge.Dns01Challenge;
+import org.shredzone.acme4j.exception.AcmeException;
+
+/**
+ * Unit tests for {@link Dns01BatchProvisioner}.
+ */
+public class Dns01BatchProvisionerTest {
+
+    private List<String> log;
+    private List<Collection<TxtRecord>> published;
+    private List<Collection<TxtRecord>> removed;
+
+    @Before
+    public void setup() {
+        log = Collections.synchronizedList(new ArrayList<>());
+        published = Collections.synchronizedList(new ArrayList<>());
+        removed = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    /**
+     * Test that the records of concurrently prepared challenges are published in one
+     * change-set per zone, and the challenges are returned after propagation.
+     */
+    @Test
+    public void testBatch() throws Exception {
+        String[] domains = {
+            "example.org", "www.example.org", "m.example.org",
+            "example.com", "www.example.com"
+        };
+
+        try (Dns01BatchProvisioner batch = new Dns01BatchProvisioner(new TestProvisioner())) {
+            batch.setBatchDelay(Duration.ofMillis(500));
+            assertThat(batch.getBatchDelay(), is(Duration.ofMillis(500)));
+
+            ExecutorService executor = Executors.newFixedThreadPool(domains.length);
+            List<Future<Challenge>> futures = new ArrayList<>();
+            List<Dns01Challenge> challenges = new ArrayList<>();
+            try {
+                for (String domain : domains) {
+                    Authorization auth = mockAuthorization(domain);
+                    challenges.add(auth.findChallenge(Dns01Challenge.TYPE));
+                    futures.add(executor.submit(() -> {
+                        Challenge challenge = batch.prepare(auth);
+                        log.add("ready " + domain);
+                        return challenge;
+                    }));
+                }
+
+                for (int ix = 0; ix < futures.size(); ix++) {
+                    assertThat(futures.get(ix).get(), is(sameInstance(challenges.get(ix))));
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            assertThat(published.size(), is(2));
+            assertThat(batch.getChangeSets(), is(2L));
+            assertThat(records(), containsInAnyOrder(
+                            "_acme-challenge.example.org", "_acme-challenge.www.example.org",
+                            "_acme-challenge.m.example.org", "_acme-challenge.example.com",
+                            "_acme-challenge.www.example.com"));
+
+            // all challenges are ready after their zone has propagated
+            int orgPropagated = log.indexOf("propagated example.org");
+            int comPropagated = log.indexOf("propagated example.com");
+            assertThat(orgPropagated, is(greaterThanOrEqualTo(0)));
+            assertThat(comPropagated, is(greaterThanOrEqualTo(0)));
+            assertThat(log.indexOf("ready www.example.org"), is(greaterThan(orgPropagated)));
+            assertThat(log.indexOf("ready www.example.com"), is(greaterThan(comPropagated)));
+
+            for (Dns01Challenge challenge : challenges) {
+                batch.cleanup(challenge);
+            }
+            for (int ix = 0; ix < 50 && removed.size() < 2; ix++) {
+                Thread.sleep(100L);
+            }
+            assertThat(removed.size(), is(2));
+            assertThat(batch.getChangeSets(), is(4L));
+        }
+    }
+
+    /**
+     * Test that a batch is published as soon as it is full.
+     */
+    @Test
+    public void testMaxBatchSize() throws Exception {
+        try (Dns01BatchProvisioner batch = new Dns01BatchProvisioner(new TestProvisioner())) {
+            batch.setBatchDelay(Duration.ofMinutes(5));
+            batch.setMaxBatchSize(2);
+            assertThat(batch.getMaxBatchSize(), is(2));
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Challenge>> futures = new ArrayList<>();
+                for (int ix = 0; ix < 4; ix++) {
+                    Authorization auth = mockAuthorization("www" + ix + ".example.org");
+                    futures.add(executor.submit(() -> batch.prepare(auth)));
+                }
+                for (Future<Challenge> future : futures) {
+                    assertThat(future.get(), is(notNullValue()));
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            assertThat(published.size(), is(2));
+            assertThat(published.get(0).size(), is(2));
+            assertThat(published.get(1).size(), is(2));
+        }
+    }
+
+    /**
+     * Test that a failed change-set fails the challenges of the batch.
+     */
+    @Test(expected = AcmeException.class)
+    public void testFailure() throws Exception {
+        Dns01Provisioner failing = new TestProvisioner() {
+            @Override
+            public void publish(String zone, Collection<TxtRecord> records) throws AcmeException {
+                throw new AcmeException("zone is locked");
+            }
+        };
+
+        try (Dns01BatchProvisioner batch = new Dns01BatchProvisioner(failing)) {
+            batch.setBatchDelay(Duration.ZERO);
+            batch.prepare(mockAuthorization("example.org"));
+        }
+    }
+
+    /**
+     * Test that authorizations without dns-01 challenge are rejected.
+     */
+    @Test(expected = AcmeException.class)
+    public void testNoChallenge() throws Exception {
+        Authorization auth = mock(Authorization.class);
+        when(auth.getDomain()).thenReturn("example.org");
+
+        try (Dns01BatchProvisioner batch = new Dns01BatchProvisioner(new TestProvisioner())) {
+            batch.prepare(auth);
+        }
+    }
+
+    /**
+     * Test the default zone of a domain, and the {@link TxtRecord}.
+     */
+    @Test
+    public void testZoneAndRecord() {
+        Dns01Provisioner provisioner = new TestProvisioner();
+        assertThat(provisioner.getZone("example.org"), is("example.org"));
+        assertThat(provisioner.getZone("www.example.org"), is("example.org"));
+        assertThat(provisioner.getZone("a.b.example.org"), is("example.org"));
+        assertThat(provisioner.getZone("localhost"), is("localhost"));
+
+        Dns01Challenge challenge = mock(Dns01Challenge.class);
+        when(challenge.getDigest()).thenReturn("rSoI9JpyvFi-ltdnBW0W1DjKstzG7cHixjzcOjwzAEQ");
+
+        TxtRecord record = TxtRecord.of("www.example.org", challenge);
+        assertThat(record.getName(), is("_acme-challenge.www.example.org"));
+        assertThat(record.getValue(), is("rSoI9JpyvFi-ltdnBW0W1DjKstzG7cHixjzcOjwzAEQ"));
+        assertThat(record, is(new TxtRecord("_acme-challenge.www.example.org",
+                        "rSoI9JpyvFi-ltdnBW0W1DjKstzG7cHixjzcOjwzAEQ")));
+        assertThat(record.toString(),
+                        is("_acme-challenge.www.example.org TXT \"rSoI9JpyvFi-ltdnBW0W1DjKstzG7cHixjzcOjwzAEQ\""));
+    }
+
+    private Authorization mockAuthorization(String domain) {
+        Dns01Challenge challenge = mock(Dns01Challenge.class);
+        when(challenge.getDigest()).thenReturn("digest-" + domain);
+        when(challenge.getStatus()).thenReturn(Status.PENDING);
+
+        Authorization auth = mock(Authorization.class);
+        when(auth.getDomain()).thenReturn(domain);
+        when(auth.findChallenge(Dns01Challenge.TYPE)).thenReturn(challenge);
+        return auth;
+    }
+
+    private List<String> records() {
+        List<String> result = new ArrayList<>();
+        synchronized (published) {
+            published.forEach(c -> c.forEach(r -> result.add(r.getName())));
+        }
+        return result;
+    }
+
+    /**
+     * A {@link Dns01Provisioner} that records its invocations.
+     */
+    private class TestProvisioner implements Dns01Provisioner {
+        @Override
+        public void publish(String zone, Collection<TxtRecord> records) throws AcmeException {
+            log.add("publish " + zone);
+            published.add(new ArrayList<>(records));
+        }
+
+        @Override
+        public void remove(String zone, Collection<TxtRecord> records) throws AcmeException {
+            log.add("remove " + zone);
+            removed.add(new ArrayList<>(records));
+        }
+
+        @Override
+        public void awaitPropagation(String zone, Collection<TxtRecord> records) throws AcmeException {
+            log.add("propagated " + zone);
+        }
+    }
+
+}
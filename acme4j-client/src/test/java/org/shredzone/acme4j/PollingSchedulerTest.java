@@ -0,0 +1,169 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeRetryAfterException;
+
+/**
+ * Unit tests for {@link PollingScheduler}.
+ */
+public class PollingSchedulerTest {
+
+    private PollingScheduler scheduler;
+
+    @Before
+    public void setup() {
+        scheduler = new PollingScheduler(Duration.ofMillis(10), Duration.ofMillis(50), Duration.ofMillis(5));
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    /**
+     * Test that a challenge is polled until it is valid.
+     */
+    @Test(timeout = 5000L)
+    public void testPollChallenge() throws Exception {
+        Challenge challenge = mock(Challenge.class);
+        when(challenge.updateAsync()).thenReturn(CompletableFuture.completedFuture(null));
+        when(challenge.getStatus()).thenReturn(Status.PENDING, Status.PENDING, Status.VALID);
+
+        CompletableFuture<Status> future = scheduler.poll(challenge);
+        assertThat(future.get(), is(Status.VALID));
+        assertThat(scheduler.getPending(), is(0));
+
+        verify(challenge, times(3)).updateAsync();
+    }
+
+    /**
+     * Test that an authorization is polled until it is invalid.
+     */
+    @Test(timeout = 5000L)
+    public void testPollAuthorization() throws Exception {
+        Authorization auth = mock(Authorization.class);
+        when(auth.updateAsync()).thenReturn(CompletableFuture.completedFuture(null));
+        when(auth.getStatus()).thenReturn(Status.PENDING, Status.INVALID);
+
+        assertThat(scheduler.poll(auth).get(), is(Status.INVALID));
+        verify(auth, times(2)).updateAsync();
+    }
+
+    /**
+     * Test that the Retry-After time of the server is honored.
+     */
+    @Test(timeout = 5000L)
+    public void testRetryAfter() throws Exception {
+        Challenge challenge = mock(Challenge.class);
+        when(challenge.updateAsync()).thenAnswer(invocation -> {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(new AcmeRetryAfterException("not yet",
+                            Instant.now().plusMillis(300)));
+            return result;
+        }).thenReturn(CompletableFuture.completedFuture(null));
+        when(challenge.getStatus()).thenReturn(Status.PENDING, Status.VALID);
+
+        long start = System.nanoTime();
+        assertThat(scheduler.poll(challenge).get(), is(Status.VALID));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // the backoff would have polled much earlier
+        assertThat(elapsed, is(greaterThanOrEqualTo(250L)));
+        verify(challenge, times(2)).updateAsync();
+    }
+
+    /**
+     * Test that a failed update completes the future exceptionally.
+     */
+    @Test(timeout = 5000L)
+    public void testFailure() throws Exception {
+        AcmeException failure = new AcmeException("failed");
+
+        Challenge challenge = mock(Challenge.class);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(failure);
+        when(challenge.updateAsync()).thenReturn(result);
+
+        try {
+            scheduler.poll(challenge).get();
+            fail("no exception was thrown");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), is(sameInstance((Throwable) failure)));
+        }
+        assertThat(scheduler.getPending(), is(0));
+    }
+
+    /**
+     * Test that many resources are polled concurrently.
+     */
+    @Test(timeout = 10000L)
+    public void testManyResources() throws Exception {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Status>[] futures = new CompletableFuture[500];
+        for (int ix = 0; ix < futures.length; ix++) {
+            Challenge challenge = mock(Challenge.class);
+            when(challenge.updateAsync()).thenReturn(CompletableFuture.completedFuture(null));
+            when(challenge.getStatus()).thenReturn(Status.PENDING, Status.PENDING, Status.VALID);
+            futures[ix] = scheduler.poll(challenge);
+        }
+
+        CompletableFuture.allOf(futures).get();
+        for (CompletableFuture<Status> future : futures) {
+            assertThat(future.get(), is(Status.VALID));
+        }
+        assertThat(scheduler.getPending(), is(0));
+    }
+
+    /**
+     * Test that closing the scheduler cancels all pending polls.
+     */
+    @Test
+    public void testClose() {
+        PollingScheduler slowScheduler = new PollingScheduler(
+                        Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofMillis(5));
+
+        Challenge challenge = mock(Challenge.class);
+        CompletableFuture<Status> future = slowScheduler.poll(challenge);
+        assertThat(slowScheduler.getPending(), is(1));
+
+        slowScheduler.close();
+        assertThat(future.isCancelled(), is(true));
+        assertThat(slowScheduler.getPending(), is(0));
+        verify(challenge, never()).updateAsync();
+
+        try {
+            slowScheduler.poll(challenge);
+            fail("closed scheduler accepted a resource");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+}
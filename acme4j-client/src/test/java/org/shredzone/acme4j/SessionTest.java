@@ -21,15 +21,37 @@ import static org.shredzone.acme4j.util.TestUtils.getJsonAsObject;
 import java.io.IOException;
 import java.net.URI;
 import java.security.KeyPair;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.mockito.ArgumentMatchers;
 import org.shredzone.acme4j.challenge.Challenge;
 import org.shredzone.acme4j.challenge.Http01Challenge;
+import org.shredzone.acme4j.connector.AccountKeyContext;
+import org.shredzone.acme4j.connector.ConnectionMetrics;
+import org.shredzone.acme4j.connector.DirectoryCache;
+import org.shredzone.acme4j.connector.RequestTracer;
 import org.shredzone.acme4j.connector.Resource;
+import org.shredzone.acme4j.connector.TraceSpan;
 import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.provider.AcmeProvider;
+import org.shredzone.acme4j.provider.TestableConnectionProvider;
 import org.shredzone.acme4j.util.JSON;
 import org.shredzone.acme4j.util.JSONBuilder;
 import org.shredzone.acme4j.util.TestUtils;
@@ -107,6 +129,46 @@ public class SessionTest {
         assertThat(session.getKeyPair(), is(kp2));
 
         assertThat(session.getServerUri(), is(serverUri));
+
+        assertThat(session.getMetrics(), is(sameInstance(ConnectionMetrics.NONE)));
+        ConnectionMetrics metrics = new ConnectionMetrics() {};
+        session.setMetrics(metrics);
+        assertThat(session.getMetrics(), is(sameInstance(metrics)));
+
+        assertThat(session.getTracer(), is(sameInstance(RequestTracer.NONE)));
+        assertThat(session.startSpan("foo"), is(sameInstance(TraceSpan.NONE)));
+        RequestTracer tracer = new RequestTracer() {};
+        session.setTracer(tracer);
+        assertThat(session.getTracer(), is(sameInstance(tracer)));
+        try (TraceSpan span = session.startSpan("foo")) {
+            assertThat(span.getName(), is("foo"));
+            assertThat(span.getParent(), is(nullValue()));
+        }
+    }
+
+    /**
+     * Test that the session owns a bounded pool of daemon threads by default.
+     */
+    @Test
+    public void testDefaultExecutor() throws Exception {
+        Session session = new Session(URI.create(TestUtils.ACME_SERVER_URI), TestUtils.createKeyPair());
+
+        Executor executor = session.getExecutor();
+        assertThat(executor, is(instanceOf(ThreadPoolExecutor.class)));
+        assertThat(executor, is(not(sameInstance(ForkJoinPool.commonPool()))));
+        assertThat(((ThreadPoolExecutor) executor).getMaximumPoolSize(), is(8));
+        assertThat(session.getExecutor(), is(sameInstance(executor)));
+
+        CompletableFuture<Thread> thread = new CompletableFuture<>();
+        executor.execute(() -> thread.complete(Thread.currentThread()));
+        assertThat(thread.get(10, TimeUnit.SECONDS).isDaemon(), is(true));
+
+        Session other = new Session(URI.create(TestUtils.ACME_SERVER_URI), TestUtils.createKeyPair());
+        assertThat(other.getExecutor(), is(not(sameInstance(executor))));
+
+        Executor custom = Runnable::run;
+        session.setExecutor(custom);
+        assertThat(session.getExecutor(), is(sameInstance(custom)));
     }
 
     /**
@@ -172,8 +234,8 @@ public class SessionTest {
                         ArgumentMatchers.any(Session.class),
                         ArgumentMatchers.any(URI.class));
 
-        // Simulate a cache expiry
-        session.directoryCacheExpiry = Instant.now();
+        // Simulate a cache invalidation
+        session.getDirectoryCache().invalidate(serverUri);
 
         // Make sure directory is read once again
         assertSession(session);
@@ -182,6 +244,87 @@ public class SessionTest {
                         ArgumentMatchers.any(URI.class));
     }
 
+    /**
+     * Test that an expired directory is still used, while it is revalidated in the
+     * background.
+     */
+    @Test
+    public void testDirectoryRefresh() throws AcmeException, IOException {
+        KeyPair keyPair = TestUtils.createKeyPair();
+        URI serverUri = URI.create(TestUtils.ACME_SERVER_URI);
+
+        final AcmeProvider mockProvider = mock(AcmeProvider.class);
+        when(mockProvider.directory(
+                        ArgumentMatchers.any(Session.class),
+                        ArgumentMatchers.eq(serverUri)))
+                .thenReturn(getJsonAsObject("directory"));
+
+        Session session = new Session(serverUri, keyPair) {
+            @Override
+            public AcmeProvider provider() {
+                return mockProvider;
+            };
+        };
+
+        List<Runnable> tasks = new ArrayList<>();
+        session.setExecutor(tasks::add);
+
+        DirectoryCache cache = session.getDirectoryCache();
+        cache.setMinimumMaxAge(Duration.ZERO);
+        cache.put(serverUri, new DirectoryCache.Entry(getJsonAsObject("directory"),
+                        null, null, Instant.now().minusSeconds(10)));
+        assertThat(cache.get(serverUri).isExpired(), is(true));
+
+        // Expired directory is used, and refreshed only once
+        assertSession(session);
+        assertSession(session);
+        assertThat(tasks.size(), is(1));
+        verify(mockProvider, never()).directory(
+                        ArgumentMatchers.any(Session.class),
+                        ArgumentMatchers.any(URI.class));
+
+        tasks.get(0).run();
+        verify(mockProvider, times(1)).directory(
+                        ArgumentMatchers.any(Session.class),
+                        ArgumentMatchers.any(URI.class));
+        assertThat(cache.get(serverUri).isExpired(), is(false));
+        assertSession(session);
+        assertThat(tasks.size(), is(1));
+    }
+
+    /**
+     * Test that the directory is only read once if the directory cache is shared.
+     */
+    @Test
+    public void testSharedDirectoryCache() throws AcmeException, IOException {
+        KeyPair keyPair = TestUtils.createKeyPair();
+        URI serverUri = URI.create(TestUtils.ACME_SERVER_URI);
+
+        final AcmeProvider mockProvider = mock(AcmeProvider.class);
+        when(mockProvider.directory(
+                        ArgumentMatchers.any(Session.class),
+                        ArgumentMatchers.eq(serverUri)))
+                .thenReturn(getJsonAsObject("directory"));
+
+        DirectoryCache cache = new DirectoryCache();
+
+        for (int ix = 0; ix < 3; ix++) {
+            Session session = new Session(serverUri, keyPair) {
+                @Override
+                public AcmeProvider provider() {
+                    return mockProvider;
+                };
+            };
+            session.setDirectoryCache(cache);
+            assertThat(session.getDirectoryCache(), is(sameInstance(cache)));
+            assertSession(session);
+        }
+
+        verify(mockProvider, times(1)).directory(
+                        ArgumentMatchers.any(Session.class),
+                        ArgumentMatchers.any(URI.class));
+    }
+
     /**
      * Test that the directory is properly read even if there are no metadata.
      */
@@ -219,6 +362,131 @@ public class SessionTest {
         assertThat(meta.getCaaIdentities(), is(empty()));
     }
 
+    /**
+     * Test that the {@link AccountKeyContext} is cached, and replaced on a key change.
+     */
+    @Test
+    public void testKeyContext() throws IOException {
+        KeyPair kp1 = TestUtils.createKeyPair();
+        KeyPair kp2 = TestUtils.createDomainKeyPair();
+
+        Session session = new Session(URI.create(TestUtils.ACME_SERVER_URI), kp1);
+
+        AccountKeyContext context1 = session.getKeyContext();
+        assertThat(context1.getKeyPair(), is(kp1));
+        assertThat(context1.getThumbprint(), is(TestUtils.THUMBPRINT));
+        assertThat(session.getKeyContext(), is(sameInstance(context1)));
+
+        session.setKeyPair(kp2);
+        AccountKeyContext context2 = session.getKeyContext();
+        assertThat(context2.getKeyPair(), is(kp2));
+        assertThat(context2.getThumbprint(), is(TestUtils.D_THUMBPRINT));
+        assertThat(session.getKeyContext(), is(sameInstance(context2)));
+    }
+
+    /**
+     * Test that nonces are taken from the pool, and the pool is refilled when it drops
+     * below the low-water mark.
+     */
+    @Test
+    public void testTakeNonce() throws IOException {
+        final AtomicInteger counter = new AtomicInteger();
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void resetNonce(Session session) {
+                session.setNonce(("foo-nonce-" + counter.incrementAndGet()).getBytes());
+            }
+        };
+
+        Session session = provider.createSession();
+        session.setExecutor(Runnable::run);
+
+        assertThat(session.takeNonce(), is(nullValue()));
+        assertThat(counter.get(), is(0));
+
+        session.setNonce("foo-nonce-0".getBytes());
+        session.getNoncePool().setLowWaterMark(2);
+
+        assertThat(session.takeNonce(), is("foo-nonce-0".getBytes()));
+        assertThat(counter.get(), is(2));
+        assertThat(session.getNoncePool().size(), is(2));
+
+        assertThat(session.takeNonce(), is("foo-nonce-2".getBytes()));
+        assertThat(counter.get(), is(3));
+        assertThat(session.getNoncePool().size(), is(2));
+
+        session.setNonce(null);
+        assertThat(session.getNonce(), is(nullValue()));
+    }
+
+    /**
+     * Stress test for sharing a {@link Session} between many threads. The directory must
+     * only be read once, and no nonce must ever be taken twice.
+     */
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        KeyPair keyPair = TestUtils.createKeyPair();
+        URI serverUri = URI.create(TestUtils.ACME_SERVER_URI);
+
+        final AcmeProvider mockProvider = mock(AcmeProvider.class);
+        when(mockProvider.directory(
+                        ArgumentMatchers.any(Session.class),
+                        ArgumentMatchers.eq(serverUri)))
+                .thenReturn(getJsonAsObject("directory"));
+
+        final Session session = new Session(serverUri, keyPair) {
+            @Override
+            public AcmeProvider provider() {
+                return mockProvider;
+            };
+        };
+
+        final int threads = 32;
+        final int iterations = 200;
+
+        // Every thread offers a nonce before taking one, so the pool is never empty
+        // as long as it can hold one nonce per thread.
+        session.getNoncePool().setCapacity(threads);
+        final Set<String> takenNonces = ConcurrentHashMap.newKeySet();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger counter = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int ix = 0; ix < iterations; ix++) {
+                        assertSession(session);
+
+                        session.setNonce(("nonce-" + counter.incrementAndGet()).getBytes());
+                        byte[] nonce = session.takeNonce();
+                        assertThat(nonce, is(notNullValue()));
+                        assertThat(takenNonces.add(new String(nonce)), is(true));
+
+                        session.setLocale(ix % 2 == 0 ? Locale.GERMANY : Locale.JAPAN);
+                        assertThat(session.getLocale(), is(notNullValue()));
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(mockProvider, times(1)).directory(
+                        ArgumentMatchers.any(Session.class),
+                        ArgumentMatchers.any(URI.class));
+        assertThat(takenNonces.size(), is(greaterThan(0)));
+    }
+
     /**
      * Asserts that the {@link Session} returns correct
      * {@link Session#resourceUri(Resource)} and {@link Session#getMetadata()}.
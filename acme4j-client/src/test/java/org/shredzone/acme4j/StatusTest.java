@@ -16,6 +16,8 @@ package org.shredzone.acme4j;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
+import java.util.Locale;
+
 import org.junit.Test;
 
 /**
@@ -31,8 +33,12 @@ public class StatusTest {
         for (Status s : Status.values()) {
             Status parsed = Status.parse(s.name().toLowerCase());
             assertThat(parsed, is(s));
+            assertThat(Status.parse(s.name()), is(s));
         }
 
+        // parsing is case insensitive
+        assertThat(Status.parse("Valid"), is(Status.VALID));
+
         // unknown status returns UNKNOWN
         assertThat(Status.parse("foo"), is(Status.UNKNOWN));
 
@@ -40,4 +46,20 @@ public class StatusTest {
         assertThat(Status.parse(null, Status.PROCESSING), is(Status.PROCESSING));
     }
 
+    /**
+     * Test that {@link Status#parse(String)} does not depend on the default locale.
+     */
+    @Test
+    public void testParseTurkishLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertThat(Status.parse("Valid"), is(Status.VALID));
+            assertThat(Status.parse("Invalid"), is(Status.INVALID));
+            assertThat(Status.parse("PROCESSING"), is(Status.PROCESSING));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
 }
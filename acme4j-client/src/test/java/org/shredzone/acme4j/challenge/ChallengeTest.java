@@ -183,6 +183,46 @@ public class ChallengeTest {
         provider.close();
     }
 
+    /**
+     * Test that a challenge can be triggered asynchronously.
+     */
+    @Test
+    public void testTriggerAsync() throws Exception {
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
+                assertThat(uri, is(resourceUri));
+                assertThat(claims.toString(), sameJSONAs(getJson("triggerHttpChallengeRequest")));
+                assertThat(session, is(notNullValue()));
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                assertThat(httpStatus, isIntArrayContainingInAnyOrder(
+                        HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_ACCEPTED));
+                return HttpURLConnection.HTTP_ACCEPTED;
+            }
+
+            @Override
+            public JSON readJsonResponse() {
+                return getJsonAsObject("triggerHttpChallengeResponse");
+            }
+        };
+
+        Session session = provider.createSession();
+        session.setExecutor(Runnable::run);
+
+        Http01Challenge challenge = new Http01Challenge(session);
+        challenge.unmarshall(getJsonAsObject("triggerHttpChallenge"));
+
+        challenge.triggerAsync().get();
+
+        assertThat(challenge.getStatus(), is(Status.PENDING));
+        assertThat(challenge.getLocation(), is(locationUri));
+
+        provider.close();
+    }
+
     /**
      * Test that a challenge is properly updated.
      */
@@ -0,0 +1,89 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.security.KeyPair;
+import java.security.Signature;
+
+import org.jose4j.base64url.Base64Url;
+import org.jose4j.jws.JsonWebSignature;
+import org.junit.Test;
+import org.shredzone.acme4j.util.TestUtils;
+
+/**
+ * Unit tests for {@link AccountKeyContext}.
+ */
+public class AccountKeyContextTest {
+
+    /**
+     * Test that all values are derived correctly from a RSA key pair.
+     */
+    @Test
+    public void testRsaKey() throws Exception {
+        KeyPair keyPair = TestUtils.createKeyPair();
+        AccountKeyContext context = new AccountKeyContext(keyPair);
+
+        assertThat(context.getKeyPair(), is(sameInstance(keyPair)));
+        assertThat(context.getAlgorithm(), is("RS256"));
+        assertThat(context.getThumbprint(), is(TestUtils.THUMBPRINT));
+        assertThat(context.getJwk().getKey(), is((Object) keyPair.getPublic()));
+        assertThat(context.getJwkParams().get("kty"), is((Object) TestUtils.KTY));
+        assertThat(context.getJwkParams().get("n"), is((Object) TestUtils.N));
+        assertThat(context.getJwkParams().get("e"), is((Object) TestUtils.E));
+        assertThat(context.getJwkJson(), containsString("\"n\":\"" + TestUtils.N + "\""));
+
+        byte[] data = "foo-data-bar".getBytes("utf-8");
+        for (int ix = 0; ix < 3; ix++) {
+            Signature verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(data);
+            assertThat(verifier.verify(context.sign(data)), is(true));
+        }
+    }
+
+    /**
+     * Test that ECDSA signatures are valid JWS signatures.
+     */
+    @Test
+    public void testEcKey() throws Exception {
+        String[][] curves = {
+            {"secp256r1", "ES256", "64"},
+            {"secp384r1", "ES384", "96"},
+            {"secp521r1", "ES512", "132"},
+        };
+
+        for (String[] curve : curves) {
+            KeyPair keyPair = TestUtils.createECKeyPair(curve[0]);
+            AccountKeyContext context = new AccountKeyContext(keyPair);
+            assertThat(context.getAlgorithm(), is(curve[1]));
+
+            for (int ix = 0; ix < 10; ix++) {
+                String header = Base64Url.encodeUtf8ByteRepresentation(
+                                "{\"alg\":\"" + curve[1] + "\"}");
+                String payload = Base64Url.encodeUtf8ByteRepresentation("{\"foo\":" + ix + "}");
+                byte[] signature = context.sign((header + '.' + payload).getBytes("utf-8"));
+                assertThat(signature.length, is(Integer.parseInt(curve[2])));
+
+                JsonWebSignature jws = new JsonWebSignature();
+                jws.setCompactSerialization(header + '.' + payload + '.' + Base64Url.encode(signature));
+                jws.setKey(keyPair.getPublic());
+                assertThat(jws.verifySignature(), is(true));
+            }
+        }
+    }
+
+}
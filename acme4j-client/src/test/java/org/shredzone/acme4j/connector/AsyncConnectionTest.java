@@ -0,0 +1,146 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.provider.TestableConnectionProvider;
+
+/**
+ * Unit tests for {@link AsyncConnection}.
+ */
+public class AsyncConnectionTest {
+
+    /**
+     * Test that an exchange is performed and the connection is closed.
+     */
+    @Test
+    public void testExchange() throws Exception {
+        final AtomicInteger closed = new AtomicInteger();
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void close() {
+                closed.incrementAndGet();
+            }
+        };
+
+        Session session = provider.createSession();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        session.setExecutor(executor);
+
+        try {
+            CompletableFuture<String> future = new AsyncConnection(session).exchange(conn -> {
+                assertThat(conn, is(sameInstance((Connection) provider)));
+                return "result";
+            });
+
+            assertThat(future.get(10, TimeUnit.SECONDS), is("result"));
+            assertThat(closed.get(), is(1));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test that dependent stages are only run after the connection was closed.
+     */
+    @Test
+    public void testCompletedAfterClose() throws Exception {
+        final AtomicInteger closed = new AtomicInteger();
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void close() {
+                closed.incrementAndGet();
+            }
+        };
+
+        Session session = provider.createSession();
+        session.setExecutor(Runnable::run);
+
+        CompletableFuture<Integer> future = new AsyncConnection(session)
+                        .exchange(conn -> "result")
+                        .thenApply(result -> closed.get());
+
+        assertThat(future.get(), is(1));
+    }
+
+    /**
+     * Test that a failed exchange completes the future exceptionally.
+     */
+    @Test
+    public void testFailedExchange() throws IOException, InterruptedException {
+        final AtomicInteger closed = new AtomicInteger();
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void close() {
+                closed.incrementAndGet();
+            }
+        };
+
+        Session session = provider.createSession();
+        session.setExecutor(Runnable::run);
+
+        CompletableFuture<String> future = new AsyncConnection(session).exchange(conn -> {
+            throw new AcmeException("failed");
+        });
+
+        try {
+            future.get();
+            fail("exchange did not fail");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), is(instanceOf(AcmeException.class)));
+            assertThat(ex.getCause().getMessage(), is("failed"));
+        }
+        assertThat(closed.get(), is(1));
+    }
+
+    /**
+     * Test that a rejected exchange completes the future exceptionally.
+     */
+    @Test
+    public void testRejectedExchange() throws IOException, InterruptedException {
+        TestableConnectionProvider provider = new TestableConnectionProvider();
+
+        Session session = provider.createSession();
+        session.setExecutor(task -> {
+            throw new RejectedExecutionException();
+        });
+
+        CompletableFuture<String> future = new AsyncConnection(session).exchange(conn -> "result");
+
+        try {
+            future.get();
+            fail("exchange was not rejected");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), is(instanceOf(RejectedExecutionException.class)));
+        }
+    }
+
+}
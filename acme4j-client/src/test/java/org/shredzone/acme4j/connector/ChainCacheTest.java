@@ -0,0 +1,179 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.shredzone.acme4j.util.TestUtils.isIntArrayContainingInAnyOrder;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.provider.TestableConnectionProvider;
+import org.shredzone.acme4j.util.TestUtils;
+
+/**
+ * Unit tests for {@link ChainCache}.
+ */
+public class ChainCacheTest {
+
+    private final URI issuerUri = URI.create("https://example.com/acme/issuer");
+    private final URI rootUri = URI.create("https://example.com/acme/root");
+    private final Instant lastModified = Instant.parse("2017-03-01T12:00:00Z");
+
+    private X509Certificate certificate;
+    private List<String> requests;
+    private boolean modified;
+
+    @Before
+    public void setup() throws Exception {
+        certificate = TestUtils.createCertificate();
+        requests = new ArrayList<>();
+        modified = false;
+    }
+
+    /**
+     * Test that issuer certificates are only downloaded once.
+     */
+    @Test
+    public void testFetch() throws Exception {
+        TestableConnectionProvider provider = new TestProvider();
+        Session session = provider.createSession();
+
+        ChainCache cache = new ChainCache();
+        assertThat(cache.size(), is(0));
+
+        ChainCache.Issuer issuer = cache.fetch(session, issuerUri);
+        assertThat(issuer.getCertificate(), is(sameInstance(certificate)));
+        assertThat(issuer.getIssuerLocation(), is(rootUri));
+
+        ChainCache.Issuer root = cache.fetch(session, rootUri);
+        assertThat(root.getIssuerLocation(), is(nullValue()));
+
+        assertThat(cache.fetch(session, issuerUri), is(sameInstance(issuer)));
+        assertThat(cache.fetch(session, rootUri), is(sameInstance(root)));
+        assertThat(cache.size(), is(2));
+        assertThat(requests, contains("GET " + issuerUri, "GET " + rootUri));
+
+        cache.clear();
+        assertThat(cache.size(), is(0));
+
+        provider.close();
+    }
+
+    /**
+     * Test that outdated issuer certificates are revalidated.
+     */
+    @Test
+    public void testRevalidate() throws Exception {
+        TestableConnectionProvider provider = new TestProvider();
+        Session session = provider.createSession();
+
+        ChainCache cache = new ChainCache();
+        cache.setMaxAge(Duration.ZERO);
+        assertThat(cache.getMaxAge(), is(Duration.ZERO));
+
+        ChainCache.Issuer issuer = cache.fetch(session, issuerUri);
+        assertThat(cache.fetch(session, issuerUri), is(sameInstance(issuer)));
+
+        modified = true;
+        ChainCache.Issuer changed = cache.fetch(session, issuerUri);
+        assertThat(changed, is(not(sameInstance(issuer))));
+        assertThat(changed.getCertificate(), is(sameInstance(certificate)));
+
+        String conditional = "GET " + issuerUri + " \"1\" " + lastModified;
+        assertThat(requests, contains("GET " + issuerUri, conditional, conditional));
+
+        provider.close();
+    }
+
+    /**
+     * Test that the least recently used issuer certificate is dropped if the cache is
+     * full.
+     */
+    @Test
+    public void testCapacity() throws Exception {
+        TestableConnectionProvider provider = new TestProvider();
+        Session session = provider.createSession();
+
+        ChainCache cache = new ChainCache();
+        cache.setCapacity(1);
+        assertThat(cache.getCapacity(), is(1));
+
+        cache.fetch(session, issuerUri);
+        cache.fetch(session, rootUri);
+        cache.fetch(session, issuerUri);
+        assertThat(cache.size(), is(1));
+        assertThat(requests, contains("GET " + issuerUri, "GET " + rootUri, "GET " + issuerUri));
+
+        provider.close();
+    }
+
+    /**
+     * A {@link TestableConnectionProvider} that serves the issuer certificates.
+     */
+    private class TestProvider extends TestableConnectionProvider {
+        private URI requestUri;
+
+        @Override
+        public void sendRequest(URI uri, Session session) {
+            requests.add("GET " + uri);
+            requestUri = uri;
+        }
+
+        @Override
+        public boolean sendConditionalRequest(URI uri, Session session, String eTag, Instant lastModified) {
+            requests.add("GET " + uri + " " + eTag + " " + lastModified);
+            requestUri = uri;
+            return modified;
+        }
+
+        @Override
+        public int accept(int... httpStatus) throws AcmeException {
+            assertThat(httpStatus, isIntArrayContainingInAnyOrder(HttpURLConnection.HTTP_OK));
+            return HttpURLConnection.HTTP_OK;
+        }
+
+        @Override
+        public X509Certificate readCertificate() {
+            return certificate;
+        }
+
+        @Override
+        public URI getLink(String relation) {
+            assertThat(relation, is("up"));
+            return requestUri.equals(issuerUri) ? rootUri : null;
+        }
+
+        @Override
+        public String getETag() {
+            return "\"1\"";
+        }
+
+        @Override
+        public Instant getLastModified() {
+            return lastModified;
+        }
+    }
+
+}
@@ -21,6 +21,8 @@ import org.junit.Test;
 import org.mockito.ArgumentMatchers;
 import org.shredzone.acme4j.Session;
 import org.shredzone.acme4j.exception.*;
+import org.shredzone.acme4j.provider.AcmeProvider;
+import org.shredzone.acme4j.provider.TestableConnectionProvider;
 import org.shredzone.acme4j.util.JSON;
 import org.shredzone.acme4j.util.JSONBuilder;
 import org.shredzone.acme4j.util.TestUtils;
@@ -35,6 +37,9 @@ import java.security.cert.X509Certificate;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -487,10 +492,92 @@ public class DefaultConnectionTest {
         verify(mockUrlConnection).setRequestProperty("Accept-Language", "ja-JP");
         verify(mockUrlConnection).setDoOutput(false);
         verify(mockUrlConnection).connect();
+        verify(mockUrlConnection).getHeaderField("Replay-Nonce");
         verify(mockUrlConnection, atLeast(0)).getHeaderFields();
         verifyNoMoreInteractions(mockUrlConnection);
     }
 
+    /**
+     * Test conditional GET requests.
+     */
+    @Test
+    public void testSendConditionalRequest() throws Exception {
+        Instant lastModified = Instant.parse("2017-03-01T12:00:00Z");
+        when(mockUrlConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_NOT_MODIFIED);
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            boolean modified = conn.sendConditionalRequest(requestUri, session, "\"abc\"", lastModified);
+            assertThat(modified, is(false));
+        }
+
+        verify(mockUrlConnection).setRequestMethod("GET");
+        verify(mockUrlConnection).setRequestProperty("Accept-Charset", "utf-8");
+        verify(mockUrlConnection).setRequestProperty("Accept-Language", "ja-JP");
+        verify(mockUrlConnection).setRequestProperty("If-None-Match", "\"abc\"");
+        verify(mockUrlConnection).setIfModifiedSince(lastModified.toEpochMilli());
+        verify(mockUrlConnection).setDoOutput(false);
+        verify(mockUrlConnection).connect();
+        verify(mockUrlConnection).getResponseCode();
+        verify(mockUrlConnection).getHeaderField("Replay-Nonce");
+        verify(mockUrlConnection, atLeast(0)).getHeaderFields();
+        verifyNoMoreInteractions(mockUrlConnection);
+    }
+
+    /**
+     * Test that the cache validators are read.
+     */
+    @Test
+    public void testValidators() throws Exception {
+        Instant lastModified = Instant.parse("2017-03-01T12:00:00Z");
+        when(mockUrlConnection.getHeaderField("ETag")).thenReturn("\"abc\"");
+        when(mockUrlConnection.getHeaderFieldDate("Last-Modified", 0L)).thenReturn(lastModified.toEpochMilli());
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.conn = mockUrlConnection;
+            assertThat(conn.getETag(), is("\"abc\""));
+            assertThat(conn.getLastModified(), is(lastModified));
+        }
+
+        when(mockUrlConnection.getHeaderField("ETag")).thenReturn(null);
+        when(mockUrlConnection.getHeaderFieldDate("Last-Modified", 0L)).thenReturn(0L);
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.conn = mockUrlConnection;
+            assertThat(conn.getETag(), is(nullValue()));
+            assertThat(conn.getLastModified(), is(nullValue()));
+        }
+    }
+
+    /**
+     * Test that the expiration date is read from the cache headers.
+     */
+    @Test
+    public void testExpiration() throws Exception {
+        Instant date = Instant.parse("2017-03-01T12:00:00Z");
+        Instant expires = Instant.parse("2017-03-02T12:00:00Z");
+        when(mockUrlConnection.getHeaderFieldDate("Date", 0L)).thenReturn(date.toEpochMilli());
+        when(mockUrlConnection.getHeaderFieldDate("Expires", 0L)).thenReturn(expires.toEpochMilli());
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.conn = mockUrlConnection;
+
+            when(mockUrlConnection.getHeaderField("Cache-Control")).thenReturn("public, max-age=600");
+            assertThat(conn.getExpiration(), is(date.plusSeconds(600)));
+
+            when(mockUrlConnection.getHeaderField("Cache-Control")).thenReturn("public");
+            assertThat(conn.getExpiration(), is(expires));
+
+            Instant now = Instant.now();
+            when(mockUrlConnection.getHeaderField("Cache-Control")).thenReturn("No-Cache");
+            assertThat(conn.getExpiration(), is(greaterThanOrEqualTo(now)));
+            assertThat(conn.getExpiration(), is(lessThanOrEqualTo(Instant.now())));
+
+            when(mockUrlConnection.getHeaderField("Cache-Control")).thenReturn(null);
+            when(mockUrlConnection.getHeaderFieldDate("Expires", 0L)).thenReturn(0L);
+            assertThat(conn.getExpiration(), is(nullValue()));
+        }
+    }
+
     /**
      * Test signed POST requests.
      */
@@ -501,27 +588,20 @@ public class DefaultConnectionTest {
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 
         when(mockUrlConnection.getOutputStream()).thenReturn(outputStream);
+        when(mockUrlConnection.getHeaderField("Replay-Nonce"))
+                        .thenReturn(Base64Url.encode(nonce1), Base64Url.encode(nonce2));
 
-        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection) {
-            @Override
-            public void updateSession(Session session) {
-                assertThat(session, is(sameInstance(DefaultConnectionTest.this.session)));
-                if (session.getNonce() == null) {
-                    session.setNonce(nonce1);
-                } else if (session.getNonce() == nonce1) {
-                    session.setNonce(nonce2);
-                } else {
-                    fail("unknown nonce");
-                }
-            };
-        }) {
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
             JSONBuilder cb = new JSONBuilder();
             cb.put("foo", 123).put("bar", "a-string");
             //Test-1
             conn.sendSignedRequest(requestUri, cb, DefaultConnectionTest.this.session);
         }
 
+        assertThat(session.getNonce(), is(nonce2));
+
         verify(mockUrlConnection).setRequestMethod("HEAD");
+        verify(mockUrlConnection, times(2)).getHeaderField("Replay-Nonce");
         verify(mockUrlConnection, times(2)).setRequestProperty("Accept-Language", "ja-JP");
         verify(mockUrlConnection, times(2)).connect();
 
@@ -532,6 +612,7 @@ public class DefaultConnectionTest {
         verify(mockUrlConnection).setDoOutput(true);
         verify(mockUrlConnection).setFixedLengthStreamingMode(outputStream.toByteArray().length);
         verify(mockUrlConnection).getOutputStream();
+        verify(mockUrlConnection).getResponseCode();
         verify(mockUrlConnection, atLeast(0)).getHeaderFields();
         verifyNoMoreInteractions(mockUrlConnection);
 
@@ -562,6 +643,247 @@ public class DefaultConnectionTest {
         assertThat(jws.verifySignature(), is(true));
     }
 
+    /**
+     * Test that a freshly fetched nonce is used for the signed request, even if another
+     * thread empties the nonce pool in the meantime.
+     */
+    @Test
+    public void testSendSignedRequestFetchedNonce() throws Exception {
+        final byte[] nonce = "foo-nonce-1-foo".getBytes();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        when(mockUrlConnection.getOutputStream()).thenReturn(outputStream);
+        when(mockUrlConnection.getHeaderField("Replay-Nonce"))
+                        .thenReturn(Base64Url.encode(nonce), (String) null);
+
+        TestableConnectionProvider provider = new TestableConnectionProvider();
+        provider.putTestResource(Resource.NEW_NONCE, requestUri);
+
+        Session racySession = new Session(URI.create(TestUtils.ACME_SERVER_URI), TestUtils.createKeyPair()) {
+            @Override
+            public AcmeProvider provider() {
+                return provider;
+            }
+
+            @Override
+            public byte[] takeNonce() {
+                getNoncePool().clear(); // another thread took all pooled nonces
+                return super.takeNonce();
+            }
+        };
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.sendSignedRequest(requestUri, new JSONBuilder(), racySession);
+        }
+
+        verify(mockUrlConnection).setRequestMethod("HEAD");
+        verify(mockUrlConnection).setRequestMethod("POST");
+
+        String[] written = CompactSerializer.deserialize(new String(outputStream.toByteArray(), "utf-8"));
+        JSON header = JSON.parse(Base64Url.decodeToUtf8String(written[0]));
+        assertThat(header.get("nonce").asString(), is(Base64Url.encode(nonce)));
+    }
+
+    /**
+     * Test that signed POST requests are repeated once with a fresh nonce if the server
+     * rejected the nonce.
+     */
+    @Test
+    public void testSendSignedRequestBadNonce() throws Exception {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final String badNonceProblem = "{\"type\":\"urn:ietf:params:acme:error:badNonce\","
+                        + "\"detail\":\"JWS has an invalid anti-replay nonce\"}";
+
+        when(mockUrlConnection.getOutputStream()).thenReturn(outputStream);
+        when(mockUrlConnection.getResponseCode()).thenReturn(
+                        HttpURLConnection.HTTP_BAD_REQUEST,
+                        HttpURLConnection.HTTP_BAD_REQUEST,
+                        HttpURLConnection.HTTP_OK);
+        when(mockUrlConnection.getHeaderField("Content-Type"))
+                        .thenReturn("application/problem+json");
+        when(mockUrlConnection.getErrorStream())
+                        .thenReturn(new ByteArrayInputStream(badNonceProblem.getBytes("utf-8")));
+        when(mockUrlConnection.getHeaderField("Replay-Nonce")).thenReturn(
+                        Base64Url.encode("foo-nonce-2-foo".getBytes()),
+                        Base64Url.encode("foo-nonce-3-foo".getBytes()));
+
+        session.setNonce("foo-nonce-1-foo".getBytes());
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.sendSignedRequest(requestUri, new JSONBuilder(), session);
+            assertThat(conn.accept(HttpURLConnection.HTTP_OK), is(HttpURLConnection.HTTP_OK));
+        }
+
+        verify(mockUrlConnection, times(2)).setRequestMethod("POST");
+        verify(mockUrlConnection, times(2)).connect();
+        verify(mockUrlConnection, never()).setRequestMethod("HEAD");
+        verify(mockHttpConnection, times(2)).release(mockUrlConnection);
+
+        assertThat(session.getNonce(), is("foo-nonce-3-foo".getBytes()));
+    }
+
+    /**
+     * Test that the metrics of signed POST requests are reported.
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final String badNonceProblem = "{\"type\":\"urn:ietf:params:acme:error:badNonce\","
+                        + "\"detail\":\"JWS has an invalid anti-replay nonce\"}";
+        final AtomicInteger connects = new AtomicInteger();
+        final List<String> events = new ArrayList<>();
+        final List<Long> durations = new ArrayList<>();
+
+        doAnswer(invocation -> connects.incrementAndGet()).when(mockUrlConnection).connect();
+        when(mockUrlConnection.getOutputStream()).thenReturn(outputStream);
+        when(mockUrlConnection.getResponseCode()).thenAnswer(invocation ->
+                        connects.get() < 2 ? HttpURLConnection.HTTP_BAD_REQUEST : HttpURLConnection.HTTP_OK);
+        when(mockUrlConnection.getHeaderField("Content-Type"))
+                        .thenReturn("application/problem+json");
+        when(mockUrlConnection.getErrorStream())
+                        .thenReturn(new ByteArrayInputStream(badNonceProblem.getBytes("utf-8")));
+        when(mockUrlConnection.getHeaderField("Replay-Nonce")).thenReturn(
+                        Base64Url.encode("foo-nonce-2-foo".getBytes()),
+                        Base64Url.encode("foo-nonce-3-foo".getBytes()));
+
+        Session metricsSession = new Session(URI.create(TestUtils.ACME_SERVER_URI), TestUtils.createKeyPair()) {
+            @Override
+            public URI resourceUri(Resource resource) {
+                return resource == Resource.NEW_REG ? requestUri : null;
+            }
+        };
+        metricsSession.setNonce("foo-nonce-1-foo".getBytes());
+        metricsSession.setMetrics(new ConnectionMetrics() {
+            @Override
+            public void request(Resource resource, String method, int status, String error, long nanos) {
+                events.add("request " + resource + " " + method + " " + status + " " + error);
+                durations.add(nanos);
+            }
+
+            @Override
+            public void nonce(boolean pooled) {
+                events.add("nonce " + pooled);
+            }
+
+            @Override
+            public void retry(Resource resource, String reason) {
+                events.add("retry " + resource + " " + reason);
+            }
+        });
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.sendSignedRequest(requestUri, new JSONBuilder(), metricsSession);
+            assertThat(conn.accept(HttpURLConnection.HTTP_OK), is(HttpURLConnection.HTTP_OK));
+        }
+
+        assertThat(events, contains(
+                        "nonce true",
+                        "request NEW_REG POST 400 badNonce",
+                        "retry NEW_REG badNonce",
+                        "nonce true",
+                        "request NEW_REG POST 200 null"));
+        assertThat(durations, hasSize(2));
+        for (long nanos : durations) {
+            assertThat(nanos, is(greaterThanOrEqualTo(0L)));
+        }
+    }
+
+    /**
+     * Test that the reported request time includes the time the server takes to send
+     * its response.
+     */
+    @Test
+    public void testMetricsSlowResponse() throws Exception {
+        final long delay = TimeUnit.MILLISECONDS.toNanos(100L);
+        final AtomicBoolean responded = new AtomicBoolean();
+        final List<Long> durations = new ArrayList<>();
+
+        when(mockUrlConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        when(mockUrlConnection.getResponseCode()).thenAnswer(invocation -> {
+            if (!responded.getAndSet(true)) {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+            return HttpURLConnection.HTTP_OK;
+        });
+        when(mockUrlConnection.getHeaderField("Replay-Nonce"))
+                        .thenReturn(Base64Url.encode("foo-nonce-2-foo".getBytes()));
+
+        Session metricsSession = new Session(URI.create(TestUtils.ACME_SERVER_URI), TestUtils.createKeyPair()) {
+            @Override
+            public URI resourceUri(Resource resource) {
+                return resource == Resource.NEW_REG ? requestUri : null;
+            }
+        };
+        metricsSession.setNonce("foo-nonce-1-foo".getBytes());
+        metricsSession.setMetrics(new ConnectionMetrics() {
+            @Override
+            public void request(Resource resource, String method, int status, String error, long nanos) {
+                durations.add(nanos);
+            }
+        });
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.sendSignedRequest(requestUri, new JSONBuilder(), metricsSession);
+            assertThat(conn.accept(HttpURLConnection.HTTP_OK), is(HttpURLConnection.HTTP_OK));
+        }
+
+        assertThat(durations, hasSize(1));
+        assertThat(durations.get(0), is(greaterThanOrEqualTo(delay)));
+    }
+
+    /**
+     * Test that the phases of signed POST requests are traced.
+     */
+    @Test
+    public void testTracing() throws Exception {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final List<String> spans = new ArrayList<>();
+        final List<TraceSpan> requests = new ArrayList<>();
+
+        when(mockUrlConnection.getOutputStream()).thenReturn(outputStream);
+        when(mockUrlConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        when(mockUrlConnection.getHeaderField("Content-Type"))
+                        .thenReturn("application/json; charset=utf-8");
+        when(mockUrlConnection.getInputStream())
+                        .thenReturn(new ByteArrayInputStream("{\"foo\":123}".getBytes("utf-8")));
+        when(mockUrlConnection.getHeaderField("Replay-Nonce")).thenReturn(
+                        Base64Url.encode("foo-nonce-1-foo".getBytes()),
+                        Base64Url.encode("foo-nonce-2-foo".getBytes()));
+
+        Session tracedSession = new Session(URI.create(TestUtils.ACME_SERVER_URI), TestUtils.createKeyPair()) {
+            @Override
+            public URI resourceUri(Resource resource) {
+                return requestUri;
+            }
+        };
+        tracedSession.setTracer(new RequestTracer() {
+            @Override
+            public void finished(TraceSpan span) {
+                spans.add(span.getName() + "<" + (span.getParent() != null ? span.getParent().getName() : null));
+                if ("HEAD".equals(span.getName()) || "POST".equals(span.getName())) {
+                    requests.add(span);
+                }
+            }
+        });
+
+        try (TraceSpan op = tracedSession.startSpan("op").activate()) {
+            try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+                conn.sendSignedRequest(requestUri, new JSONBuilder(), tracedSession);
+                assertThat(conn.accept(HttpURLConnection.HTTP_OK), is(HttpURLConnection.HTTP_OK));
+                assertThat(conn.readJsonResponse().get("foo").asInt(), is(123));
+            }
+        }
+
+        assertThat(spans, contains(
+                        "resolve<HEAD", "connect<HEAD", "server<HEAD", "HEAD<POST",
+                        "nonce<POST", "sign<POST", "resolve<POST", "connect<POST",
+                        "send<POST", "server<POST", "parse<POST", "POST<op", "op<null"));
+        assertThat(requests.get(1).getTags().get("uri"), is((Object) requestUri));
+        assertThat(requests.get(1).getTags().get("status"), is((Object) HttpURLConnection.HTTP_OK));
+        assertThat(requests.get(1).getDurationNanos(), is(greaterThanOrEqualTo(0L)));
+        assertThat(TraceSpan.current(), is(nullValue()));
+    }
+
     /**
      * Test signed POST requests if there is no nonce.
      */
@@ -0,0 +1,162 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.shredzone.acme4j.util.TestUtils.getJsonAsObject;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.Test;
+import org.shredzone.acme4j.util.JSON;
+
+/**
+ * Unit tests for {@link DirectoryCache}.
+ */
+public class DirectoryCacheTest {
+
+    private final URI serverUri = URI.create("https://example.com/acme");
+    private final Instant lastModified = Instant.parse("2017-03-01T12:00:00Z");
+
+    /**
+     * Test that the expiry date is taken from the entry, or set to the default.
+     */
+    @Test
+    public void testPut() {
+        JSON directory = getJsonAsObject("directory");
+        DirectoryCache cache = new DirectoryCache();
+        assertThat(cache.getDefaultMaxAge(), is(Duration.ofHours(1)));
+        assertThat(cache.getMinimumMaxAge(), is(Duration.ofMinutes(1)));
+        assertThat(cache.get(serverUri), is(nullValue()));
+
+        Instant before = Instant.now();
+        DirectoryCache.Entry entry = cache.put(serverUri,
+                        new DirectoryCache.Entry(directory, "\"1\"", lastModified, null));
+        assertThat(cache.get(serverUri), is(sameInstance(entry)));
+        assertThat(entry.getDirectory(), is(sameInstance(directory)));
+        assertThat(entry.getETag(), is("\"1\""));
+        assertThat(entry.getLastModified(), is(lastModified));
+        assertThat(entry.getExpires(), is(greaterThanOrEqualTo(before.plus(Duration.ofHours(1)))));
+        assertThat(entry.isExpired(), is(false));
+
+        Instant expires = Instant.now().plus(Duration.ofDays(1));
+        entry = cache.put(serverUri, new DirectoryCache.Entry(directory, null, null, expires));
+        assertThat(entry.getExpires(), is(expires));
+
+        // too short expiry is extended to the minimum max age
+        before = Instant.now();
+        entry = cache.put(serverUri, new DirectoryCache.Entry(directory, null, null, Instant.now()));
+        assertThat(entry.getExpires(), is(greaterThanOrEqualTo(before.plus(Duration.ofMinutes(1)))));
+
+        cache.setMinimumMaxAge(Duration.ZERO);
+        entry = cache.put(serverUri, new DirectoryCache.Entry(directory, null, null,
+                        Instant.now().minusSeconds(10)));
+        assertThat(entry.isExpired(), is(true));
+
+        cache.postpone(serverUri, Duration.ofMinutes(5));
+        assertThat(cache.get(serverUri).isExpired(), is(false));
+        assertThat(cache.get(serverUri).getDirectory(), is(sameInstance(directory)));
+
+        cache.invalidate(serverUri);
+        assertThat(cache.get(serverUri), is(nullValue()));
+    }
+
+    /**
+     * Test that a directory is only refreshed once at a time.
+     */
+    @Test
+    public void testRefresh() {
+        DirectoryCache cache = new DirectoryCache();
+        assertThat(cache.startRefresh(serverUri), is(true));
+        assertThat(cache.startRefresh(serverUri), is(false));
+        cache.endRefresh(serverUri);
+        assertThat(cache.startRefresh(serverUri), is(true));
+    }
+
+    /**
+     * Test that the cache is saved and loaded again.
+     */
+    @Test
+    public void testSaveLoad() throws Exception {
+        Instant expires = Instant.parse("2017-03-02T12:00:00Z");
+        URI otherUri = URI.create("https://example.org/acme");
+
+        DirectoryCache cache = new DirectoryCache();
+        cache.setMinimumMaxAge(Duration.ZERO);
+        Instant before = Instant.now();
+        DirectoryCache.Entry stored = cache.put(serverUri, new DirectoryCache.Entry(
+                        getJsonAsObject("directory"), "\"1\"", lastModified, expires));
+
+        // put() moves an expiry date in the past to the current time
+        assertThat(stored.getExpires(), is(greaterThanOrEqualTo(before)));
+        cache.put(otherUri, new DirectoryCache.Entry(getJsonAsObject("directoryNoMeta"),
+                        null, null, null));
+
+        StringWriter w = new StringWriter();
+        cache.save(w);
+
+        DirectoryCache loaded = new DirectoryCache();
+        loaded.load(new StringReader(w.toString() + "garbage\n"));
+
+        DirectoryCache.Entry entry = loaded.get(serverUri);
+        assertThat(entry.getDirectory().toString(),
+                        is(getJsonAsObject("directory").toString()));
+        assertThat(entry.getETag(), is("\"1\""));
+        assertThat(entry.getLastModified(), is(lastModified));
+        assertThat(entry.getExpires(), is(stored.getExpires()));
+        assertThat(entry.isExpired(), is(true));
+
+        DirectoryCache.Entry other = loaded.get(otherUri);
+        assertThat(other.getDirectory().toString(),
+                        is(getJsonAsObject("directoryNoMeta").toString()));
+        assertThat(other.getETag(), is(nullValue()));
+        assertThat(other.getLastModified(), is(nullValue()));
+        assertThat(other.getExpires(), is(cache.get(otherUri).getExpires()));
+    }
+
+    /**
+     * Test that the cache is persisted to a file.
+     */
+    @Test
+    public void testFile() throws Exception {
+        Path file = Files.createTempFile("acme4j", ".dir");
+        try {
+            Files.delete(file);
+
+            DirectoryCache cache = new DirectoryCache(file);
+            assertThat(cache.get(serverUri), is(nullValue()));
+            cache.put(serverUri, new DirectoryCache.Entry(getJsonAsObject("directory"),
+                            "\"1\"", lastModified, null));
+            assertThat(Files.exists(file), is(true));
+
+            DirectoryCache reopened = new DirectoryCache(file);
+            assertThat(reopened.get(serverUri).getETag(), is("\"1\""));
+            assertThat(reopened.get(serverUri).getExpires(),
+                            is(cache.get(serverUri).getExpires()));
+
+            reopened.invalidate(serverUri);
+            assertThat(new DirectoryCache(file).get(serverUri), is(nullValue()));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+}
@@ -15,6 +15,7 @@ package org.shredzone.acme4j.connector;
 
 import java.net.URI;
 import java.security.cert.X509Certificate;
+import java.time.Instant;
 import java.util.Collection;
 
 import org.shredzone.acme4j.Session;
@@ -28,11 +29,21 @@ import org.shredzone.acme4j.util.JSONBuilder;
  */
 public class DummyConnection implements Connection {
 
+    @Override
+    public void resetNonce(Session session) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public void sendRequest(URI uri, Session session) {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public boolean sendConditionalRequest(URI uri, Session session, String eTag, Instant lastModified) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
         throw new UnsupportedOperationException();
@@ -78,6 +89,21 @@ public class DummyConnection implements Connection {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public String getETag() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant getLastModified() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant getExpiration() {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public void close() {
         // closing is always safe
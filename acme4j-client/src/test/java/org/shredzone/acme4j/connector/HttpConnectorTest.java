@@ -18,6 +18,7 @@ import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URI;
@@ -65,6 +66,68 @@ public class HttpConnectorTest {
         assertThat(conn.getResponseCode(), is(HttpURLConnection.HTTP_OK));
     }
 
+    /**
+     * Test that the response is drained and closed when the connection is released.
+     */
+    @Test
+    public void testRelease() throws IOException {
+        final boolean[] closed = new boolean[1];
+        ByteArrayInputStream in = new ByteArrayInputStream("foo-bar-baz".getBytes("utf-8")) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+
+        HttpURLConnection conn = mock(HttpURLConnection.class);
+        when(conn.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        when(conn.getInputStream()).thenReturn(in);
+
+        HttpConnector connector = new HttpConnector();
+        connector.release(conn);
+
+        assertThat(in.available(), is(0));
+        assertThat(closed[0], is(true));
+        verify(conn).getResponseCode();
+        verify(conn).getInputStream();
+        verifyNoMoreInteractions(conn);
+    }
+
+    /**
+     * Test that the error response is drained when the connection is released.
+     */
+    @Test
+    public void testReleaseError() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream("error".getBytes("utf-8"));
+
+        HttpURLConnection conn = mock(HttpURLConnection.class);
+        when(conn.getResponseCode()).thenReturn(HttpURLConnection.HTTP_BAD_REQUEST);
+        when(conn.getErrorStream()).thenReturn(in);
+
+        HttpConnector connector = new HttpConnector();
+        connector.release(conn);
+
+        assertThat(in.available(), is(0));
+        verify(conn).getResponseCode();
+        verify(conn).getErrorStream();
+        verifyNoMoreInteractions(conn);
+    }
+
+    /**
+     * Test that a discarded connection is disconnected.
+     */
+    @Test
+    public void testDiscard() {
+        HttpURLConnection conn = mock(HttpURLConnection.class);
+
+        HttpConnector connector = new HttpConnector();
+        connector.discard(conn);
+
+        verify(conn).disconnect();
+        verifyNoMoreInteractions(conn);
+    }
+
     /**
      * Tests that the user agent is correct.
      */
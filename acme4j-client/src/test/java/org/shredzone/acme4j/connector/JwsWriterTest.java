@@ -0,0 +1,127 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
+
+import java.net.URI;
+import java.security.KeyPair;
+
+import org.jose4j.base64url.Base64Url;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.CompactSerializer;
+import org.junit.Test;
+import org.shredzone.acme4j.util.TestUtils;
+
+/**
+ * Unit tests for {@link JwsWriter}.
+ */
+public class JwsWriterTest {
+
+    private final URI uri = URI.create("http://localhost:8000/acme/new-authz");
+    private final byte[] nonce = "foo-nonce-1-foo".getBytes();
+
+    /**
+     * Test that a valid RSA signed JWS is written.
+     */
+    @Test
+    public void testWriteRsa() throws Exception {
+        KeyPair keyPair = TestUtils.createKeyPair();
+        AccountKeyContext context = new AccountKeyContext(keyPair);
+        JwsWriter writer = new JwsWriter();
+
+        int length = writer.write(context, nonce, uri, "{\"foo\":123}".getBytes("utf-8"));
+        assertThat(length, is(writer.getLength()));
+
+        String serialized = new String(writer.getBuffer(), 0, length, "us-ascii");
+        assertThat(writer.toString(), is(serialized));
+
+        String[] written = CompactSerializer.deserialize(serialized);
+        String header = Base64Url.decodeToUtf8String(written[0]);
+        String payload = Base64Url.decodeToUtf8String(written[1]);
+
+        StringBuilder expectedHeader = new StringBuilder();
+        expectedHeader.append('{');
+        expectedHeader.append("\"nonce\":\"").append(Base64Url.encode(nonce)).append("\",");
+        expectedHeader.append("\"url\":\"").append(uri).append("\",");
+        expectedHeader.append("\"alg\":\"RS256\",");
+        expectedHeader.append("\"jwk\":{");
+        expectedHeader.append("\"kty\":\"").append(TestUtils.KTY).append("\",");
+        expectedHeader.append("\"e\":\"").append(TestUtils.E).append("\",");
+        expectedHeader.append("\"n\":\"").append(TestUtils.N).append("\"");
+        expectedHeader.append("}}");
+
+        assertThat(header, sameJSONAs(expectedHeader.toString()));
+        assertThat(payload, is("{\"foo\":123}"));
+        assertVerified(serialized, keyPair);
+    }
+
+    /**
+     * Test that valid ECDSA signed JWS are written, and the buffer is reused.
+     */
+    @Test
+    public void testWriteEc() throws Exception {
+        JwsWriter writer = new JwsWriter();
+
+        for (String curve : new String[] {"secp256r1", "secp384r1", "secp521r1"}) {
+            KeyPair keyPair = TestUtils.createECKeyPair(curve);
+            AccountKeyContext context = new AccountKeyContext(keyPair);
+
+            for (int ix = 0; ix < 5; ix++) {
+                StringBuilder payload = new StringBuilder("{\"data\":\"");
+                for (int jx = 0; jx < ix * 1000; jx++) {
+                    payload.append('x');
+                }
+                payload.append("\"}");
+
+                writer.write(context, nonce, uri, payload.toString().getBytes("utf-8"));
+                String serialized = writer.toString();
+
+                String[] written = CompactSerializer.deserialize(serialized);
+                assertThat(Base64Url.decodeToUtf8String(written[1]), is(payload.toString()));
+                assertVerified(serialized, keyPair);
+            }
+        }
+    }
+
+    /**
+     * Test that special characters in the URL are properly escaped.
+     */
+    @Test
+    public void testUrlEscaping() throws Exception {
+        KeyPair keyPair = TestUtils.createKeyPair();
+        AccountKeyContext context = new AccountKeyContext(keyPair);
+        URI specialUri = new URI("http", "example.com", "/ä€\"\\", null);
+
+        JwsWriter writer = new JwsWriter();
+        writer.write(context, nonce, specialUri, "{}".getBytes("utf-8"));
+
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setCompactSerialization(writer.toString());
+        assertThat(jws.getHeaders().getStringHeaderValue("url"), is(specialUri.toString()));
+    }
+
+    /**
+     * Asserts that the JWS is properly signed with the given key pair.
+     */
+    private void assertVerified(String serialized, KeyPair keyPair) throws Exception {
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setCompactSerialization(serialized);
+        jws.setKey(keyPair.getPublic());
+        assertThat(jws.verifySignature(), is(true));
+    }
+
+}
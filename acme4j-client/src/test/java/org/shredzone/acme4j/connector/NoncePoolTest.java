@@ -0,0 +1,118 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link NoncePool}.
+ */
+public class NoncePoolTest {
+
+    private final byte[] nonce1 = "foo-nonce-1-foo".getBytes();
+    private final byte[] nonce2 = "foo-nonce-2-foo".getBytes();
+    private final byte[] nonce3 = "foo-nonce-3-foo".getBytes();
+
+    /**
+     * Test that nonces are taken most recent first, and only once.
+     */
+    @Test
+    public void testOfferAndTake() {
+        NoncePool pool = new NoncePool();
+        assertThat(pool.take(), is(nullValue()));
+        assertThat(pool.peek(), is(nullValue()));
+
+        pool.offer(nonce1);
+        pool.offer(nonce2);
+        pool.offer(nonce2.clone());
+        assertThat(pool.size(), is(2));
+        assertThat(pool.peek(), is(nonce2));
+
+        assertThat(pool.take(), is(nonce2));
+        assertThat(pool.take(), is(nonce1));
+        assertThat(pool.take(), is(nullValue()));
+        assertThat(pool.size(), is(0));
+    }
+
+    /**
+     * Test that the oldest nonce is dropped when the capacity is exceeded.
+     */
+    @Test
+    public void testCapacity() {
+        NoncePool pool = new NoncePool();
+        pool.setCapacity(2);
+        assertThat(pool.getCapacity(), is(2));
+
+        pool.offer(nonce1);
+        pool.offer(nonce2);
+        pool.offer(nonce3);
+
+        assertThat(pool.size(), is(2));
+        assertThat(pool.take(), is(nonce3));
+        assertThat(pool.take(), is(nonce2));
+        assertThat(pool.take(), is(nullValue()));
+    }
+
+    /**
+     * Test that stale nonces are dropped.
+     */
+    @Test
+    public void testMaxAge() {
+        NoncePool pool = new NoncePool();
+        pool.offer(nonce1);
+        assertThat(pool.size(), is(1));
+
+        pool.setMaxAge(Duration.ZERO);
+        assertThat(pool.getMaxAge(), is(Duration.ZERO));
+        assertThat(pool.size(), is(0));
+        assertThat(pool.take(), is(nullValue()));
+    }
+
+    /**
+     * Test the low-water mark.
+     */
+    @Test
+    public void testLowWaterMark() {
+        NoncePool pool = new NoncePool();
+        assertThat(pool.getLowWaterMark(), is(0));
+        assertThat(pool.needsRefill(), is(false));
+
+        pool.setLowWaterMark(2);
+        assertThat(pool.getLowWaterMark(), is(2));
+        assertThat(pool.needsRefill(), is(true));
+
+        pool.offer(nonce1);
+        assertThat(pool.needsRefill(), is(true));
+        pool.offer(nonce2);
+        assertThat(pool.needsRefill(), is(false));
+
+        pool.clear();
+        assertThat(pool.needsRefill(), is(true));
+    }
+
+    /**
+     * Test that an invalid low-water mark is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLowWaterMark() {
+        NoncePool pool = new NoncePool();
+        pool.setLowWaterMark(pool.getCapacity() + 1);
+    }
+
+}
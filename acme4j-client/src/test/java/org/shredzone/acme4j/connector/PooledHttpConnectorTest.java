@@ -0,0 +1,151 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.time.Duration;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link PooledHttpConnector}.
+ */
+public class PooledHttpConnectorTest {
+
+    private final URI uri1 = URI.create("http://localhost:8000/acme/directory");
+    private final URI uri2 = URI.create("http://localhost:8000/acme/new-authz");
+    private final URI otherHostUri = URI.create("http://127.0.0.1:8000/acme/directory");
+
+    /**
+     * Test that connections per host are bounded, and become available after use.
+     */
+    @Test
+    public void testBoundedPerHost() throws IOException {
+        PooledHttpConnector connector = new PooledHttpConnector(
+                        1, Duration.ofMillis(50), Duration.ofMinutes(1));
+
+        HttpURLConnection conn1 = connector.openConnection(uri1);
+        assertThat(conn1, not(nullValue()));
+
+        // other hosts are not affected
+        HttpURLConnection conn2 = connector.openConnection(otherHostUri);
+        assertThat(conn2, not(nullValue()));
+
+        try {
+            connector.openConnection(uri2);
+            fail("Second connection to the same host was opened");
+        } catch (IOException ex) {
+            assertThat(ex.getMessage(), startsWith("Timeout"));
+        }
+
+        PooledHttpConnector.Statistics stats = connector.getStatistics();
+        assertThat(stats.getHosts(), is(2));
+        assertThat(stats.getLeased(), is(2));
+        assertThat(stats.getRequests(), is(3L));
+        assertThat(stats.getWaits(), is(1L));
+        assertThat(stats.getTimeouts(), is(1L));
+
+        connector.discard(conn1);
+        connector.discard(conn2);
+
+        HttpURLConnection conn3 = connector.openConnection(uri2);
+        assertThat(conn3, not(nullValue()));
+        connector.discard(conn3);
+
+        stats = connector.getStatistics();
+        assertThat(stats.getLeased(), is(0));
+        assertThat(stats.getRequests(), is(4L));
+        assertThat(stats.getDiscarded(), is(3L));
+        assertThat(stats.getReleased(), is(0L));
+    }
+
+    /**
+     * Test that a connection is only returned once.
+     */
+    @Test
+    public void testDoubleRelease() throws IOException {
+        PooledHttpConnector connector = new PooledHttpConnector(
+                        1, Duration.ofMillis(50), Duration.ofMinutes(1));
+
+        HttpURLConnection conn = connector.openConnection(uri1);
+        connector.discard(conn);
+        connector.discard(conn);
+
+        assertThat(connector.getStatistics().getLeased(), is(0));
+
+        connector.discard(connector.openConnection(uri1));
+        assertThat(connector.getStatistics().getLeased(), is(0));
+    }
+
+    /**
+     * Test that idle hosts are evicted.
+     */
+    @Test
+    public void testEviction() throws IOException {
+        PooledHttpConnector connector = new PooledHttpConnector(
+                        2, Duration.ofMillis(50), Duration.ZERO);
+
+        HttpURLConnection conn1 = connector.openConnection(uri1);
+        HttpURLConnection conn2 = connector.openConnection(otherHostUri);
+        connector.discard(conn1);
+
+        connector.evictIdle();
+
+        PooledHttpConnector.Statistics stats = connector.getStatistics();
+        assertThat(stats.getHosts(), is(1));
+        assertThat(stats.getLeased(), is(1));
+        assertThat(stats.getEvicted(), is(1L));
+
+        connector.discard(conn2);
+    }
+
+    /**
+     * Test that a host is evicted after a caller gave up waiting for a connection.
+     */
+    @Test
+    public void testEvictionAfterTimeout() throws IOException {
+        PooledHttpConnector connector = new PooledHttpConnector(
+                        1, Duration.ofMillis(10), Duration.ZERO);
+
+        HttpURLConnection conn1 = connector.openConnection(uri1);
+        try {
+            connector.openConnection(uri1);
+            fail("second connection was leased");
+        } catch (IOException ex) {
+            // expected
+        }
+        connector.discard(conn1);
+
+        connector.evictIdle();
+
+        PooledHttpConnector.Statistics stats = connector.getStatistics();
+        assertThat(stats.getHosts(), is(0));
+        assertThat(stats.getTimeouts(), is(1L));
+        assertThat(stats.getEvicted(), is(1L));
+    }
+
+    /**
+     * Test that invalid parameters are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxPerHost() {
+        new PooledHttpConnector(0, Duration.ofSeconds(1), Duration.ofSeconds(1));
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeRateLimitExceededException;
+import org.shredzone.acme4j.provider.TestableConnectionProvider;
+
+/**
+ * Unit tests for {@link RateLimiter}.
+ */
+public class RateLimiterTest {
+
+    /**
+     * Test that resources without a limit are not governed.
+     */
+    @Test(timeout = 1000L)
+    public void testUnlimited() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        assertThat(limiter.isLimited(Resource.NEW_AUTHZ), is(false));
+
+        limiter.park(Resource.NEW_AUTHZ, Instant.now().plusSeconds(60));
+        assertThat(limiter.getParkedUntil(Resource.NEW_AUTHZ), is(nullValue()));
+
+        for (int ix = 0; ix < 1000; ix++) {
+            limiter.acquire(Resource.NEW_AUTHZ);
+        }
+    }
+
+    /**
+     * Test that a burst is permitted, and further requests are paced.
+     */
+    @Test(timeout = 5000L)
+    public void testPacing() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimit(Resource.NEW_AUTHZ, 3, Duration.ofMillis(300));
+        assertThat(limiter.isLimited(Resource.NEW_AUTHZ), is(true));
+        assertThat(limiter.isLimited(Resource.NEW_CERT), is(false));
+
+        long start = System.nanoTime();
+        limiter.acquire(Resource.NEW_AUTHZ);
+        limiter.acquire(Resource.NEW_AUTHZ);
+        limiter.acquire(Resource.NEW_AUTHZ);
+        assertThat(elapsed(start), is(lessThan(80L)));
+
+        limiter.acquire(Resource.NEW_AUTHZ);
+        limiter.acquire(Resource.NEW_AUTHZ);
+        assertThat(elapsed(start), is(greaterThanOrEqualTo(150L)));
+
+        limiter.removeLimit(Resource.NEW_AUTHZ);
+        assertThat(limiter.isLimited(Resource.NEW_AUTHZ), is(false));
+    }
+
+    /**
+     * Test that a parked resource waits until it is resumed.
+     */
+    @Test(timeout = 5000L)
+    public void testPark() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimit(Resource.NEW_CERT, 100, Duration.ofSeconds(1));
+
+        limiter.park(Resource.NEW_CERT, Instant.now().plusMillis(300));
+        assertThat(limiter.getParkedUntil(Resource.NEW_CERT), is(notNullValue()));
+
+        long start = System.nanoTime();
+        limiter.acquire(Resource.NEW_CERT);
+        assertThat(elapsed(start), is(greaterThanOrEqualTo(250L)));
+        assertThat(limiter.getParkedUntil(Resource.NEW_CERT), is(nullValue()));
+    }
+
+    /**
+     * Test that the request fails if the resource is parked for too long.
+     */
+    @Test(timeout = 5000L)
+    public void testMaxWait() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimit(Resource.NEW_REG, 1, Duration.ofSeconds(1));
+        limiter.setMaxWait(Duration.ofMillis(50));
+        assertThat(limiter.getMaxWait(), is(Duration.ofMillis(50)));
+
+        limiter.park(Resource.NEW_REG, Instant.now().plusSeconds(60));
+
+        long start = System.nanoTime();
+        try {
+            limiter.acquire(Resource.NEW_REG);
+            fail("acquired a permit of a parked resource");
+        } catch (AcmeRateLimitExceededException ex) {
+            assertThat(ex.getRetryAfter(), is(greaterThan(Instant.now().plusSeconds(50))));
+        }
+        assertThat(elapsed(start), is(lessThan(1000L)));
+    }
+
+    /**
+     * Test that the limited resource of a request URI is found.
+     */
+    @Test
+    public void testFindResource() throws Exception {
+        URI newAuthzUri = new URI("https://example.com/acme/new-authz");
+        URI newCertUri = new URI("https://example.com/acme/new-cert");
+
+        TestableConnectionProvider provider = new TestableConnectionProvider();
+        provider.putTestResource(Resource.NEW_AUTHZ, newAuthzUri);
+        provider.putTestResource(Resource.NEW_CERT, newCertUri);
+        Session session = provider.createSession();
+
+        RateLimiter limiter = new RateLimiter();
+        assertThat(limiter.findResource(session, newAuthzUri), is(nullValue()));
+
+        limiter.setLimit(Resource.NEW_AUTHZ, 10, Duration.ofMinutes(1));
+        assertThat(limiter.findResource(session, newAuthzUri), is(Resource.NEW_AUTHZ));
+        assertThat(limiter.findResource(session, newCertUri), is(nullValue()));
+
+        provider.close();
+    }
+
+    private static long elapsed(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+}
@@ -14,7 +14,7 @@
 package org.shredzone.acme4j.connector;
 
 import static org.hamcrest.Matchers.*;
-import static org.junit.Assert.assertThat;
+import static org.junit.Assert.*;
 import static org.shredzone.acme4j.util.TestUtils.isIntArrayContainingInAnyOrder;
 
 import java.io.IOException;
@@ -24,12 +24,16 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.shredzone.acme4j.Authorization;
 import org.shredzone.acme4j.Session;
 import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeProtocolException;
 import org.shredzone.acme4j.provider.TestableConnectionProvider;
 import org.shredzone.acme4j.util.JSON;
 import org.shredzone.acme4j.util.JSONBuilder;
@@ -45,6 +49,7 @@ public class ResourceIteratorTest {
 
     private List<URI> resourceURIs = new ArrayList<>(PAGES * RESOURCES_PER_PAGE);
     private List<URI> pageURIs = new ArrayList<>(PAGES);
+    private AtomicInteger pageRequests = new AtomicInteger();
 
     @Before
     public void setup() {
@@ -57,6 +62,8 @@ public class ResourceIteratorTest {
         for (int ix = 0; ix < PAGES; ix++) {
             pageURIs.add(URI.create("https://example.com/acme/batch/" + ix));
         }
+
+        pageRequests.set(0);
     }
 
     /**
@@ -121,13 +128,163 @@ public class ResourceIteratorTest {
     }
 
     /**
-     * Creates a new {@link Iterator} of {@link Authorization} objects.
+     * Test that all objects are returned if prefetching is disabled.
+     */
+    @Test
+    public void noPrefetchTest() throws IOException {
+        List<URI> result = new ArrayList<>();
+
+        ResourceIterator<Authorization> it = createIterator(pageURIs.get(0)).prefetch(false);
+        while (it.hasNext()) {
+            result.add(it.next().getLocation());
+        }
+
+        assertThat(result, is(equalTo(resourceURIs)));
+        assertThat(pageRequests.get(), is(PAGES));
+    }
+
+    /**
+     * Test that the next page is prefetched while the current page is consumed.
+     */
+    @Test(timeout = 5000L)
+    public void prefetchTest() throws Exception {
+        ResourceIterator<Authorization> it = createIterator(pageURIs.get(0)).prefetch(true);
+        assertThat(it.next().getLocation(), is(resourceURIs.get(0)));
+
+        // the second page is fetched in the background
+        while (pageRequests.get() < 2) {
+            Thread.sleep(10L);
+        }
+        assertThat(pageRequests.get(), is(2));
+        it.close();
+    }
+
+    /**
+     * Test that pages are fetched lazily on the calling thread by default.
+     */
+    @Test
+    public void lazyByDefaultTest() throws Exception {
+        ResourceIterator<Authorization> it = createIterator(pageURIs.get(0));
+        for (int ix = 0; ix < RESOURCES_PER_PAGE; ix++) {
+            assertThat(it.next().getLocation(), is(resourceURIs.get(ix)));
+        }
+        assertThat(pageRequests.get(), is(1));
+
+        assertThat(it.hasNext(), is(true));
+        assertThat(pageRequests.get(), is(2));
+    }
+
+    /**
+     * Test the {@link ResourceIterator#stream()} view.
+     */
+    @Test
+    public void streamTest() throws IOException {
+        List<URI> result = createIterator(pageURIs.get(0)).stream()
+                        .map(Authorization::getLocation)
+                        .collect(Collectors.toList());
+
+        assertThat(result, is(equalTo(resourceURIs)));
+    }
+
+    /**
+     * Test the {@link ResourceIterator#locations()} view.
+     */
+    @Test
+    public void locationsTest() throws IOException {
+        List<URI> result = createIterator(pageURIs.get(0)).locations()
+                        .collect(Collectors.toList());
+
+        assertThat(result, is(equalTo(resourceURIs)));
+    }
+
+    /**
+     * Test that resources are preloaded in the correct order, with bounded concurrency.
+     */
+    @Test(timeout = 5000L)
+    public void preloadTest() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<URI> loaded = new ArrayList<>();
+
+        ResourceIterator<Authorization> it = createIterator(pageURIs.get(0)).preload(3, auth -> {
+            int current = running.incrementAndGet();
+            maxRunning.accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(5L);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (loaded) {
+                loaded.add(auth.getLocation());
+            }
+            running.decrementAndGet();
+        });
+
+        List<URI> result = new ArrayList<>();
+        while (it.hasNext()) {
+            result.add(it.next().getLocation());
+        }
+
+        assertThat(result, is(equalTo(resourceURIs)));
+        assertThat(loaded, containsInAnyOrder(resourceURIs.toArray()));
+        assertThat(maxRunning.get(), is(lessThanOrEqualTo(3)));
+    }
+
+    /**
+     * Test that a failed preload is reported.
+     */
+    @Test(expected = AcmeProtocolException.class)
+    public void preloadFailureTest() throws IOException {
+        ResourceIterator<Authorization> it = createIterator(pageURIs.get(0)).preload(2, auth -> {
+            throw new AcmeException("failed");
+        });
+        it.next(); // throws AcmeProtocolException
+    }
+
+    /**
+     * Test that a closed iterator stops the iteration.
+     */
+    @Test
+    public void closeTest() throws IOException {
+        ResourceIterator<Authorization> it = createIterator(pageURIs.get(0));
+        assertThat(it.next().getLocation(), is(resourceURIs.get(0)));
+
+        it.close();
+        assertThat(it.hasNext(), is(false));
+
+        try {
+            it.next();
+            fail("closed iterator returned an element");
+        } catch (NoSuchElementException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that closing the stream stops the iteration after the first page.
+     */
+    @Test
+    public void closeStreamTest() throws IOException {
+        ResourceIterator<Authorization> it = createIterator(pageURIs.get(0)).prefetch(false);
+
+        List<URI> result;
+        try (Stream<Authorization> stream = it.stream()) {
+            result = stream.limit(2).map(Authorization::getLocation).collect(Collectors.toList());
+        }
+
+        assertThat(result, is(equalTo(resourceURIs.subList(0, 2))));
+        assertThat(it.hasNext(), is(false));
+        assertThat(pageRequests.get(), is(1));
+    }
+
+    /**
+     * Creates a new {@link ResourceIterator} of {@link Authorization} objects.
      *
      * @param first
      *            URI of the first page
-     * @return Created {@link Iterator}
+     * @return Created {@link ResourceIterator}
      */
-    private Iterator<Authorization> createIterator(URI first) throws IOException {
+    private ResourceIterator<Authorization> createIterator(URI first) throws IOException {
         TestableConnectionProvider provider = new TestableConnectionProvider() {
             private int ix;
 
@@ -135,6 +292,7 @@ public class ResourceIteratorTest {
             public void sendRequest(URI uri, Session session) {
                 ix = pageURIs.indexOf(uri);
                 assertThat(ix, is(greaterThanOrEqualTo(0)));
+                pageRequests.incrementAndGet();
             }
 
             @Override
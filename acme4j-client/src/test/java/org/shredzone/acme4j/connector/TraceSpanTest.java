@@ -0,0 +1,136 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link TraceSpan}.
+ */
+public class TraceSpanTest {
+
+    private final List<TraceSpan> finished = new ArrayList<>();
+    private final RequestTracer tracer = new RequestTracer() {
+        @Override
+        public void finished(TraceSpan span) {
+            finished.add(span);
+        }
+    };
+
+    @After
+    public void cleanup() {
+        TraceSpan.swap(null);
+    }
+
+    /**
+     * Test that no spans are created if the tracer is {@link RequestTracer#NONE}.
+     */
+    @Test
+    public void testNone() {
+        TraceSpan span = TraceSpan.start(RequestTracer.NONE, null, "foo");
+        assertThat(span, is(sameInstance(TraceSpan.NONE)));
+        assertThat(span.child("bar"), is(sameInstance(TraceSpan.NONE)));
+        assertThat(span.tag("key", "value").getTags().isEmpty(), is(true));
+        assertThat(span.fail(new RuntimeException()).getFailure(), is(nullValue()));
+
+        span.activate();
+        assertThat(TraceSpan.current(), is(nullValue()));
+        assertThat(span.within(TraceSpan::current), is(nullValue()));
+        span.record("bar", System.nanoTime());
+        span.close();
+    }
+
+    /**
+     * Test that spans are reported when closed, children first and only once.
+     */
+    @Test
+    public void testSpans() {
+        Exception failure = new RuntimeException("failed");
+
+        TraceSpan root = TraceSpan.start(tracer, null, "root").tag("key", "value").tag("null", null);
+        TraceSpan child = root.child("child");
+        root.record("phase", System.nanoTime());
+        child.fail(failure).close();
+        child.close();
+        assertThat(finished, hasSize(2));
+        assertThat(root.getDurationNanos(), is(-1L));
+
+        root.close();
+        root.close();
+        assertThat(finished, contains(
+                        sameInstance(finished.get(0)), sameInstance(child), sameInstance(root)));
+
+        TraceSpan phase = finished.get(0);
+        assertThat(phase.getName(), is("phase"));
+        assertThat(phase.getParent(), is(sameInstance(root)));
+        assertThat(phase.getTraceId(), is(root.getId()));
+
+        assertThat(child.getName(), is("child"));
+        assertThat(child.getParent(), is(sameInstance(root)));
+        assertThat(child.getTraceId(), is(root.getId()));
+        assertThat(child.getId(), is(not(root.getId())));
+        assertThat(child.getFailure(), is(sameInstance(failure)));
+        assertThat(child.getDurationNanos(), is(greaterThanOrEqualTo(0L)));
+
+        assertThat(root.getParent(), is(nullValue()));
+        assertThat(root.getTraceId(), is(root.getId()));
+        assertThat(root.getTags().size(), is(1));
+        assertThat(root.getTags().get("key"), is((Object) "value"));
+        assertThat(root.getFailure(), is(nullValue()));
+        assertThat(root.getStartTime(), is(notNullValue()));
+        assertThat(root.getDurationNanos(), is(greaterThanOrEqualTo(child.getDurationNanos())));
+    }
+
+    /**
+     * Test that activated spans become the current span until they are closed.
+     */
+    @Test
+    public void testActivate() {
+        assertThat(TraceSpan.current(), is(nullValue()));
+
+        try (TraceSpan outer = TraceSpan.start(tracer, null, "outer").activate()) {
+            assertThat(TraceSpan.current(), is(sameInstance(outer)));
+
+            try (TraceSpan inner = outer.child("inner").activate()) {
+                assertThat(TraceSpan.current(), is(sameInstance(inner)));
+            }
+            assertThat(TraceSpan.current(), is(sameInstance(outer)));
+
+            TraceSpan other = TraceSpan.start(tracer, null, "other");
+            assertThat(other.within(TraceSpan::current), is(sameInstance(other)));
+            assertThat(TraceSpan.current(), is(sameInstance(outer)));
+        }
+
+        assertThat(TraceSpan.current(), is(nullValue()));
+        assertThat(finished, hasSize(2));
+    }
+
+    /**
+     * Test that {@link TraceSpan#NONE} is not used as a parent.
+     */
+    @Test
+    public void testNoneParent() {
+        TraceSpan span = TraceSpan.start(tracer, TraceSpan.NONE, "foo");
+        assertThat(span.getParent(), is(nullValue()));
+        assertThat(span.getTraceId(), is(span.getId()));
+    }
+
+}
@@ -22,7 +22,9 @@ import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
 
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.time.Instant;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.shredzone.acme4j.Session;
@@ -33,7 +35,10 @@ import org.shredzone.acme4j.challenge.OutOfBand01Challenge;
 import org.shredzone.acme4j.challenge.TlsSni02Challenge;
 import org.shredzone.acme4j.connector.Connection;
 import org.shredzone.acme4j.connector.DefaultConnection;
+import org.shredzone.acme4j.connector.DirectoryCache;
 import org.shredzone.acme4j.connector.HttpConnector;
+import org.shredzone.acme4j.connector.PooledHttpConnector;
+import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.util.JSON;
 import org.shredzone.acme4j.util.TestUtils;
 
@@ -73,6 +78,39 @@ public class AbstractAcmeProviderTest {
         assertThat(invoked.get(), is(true));
     }
 
+    /**
+     * Test that all connections of a provider share the same {@link HttpConnector}.
+     */
+    @Test
+    public void testSharedHttpConnector() {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        AbstractAcmeProvider provider = new AbstractAcmeProvider() {
+            @Override
+            public boolean accepts(URI serverUri) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public URI resolve(URI serverUri) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            protected HttpConnector createHttpConnector() {
+                invocations.incrementAndGet();
+                return new PooledHttpConnector();
+            }
+        };
+
+        provider.connect().close();
+        provider.connect().close();
+
+        assertThat(provider.getHttpConnector(), is(instanceOf(PooledHttpConnector.class)));
+        assertThat(provider.getHttpConnector(), is(sameInstance(provider.getHttpConnector())));
+        assertThat(invocations.get(), is(1));
+    }
+
     /**
      * Verify that the resources directory is read.
      */
@@ -116,6 +154,96 @@ public class AbstractAcmeProviderTest {
         verifyNoMoreInteractions(connection);
     }
 
+    /**
+     * Verify that a cached directory is revalidated by a conditional request.
+     */
+    @Test
+    public void testConditionalResources() throws Exception {
+        final URI testServerUri = new URI("http://example.com/acme");
+        final URI testResolvedUri = new URI("http://example.com/acme/directory");
+        final Instant lastModified = Instant.parse("2017-03-01T12:00:00Z");
+        final Instant expires = Instant.parse("2017-03-02T12:00:00Z");
+        final Connection connection = mock(Connection.class);
+        final Session session = mock(Session.class);
+
+        when(connection.accept(any(Integer.class))).thenReturn(HttpURLConnection.HTTP_OK);
+        when(connection.readJsonResponse()).thenReturn(getJsonAsObject("directory"));
+        when(connection.getETag()).thenReturn("\"1\"");
+        when(connection.getLastModified()).thenReturn(lastModified);
+        when(connection.getExpiration()).thenReturn(expires);
+
+        AbstractAcmeProvider provider = new AbstractAcmeProvider() {
+            @Override
+            public Connection connect() {
+                return connection;
+            }
+
+            @Override
+            public boolean accepts(URI serverUri) {
+                return true;
+            }
+
+            @Override
+            public URI resolve(URI serverUri) {
+                assertThat(serverUri, is(testServerUri));
+                return testResolvedUri;
+            }
+        };
+
+        DirectoryCache.Entry entry = provider.directory(session, testServerUri, null);
+        assertThat(entry.getDirectory().toString(), sameJSONAs(TestUtils.getJson("directory")));
+        assertThat(entry.getETag(), is("\"1\""));
+        assertThat(entry.getLastModified(), is(lastModified));
+        assertThat(entry.getExpires(), is(expires));
+        verify(connection).sendRequest(testResolvedUri, session);
+
+        when(connection.sendConditionalRequest(testResolvedUri, session, "\"1\"", lastModified))
+                .thenReturn(false);
+
+        DirectoryCache.Entry revalidated = provider.directory(session, testServerUri, entry);
+        assertThat(revalidated.getDirectory(), is(sameInstance(entry.getDirectory())));
+        assertThat(revalidated.getExpires(), is(expires));
+        verify(connection).sendConditionalRequest(testResolvedUri, session, "\"1\"", lastModified);
+        verify(connection, times(1)).readJsonResponse();
+    }
+
+    /**
+     * Verify that an overridden {@link AbstractAcmeProvider#directory(Session, URI)} is
+     * not bypassed by the conditional request.
+     */
+    @Test
+    public void testOverriddenDirectory() throws Exception {
+        final URI testServerUri = new URI("http://example.com/acme");
+        final JSON directory = getJsonAsObject("directory");
+        final Session session = mock(Session.class);
+
+        AbstractAcmeProvider provider = new AbstractAcmeProvider() {
+            @Override
+            public Connection connect() {
+                fail("Connection was opened");
+                return null;
+            }
+
+            @Override
+            public boolean accepts(URI serverUri) {
+                return true;
+            }
+
+            @Override
+            public URI resolve(URI serverUri) {
+                return serverUri;
+            }
+
+            @Override
+            public JSON directory(Session session, URI serverUri) throws AcmeException {
+                return directory;
+            }
+        };
+
+        assertThat(provider.directory(session, testServerUri, null), is(nullValue()));
+        assertThat(provider.directory(session, testServerUri), is(sameInstance(directory)));
+    }
+
     /**
      * Test that challenges are generated properly.
      */
@@ -0,0 +1,60 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.provider.mock;
+
+import java.net.URI;
+
+import org.shredzone.acme4j.connector.HttpConnector;
+import org.shredzone.acme4j.connector.PooledHttpConnector;
+import org.shredzone.acme4j.provider.AbstractAcmeProvider;
+import org.shredzone.acme4j.provider.AcmeProvider;
+
+/**
+ * An {@link AcmeProvider} for the {@link MockAcmeServer}.
+ * <p>
+ * The {@code serverUri} is {@code "acme://mock"} for the default server, and
+ * {@code "acme://mock/<name>"} for a named server. The server must be running.
+ */
+public class MockAcmeProvider extends AbstractAcmeProvider {
+
+    @Override
+    public boolean accepts(URI serverUri) {
+        return "acme".equals(serverUri.getScheme())
+                && "mock".equals(serverUri.getHost());
+    }
+
+    @Override
+    public URI resolve(URI serverUri) {
+        String path = serverUri.getPath();
+        String name;
+        if (path == null || "".equals(path) || "/".equals(path)) {
+            name = MockAcmeServer.DEFAULT_NAME;
+        } else {
+            name = path.substring(1);
+        }
+
+        MockAcmeServer server = MockAcmeServer.lookup(name);
+        if (server == null) {
+            throw new IllegalArgumentException("No mock server running for " + serverUri);
+        }
+
+        return server.getDirectoryUri();
+    }
+
+    @Override
+    protected HttpConnector createHttpConnector() {
+        return new PooledHttpConnector();
+    }
+
+}
@@ -0,0 +1,765 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.provider.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.shredzone.acme4j.connector.Resource;
+import org.shredzone.acme4j.exception.AcmeProtocolException;
+import org.shredzone.acme4j.util.JSON;
+import org.shredzone.acme4j.util.JSONBuilder;
+import org.shredzone.acme4j.util.TestUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embeddable ACME server for load and latency tests of the client.
+ * <p>
+ * The server runs on the loopback interface, and implements the directory, nonce,
+ * registration, authorization, challenge and certificate resources. Requests are not
+ * validated beyond the replay nonce, all challenges are accepted, and the same
+ * certificate is issued for every CSR.
+ * <p>
+ * A running server can be connected to via {@link #getServerUri()}, which is handled
+ * by the {@link MockAcmeProvider}.
+ */
+public class MockAcmeServer implements AutoCloseable {
+
+    /**
+     * Name of the server that is connected via {@code acme://mock}.
+     */
+    public static final String DEFAULT_NAME = "default";
+
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+    private static final String PROBLEM_CONTENT_TYPE = "application/problem+json";
+    private static final String CERT_CONTENT_TYPE = "application/pkix-cert";
+    private static final String ERROR_PREFIX = "urn:acme:error:";
+
+    private static final ConcurrentMap<String, MockAcmeServer> SERVERS = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final Set<String> nonces = ConcurrentHashMap.newKeySet();
+    private final Queue<String> nonceOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nonceCount = new AtomicInteger();
+    private final Map<String, JSON> registrations = new ConcurrentHashMap<>();
+    private final Map<String, MockAuthorization> authorizations = new ConcurrentHashMap<>();
+    private final Map<String, MockChallenge> challenges = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> certificatePolls = new ConcurrentHashMap<>();
+    private final Queue<InjectedError> injectedErrors = new ConcurrentLinkedQueue<>();
+    private final AtomicLong idCounter = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private volatile Duration minLatency = Duration.ZERO;
+    private volatile Duration maxLatency = Duration.ZERO;
+    private volatile double errorRate = 0.0;
+    private volatile Duration retryAfter = null;
+    private volatile int pendingPolls = 0;
+    private volatile byte[] certificate;
+    private volatile int maxNonces = 10000;
+    private int workerThreads = 16;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile URI baseUri;
+
+    /**
+     * Creates a new {@link MockAcmeServer} that is connected via {@code acme://mock}.
+     */
+    public MockAcmeServer() {
+        this(DEFAULT_NAME);
+    }
+
+    /**
+     * Creates a new {@link MockAcmeServer} that is connected via
+     * {@code acme://mock/<name>}.
+     *
+     * @param name
+     *            Server name
+     */
+    public MockAcmeServer(String name) {
+        this.name = Objects.requireNonNull(name, "name");
+    }
+
+    /**
+     * Returns the running {@link MockAcmeServer} of the given name.
+     *
+     * @param name
+     *            Server name
+     * @return {@link MockAcmeServer}, or {@code null} if there is no such server running
+     */
+    public static MockAcmeServer lookup(String name) {
+        return SERVERS.get(name);
+    }
+
+    /**
+     * Starts the server on a free port of the loopback interface.
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("server is already running");
+        }
+
+        if (certificate == null) {
+            setCertificate(TestUtils.createCertificate());
+        }
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newFixedThreadPool(workerThreads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+
+        baseUri = URI.create("http://localhost:" + server.getAddress().getPort());
+
+        if (SERVERS.putIfAbsent(name, this) != null) {
+            close();
+            throw new IllegalStateException("a mock server named " + name + " is already running");
+        }
+    }
+
+    /**
+     * Stops the server.
+     */
+    @Override
+    public synchronized void close() {
+        SERVERS.remove(name, this);
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * Returns the {@code acme://mock} URI to be used for a
+     * {@link org.shredzone.acme4j.Session}.
+     */
+    public URI getServerUri() {
+        return URI.create(DEFAULT_NAME.equals(name) ? "acme://mock" : "acme://mock/" + name);
+    }
+
+    /**
+     * Returns the HTTP URI of the directory resource.
+     */
+    public synchronized URI getDirectoryUri() {
+        if (baseUri == null) {
+            throw new IllegalStateException("server is not running");
+        }
+        return baseUri.resolve("/directory");
+    }
+
+    /**
+     * Sets the number of threads that handle requests. Must be invoked before the
+     * server is started. Default is 16.
+     */
+    public synchronized void setWorkerThreads(int workerThreads) {
+        if (workerThreads <= 0) {
+            throw new IllegalArgumentException("workerThreads must be positive");
+        }
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * Sets the maximum number of issued nonces that are remembered. If more nonces are
+     * issued, the oldest ones are forgotten, and rejected with a {@code badNonce} error
+     * if they are used. Default is 10000.
+     */
+    public void setMaxNonces(int maxNonces) {
+        if (maxNonces <= 0) {
+            throw new IllegalArgumentException("maxNonces must be positive");
+        }
+        this.maxNonces = maxNonces;
+    }
+
+    /**
+     * Sets the latency of each response. The latency is randomly distributed between
+     * the minimum and the maximum.
+     *
+     * @param min
+     *            Minimum latency
+     * @param max
+     *            Maximum latency
+     */
+    public void setLatency(Duration min, Duration max) {
+        if (min.isNegative() || max.compareTo(min) < 0) {
+            throw new IllegalArgumentException("bad latency range " + min + " - " + max);
+        }
+        this.minLatency = min;
+        this.maxLatency = max;
+    }
+
+    /**
+     * Sets the rate of requests that randomly fail with a {@code serverInternal} error.
+     *
+     * @param errorRate
+     *            Error rate, between 0.0 (no errors) and 1.0 (all requests fail)
+     */
+    public void setErrorRate(double errorRate) {
+        if (errorRate < 0.0 || errorRate > 1.0) {
+            throw new IllegalArgumentException("bad error rate " + errorRate);
+        }
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Lets challenges, authorizations and certificates stay pending for the given
+     * number of polls. Pending resources are answered with a {@code Retry-After}
+     * header.
+     *
+     * @param retryAfter
+     *            Duration to be sent in the {@code Retry-After} header
+     * @param pendingPolls
+     *            Number of polls that are answered as pending
+     */
+    public void setRetryAfter(Duration retryAfter, int pendingPolls) {
+        this.retryAfter = Objects.requireNonNull(retryAfter, "retryAfter");
+        this.pendingPolls = pendingPolls;
+    }
+
+    /**
+     * Sets the certificate that is issued. By default, the test certificate is used.
+     *
+     * @param cert
+     *            {@link X509Certificate} to be issued
+     */
+    public void setCertificate(X509Certificate cert) {
+        try {
+            this.certificate = cert.getEncoded();
+        } catch (CertificateEncodingException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    /**
+     * Lets the next request to the given path fail with the given error.
+     *
+     * @param path
+     *            Path prefix of the requests to fail, e.g. {@code "/new-authz"}
+     * @param status
+     *            HTTP status code to respond with
+     * @param type
+     *            ACME error type, without the {@code urn:acme:error:} prefix, e.g.
+     *            {@code "rateLimited"}
+     * @param retryAfter
+     *            Duration to be sent in the {@code Retry-After} header, or {@code null}
+     *            for none
+     */
+    public void injectError(String path, int status, String type, Duration retryAfter) {
+        injectedErrors.add(new InjectedError(path, status, type, retryAfter));
+    }
+
+    /**
+     * Returns the number of requests that have been handled.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Handles a request.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requestCount.incrementAndGet();
+            byte[] body = readBody(exchange);
+            simulateLatency();
+
+            exchange.getResponseHeaders().add("Replay-Nonce", createNonce());
+
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+
+            InjectedError error = takeInjectedError(path);
+            if (error != null) {
+                sendProblem(exchange, error.status, error.type, "Injected error", error.retryAfter);
+                return;
+            }
+
+            if (errorRate > 0.0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                sendProblem(exchange, 500, "serverInternal", "Random error", null);
+                return;
+            }
+
+            if ("POST".equals(method)) {
+                JSON payload = verifyRequest(exchange, body);
+                if (payload != null) {
+                    handlePost(exchange, path, payload);
+                }
+            } else {
+                handleGet(exchange, path);
+            }
+        } catch (RuntimeException ex) {
+            sendProblem(exchange, 500, "serverInternal", String.valueOf(ex.getMessage()), null);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Handles GET and HEAD requests.
+     */
+    private void handleGet(HttpExchange exchange, String path) throws IOException {
+        if ("/directory".equals(path)) {
+            JSONBuilder jb = new JSONBuilder();
+            for (Resource r : Resource.values()) {
+                jb.put(r.path(), baseUri.resolve("/" + r.path()).toString());
+            }
+            jb.object("meta").put("terms-of-service", baseUri.resolve("/terms").toString());
+            sendJson(exchange, 200, jb.toString());
+
+        } else if (path.equals("/" + Resource.NEW_NONCE.path())) {
+            sendEmpty(exchange, 204);
+
+        } else if (path.startsWith("/authz/")) {
+            MockAuthorization auth = authorizations.get(path.substring(7));
+            if (auth == null) {
+                sendNotFound(exchange);
+                return;
+            }
+            boolean validating = auth.isValidating();
+            if (validating) {
+                addRetryAfter(exchange);
+            }
+            sendJson(exchange, validating && retryAfter != null ? 202 : 200, auth.toJSON());
+
+        } else if (path.startsWith("/challenge/")) {
+            MockChallenge challenge = challenges.get(path.substring(11));
+            if (challenge == null) {
+                sendNotFound(exchange);
+                return;
+            }
+            boolean pending = challenge.poll();
+            if (pending) {
+                addRetryAfter(exchange);
+            }
+            sendJson(exchange, pending ? 202 : 200, challenge.toJSON());
+
+        } else if (path.startsWith("/cert/")) {
+            AtomicInteger polls = certificatePolls.get(path.substring(6));
+            if (polls == null) {
+                sendNotFound(exchange);
+                return;
+            }
+            if (polls.incrementAndGet() <= pendingPolls) {
+                addRetryAfter(exchange);
+                sendEmpty(exchange, 202);
+                return;
+            }
+            exchange.getResponseHeaders().add("Link", "<" + baseUri.resolve("/issuer") + ">;rel=\"up\"");
+            sendCertificate(exchange, 200);
+
+        } else if ("/issuer".equals(path)) {
+            sendCertificate(exchange, 200);
+
+        } else {
+            sendNotFound(exchange);
+        }
+    }
+
+    /**
+     * Handles POST requests.
+     */
+    private void handlePost(HttpExchange exchange, String path, JSON payload) throws IOException {
+        String id;
+
+        if (path.equals("/" + Resource.NEW_REG.path())) {
+            id = nextId();
+            JSONBuilder jb = new JSONBuilder();
+            jb.put("status", "valid");
+            if (payload.contains("contact")) {
+                List<String> contacts = new ArrayList<>();
+                payload.get("contact").asArray().forEach(v -> contacts.add(v.asString()));
+                jb.array("contact", contacts.toArray());
+            }
+            JSON reg = jb.toJSON();
+            registrations.put(id, reg);
+            exchange.getResponseHeaders().add("Location", baseUri.resolve("/reg/" + id).toString());
+            addTermsOfService(exchange);
+            sendJson(exchange, 201, reg.toString());
+
+        } else if (path.startsWith("/reg/")) {
+            JSON reg = registrations.get(path.substring(5));
+            if (reg == null) {
+                sendNotFound(exchange);
+                return;
+            }
+            addTermsOfService(exchange);
+            sendJson(exchange, 202, reg.toString());
+
+        } else if (path.equals("/" + Resource.NEW_AUTHZ.path())) {
+            id = nextId();
+            String domain = payload.get("identifier").asObject().get("value").required().asString();
+            MockAuthorization auth = new MockAuthorization(id, domain);
+            authorizations.put(id, auth);
+            exchange.getResponseHeaders().add("Location", baseUri.resolve("/authz/" + id).toString());
+            sendJson(exchange, 201, auth.toJSON());
+
+        } else if (path.startsWith("/authz/")) {
+            MockAuthorization auth = authorizations.get(path.substring(7));
+            if (auth == null) {
+                sendNotFound(exchange);
+                return;
+            }
+            if ("deactivated".equals(payload.get("status").asString())) {
+                auth.deactivate();
+            }
+            sendJson(exchange, 200, auth.toJSON());
+
+        } else if (path.startsWith("/challenge/")) {
+            MockChallenge challenge = challenges.get(path.substring(11));
+            if (challenge == null) {
+                sendNotFound(exchange);
+                return;
+            }
+            challenge.trigger();
+            sendJson(exchange, 202, challenge.toJSON());
+
+        } else if (path.equals("/" + Resource.NEW_CERT.path())) {
+            payload.get("csr").required();
+            id = nextId();
+            certificatePolls.put(id, new AtomicInteger());
+            exchange.getResponseHeaders().add("Location", baseUri.resolve("/cert/" + id).toString());
+            exchange.getResponseHeaders().add("Link", "<" + baseUri.resolve("/issuer") + ">;rel=\"up\"");
+            if (pendingPolls > 0) {
+                sendEmpty(exchange, 202);
+            } else {
+                sendCertificate(exchange, 201);
+            }
+
+        } else if (path.equals("/" + Resource.REVOKE_CERT.path())
+                        || path.equals("/" + Resource.KEY_CHANGE.path())) {
+            sendJson(exchange, 200, "{}");
+
+        } else {
+            sendNotFound(exchange);
+        }
+    }
+
+    /**
+     * Decodes the JWS of a POST request, and checks the replay nonce.
+     *
+     * @return Payload, or {@code null} if the request was rejected
+     */
+    private JSON verifyRequest(HttpExchange exchange, byte[] body) throws IOException {
+        String[] parts = new String(body, StandardCharsets.US_ASCII).split("\\.");
+        if (parts.length != 3) {
+            sendProblem(exchange, 400, "malformed", "Not a compact serialized JWS", null);
+            return null;
+        }
+
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            JSON header = JSON.parse(new String(decoder.decode(parts[0]), StandardCharsets.UTF_8));
+            JSON payload = JSON.parse(new String(decoder.decode(parts[1]), StandardCharsets.UTF_8));
+
+            String nonce = header.get("nonce").asString();
+            if (nonce == null || !nonces.remove(nonce)) {
+                sendProblem(exchange, 400, "badNonce", "JWS has an invalid anti-replay nonce", null);
+                return null;
+            }
+
+            return payload;
+        } catch (IllegalArgumentException | AcmeProtocolException ex) {
+            sendProblem(exchange, 400, "malformed", "Bad JWS: " + ex.getMessage(), null);
+            return null;
+        }
+    }
+
+    /**
+     * Finds and removes the first injected error matching the path.
+     */
+    private InjectedError takeInjectedError(String path) {
+        for (Iterator<InjectedError> it = injectedErrors.iterator(); it.hasNext();) {
+            InjectedError error = it.next();
+            if (path.startsWith(error.path) && injectedErrors.remove(error)) {
+                return error;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sleeps for a random latency within the configured range.
+     */
+    private void simulateLatency() {
+        long min = minLatency.toNanos();
+        long max = maxLatency.toNanos();
+        long latency = max > min ? ThreadLocalRandom.current().nextLong(min, max + 1) : min;
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency / 1_000_000L, (int) (latency % 1_000_000L));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private String createNonce() {
+        byte[] data = new byte[16];
+        ThreadLocalRandom.current().nextBytes(data);
+        String nonce = Base64.getUrlEncoder().withoutPadding().encodeToString(data);
+        nonces.add(nonce);
+        nonceOrder.add(nonce);
+
+        if (nonceCount.incrementAndGet() > maxNonces) {
+            // forget the oldest nonce, it is rejected as bad nonce from now on
+            String evicted = nonceOrder.poll();
+            if (evicted != null) {
+                nonceCount.decrementAndGet();
+                nonces.remove(evicted);
+            }
+        }
+        return nonce;
+    }
+
+    private String nextId() {
+        return Long.toString(idCounter.incrementAndGet());
+    }
+
+    private void addRetryAfter(HttpExchange exchange) {
+        Duration ra = retryAfter;
+        if (ra != null) {
+            exchange.getResponseHeaders().add("Retry-After", Long.toString(ra.getSeconds()));
+        }
+    }
+
+    private void addTermsOfService(HttpExchange exchange) {
+        exchange.getResponseHeaders().add("Link",
+                        "<" + baseUri.resolve("/terms") + ">;rel=\"terms-of-service\"");
+    }
+
+    private void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        send(exchange, status, JSON_CONTENT_TYPE, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void sendCertificate(HttpExchange exchange, int status) throws IOException {
+        send(exchange, status, CERT_CONTENT_TYPE, certificate);
+    }
+
+    private void sendNotFound(HttpExchange exchange) throws IOException {
+        sendProblem(exchange, 404, "malformed", "Resource not found", null);
+    }
+
+    private void sendProblem(HttpExchange exchange, int status, String type, String detail,
+                Duration retryAfter) throws IOException {
+        if (retryAfter != null) {
+            exchange.getResponseHeaders().add("Retry-After", Long.toString(retryAfter.getSeconds()));
+        }
+
+        JSONBuilder jb = new JSONBuilder();
+        jb.put("type", ERROR_PREFIX + type);
+        jb.put("detail", detail);
+        jb.put("status", status);
+        send(exchange, status, PROBLEM_CONTENT_TYPE, jb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void sendEmpty(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, byte[] data)
+                throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * An error that is injected into the next matching request.
+     */
+    private static class InjectedError {
+        private final String path;
+        private final int status;
+        private final String type;
+        private final Duration retryAfter;
+
+        public InjectedError(String path, int status, String type, Duration retryAfter) {
+            this.path = Objects.requireNonNull(path, "path");
+            this.status = status;
+            this.type = Objects.requireNonNull(type, "type");
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    /**
+     * An authorization and its challenges.
+     */
+    private class MockAuthorization {
+        private final String domain;
+        private final Instant expires = Instant.now().plus(Duration.ofDays(7));
+        private final List<MockChallenge> authChallenges = new ArrayList<>();
+        private volatile boolean deactivated = false;
+
+        public MockAuthorization(String id, String domain) {
+            this.domain = domain;
+            for (String type : new String[] {"http-01", "dns-01", "tls-sni-02"}) {
+                String challengeId = id + "-" + type;
+                MockChallenge challenge = new MockChallenge(challengeId, type);
+                authChallenges.add(challenge);
+                challenges.put(challengeId, challenge);
+            }
+        }
+
+        public void deactivate() {
+            deactivated = true;
+        }
+
+        public boolean isPending() {
+            return !deactivated && authChallenges.stream().noneMatch(MockChallenge::isValid);
+        }
+
+        public boolean isValidating() {
+            return isPending() && authChallenges.stream().anyMatch(MockChallenge::isTriggered);
+        }
+
+        public String toJSON() {
+            String status;
+            if (deactivated) {
+                status = "deactivated";
+            } else if (isPending()) {
+                status = "pending";
+            } else {
+                status = "valid";
+            }
+
+            Object[] challengeData = authChallenges.stream()
+                    .map(c -> c.toBuilder().toMap())
+                    .toArray();
+
+            Object[] combinations = new Object[authChallenges.size()];
+            for (int ix = 0; ix < combinations.length; ix++) {
+                combinations[ix] = Collections.singletonList(ix);
+            }
+
+            JSONBuilder jb = new JSONBuilder();
+            jb.object("identifier").put("type", "dns").put("value", domain);
+            jb.put("status", status);
+            jb.put("expires", expires);
+            jb.array("challenges", challengeData);
+            jb.array("combinations", combinations);
+            return jb.toString();
+        }
+    }
+
+    /**
+     * A challenge. It becomes valid after it was triggered and polled.
+     */
+    private class MockChallenge {
+        private final String id;
+        private final String type;
+        private final String token;
+        private boolean triggered = false;
+        private boolean valid = false;
+        private int polls = 0;
+
+        public MockChallenge(String id, String type) {
+            this.id = id;
+            this.type = type;
+
+            byte[] data = new byte[32];
+            ThreadLocalRandom.current().nextBytes(data);
+            this.token = Base64.getUrlEncoder().withoutPadding().encodeToString(data);
+        }
+
+        public synchronized void trigger() {
+            triggered = true;
+        }
+
+        /**
+         * Polls the challenge.
+         *
+         * @return {@code true} if the challenge is still pending and a retry is expected
+         */
+        public synchronized boolean poll() {
+            if (!triggered || valid) {
+                return false;
+            }
+            if (++polls <= pendingPolls && retryAfter != null) {
+                return true;
+            }
+            valid = true;
+            return false;
+        }
+
+        public synchronized boolean isTriggered() {
+            return triggered;
+        }
+
+        public synchronized boolean isValid() {
+            return valid;
+        }
+
+        public synchronized JSONBuilder toBuilder() {
+            JSONBuilder jb = new JSONBuilder();
+            jb.put("type", type);
+            jb.put("status", valid ? "valid" : "pending");
+            jb.put("uri", baseUri.resolve("/challenge/" + id).toString());
+            jb.put("token", token);
+            return jb;
+        }
+
+        public String toJSON() {
+            return toBuilder().toString();
+        }
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.provider.mock;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.Authorization;
+import org.shredzone.acme4j.Certificate;
+import org.shredzone.acme4j.Registration;
+import org.shredzone.acme4j.RegistrationBuilder;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.Status;
+import org.shredzone.acme4j.challenge.Http01Challenge;
+import org.shredzone.acme4j.connector.Resource;
+import org.shredzone.acme4j.exception.AcmeRateLimitExceededException;
+import org.shredzone.acme4j.exception.AcmeRetryAfterException;
+import org.shredzone.acme4j.util.TestUtils;
+
+/**
+ * Unit tests for {@link MockAcmeServer} and {@link MockAcmeProvider}. They use the
+ * real HTTP stack of the client.
+ */
+public class MockAcmeServerTest {
+
+    private MockAcmeServer server;
+    private Session session;
+
+    @Before
+    public void setup() throws IOException {
+        server = new MockAcmeServer();
+        server.start();
+        session = new Session(server.getServerUri(), TestUtils.createKeyPair());
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * Test that the provider resolves the running server.
+     */
+    @Test
+    public void testProvider() throws Exception {
+        MockAcmeProvider provider = new MockAcmeProvider();
+        assertThat(provider.accepts(new URI("acme://mock")), is(true));
+        assertThat(provider.accepts(new URI("acme://mock/foo")), is(true));
+        assertThat(provider.accepts(new URI("acme://example.com")), is(false));
+        assertThat(provider.resolve(new URI("acme://mock")), is(server.getDirectoryUri()));
+
+        try {
+            provider.resolve(new URI("acme://mock/foo"));
+            fail("resolved a server that is not running");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        assertThat(session.resourceUri(Resource.NEW_AUTHZ),
+                        is(server.getDirectoryUri().resolve("/new-authz")));
+    }
+
+    /**
+     * Test a complete issuance against the mock server.
+     */
+    @Test
+    public void testIssuance() throws Exception {
+        Registration registration = new RegistrationBuilder().create(session);
+        assertThat(registration.getLocation(), is(notNullValue()));
+
+        Authorization auth = registration.authorizeDomain("example.org");
+        assertThat(auth.getDomain(), is("example.org"));
+        assertThat(auth.getStatus(), is(Status.PENDING));
+
+        Http01Challenge challenge = auth.findChallenge(Http01Challenge.TYPE);
+        assertThat(challenge, is(notNullValue()));
+        challenge.trigger();
+        challenge.update();
+        assertThat(challenge.getStatus(), is(Status.VALID));
+
+        auth.update();
+        assertThat(auth.getStatus(), is(Status.VALID));
+
+        Certificate cert = registration.requestCertificate(TestUtils.getResourceAsByteArray("/csr.der"));
+        assertThat(cert.download(), is(TestUtils.createCertificate()));
+        assertThat(cert.getChainLocation(), is(server.getDirectoryUri().resolve("/issuer")));
+    }
+
+    /**
+     * Test that a bad nonce is rejected, and the client retries with a fresh nonce.
+     */
+    @Test
+    public void testBadNonce() throws Exception {
+        Registration registration = new RegistrationBuilder().create(session);
+        long requests = server.getRequestCount();
+
+        session.setNonce("bad-nonce".getBytes("utf-8"));
+        Authorization auth = registration.authorizeDomain("example.org");
+        assertThat(auth.getStatus(), is(Status.PENDING));
+        assertThat(server.getRequestCount() - requests, is(greaterThanOrEqualTo(2L)));
+    }
+
+    /**
+     * Test that the number of remembered nonces is bounded, and that forgotten nonces
+     * are rejected.
+     */
+    @Test
+    public void testEvictedNonce() throws Exception {
+        Registration registration = new RegistrationBuilder().create(session);
+        server.setMaxNonces(2);
+
+        session.setNonce(null);
+        session.setNonce(fetchNonce());
+        long requests = server.getRequestCount();
+        registration.authorizeDomain("example.org");
+        long validRequests = server.getRequestCount() - requests;
+
+        byte[] evicted = fetchNonce();
+        fetchNonce();
+        fetchNonce();
+
+        session.setNonce(null);
+        session.setNonce(evicted);
+        requests = server.getRequestCount();
+        Authorization auth = registration.authorizeDomain("example.com");
+        assertThat(auth.getStatus(), is(Status.PENDING));
+        assertThat(server.getRequestCount() - requests, is(validRequests + 1));
+    }
+
+    /**
+     * Test that injected errors are delivered to the next matching request only.
+     */
+    @Test
+    public void testInjectedError() throws Exception {
+        Registration registration = new RegistrationBuilder().create(session);
+
+        server.injectError("/new-authz", 429, "rateLimited", Duration.ofSeconds(30));
+        try {
+            registration.authorizeDomain("example.org");
+            fail("injected error was not thrown");
+        } catch (AcmeRateLimitExceededException ex) {
+            assertThat(ex.getRetryAfter(), is(notNullValue()));
+        }
+
+        Authorization auth = registration.authorizeDomain("example.org");
+        assertThat(auth.getStatus(), is(Status.PENDING));
+    }
+
+    /**
+     * Test that pending resources are answered with a Retry-After header.
+     */
+    @Test
+    public void testRetryAfter() throws Exception {
+        server.setRetryAfter(Duration.ofSeconds(2), 2);
+
+        Registration registration = new RegistrationBuilder().create(session);
+        Authorization auth = registration.authorizeDomain("example.org");
+        Http01Challenge challenge = auth.findChallenge(Http01Challenge.TYPE);
+        challenge.trigger();
+
+        for (int ix = 0; ix < 2; ix++) {
+            try {
+                challenge.update();
+                fail("no retry-after was sent");
+            } catch (AcmeRetryAfterException ex) {
+                assertThat(ex.getRetryAfter(), is(notNullValue()));
+                assertThat(challenge.getStatus(), is(Status.PENDING));
+            }
+        }
+
+        challenge.update();
+        assertThat(challenge.getStatus(), is(Status.VALID));
+    }
+
+    /**
+     * Test that the rate limiter parks a resource and resends the rejected request.
+     */
+    @Test(timeout = 30000L)
+    public void testRateLimiter() throws Exception {
+        Registration registration = new RegistrationBuilder().create(session);
+        session.getRateLimiter().setLimit(Resource.NEW_AUTHZ, 10, Duration.ofSeconds(1));
+
+        server.injectError("/new-authz", 429, "rateLimited", Duration.ofSeconds(2));
+
+        long start = System.nanoTime();
+        Authorization auth = registration.authorizeDomain("example.org");
+        assertThat(auth.getStatus(), is(Status.PENDING));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), is(greaterThanOrEqualTo(900L)));
+    }
+
+    /**
+     * Test concurrent requests with simulated latency.
+     */
+    @Test(timeout = 30000L)
+    public void testConcurrentLoad() throws Exception {
+        server.setLatency(Duration.ofMillis(1), Duration.ofMillis(5));
+
+        Registration registration = new RegistrationBuilder().create(session);
+
+        List<CompletableFuture<Authorization>> futures = new ArrayList<>();
+        for (int ix = 0; ix < 50; ix++) {
+            futures.add(registration.authorizeDomainAsync("www" + ix + ".example.org"));
+        }
+
+        for (int ix = 0; ix < futures.size(); ix++) {
+            Authorization auth = futures.get(ix).join();
+            assertThat(auth.getDomain(), is("www" + ix + ".example.org"));
+            assertThat(auth.getStatus(), is(Status.PENDING));
+        }
+
+        assertThat(server.getRequestCount(), is(greaterThanOrEqualTo(51L)));
+    }
+
+    /**
+     * Fetches a fresh nonce from the server, bypassing the session.
+     */
+    private byte[] fetchNonce() throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) server.getDirectoryUri().toURL().openConnection();
+        try {
+            conn.setRequestMethod("HEAD");
+            conn.getResponseCode();
+            return Base64.getUrlDecoder().decode(conn.getHeaderField("Replay-Nonce"));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+}
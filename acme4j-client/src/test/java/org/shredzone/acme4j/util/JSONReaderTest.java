@@ -0,0 +1,134 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.shredzone.acme4j.exception.AcmeProtocolException;
+
+/**
+ * Unit tests for {@link JSONReader}.
+ */
+public class JSONReaderTest {
+
+    /**
+     * Test that all JSON types are read correctly.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTypes() throws IOException {
+        Map<String, Object> map = read(" {\"text\" : \"foo\", \"int\":123, \"neg\":-7,"
+                        + " \"double\":-2.5e3, \"true\":true, \"false\":false, \"null\":null,"
+                        + " \"array\":[1, [], {}], \"object\":{\"a\":\"b\"}}\r\n");
+
+        assertThat(map.keySet(), contains("text", "int", "neg", "double", "true", "false",
+                        "null", "array", "object"));
+        assertThat(map.get("text"), is((Object) "foo"));
+        assertThat(map.get("int"), is((Object) 123L));
+        assertThat(map.get("neg"), is((Object) (-7L)));
+        assertThat(map.get("double"), is((Object) (-2500.0)));
+        assertThat(map.get("true"), is((Object) Boolean.TRUE));
+        assertThat(map.get("false"), is((Object) Boolean.FALSE));
+        assertThat(map.containsKey("null"), is(true));
+        assertThat(map.get("null"), is(nullValue()));
+
+        List<Object> array = (List<Object>) map.get("array");
+        assertThat(array, is(Arrays.<Object>asList(1L, Collections.emptyList(), Collections.emptyMap())));
+
+        Map<String, Object> object = (Map<String, Object>) map.get("object");
+        assertThat(object, is(Collections.<String, Object>singletonMap("a", "b")));
+    }
+
+    /**
+     * Test that strings are decoded correctly, including line breaks.
+     */
+    @Test
+    public void testStrings() throws IOException {
+        Map<String, Object> map = read("{\"escaped\":\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\\u00e4\\ud83d\\ude00\","
+                        + "\"utf8\":\"\u00e4\u20ac\ud83d\ude00\","
+                        + "\"multiline\":\"line1\n  line2\"}");
+
+        assertThat(map.get("escaped"), is((Object) "a\"b\\c/d\b\f\n\r\t\u00e4\ud83d\ude00"));
+        assertThat(map.get("utf8"), is((Object) "\u00e4\u20ac\ud83d\ude00"));
+        assertThat(map.get("multiline"), is((Object) "line1\n  line2"));
+    }
+
+    /**
+     * Test that long strings exceeding the buffers are read correctly.
+     */
+    @Test
+    public void testLongString() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int ix = 0; ix < 20000; ix++) {
+            sb.append(ix % 2 == 0 ? 'x' : '\u00e4');
+        }
+
+        Map<String, Object> map = read("{\"long\":\"" + sb + "\"}");
+        assertThat(map.get("long"), is((Object) sb.toString()));
+    }
+
+    /**
+     * Test that invalid JSON is rejected.
+     */
+    @Test
+    public void testInvalid() throws IOException {
+        String[] invalid = {
+            "", "[]", "{", "{\"a\":}", "{\"a\":1,}", "{\"a\":1}x", "{\"a\":\"b}",
+            "{\"a\":tru}", "{\"a\":1,\"a\":2}", "{\"a\":\"\\x\"}", "{'a':1}",
+            "{\"a\":\"\\u12\"}", "{\"a\":1.2.3}",
+        };
+
+        for (String json : invalid) {
+            try {
+                read(json);
+                fail("accepted invalid JSON: " + json);
+            } catch (AcmeProtocolException ex) {
+                assertThat(ex.getMessage(), startsWith("Bad JSON at position"));
+            }
+        }
+    }
+
+    /**
+     * Test that deeply nested JSON is rejected.
+     */
+    @Test(expected = AcmeProtocolException.class)
+    public void testTooDeep() throws IOException {
+        StringBuilder sb = new StringBuilder("{\"a\":");
+        for (int ix = 0; ix < 1000; ix++) {
+            sb.append('[');
+        }
+        for (int ix = 0; ix < 1000; ix++) {
+            sb.append(']');
+        }
+        sb.append('}');
+        read(sb.toString());
+    }
+
+    /**
+     * Reads the given JSON string.
+     */
+    private Map<String, Object> read(String json) throws IOException {
+        return new JSONReader(new ByteArrayInputStream(json.getBytes("utf-8"))).readObject();
+    }
+
+}
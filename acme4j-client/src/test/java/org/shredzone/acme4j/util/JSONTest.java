@@ -36,6 +36,7 @@ import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 
 import org.junit.Test;
+import org.shredzone.acme4j.Status;
 import org.shredzone.acme4j.exception.AcmeProtocolException;
 
 /**
@@ -68,6 +69,19 @@ public class JSONTest {
         }
     }
 
+    /**
+     * Test that line breaks in string values are preserved when parsing a stream.
+     */
+    @Test
+    public void testParseStreamMultiline() throws IOException {
+        String json = "{\n  \"foo\": \"line1\n  line2\"\n}";
+
+        try (InputStream in = new ByteArrayInputStream(json.getBytes("utf-8"))) {
+            JSON fromStream = JSON.parse(in);
+            assertThat(fromStream.get("foo").asString(), is("line1\n  line2"));
+        }
+    }
+
     /**
      * Test that bad JSON fails.
      */
@@ -274,6 +288,66 @@ public class JSONTest {
         }
     }
 
+    /**
+     * Test that values and their converted types are cached.
+     */
+    @Test
+    public void testMemoized() {
+        JSON json = TestUtils.getJsonAsObject("json");
+
+        JSON.Value uri = json.get("uri");
+        assertThat(json.get("uri"), is(sameInstance(uri)));
+        assertThat(uri.asURI(), is(sameInstance(uri.asURI())));
+        assertThat(json.get("url").asURL(), is(sameInstance(json.get("url").asURL())));
+        assertThat(json.get("date").asInstant(), is(sameInstance(json.get("date").asInstant())));
+
+        JSON.Array array = json.get("array").asArray();
+        assertThat(json.get("array").asArray(), is(sameInstance(array)));
+        assertThat(array.get(3), is(sameInstance(array.get(3))));
+        assertThat(array.get(3).asObject(), is(sameInstance(array.get(3).asObject())));
+    }
+
+    /**
+     * Test that the JSON path is reported on errors.
+     */
+    @Test
+    public void testErrorPath() {
+        JSON json = TestUtils.getJsonAsObject("json");
+
+        try {
+            json.get("text").asURL();
+            fail("no exception was thrown");
+        } catch (AcmeProtocolException ex) {
+            assertThat(ex.getMessage(), startsWith("text: "));
+        }
+
+        try {
+            json.get("array").asArray().get(2).asArray().get(1).asObject();
+            fail("no exception was thrown");
+        } catch (AcmeProtocolException ex) {
+            assertThat(ex.getMessage(), is("array[2][1]: expected an object"));
+        }
+
+        try {
+            json.get("array").asArray().get(3).asObject().get("test").asInt();
+            fail("no exception was thrown");
+        } catch (AcmeProtocolException ex) {
+            assertThat(ex.getMessage(), startsWith("array[3].test: bad number"));
+        }
+    }
+
+    /**
+     * Test that status values are parsed.
+     */
+    @Test
+    public void testStatusGetter() {
+        JSON json = JSON.parse("{\"status\":\"valid\",\"other\":\"foo\"}");
+
+        assertThat(json.get("status").asStatusOrElse(Status.PENDING), is(Status.VALID));
+        assertThat(json.get("other").asStatusOrElse(Status.PENDING), is(Status.UNKNOWN));
+        assertThat(json.get("none").asStatusOrElse(Status.PENDING), is(Status.PENDING));
+    }
+
     /**
      * Test that serialization works correctly.
      */
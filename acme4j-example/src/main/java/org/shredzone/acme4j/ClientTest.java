@@ -34,6 +34,9 @@ import java.security.Security;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A simple client test tool.
@@ -228,20 +231,15 @@ public class ClientTest {
         challenge.trigger();
 
         // Poll for the challenge to complete.
-        try {
-            int attempts = 10;
-            while (challenge.getStatus() != Status.VALID && attempts-- > 0) {
-                // Did the authorization fail?
-                if (challenge.getStatus() == Status.INVALID) {
-                    throw new AcmeException("Challenge failed... Giving up.");
-                }
-
-                // Wait for a few seconds
-                Thread.sleep(3000L);
-
-                // Then update the status
-                challenge.update();
+        try (PollingScheduler scheduler = new PollingScheduler()) {
+            Status status = scheduler.poll(challenge).get(5, TimeUnit.MINUTES);
+
+            // Did the authorization fail?
+            if (status == Status.INVALID) {
+                throw new AcmeException("Challenge failed... Giving up.");
             }
+        } catch (ExecutionException | TimeoutException ex) {
+            throw new AcmeException("Failed to poll the challenge", ex);
         } catch (InterruptedException ex) {
             LOG.error("interrupted", ex);
             Thread.currentThread().interrupt();
@@ -0,0 +1,141 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.micrometer;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import org.shredzone.acme4j.connector.ConnectionMetrics;
+import org.shredzone.acme4j.connector.Resource;
+
+/**
+ * {@link ConnectionMetrics} that records the metrics in a Micrometer
+ * {@link MeterRegistry}.
+ * <p>
+ * These meters are registered:
+ * <ul>
+ * <li>{@value #REQUESTS}: Timer of all requests, tagged with {@code resource},
+ * {@code method}, {@code status} and {@code error}. The 50th and 99th percentiles are
+ * published. Error rates can be derived from the {@code status} and {@code error}
+ * tags.</li>
+ * <li>{@value #NONCES}: Counter of the nonces used for signed requests, tagged with
+ * {@code source} ({@code pool} or {@code server}).</li>
+ * <li>{@value #RETRIES}: Counter of repeated requests, tagged with {@code resource} and
+ * {@code reason}.</li>
+ * <li>{@value #RATE_LIMIT_WAITS}: Timer of the waits for a permit of the rate limiter,
+ * tagged with {@code resource}.</li>
+ * </ul>
+ * Requests to URIs that are not in the directory are tagged with the resource
+ * {@code other}. Requests without a response are tagged with the status {@code none}.
+ * This class is part of the {@code acme4j-micrometer} module.
+ */
+public class MicrometerConnectionMetrics implements ConnectionMetrics {
+
+    public static final String REQUESTS = "acme4j.requests";
+    public static final String NONCES = "acme4j.nonces";
+    public static final String RETRIES = "acme4j.retries";
+    public static final String RATE_LIMIT_WAITS = "acme4j.ratelimit.waits";
+
+    private static final String OTHER = "other";
+    private static final String NONE = "none";
+
+    private final MeterRegistry registry;
+    private final Iterable<Tag> tags;
+    private final Counter pooledNonces;
+    private final Counter serverNonces;
+
+    /**
+     * Creates a new {@link MicrometerConnectionMetrics}.
+     *
+     * @param registry
+     *            {@link MeterRegistry} to register the meters at
+     */
+    public MicrometerConnectionMetrics(MeterRegistry registry) {
+        this(registry, Collections.emptyList());
+    }
+
+    /**
+     * Creates a new {@link MicrometerConnectionMetrics}.
+     *
+     * @param registry
+     *            {@link MeterRegistry} to register the meters at
+     * @param tags
+     *            Common {@link Tag} that are added to all meters, e.g. for telling
+     *            apart the sessions of different CAs
+     */
+    public MicrometerConnectionMetrics(MeterRegistry registry, Iterable<Tag> tags) {
+        this.registry = Objects.requireNonNull(registry, "registry");
+        this.tags = Objects.requireNonNull(tags, "tags");
+
+        this.pooledNonces = nonceCounter("pool");
+        this.serverNonces = nonceCounter("server");
+    }
+
+    @Override
+    public void request(Resource resource, String method, int status, String error, long nanos) {
+        Timer.builder(REQUESTS)
+                .description("Requests sent to the ACME server")
+                .tags(tags)
+                .tag("resource", resource != null ? resource.path() : OTHER)
+                .tag("method", method)
+                .tag("status", status > 0 ? String.valueOf(status) : NONE)
+                .tag("error", error != null ? error : NONE)
+                .publishPercentiles(0.5, 0.99)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void nonce(boolean pooled) {
+        (pooled ? pooledNonces : serverNonces).increment();
+    }
+
+    @Override
+    public void retry(Resource resource, String reason) {
+        Counter.builder(RETRIES)
+                .description("Requests that were sent again")
+                .tags(tags)
+                .tag("resource", resource != null ? resource.path() : OTHER)
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    @Override
+    public void rateLimitWait(Resource resource, long nanos) {
+        Timer.builder(RATE_LIMIT_WAITS)
+                .description("Waits for a permit of the client side rate limiter")
+                .tags(tags)
+                .tag("resource", resource.path())
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registers the nonce counter of the given source.
+     */
+    private Counter nonceCounter(String source) {
+        return Counter.builder(NONCES)
+                .description("Nonces used for signed requests")
+                .tags(tags)
+                .tag("source", source)
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.micrometer;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.connector.Resource;
+
+/**
+ * Unit tests for {@link MicrometerConnectionMetrics}.
+ */
+public class MicrometerConnectionMetricsTest {
+
+    private SimpleMeterRegistry registry;
+    private MicrometerConnectionMetrics metrics;
+
+    @Before
+    public void setup() {
+        registry = new SimpleMeterRegistry();
+        metrics = new MicrometerConnectionMetrics(registry,
+                        Collections.singletonList(Tag.of("ca", "test")));
+    }
+
+    /**
+     * Test that requests are timed per resource, method, status and error.
+     */
+    @Test
+    public void testRequest() {
+        metrics.request(Resource.NEW_REG, "POST", 400, "badNonce", 5_000_000L);
+        metrics.request(Resource.NEW_REG, "POST", 201, null, 7_000_000L);
+        metrics.request(Resource.NEW_REG, "POST", 201, null, 9_000_000L);
+        metrics.request(null, "GET", 0, null, 1_000L);
+
+        Timer failed = registry.get(MicrometerConnectionMetrics.REQUESTS)
+                        .tags("ca", "test", "resource", "new-account", "method", "POST",
+                                        "status", "400", "error", "badNonce")
+                        .timer();
+        assertThat(failed.count(), is(1L));
+        assertThat(failed.totalTime(TimeUnit.MILLISECONDS), is(5.0));
+
+        Timer created = registry.get(MicrometerConnectionMetrics.REQUESTS)
+                        .tags("resource", "new-account", "status", "201", "error", "none")
+                        .timer();
+        assertThat(created.count(), is(2L));
+        assertThat(created.totalTime(TimeUnit.MILLISECONDS), is(16.0));
+
+        Timer other = registry.get(MicrometerConnectionMetrics.REQUESTS)
+                        .tags("resource", "other", "method", "GET", "status", "none")
+                        .timer();
+        assertThat(other.count(), is(1L));
+    }
+
+    /**
+     * Test the nonce, retry and rate limit meters.
+     */
+    @Test
+    public void testCounters() {
+        metrics.nonce(true);
+        metrics.nonce(true);
+        metrics.nonce(false);
+        metrics.retry(Resource.NEW_AUTHZ, "badNonce");
+        metrics.retry(Resource.NEW_AUTHZ, "rateLimited");
+        metrics.retry(Resource.NEW_AUTHZ, "rateLimited");
+        metrics.rateLimitWait(Resource.NEW_AUTHZ, 250_000_000L);
+
+        assertThat(registry.get(MicrometerConnectionMetrics.NONCES)
+                        .tags("source", "pool").counter().count(), is(2.0));
+        assertThat(registry.get(MicrometerConnectionMetrics.NONCES)
+                        .tags("source", "server").counter().count(), is(1.0));
+
+        assertThat(registry.get(MicrometerConnectionMetrics.RETRIES)
+                        .tags("resource", "new-authz", "reason", "badNonce").counter().count(), is(1.0));
+        assertThat(registry.get(MicrometerConnectionMetrics.RETRIES)
+                        .tags("resource", "new-authz", "reason", "rateLimited").counter().count(), is(2.0));
+
+        Timer waits = registry.get(MicrometerConnectionMetrics.RATE_LIMIT_WAITS)
+                        .tags("ca", "test", "resource", "new-authz").timer();
+        assertThat(waits.count(), is(1L));
+        assertThat(waits.totalTime(TimeUnit.MILLISECONDS), is(250.0));
+    }
+
+}
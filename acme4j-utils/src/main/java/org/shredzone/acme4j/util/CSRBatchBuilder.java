@@ -0,0 +1,362 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.interfaces.ECKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameStyle;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.pkcs.PKCS10CertificationRequestBuilder;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+import org.bouncycastle.util.io.pem.PemObject;
+import org.bouncycastle.util.io.pem.PemWriter;
+
+/**
+ * Generator for a large number of CSRs (Certificate Signing Requests) that only differ
+ * in their domain names and key pairs.
+ * <p>
+ * The subject properties (<em>Organization</em> etc.) are set once, and are shared by
+ * all CSRs. As with {@link CSRBuilder}, the first domain name of a CSR is used as
+ * <em>Common Name</em>, and all domain names are added as <em>Subject Alternative
+ * Name</em>. IDN domain names are ACE encoded automatically.
+ * <p>
+ * The CSRs are signed in parallel, but passed to the {@link CsrConsumer} in the order
+ * of the requests, so they can be streamed to a file.
+ * <p>
+ * A {@link CSRBatchBuilder} is thread safe after the subject properties have been set.
+ * <p>
+ * Requires {@code Bouncy Castle}. This class is part of the {@code acme4j-utils} module.
+ */
+public class CSRBatchBuilder {
+    private static final String SIGNATURE_ALG = "SHA256withRSA";
+    private static final String EC_SIGNATURE_ALG = "SHA256withECDSA";
+
+    private static final ThreadLocal<JcaContentSignerBuilder> RSA_SIGNER =
+                    ThreadLocal.withInitial(() -> new JcaContentSignerBuilder(SIGNATURE_ALG));
+    private static final ThreadLocal<JcaContentSignerBuilder> EC_SIGNER =
+                    ThreadLocal.withInitial(() -> new JcaContentSignerBuilder(EC_SIGNATURE_ALG));
+
+    private final X500NameStyle style = X500Name.getDefaultStyle();
+    private final List<RDN> subject = new ArrayList<>();
+    private volatile RDN[] template = new RDN[0];
+    private volatile Executor executor = ForkJoinPool.commonPool();
+    private volatile int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Sets the organization of all CSRs.
+     * <p>
+     * Note that it is at the discretion of the ACME server to accept this parameter.
+     */
+    public void setOrganization(String o) {
+        addRDN(BCStyle.O, o);
+    }
+
+    /**
+     * Sets the organizational unit of all CSRs.
+     * <p>
+     * Note that it is at the discretion of the ACME server to accept this parameter.
+     */
+    public void setOrganizationalUnit(String ou) {
+        addRDN(BCStyle.OU, ou);
+    }
+
+    /**
+     * Sets the city or locality of all CSRs.
+     * <p>
+     * Note that it is at the discretion of the ACME server to accept this parameter.
+     */
+    public void setLocality(String l) {
+        addRDN(BCStyle.L, l);
+    }
+
+    /**
+     * Sets the state or province of all CSRs.
+     * <p>
+     * Note that it is at the discretion of the ACME server to accept this parameter.
+     */
+    public void setState(String st) {
+        addRDN(BCStyle.ST, st);
+    }
+
+    /**
+     * Sets the country of all CSRs.
+     * <p>
+     * Note that it is at the discretion of the ACME server to accept this parameter.
+     */
+    public void setCountry(String c) {
+        addRDN(BCStyle.C, c);
+    }
+
+    /**
+     * Sets the {@link Executor} the CSRs are signed with. Default is the common
+     * {@link ForkJoinPool}.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "executor");
+    }
+
+    /**
+     * Sets the maximum number of CSRs that are signed concurrently. Default is the
+     * number of available processors.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Signs a single CSR.
+     * <p>
+     * This method can be used in a {@link org.shredzone.acme4j.BulkIssuer.CsrFactory},
+     * e.g. together with a {@link KeyPairPool}.
+     *
+     * @param domains
+     *            Domain names of the CSR
+     * @param keypair
+     *            {@link KeyPair} to sign the CSR with
+     * @return Encoded PKCS#10 certification request
+     */
+    public byte[] sign(Collection<String> domains, KeyPair keypair) throws IOException {
+        Objects.requireNonNull(domains, "domains");
+        Objects.requireNonNull(keypair, "keypair");
+        if (domains.isEmpty()) {
+            throw new IllegalArgumentException("No domain was set");
+        }
+
+        List<String> namelist = domains.stream().map(AcmeUtils::toAce).collect(toList());
+
+        RDN[] rdns = template;
+        RDN[] subjectRdns = new RDN[rdns.length + 1];
+        subjectRdns[0] = new RDN(BCStyle.CN, style.stringToValue(BCStyle.CN, namelist.get(0)));
+        System.arraycopy(rdns, 0, subjectRdns, 1, rdns.length);
+
+        GeneralName[] gns = new GeneralName[namelist.size()];
+        for (int ix = 0; ix < namelist.size(); ix++) {
+            gns[ix] = new GeneralName(GeneralName.dNSName, namelist.get(ix));
+        }
+        Extensions extensions = new Extensions(new Extension(Extension.subjectAlternativeName,
+                        false, new DEROctetString(new GeneralNames(gns))));
+
+        try {
+            PKCS10CertificationRequestBuilder p10Builder = new JcaPKCS10CertificationRequestBuilder(
+                            new X500Name(style, subjectRdns), keypair.getPublic());
+            p10Builder.addAttribute(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest, extensions);
+
+            PrivateKey pk = keypair.getPrivate();
+            ContentSigner signer = (pk instanceof ECKey ? EC_SIGNER : RSA_SIGNER).get().build(pk);
+
+            return p10Builder.build(signer).getEncoded();
+        } catch (OperatorCreationException ex) {
+            throw new IOException("Could not generate CSR", ex);
+        }
+    }
+
+    /**
+     * Signs the CSRs of all requests, in parallel.
+     *
+     * @param requests
+     *            {@link Request} of each CSR
+     * @param consumer
+     *            {@link CsrConsumer} that receives the signed CSRs, in the order of the
+     *            requests. It is always invoked on the calling thread.
+     */
+    public void sign(Iterable<Request> requests, CsrConsumer consumer) throws IOException {
+        sign(requests.iterator(), consumer);
+    }
+
+    /**
+     * Signs the CSRs of all requests, in parallel. The requests are read lazily, so the
+     * {@link Iterator} may generate them on the fly.
+     *
+     * @param requests
+     *            {@link Iterator} of the {@link Request} of each CSR
+     * @param consumer
+     *            {@link CsrConsumer} that receives the signed CSRs, in the order of the
+     *            requests. It is always invoked on the calling thread.
+     */
+    public void sign(Iterator<Request> requests, CsrConsumer consumer) throws IOException {
+        Objects.requireNonNull(requests, "requests");
+        Objects.requireNonNull(consumer, "consumer");
+
+        int window = parallelism * 2;
+        Executor exec = executor;
+        Deque<Pending> pending = new ArrayDeque<>(window);
+
+        try {
+            while (requests.hasNext() || !pending.isEmpty()) {
+                while (pending.size() < window && requests.hasNext()) {
+                    Request request = requests.next();
+                    pending.add(new Pending(request, CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return sign(request.getDomains(), request.getKeyPair());
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }, exec)));
+                }
+
+                Pending next = pending.poll();
+                consumer.accept(next.request.getDomains(), await(next.future));
+            }
+        } finally {
+            pending.forEach(p -> p.future.cancel(false));
+        }
+    }
+
+    /**
+     * Returns a {@link CsrConsumer} that writes the CSRs as PEM to a {@link Writer}.
+     * The {@link Writer} is flushed after each CSR, but not closed.
+     *
+     * @param w
+     *            {@link Writer} to write the PEM files to
+     */
+    public static CsrConsumer pemWriter(Writer w) {
+        PemWriter pw = new PemWriter(w);
+        return (domains, csr) -> {
+            pw.writeObject(new PemObject("CERTIFICATE REQUEST", csr));
+            pw.flush();
+        };
+    }
+
+    /**
+     * Returns a {@link CsrConsumer} that writes the DER encoded CSRs to an
+     * {@link OutputStream}, one after the other. The stream is not closed.
+     *
+     * @param out
+     *            {@link OutputStream} to write to
+     */
+    public static CsrConsumer derWriter(OutputStream out) {
+        return (domains, csr) -> out.write(csr);
+    }
+
+    private void addRDN(ASN1ObjectIdentifier oid, String value) {
+        synchronized (subject) {
+            subject.add(new RDN(oid, style.stringToValue(oid, value)));
+            template = subject.toArray(new RDN[subject.size()]);
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("Could not generate CSR", cause);
+        }
+    }
+
+    /**
+     * Receives the signed CSRs.
+     */
+    @FunctionalInterface
+    public interface CsrConsumer {
+
+        /**
+         * Accepts a signed CSR.
+         *
+         * @param domains
+         *            Domain names of the CSR, as given in the {@link Request}
+         * @param csr
+         *            Encoded PKCS#10 certification request
+         */
+        void accept(List<String> domains, byte[] csr) throws IOException;
+    }
+
+    /**
+     * The domain names and the key pair of a CSR.
+     */
+    public static class Request {
+        private final List<String> domains;
+        private final KeyPair keyPair;
+
+        /**
+         * Creates a new {@link Request}.
+         *
+         * @param domains
+         *            Domain names of the CSR. The first one is used as Common Name.
+         * @param keyPair
+         *            {@link KeyPair} to sign the CSR with
+         */
+        public Request(Collection<String> domains, KeyPair keyPair) {
+            this.domains = Collections.unmodifiableList(new ArrayList<>(
+                            Objects.requireNonNull(domains, "domains")));
+            this.keyPair = Objects.requireNonNull(keyPair, "keyPair");
+        }
+
+        /**
+         * Returns the domain names of the CSR.
+         */
+        public List<String> getDomains() {
+            return domains;
+        }
+
+        /**
+         * Returns the {@link KeyPair} to sign the CSR with.
+         */
+        public KeyPair getKeyPair() {
+            return keyPair;
+        }
+    }
+
+    /**
+     * A CSR that is being signed.
+     */
+    private static class Pending {
+        private final Request request;
+        private final CompletableFuture<byte[]> future;
+
+        public Pending(Request request, CompletableFuture<byte[]> future) {
+            this.request = request;
+            this.future = future;
+        }
+    }
+
+}
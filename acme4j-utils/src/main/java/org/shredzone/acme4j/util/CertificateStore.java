@@ -0,0 +1,616 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import static java.util.stream.Collectors.toList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent store of issued certificates, their chains and their domain key pairs.
+ * <p>
+ * The certificates are stored by domain group, which is the set of domain names of the
+ * certificate. The domain names are converted to ACE, and the order is not relevant.
+ * Storing a certificate for a domain group replaces its previous certificate.
+ * <p>
+ * All changes are appended to a single file, so writing is fast even for a large number
+ * of certificates. Replaced and removed certificates remain in the file until it is
+ * compacted with {@link #compact()}. Every record is checksummed, so an incomplete
+ * record at the end of the file (e.g. after a crash) is detected and dropped when the
+ * store is opened.
+ * <p>
+ * An index of all certificates, ordered by their expiry date, is kept in memory. It
+ * does not contain the certificates themselves, so queries like
+ * {@link #getExpiring(Duration)} do not need to access the file.
+ * <p>
+ * A {@link CertificateStore} is thread safe. It must be closed after use.
+ * <p>
+ * <em>Note:</em> The private keys are stored unencrypted. Make sure the file is
+ * protected accordingly.
+ */
+public class CertificateStore implements Closeable {
+
+    private static final byte[] MAGIC = "ACME4JCS".getBytes();
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 4;
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+
+    private final Path file;
+    private final ConcurrentMap<String, Entry> byGroup = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entry> byExpiry = new ConcurrentSkipListSet<>();
+    private FileChannel channel;
+    private long garbage;
+
+    /**
+     * Opens a {@link CertificateStore}. If the file does not exist, a new, empty store
+     * is created.
+     *
+     * @param file
+     *            File of the store
+     */
+    public CertificateStore(Path file) throws IOException {
+        this.file = Objects.requireNonNull(file, "file");
+        this.channel = open(file);
+        scan();
+    }
+
+    /**
+     * Stores a certificate. A previously stored certificate of the domain group is
+     * replaced.
+     *
+     * @param domains
+     *            Domain group of the certificate
+     * @param cert
+     *            The certificate
+     * @param chain
+     *            The certificate chain, may be empty
+     * @param keyPair
+     *            {@link KeyPair} of the certificate, or {@code null} if it should not be
+     *            stored
+     */
+    public void put(Collection<String> domains, X509Certificate cert, X509Certificate[] chain,
+                KeyPair keyPair) throws IOException {
+        Objects.requireNonNull(cert, "cert");
+        Objects.requireNonNull(chain, "chain");
+        String group = groupKey(domains);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(4096);
+        try (DataOutputStream out = new DataOutputStream(bos)) {
+            out.writeByte(TYPE_PUT);
+            out.writeUTF(group);
+            out.writeLong(cert.getNotAfter().getTime());
+            writeBytes(out, cert.getEncoded());
+            out.writeInt(chain.length);
+            for (X509Certificate c : chain) {
+                writeBytes(out, c.getEncoded());
+            }
+            if (keyPair != null) {
+                out.writeUTF(keyPair.getPrivate().getAlgorithm());
+                writeBytes(out, keyPair.getPrivate().getEncoded());
+                writeBytes(out, keyPair.getPublic().getEncoded());
+            } else {
+                out.writeUTF("");
+            }
+        } catch (CertificateEncodingException ex) {
+            throw new IOException("Could not encode certificate", ex);
+        }
+
+        synchronized (this) {
+            byte[] record = bos.toByteArray();
+            long offset = append(record);
+            index(new Entry(group, Instant.ofEpochMilli(cert.getNotAfter().getTime()),
+                            offset, 8 + record.length));
+        }
+    }
+
+    /**
+     * Returns the stored certificate of a domain group.
+     *
+     * @param domains
+     *            Domain group of the certificate
+     * @return {@link StoredCertificate}, or {@code null} if there is no certificate of
+     *         that domain group
+     */
+    public StoredCertificate get(Collection<String> domains) throws IOException {
+        Entry entry = byGroup.get(groupKey(domains));
+        return entry != null ? load(entry) : null;
+    }
+
+    /**
+     * Returns the stored certificate of an index {@link Entry}.
+     * <p>
+     * The entry is resolved against the current index, so entries remain usable after
+     * the certificate was replaced or the store was compacted. If the certificate of the
+     * domain group was replaced in the meantime, the replacing certificate is returned.
+     *
+     * @param entry
+     *            {@link Entry}, as returned by {@link #getExpiring(Duration)}
+     * @return {@link StoredCertificate}, or {@code null} if the certificate of that
+     *         domain group was removed
+     */
+    public StoredCertificate load(Entry entry) throws IOException {
+        Objects.requireNonNull(entry, "entry");
+
+        Entry current;
+        byte[] record;
+        synchronized (this) {
+            current = byGroup.get(entry.group);
+            if (current == null) {
+                return null;
+            }
+            record = read(current.offset);
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            if (in.readByte() != TYPE_PUT || !current.group.equals(in.readUTF())) {
+                throw new IOException("Corrupted record of " + current.getDomains());
+            }
+            in.readLong();
+
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            X509Certificate cert = readCertificate(cf, in);
+            X509Certificate[] chain = new X509Certificate[in.readInt()];
+            for (int ix = 0; ix < chain.length; ix++) {
+                chain[ix] = readCertificate(cf, in);
+            }
+
+            KeyPair keyPair = null;
+            String algorithm = in.readUTF();
+            if (!algorithm.isEmpty()) {
+                KeyFactory kf = KeyFactory.getInstance(algorithm);
+                PrivateKey privateKey = kf.generatePrivate(new PKCS8EncodedKeySpec(readBytes(in)));
+                PublicKey publicKey = kf.generatePublic(new X509EncodedKeySpec(readBytes(in)));
+                keyPair = new KeyPair(publicKey, privateKey);
+            }
+
+            return new StoredCertificate(current, cert, chain, keyPair);
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Could not decode certificate of " + current.getDomains(), ex);
+        }
+    }
+
+    /**
+     * Removes the certificate of a domain group.
+     *
+     * @param domains
+     *            Domain group of the certificate
+     * @return {@code true} if a certificate was removed
+     */
+    public synchronized boolean remove(Collection<String> domains) throws IOException {
+        String group = groupKey(domains);
+        if (!byGroup.containsKey(group)) {
+            return false;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bos)) {
+            out.writeByte(TYPE_REMOVE);
+            out.writeUTF(group);
+        }
+        byte[] record = bos.toByteArray();
+        append(record);
+        unindex(group);
+        garbage += 8 + record.length;
+        return true;
+    }
+
+    /**
+     * Returns the index entries of all certificates that expire within the given
+     * duration, ordered by their expiry date. Expired certificates are included.
+     *
+     * @param duration
+     *            Duration from now
+     * @return List of {@link Entry}, the earliest expiry first
+     */
+    public List<Entry> getExpiring(Duration duration) {
+        return getExpiringBefore(Instant.now().plus(duration));
+    }
+
+    /**
+     * Returns the index entries of all certificates that expire before the given
+     * moment, ordered by their expiry date.
+     *
+     * @param instant
+     *            Moment of expiry
+     * @return List of {@link Entry}, the earliest expiry first
+     */
+    public List<Entry> getExpiringBefore(Instant instant) {
+        Entry probe = new Entry("", instant, -1L, 0);
+        return new ArrayList<>(byExpiry.headSet(probe));
+    }
+
+    /**
+     * Returns the index entries of all stored certificates, ordered by their expiry date.
+     */
+    public List<Entry> getEntries() {
+        return new ArrayList<>(byExpiry);
+    }
+
+    /**
+     * Returns the number of stored certificates.
+     */
+    public int size() {
+        return byGroup.size();
+    }
+
+    /**
+     * Writes all pending changes to the storage device.
+     */
+    public synchronized void flush() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Compacts the file, by removing all replaced and removed certificates. The file is
+     * replaced atomically.
+     */
+    public synchronized void compact() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+
+        List<Entry> entries = getEntries();
+        List<Entry> moved = new ArrayList<>(entries.size());
+        try (FileChannel out = open(tmp)) {
+            for (Entry entry : entries) {
+                long offset = out.position();
+                write(out, read(entry.offset));
+                moved.add(new Entry(entry.group, entry.notAfter, offset, entry.size));
+            }
+            out.force(true);
+        }
+
+        channel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = open(file);
+
+        byGroup.clear();
+        byExpiry.clear();
+        moved.forEach(this::index);
+        garbage = 0L;
+    }
+
+    /**
+     * Returns the number of bytes in the file that are occupied by replaced or removed
+     * certificates. It can be used to decide when to {@link #compact()} the file.
+     */
+    public synchronized long getGarbage() {
+        return garbage;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    /**
+     * Opens the store file, and writes a header if it is empty.
+     */
+    private static FileChannel open(Path file) throws IOException {
+        FileChannel fc = FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (fc.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                fc.write(header);
+            }
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(fc, header, 0L);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || header.getInt() != VERSION) {
+                fc.close();
+                throw new IOException(file + " is not a certificate store");
+            }
+        }
+        fc.position(fc.size());
+        return fc;
+    }
+
+    /**
+     * Reads all records of the file, and builds the index. An incomplete or corrupted
+     * record at the end of the file is truncated.
+     */
+    private synchronized void scan() throws IOException {
+        long size = channel.size();
+        long offset = HEADER_SIZE;
+        ByteBuffer head = ByteBuffer.allocate(8);
+
+        while (offset < size) {
+            byte[] record;
+            try {
+                head.clear();
+                readFully(channel, head, offset);
+                int length = head.getInt();
+                int crc = head.getInt();
+                if (length <= 0 || offset + 8 + length > size) {
+                    throw new EOFException();
+                }
+
+                ByteBuffer data = ByteBuffer.allocate(length);
+                readFully(channel, data, offset + 8);
+                record = data.array();
+                if (crc(record) != crc) {
+                    throw new EOFException();
+                }
+            } catch (EOFException ex) {
+                channel.truncate(offset);
+                break;
+            }
+
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+                byte type = in.readByte();
+                String group = in.readUTF();
+                if (type == TYPE_PUT) {
+                    index(new Entry(group, Instant.ofEpochMilli(in.readLong()), offset,
+                                    8 + record.length));
+                } else if (type == TYPE_REMOVE) {
+                    unindex(group);
+                    garbage += 8 + record.length;
+                }
+            }
+
+            offset += 8 + record.length;
+        }
+
+        channel.position(offset);
+    }
+
+    /**
+     * Appends a record to the file.
+     *
+     * @return Offset of the record
+     */
+    private long append(byte[] record) throws IOException {
+        long offset = channel.position();
+        write(channel, record);
+        return offset;
+    }
+
+    /**
+     * Writes a record, with its length and checksum.
+     */
+    private static void write(FileChannel fc, byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + record.length);
+        buffer.putInt(record.length).putInt(crc(record)).put(record).flip();
+        while (buffer.hasRemaining()) {
+            fc.write(buffer);
+        }
+    }
+
+    /**
+     * Reads the record at the given offset. Must be invoked while holding the lock, so
+     * the channel is not replaced by a concurrent {@link #compact()}.
+     */
+    private byte[] read(long offset) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(8);
+        readFully(channel, head, offset);
+        ByteBuffer data = ByteBuffer.allocate(head.getInt());
+        readFully(channel, data, offset + 8);
+        return data.array();
+    }
+
+    /**
+     * Fills the buffer from the given position of the channel, and flips it.
+     */
+    private static void readFully(FileChannel fc, ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int read = fc.read(buffer, pos);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            pos += read;
+        }
+        buffer.flip();
+    }
+
+    private void index(Entry entry) {
+        Entry old = byGroup.put(entry.group, entry);
+        if (old != null) {
+            byExpiry.remove(old);
+            garbage += old.size;
+        }
+        byExpiry.add(entry);
+    }
+
+    private void unindex(String group) {
+        Entry old = byGroup.remove(group);
+        if (old != null) {
+            byExpiry.remove(old);
+            garbage += old.size;
+        }
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    private static X509Certificate readCertificate(CertificateFactory cf, DataInputStream in)
+                throws IOException, CertificateException {
+        return (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(readBytes(in)));
+    }
+
+    /**
+     * Converts a domain group to its key. The domains are converted to ACE, sorted and
+     * joined.
+     */
+    private static String groupKey(Collection<String> domains) {
+        Objects.requireNonNull(domains, "domains");
+        if (domains.isEmpty()) {
+            throw new IllegalArgumentException("domains must not be empty");
+        }
+        return String.join(",", domains.stream()
+                        .map(AcmeUtils::toAce)
+                        .distinct()
+                        .sorted()
+                        .collect(toList()));
+    }
+
+    /**
+     * An index entry of a stored certificate.
+     */
+    public static class Entry implements Comparable<Entry> {
+        private final String group;
+        private final Instant notAfter;
+        private final long offset;
+        private final int size;
+
+        private Entry(String group, Instant notAfter, long offset, int size) {
+            this.group = group;
+            this.notAfter = notAfter;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        /**
+         * Returns the domain group of the certificate, in ACE and sorted.
+         */
+        public List<String> getDomains() {
+            return Collections.unmodifiableList(Arrays.asList(group.split(",")));
+        }
+
+        /**
+         * Returns the expiry date of the certificate.
+         */
+        public Instant getNotAfter() {
+            return notAfter;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            int cmp = notAfter.compareTo(o.notAfter);
+            if (cmp == 0) {
+                cmp = group.compareTo(o.group);
+            }
+            if (cmp == 0) {
+                cmp = Long.compare(offset, o.offset);
+            }
+            return cmp;
+        }
+
+        @Override
+        public String toString() {
+            return group + " (" + notAfter + ")";
+        }
+    }
+
+    /**
+     * A certificate that was read from the {@link CertificateStore}.
+     */
+    public static class StoredCertificate {
+        private final Entry entry;
+        private final X509Certificate certificate;
+        private final X509Certificate[] chain;
+        private final KeyPair keyPair;
+
+        private StoredCertificate(Entry entry, X509Certificate certificate,
+                    X509Certificate[] chain, KeyPair keyPair) {
+            this.entry = entry;
+            this.certificate = certificate;
+            this.chain = chain;
+            this.keyPair = keyPair;
+        }
+
+        /**
+         * Returns the domain group of the certificate, in ACE and sorted.
+         */
+        public List<String> getDomains() {
+            return entry.getDomains();
+        }
+
+        /**
+         * Returns the expiry date of the certificate.
+         */
+        public Instant getNotAfter() {
+            return entry.getNotAfter();
+        }
+
+        /**
+         * Returns the certificate.
+         */
+        public X509Certificate getCertificate() {
+            return certificate;
+        }
+
+        /**
+         * Returns the certificate chain.
+         */
+        public X509Certificate[] getChain() {
+            return chain.clone();
+        }
+
+        /**
+         * Returns the {@link KeyPair} of the certificate, or {@code null} if it was not
+         * stored.
+         */
+        public KeyPair getKeyPair() {
+            return keyPair;
+        }
+    }
+
+}
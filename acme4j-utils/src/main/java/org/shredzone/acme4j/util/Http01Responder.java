@@ -0,0 +1,447 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.shredzone.acme4j.Status;
+import org.shredzone.acme4j.challenge.Http01Challenge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An embedded web server that responds to {@link Http01Challenge}.
+ * <p>
+ * The responder serves the key authorization of each added challenge at
+ * {@code /.well-known/acme-challenge/<token>}. All connections are handled by a single
+ * thread using non-blocking I/O, so a large number of concurrent validation requests can
+ * be served. The responses are encoded when the challenge is added.
+ * <p>
+ * Challenges are removed automatically as soon as their status is {@link Status#VALID}
+ * or {@link Status#INVALID}, which is after they have been updated by the client.
+ * <p>
+ * The ACME server always connects to port 80, so the responder must either be bound to
+ * that port, or the traffic must be forwarded to it. The responder must be closed after
+ * use. This class is part of the {@code acme4j-utils} module.
+ */
+public class Http01Responder implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(Http01Responder.class);
+
+    /**
+     * Path prefix of the challenge tokens: {@value}
+     */
+    public static final String PATH_PREFIX = "/.well-known/acme-challenge/";
+
+    private static final int MAX_REQUEST_SIZE = 4096;
+    private static final long SWEEP_INTERVAL = 1000L;
+    private static final Response NOT_FOUND = new Response(404, "Not Found", "", null);
+    private static final Response BAD_REQUEST = new Response(400, "Bad Request", "", null);
+    private static final Response NOT_ALLOWED = new Response(405, "Method Not Allowed", "", null);
+
+    private final ConcurrentMap<String, Response> responses = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+    private volatile Duration idleTimeout = Duration.ofSeconds(10);
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new {@link Http01Responder} that listens on the given port of all local
+     * addresses.
+     *
+     * @param port
+     *            Port number, usually 80
+     */
+    public Http01Responder(int port) throws IOException {
+        this(new InetSocketAddress(port));
+    }
+
+    /**
+     * Creates a new {@link Http01Responder} that listens on the given address.
+     *
+     * @param address
+     *            {@link InetSocketAddress} to bind to
+     */
+    public Http01Responder(InetSocketAddress address) throws IOException {
+        Objects.requireNonNull(address, "address");
+
+        selector = Selector.open();
+        try {
+            server = ServerSocketChannel.open();
+            server.bind(address, 1024);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            selector.close();
+            throw ex;
+        }
+
+        thread = new Thread(this::run, "acme4j-http01-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the local port the responder is listening on.
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Gets the time after which idle connections are closed.
+     */
+    public Duration getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the time after which idle connections are closed. Default is 10 seconds.
+     */
+    public void setIdleTimeout(Duration idleTimeout) {
+        this.idleTimeout = Objects.requireNonNull(idleTimeout, "idleTimeout");
+    }
+
+    /**
+     * Adds a {@link Http01Challenge} to be responded to. It is removed when the status
+     * of the challenge is {@link Status#VALID} or {@link Status#INVALID}.
+     *
+     * @param challenge
+     *            {@link Http01Challenge} to respond to
+     */
+    public void add(Http01Challenge challenge) {
+        Objects.requireNonNull(challenge, "challenge");
+        responses.put(challenge.getToken(),
+                        new Response(200, "OK", challenge.getAuthorization(), challenge));
+    }
+
+    /**
+     * Adds a token to be responded to. It must be removed by {@link #remove(String)}.
+     *
+     * @param token
+     *            Challenge token
+     * @param authorization
+     *            Key authorization to respond with
+     */
+    public void add(String token, String authorization) {
+        Objects.requireNonNull(token, "token");
+        Objects.requireNonNull(authorization, "authorization");
+        responses.put(token, new Response(200, "OK", authorization, null));
+    }
+
+    /**
+     * Removes a token. Does nothing if the token is unknown.
+     *
+     * @param token
+     *            Challenge token
+     */
+    public void remove(String token) {
+        responses.remove(token);
+    }
+
+    /**
+     * Returns the number of tokens that are currently responded to.
+     */
+    public int size() {
+        return responses.size();
+    }
+
+    /**
+     * Returns the number of requests that have been served.
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Stops the responder and closes all connections.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(5000L);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Event loop of the responder thread.
+     */
+    private void run() {
+        long nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL;
+
+        try {
+            while (!closed) {
+                selector.select(SWEEP_INTERVAL);
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read(key);
+                        } else if (key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException ex) {
+                        LOG.debug("Connection failed", ex);
+                        closeKey(key);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now >= nextSweep) {
+                    sweep(now);
+                    nextSweep = now + SWEEP_INTERVAL;
+                }
+            }
+        } catch (IOException | ClosedSelectorException ex) {
+            LOG.warn("HTTP-01 responder failed", ex);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeKey(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                LOG.debug("Could not close selector", ex);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Exchange());
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Exchange exchange = (Exchange) key.attachment();
+        exchange.lastActivity = System.currentTimeMillis();
+
+        if (channel.read(exchange.in) < 0) {
+            closeKey(key);
+            return;
+        }
+
+        int end = exchange.headerEnd();
+        if (end < 0) {
+            if (!exchange.in.hasRemaining()) {
+                respond(key, BAD_REQUEST.buffer(false));
+            }
+            return;
+        }
+
+        requests.increment();
+        respond(key, lookup(exchange.requestLine(end)));
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Exchange exchange = (Exchange) key.attachment();
+        exchange.lastActivity = System.currentTimeMillis();
+
+        channel.write(exchange.out);
+        if (!exchange.out.hasRemaining()) {
+            closeKey(key);
+        }
+    }
+
+    /**
+     * Starts sending the response. If it could not be sent at once, the rest is sent
+     * when the channel is writable again.
+     */
+    private void respond(SelectionKey key, ByteBuffer response) throws IOException {
+        Exchange exchange = (Exchange) key.attachment();
+        exchange.out = response;
+        ((SocketChannel) key.channel()).write(response);
+        if (response.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            closeKey(key);
+        }
+    }
+
+    /**
+     * Finds the response to a request line.
+     */
+    private ByteBuffer lookup(String requestLine) {
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3 || !parts[2].startsWith("HTTP/")) {
+            return BAD_REQUEST.buffer(false);
+        }
+
+        boolean head = "HEAD".equals(parts[0]);
+        if (!head && !"GET".equals(parts[0])) {
+            return NOT_ALLOWED.buffer(false);
+        }
+
+        String path = parts[1];
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+
+        Response response = null;
+        if (path.startsWith(PATH_PREFIX)) {
+            response = responses.get(path.substring(PATH_PREFIX.length()));
+        }
+        if (response == null) {
+            LOG.debug("No challenge for {}", path);
+            response = NOT_FOUND;
+        }
+        return response.buffer(head);
+    }
+
+    /**
+     * Removes challenges that reached a final status, and closes idle connections.
+     */
+    private void sweep(long now) {
+        responses.values().removeIf(Response::isCompleted);
+
+        long idleLimit = now - idleTimeout.toMillis();
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Exchange && ((Exchange) attachment).lastActivity < idleLimit) {
+                closeKey(key);
+            }
+        }
+    }
+
+    private static void closeKey(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ex) {
+            LOG.debug("Could not close channel", ex);
+        }
+    }
+
+    /**
+     * A pre-encoded HTTP response.
+     */
+    private static class Response {
+        private final ByteBuffer data;
+        private final int headerLength;
+        private final Http01Challenge challenge;
+
+        public Response(int status, String reason, String body, Http01Challenge challenge) {
+            byte[] content = body.getBytes(StandardCharsets.UTF_8);
+            byte[] header = ("HTTP/1.1 " + status + " " + reason + "\r\n"
+                    + "Content-Type: text/plain\r\n"
+                    + "Content-Length: " + content.length + "\r\n"
+                    + "Connection: close\r\n"
+                    + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(header.length + content.length);
+            buffer.put(header).put(content).flip();
+
+            this.data = buffer.asReadOnlyBuffer();
+            this.headerLength = header.length;
+            this.challenge = challenge;
+        }
+
+        /**
+         * Returns a new buffer view of the response.
+         *
+         * @param head
+         *            {@code true}: only the header is returned
+         */
+        public ByteBuffer buffer(boolean head) {
+            ByteBuffer buffer = data.duplicate();
+            if (head) {
+                buffer.limit(headerLength);
+            }
+            return buffer;
+        }
+
+        /**
+         * Checks if the challenge has reached a final status.
+         */
+        public boolean isCompleted() {
+            if (challenge == null) {
+                return false;
+            }
+            Status status = challenge.getStatus();
+            return status == Status.VALID || status == Status.INVALID;
+        }
+    }
+
+    /**
+     * The state of a single connection.
+     */
+    private static class Exchange {
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+        private ByteBuffer out;
+        private long lastActivity = System.currentTimeMillis();
+
+        /**
+         * Returns the position of the end of the request header, or -1 if the header
+         * was not completely received yet.
+         */
+        public int headerEnd() {
+            for (int ix = 3; ix < in.position(); ix++) {
+                if (in.get(ix) == '\n' && in.get(ix - 1) == '\r'
+                                && in.get(ix - 2) == '\n' && in.get(ix - 3) == '\r') {
+                    return ix;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the request line.
+         */
+        public String requestLine(int end) {
+            int ix = 0;
+            while (ix < end && in.get(ix) != '\r') {
+                ix++;
+            }
+            byte[] line = new byte[ix];
+            for (int p = 0; p < ix; p++) {
+                line[p] = in.get(p);
+            }
+            return new String(line, StandardCharsets.US_ASCII);
+        }
+    }
+
+}
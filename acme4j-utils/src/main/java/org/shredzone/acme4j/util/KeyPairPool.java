@@ -0,0 +1,277 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of pre-generated {@link KeyPair}.
+ * <p>
+ * Generating a RSA key pair takes a considerable amount of time. This pool generates
+ * key pairs in the background, so they are instantly available when a new domain key
+ * pair is needed, e.g. for a {@link CSRBuilder}.
+ * <p>
+ * There is a separate pool for every RSA key size and every elliptic curve. It is
+ * created when the first key pair of that kind is taken or prepared, and is then kept
+ * filled up to the configured depth. If the pool is empty, the key pair is generated on
+ * the calling thread.
+ * <p>
+ * Every key pair is only handed out once. The pool is thread safe. It must be closed
+ * after use, to stop the background threads.
+ * <p>
+ * Requires {@code Bouncy Castle} for elliptic curve key pairs. This class is part of the
+ * {@code acme4j-utils} module.
+ */
+public class KeyPairPool implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(KeyPairPool.class);
+
+    private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refills = new LongAdder();
+    private final LongAdder refillNanos = new LongAdder();
+    private volatile int depth = 8;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new {@link KeyPairPool} that uses all available processors for
+     * generating key pairs.
+     */
+    public KeyPairPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new {@link KeyPairPool}.
+     *
+     * @param threads
+     *            Number of background threads generating key pairs
+     */
+    public KeyPairPool(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "acme4j-keypair-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        };
+        this.executor = Executors.newFixedThreadPool(threads, factory);
+    }
+
+    /**
+     * Gets the number of key pairs that are kept available per key size or curve.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Sets the number of key pairs that are kept available per key size or curve.
+     * Default is 8.
+     */
+    public void setDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must not be negative");
+        }
+        this.depth = depth;
+        pools.values().forEach(Pool::refill);
+    }
+
+    /**
+     * Takes a RSA {@link KeyPair} from the pool.
+     *
+     * @param keysize
+     *            Key size
+     * @return {@link KeyPair}, which is generated if the pool is empty
+     * @see KeyPairUtils#createKeyPair(int)
+     */
+    public KeyPair takeKeyPair(int keysize) {
+        return pool("RSA-" + keysize, () -> KeyPairUtils.createKeyPair(keysize)).take();
+    }
+
+    /**
+     * Takes an elliptic curve {@link KeyPair} from the pool.
+     *
+     * @param name
+     *            ECDSA curve name (e.g. "secp256r1")
+     * @return {@link KeyPair}, which is generated if the pool is empty
+     * @see KeyPairUtils#createECKeyPair(String)
+     */
+    public KeyPair takeECKeyPair(String name) {
+        Objects.requireNonNull(name, "name");
+        return pool("EC-" + name, () -> KeyPairUtils.createECKeyPair(name)).take();
+    }
+
+    /**
+     * Starts filling the pool of RSA key pairs of the given size, so they are available
+     * when they are needed first.
+     *
+     * @param keysize
+     *            Key size
+     */
+    public void prepareKeyPair(int keysize) {
+        pool("RSA-" + keysize, () -> KeyPairUtils.createKeyPair(keysize)).refill();
+    }
+
+    /**
+     * Starts filling the pool of elliptic curve key pairs of the given curve, so they
+     * are available when they are needed first.
+     *
+     * @param name
+     *            ECDSA curve name (e.g. "secp256r1")
+     */
+    public void prepareECKeyPair(String name) {
+        Objects.requireNonNull(name, "name");
+        pool("EC-" + name, () -> KeyPairUtils.createECKeyPair(name)).refill();
+    }
+
+    /**
+     * Returns the number of key pairs that were taken from the pool.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of key pairs that had to be generated on the calling thread,
+     * because the pool was empty.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of key pairs that were generated in the background.
+     */
+    public long getRefills() {
+        return refills.sum();
+    }
+
+    /**
+     * Returns the average time it took to generate a key pair in the background.
+     * {@link Duration#ZERO} if no key pair was generated yet.
+     */
+    public Duration getAverageRefillTime() {
+        long count = refills.sum();
+        return count > 0 ? Duration.ofNanos(refillNanos.sum() / count) : Duration.ZERO;
+    }
+
+    /**
+     * Returns the number of key pairs that are currently available in the pool.
+     */
+    public int size() {
+        return pools.values().stream().mapToInt(p -> p.keyPairs.size()).sum();
+    }
+
+    /**
+     * Stops generating key pairs in the background. Remaining key pairs can still be
+     * taken from the pool.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+    }
+
+    private Pool pool(String key, Supplier<KeyPair> generator) {
+        return pools.computeIfAbsent(key, k -> new Pool(k, generator));
+    }
+
+    /**
+     * The pool of a key size or curve.
+     */
+    private class Pool {
+        private final String name;
+        private final Supplier<KeyPair> generator;
+        private final ConcurrentLinkedQueue<KeyPair> keyPairs = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger available = new AtomicInteger();
+
+        public Pool(String name, Supplier<KeyPair> generator) {
+            this.name = name;
+            this.generator = generator;
+        }
+
+        /**
+         * Takes a key pair, or generates one if the pool is empty.
+         */
+        public KeyPair take() {
+            KeyPair keyPair = keyPairs.poll();
+            if (keyPair != null) {
+                available.decrementAndGet();
+                hits.increment();
+            } else {
+                LOG.debug("Key pair pool {} is empty", name);
+                misses.increment();
+                keyPair = generator.get();
+            }
+            refill();
+            return keyPair;
+        }
+
+        /**
+         * Schedules the generation of key pairs until the pool is filled. The pending
+         * key pairs are counted as available, so they are not scheduled twice.
+         */
+        public void refill() {
+            while (!closed) {
+                int current = available.get();
+                if (current >= depth) {
+                    break;
+                }
+                if (available.compareAndSet(current, current + 1)) {
+                    try {
+                        executor.execute(this::generate);
+                    } catch (RejectedExecutionException ex) {
+                        available.decrementAndGet();
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void generate() {
+            try {
+                long start = System.nanoTime();
+                KeyPair keyPair = generator.get();
+                refillNanos.add(System.nanoTime() - start);
+                refills.increment();
+                keyPairs.add(keyPair);
+            } catch (RuntimeException ex) {
+                LOG.warn("Could not generate key pair " + name, ex);
+                available.decrementAndGet();
+            }
+        }
+    }
+
+}
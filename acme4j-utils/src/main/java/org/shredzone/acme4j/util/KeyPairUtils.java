@@ -34,6 +34,8 @@ import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
 /**
  * Utility class offering convenience methods for {@link KeyPair}.
  * <p>
+ * If many key pairs are needed, a {@link KeyPairPool} generates them in the background.
+ * <p>
  * Requires {@code Bouncy Castle}. This class is part of the {@code acme4j-utils} module.
  */
 public class KeyPairUtils {
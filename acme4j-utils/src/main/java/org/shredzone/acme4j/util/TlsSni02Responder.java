@@ -0,0 +1,417 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import org.shredzone.acme4j.Status;
+import org.shredzone.acme4j.challenge.TlsSni02Challenge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An embedded TLS server that responds to {@link TlsSni02Challenge}.
+ * <p>
+ * The responder answers a SNI request to the subject of an added challenge with the
+ * matching self-signed challenge certificate. All certificates are signed with the same
+ * {@link KeyPair}, and are created in parallel when the challenges are added, so they
+ * are ready when the CA connects. A single {@link SSLContext} selects the certificate by
+ * the requested server name, so one listener can serve any number of challenges.
+ * <p>
+ * Challenges are removed automatically as soon as their status is {@link Status#VALID}
+ * or {@link Status#INVALID}, which is after they have been updated by the client.
+ * <p>
+ * The ACME server always connects to port 443, so the responder must either be bound to
+ * that port, or the traffic must be forwarded to it. The responder must be closed after
+ * use. Requires {@code Bouncy Castle}. This class is part of the {@code acme4j-utils}
+ * module.
+ */
+public class TlsSni02Responder implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(TlsSni02Responder.class);
+
+    private static final int SWEEP_INTERVAL = 1000;
+    private static final int HANDSHAKE_TIMEOUT = 10000;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder handshakes = new LongAdder();
+    private final KeyPair keyPair;
+    private final SSLServerSocket server;
+    private final ExecutorService handshakeExecutor;
+    private final Thread thread;
+    private volatile Executor executor = ForkJoinPool.commonPool();
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new {@link TlsSni02Responder} that listens on the given port of all
+     * local addresses.
+     *
+     * @param port
+     *            Port number, usually 443
+     * @param keyPair
+     *            {@link KeyPair} to sign all challenge certificates with
+     */
+    public TlsSni02Responder(int port, KeyPair keyPair) throws IOException {
+        this(new InetSocketAddress(port), keyPair);
+    }
+
+    /**
+     * Creates a new {@link TlsSni02Responder} that listens on the given address.
+     *
+     * @param address
+     *            {@link InetSocketAddress} to bind to
+     * @param keyPair
+     *            {@link KeyPair} to sign all challenge certificates with
+     */
+    public TlsSni02Responder(InetSocketAddress address, KeyPair keyPair) throws IOException {
+        Objects.requireNonNull(address, "address");
+        this.keyPair = Objects.requireNonNull(keyPair, "keyPair");
+
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(new KeyManager[] { new SniKeyManager() }, null, null);
+            server = (SSLServerSocket) context.getServerSocketFactory().createServerSocket();
+            server.bind(address, 1024);
+            server.setSoTimeout(SWEEP_INTERVAL);
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Could not create SSL context", ex);
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "acme4j-tlssni02-" + getPort() + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        handshakeExecutor = Executors.newFixedThreadPool(
+                        Runtime.getRuntime().availableProcessors() * 2, factory);
+
+        thread = new Thread(this::run, "acme4j-tlssni02-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the local port the responder is listening on.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Gets the {@link Executor} that is used for creating the challenge certificates.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the {@link Executor} that is used for creating the challenge certificates.
+     * By default, the common {@link ForkJoinPool} is used.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "executor");
+    }
+
+    /**
+     * Adds a {@link TlsSni02Challenge} to be responded to. The challenge certificate is
+     * created in the background. The challenge is removed when its status is
+     * {@link Status#VALID} or {@link Status#INVALID}.
+     *
+     * @param challenge
+     *            {@link TlsSni02Challenge} to respond to
+     * @return {@link CompletableFuture} that is completed when the challenge certificate
+     *         is ready
+     */
+    public CompletableFuture<X509Certificate> add(TlsSni02Challenge challenge) {
+        Objects.requireNonNull(challenge, "challenge");
+        return add(challenge.getSubject(), challenge.getSanB(), challenge);
+    }
+
+    /**
+     * Adds a subject to be responded to. The challenge certificate is created in the
+     * background. The subject must be removed by {@link #remove(String)}.
+     *
+     * @param subject
+     *            Subject (SAN-A) of the challenge
+     * @param sanB
+     *            Key authorization domain (SAN-B) of the challenge
+     * @return {@link CompletableFuture} that is completed when the challenge certificate
+     *         is ready
+     */
+    public CompletableFuture<X509Certificate> add(String subject, String sanB) {
+        Objects.requireNonNull(subject, "subject");
+        Objects.requireNonNull(sanB, "sanB");
+        return add(subject, sanB, null);
+    }
+
+    /**
+     * Adds many {@link TlsSni02Challenge} to be responded to, and waits until all of
+     * their challenge certificates are ready.
+     *
+     * @param challenges
+     *            {@link TlsSni02Challenge} to respond to
+     * @throws IOException
+     *             if a challenge certificate could not be created
+     */
+    public void addAll(Collection<TlsSni02Challenge> challenges) throws IOException {
+        List<CompletableFuture<X509Certificate>> futures = new ArrayList<>(challenges.size());
+        for (TlsSni02Challenge challenge : challenges) {
+            futures.add(add(challenge));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw new IOException("Could not create challenge certificate", ex.getCause());
+        }
+    }
+
+    /**
+     * Removes a subject. Does nothing if the subject is unknown.
+     *
+     * @param subject
+     *            Subject (SAN-A) of the challenge
+     */
+    public void remove(String subject) {
+        entries.remove(subject.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Returns the number of subjects that are currently responded to.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of successful handshakes.
+     */
+    public long getHandshakes() {
+        return handshakes.sum();
+    }
+
+    /**
+     * Stops the responder and closes the listener.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        handshakeExecutor.shutdownNow();
+        try {
+            thread.join(5000L);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<X509Certificate> add(String subject, String sanB, TlsSni02Challenge challenge) {
+        Entry entry = new Entry(challenge);
+        entries.put(subject.toLowerCase(Locale.ENGLISH), entry);
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                X509Certificate cert = CertificateUtils.createTlsSni02Certificate(keyPair, subject, sanB);
+                entry.chain = new X509Certificate[] { cert };
+                return cert;
+            } catch (IOException ex) {
+                LOG.warn("Could not create challenge certificate for " + subject, ex);
+                throw new UncheckedIOException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     * Accept loop of the listener thread.
+     */
+    private void run() {
+        long nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL;
+
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                try {
+                    handshakeExecutor.execute(() -> handshake((SSLSocket) socket));
+                } catch (RejectedExecutionException ex) {
+                    socket.close();
+                }
+            } catch (SocketTimeoutException ex) {
+                // fall through to sweep
+            } catch (IOException ex) {
+                if (!closed) {
+                    LOG.warn("TLS-SNI-02 responder failed", ex);
+                }
+                break;
+            }
+
+            long now = System.currentTimeMillis();
+            if (now >= nextSweep) {
+                entries.values().removeIf(Entry::isCompleted);
+                nextSweep = now + SWEEP_INTERVAL;
+            }
+        }
+    }
+
+    private void handshake(SSLSocket socket) {
+        try (SSLSocket s = socket) {
+            s.setSoTimeout(HANDSHAKE_TIMEOUT);
+            s.startHandshake();
+            handshakes.increment();
+        } catch (SocketException ex) {
+            LOG.debug("Connection failed", ex);
+        } catch (IOException ex) {
+            LOG.debug("Handshake failed", ex);
+        }
+    }
+
+    /**
+     * Returns the alias of the requested server name, if its challenge certificate is
+     * ready.
+     */
+    private String alias(String keyType, SSLSession session) {
+        if (!keyPair.getPublic().getAlgorithm().equals(keyType)
+                        || !(session instanceof ExtendedSSLSession)) {
+            return null;
+        }
+
+        for (SNIServerName name : ((ExtendedSSLSession) session).getRequestedServerNames()) {
+            if (name instanceof SNIHostName) {
+                String alias = ((SNIHostName) name).getAsciiName().toLowerCase(Locale.ENGLISH);
+                Entry entry = entries.get(alias);
+                if (entry != null && entry.chain != null) {
+                    return alias;
+                }
+                LOG.debug("No challenge certificate for {}", alias);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A challenge and its certificate.
+     */
+    private static class Entry {
+        private final TlsSni02Challenge challenge;
+        private volatile X509Certificate[] chain;
+
+        public Entry(TlsSni02Challenge challenge) {
+            this.challenge = challenge;
+        }
+
+        /**
+         * Checks if the challenge has reached a final status.
+         */
+        public boolean isCompleted() {
+            if (challenge == null) {
+                return false;
+            }
+            Status status = challenge.getStatus();
+            return status == Status.VALID || status == Status.INVALID;
+        }
+    }
+
+    /**
+     * A {@link X509ExtendedKeyManager} that uses the requested server name as alias.
+     */
+    private class SniKeyManager extends X509ExtendedKeyManager {
+        @Override
+        public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+            if (socket instanceof SSLSocket) {
+                return alias(keyType, ((SSLSocket) socket).getHandshakeSession());
+            }
+            return null;
+        }
+
+        @Override
+        public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+            return alias(keyType, engine.getHandshakeSession());
+        }
+
+        @Override
+        public String[] getServerAliases(String keyType, Principal[] issuers) {
+            if (!keyPair.getPublic().getAlgorithm().equals(keyType)) {
+                return null;
+            }
+            return entries.entrySet().stream()
+                    .filter(e -> e.getValue().chain != null)
+                    .map(Map.Entry::getKey)
+                    .toArray(String[]::new);
+        }
+
+        @Override
+        public X509Certificate[] getCertificateChain(String alias) {
+            Entry entry = entries.get(alias);
+            return entry != null && entry.chain != null ? entry.chain.clone() : null;
+        }
+
+        @Override
+        public PrivateKey getPrivateKey(String alias) {
+            return entries.containsKey(alias) ? keyPair.getPrivate() : null;
+        }
+
+        @Override
+        public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+            return null;
+        }
+
+        @Override
+        public String[] getClientAliases(String keyType, Principal[] issuers) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.shredzone.acme4j.Dns01Provisioner;
+import org.shredzone.acme4j.exception.AcmeException;
+
+/**
+ * A {@link Dns01Provisioner} that writes the challenge records into zone file fragments.
+ * <p>
+ * There is one file per zone, named {@code <zone>.acme-challenge}, containing the TXT
+ * records in master file format. It can be included into the zone file of a name
+ * server, e.g. by an {@code $INCLUDE} directive. Each change-set replaces the file
+ * atomically. The file is deleted when its last record was removed.
+ * <p>
+ * This provisioner is mainly meant for testing, and as a reference for implementations
+ * that connect to the API of a DNS provider. As it cannot tell when the name server has
+ * reloaded the zone, it just waits for a configurable propagation delay. This class is
+ * part of the {@code acme4j-utils} module.
+ */
+public class ZoneFileDns01Provisioner implements Dns01Provisioner {
+
+    private final Path directory;
+    private final ConcurrentMap<String, Set<TxtRecord>> zones = new ConcurrentHashMap<>();
+    private volatile int ttl = 60;
+    private volatile Duration propagationDelay = Duration.ZERO;
+
+    /**
+     * Creates a new {@link ZoneFileDns01Provisioner}.
+     *
+     * @param directory
+     *            Directory to write the zone file fragments to. It must exist.
+     */
+    public ZoneFileDns01Provisioner(Path directory) {
+        this.directory = Objects.requireNonNull(directory, "directory");
+    }
+
+    /**
+     * Gets the TTL of the TXT records, in seconds.
+     */
+    public int getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Sets the TTL of the TXT records, in seconds. Default is 60.
+     */
+    public void setTtl(int ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ttl must not be negative");
+        }
+        this.ttl = ttl;
+    }
+
+    /**
+     * Gets the time to wait after the zone file fragment was written.
+     */
+    public Duration getPropagationDelay() {
+        return propagationDelay;
+    }
+
+    /**
+     * Sets the time to wait after the zone file fragment was written, e.g. until the
+     * name server has reloaded the zone. Default is no delay.
+     */
+    public void setPropagationDelay(Duration propagationDelay) {
+        this.propagationDelay = Objects.requireNonNull(propagationDelay, "propagationDelay");
+    }
+
+    /**
+     * Returns the zone file fragment of a zone.
+     *
+     * @param zone
+     *            Name of the zone
+     * @return {@link Path} of the zone file fragment. The file may not exist.
+     */
+    public Path getZoneFile(String zone) {
+        return directory.resolve(zone + ".acme-challenge");
+    }
+
+    @Override
+    public void publish(String zone, Collection<TxtRecord> records) throws AcmeException {
+        Set<TxtRecord> current = zones.computeIfAbsent(zone, z -> new LinkedHashSet<>());
+        synchronized (current) {
+            current.addAll(records);
+            write(zone, current);
+        }
+    }
+
+    @Override
+    public void remove(String zone, Collection<TxtRecord> records) throws AcmeException {
+        Set<TxtRecord> current = zones.get(zone);
+        if (current == null) {
+            return;
+        }
+
+        synchronized (current) {
+            current.removeAll(records);
+            write(zone, current);
+        }
+    }
+
+    @Override
+    public void awaitPropagation(String zone, Collection<TxtRecord> records) throws AcmeException {
+        long delay = propagationDelay.toMillis();
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new AcmeException("interrupted while waiting for zone " + zone, ex);
+            }
+        }
+    }
+
+    /**
+     * Replaces the zone file fragment with the given records. If there are no records,
+     * the file is deleted.
+     */
+    private void write(String zone, Set<TxtRecord> records) throws AcmeException {
+        Path file = getZoneFile(zone);
+        try {
+            if (records.isEmpty()) {
+                Files.deleteIfExists(file);
+                return;
+            }
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.US_ASCII)) {
+                for (TxtRecord record : records) {
+                    w.write(record.getName() + ". " + ttl + " IN TXT \"" + record.getValue() + "\"\n");
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new AcmeException("could not write zone file " + file, ex);
+        }
+    }
+
+}
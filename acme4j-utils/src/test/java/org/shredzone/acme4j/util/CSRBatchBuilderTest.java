@@ -0,0 +1,185 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.pkcs.Attribute;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x500.style.IETFUtils;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CSRBatchBuilder}.
+ */
+public class CSRBatchBuilderTest {
+
+    private static KeyPair testKey;
+    private static KeyPair testEcKey;
+
+    @BeforeClass
+    public static void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+
+        testKey = KeyPairUtils.createKeyPair(512);
+        testEcKey = KeyPairUtils.createECKeyPair("secp256r1");
+    }
+
+    /**
+     * Test that a single CSR is signed with the shared subject properties.
+     */
+    @Test
+    public void testSign() throws IOException {
+        CSRBatchBuilder builder = new CSRBatchBuilder();
+        builder.setCountry("XX");
+        builder.setOrganization("Testing Co");
+
+        PKCS10CertificationRequest csr = new PKCS10CertificationRequest(
+                        builder.sign(Arrays.asList("ëxample.org", "www.example.org"), testKey));
+
+        X500Name name = csr.getSubject();
+        assertThat(value(name, BCStyle.CN), is("xn--xample-ova.org"));
+        assertThat(value(name, BCStyle.C), is("XX"));
+        assertThat(value(name, BCStyle.O), is("Testing Co"));
+        assertThat(domains(csr), contains("xn--xample-ova.org", "www.example.org"));
+
+        PKCS10CertificationRequest ecCsr = new PKCS10CertificationRequest(
+                        builder.sign(Arrays.asList("example.com"), testEcKey));
+        assertThat(value(ecCsr.getSubject(), BCStyle.CN), is("example.com"));
+        assertThat(domains(ecCsr), contains("example.com"));
+    }
+
+    /**
+     * Test that CSRs are signed in parallel, and passed on in the order of the requests.
+     */
+    @Test
+    public void testBatch() throws IOException {
+        List<CSRBatchBuilder.Request> requests = new ArrayList<>();
+        for (int ix = 0; ix < 50; ix++) {
+            requests.add(new CSRBatchBuilder.Request(
+                            Arrays.asList("www" + ix + ".example.org", "m" + ix + ".example.org"),
+                            ix % 2 == 0 ? testKey : testEcKey));
+        }
+
+        CSRBatchBuilder builder = new CSRBatchBuilder();
+        builder.setParallelism(4);
+
+        List<String> order = new ArrayList<>();
+        builder.sign(requests, (domains, csr) -> {
+            PKCS10CertificationRequest parsed = new PKCS10CertificationRequest(csr);
+            assertThat(domains(parsed), is(domains));
+            order.add(domains.get(0));
+        });
+
+        assertThat(order.size(), is(50));
+        for (int ix = 0; ix < 50; ix++) {
+            assertThat(order.get(ix), is("www" + ix + ".example.org"));
+        }
+    }
+
+    /**
+     * Test that CSRs are streamed as PEM and DER.
+     */
+    @Test
+    public void testWriters() throws IOException {
+        List<CSRBatchBuilder.Request> requests = Arrays.asList(
+                        new CSRBatchBuilder.Request(Arrays.asList("example.org"), testKey),
+                        new CSRBatchBuilder.Request(Arrays.asList("example.com"), testEcKey));
+
+        CSRBatchBuilder builder = new CSRBatchBuilder();
+
+        StringWriter w = new StringWriter();
+        builder.sign(requests, CSRBatchBuilder.pemWriter(w));
+        try (PEMParser parser = new PEMParser(new StringReader(w.toString()))) {
+            PKCS10CertificationRequest csr1 = (PKCS10CertificationRequest) parser.readObject();
+            PKCS10CertificationRequest csr2 = (PKCS10CertificationRequest) parser.readObject();
+            assertThat(domains(csr1), contains("example.org"));
+            assertThat(domains(csr2), contains("example.com"));
+            assertThat(parser.readObject(), is(nullValue()));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.sign(requests, CSRBatchBuilder.derWriter(out));
+        try (ASN1InputStream in = new ASN1InputStream(out.toByteArray())) {
+            PKCS10CertificationRequest csr1 = new PKCS10CertificationRequest(in.readObject().getEncoded());
+            PKCS10CertificationRequest csr2 = new PKCS10CertificationRequest(in.readObject().getEncoded());
+            assertThat(domains(csr1), contains("example.org"));
+            assertThat(domains(csr2), contains("example.com"));
+            assertThat(in.readObject(), is(nullValue()));
+        }
+    }
+
+    /**
+     * Test that signing errors are passed on.
+     */
+    @Test(expected = IOException.class)
+    public void testFailure() throws Exception {
+        KeyPairGenerator dsa = KeyPairGenerator.getInstance("DSA");
+        dsa.initialize(1024);
+        KeyPair dsaKey = dsa.generateKeyPair();
+
+        List<CSRBatchBuilder.Request> requests = Arrays.asList(
+                        new CSRBatchBuilder.Request(Arrays.asList("example.org"), testKey),
+                        new CSRBatchBuilder.Request(Arrays.asList("example.com"), dsaKey));
+
+        new CSRBatchBuilder().sign(requests, (domains, csr) -> {});
+    }
+
+    /**
+     * Returns the value of the first RDN of the given type.
+     */
+    private static String value(X500Name name, ASN1ObjectIdentifier oid) {
+        return IETFUtils.valueToString(name.getRDNs(oid)[0].getFirst().getValue());
+    }
+
+    /**
+     * Returns the SAN domain names of a CSR.
+     */
+    private static List<String> domains(PKCS10CertificationRequest csr) {
+        Attribute[] attr = csr.getAttributes(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest);
+        Extensions extensions = Extensions.getInstance(attr[0].getAttrValues().getObjectAt(0));
+        GeneralNames names = GeneralNames.fromExtensions(extensions, Extension.subjectAlternativeName);
+
+        List<String> result = new ArrayList<>();
+        for (GeneralName name : names.getNames()) {
+            result.add(name.getName().toString());
+        }
+        return result;
+    }
+
+}
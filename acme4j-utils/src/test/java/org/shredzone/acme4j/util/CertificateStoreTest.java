@@ -0,0 +1,260 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPair;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.util.CertificateStore.Entry;
+import org.shredzone.acme4j.util.CertificateStore.StoredCertificate;
+
+/**
+ * Unit tests for {@link CertificateStore}.
+ */
+public class CertificateStoreTest {
+
+    private Path file;
+    private X509Certificate cert;
+    private KeyPair keyPair;
+
+    @Before
+    public void setup() throws Exception {
+        file = Files.createTempFile("acme4j", ".store");
+        Files.delete(file);
+
+        try (InputStream in = getClass().getResourceAsStream("/cert.pem")) {
+            cert = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        }
+        keyPair = KeyPairUtils.createKeyPair(2048);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".tmp"));
+    }
+
+    /**
+     * Test that certificates are stored and read back.
+     */
+    @Test
+    public void testPutAndGet() throws Exception {
+        try (CertificateStore store = new CertificateStore(file)) {
+            assertThat(store.size(), is(0));
+            assertThat(store.get(Arrays.asList("example.org")), is(nullValue()));
+
+            store.put(Arrays.asList("www.example.org", "ëxample.org"), cert,
+                            new X509Certificate[] {cert}, keyPair);
+            store.put(Arrays.asList("example.com"), cert, new X509Certificate[0], null);
+            assertThat(store.size(), is(2));
+
+            StoredCertificate stored = store.get(Arrays.asList("xn--xample-ova.org", "www.example.org"));
+            assertThat(stored, is(notNullValue()));
+            assertThat(stored.getDomains(), contains("www.example.org", "xn--xample-ova.org"));
+            assertThat(stored.getNotAfter(), is(cert.getNotAfter().toInstant()));
+            assertThat(stored.getCertificate(), is(cert));
+            assertThat(stored.getChain(), is(arrayContaining(cert)));
+            assertThat(stored.getKeyPair().getPrivate(), is(keyPair.getPrivate()));
+            assertThat(stored.getKeyPair().getPublic(), is(keyPair.getPublic()));
+
+            StoredCertificate noKey = store.get(Arrays.asList("example.com"));
+            assertThat(noKey.getChain(), is(emptyArray()));
+            assertThat(noKey.getKeyPair(), is(nullValue()));
+        }
+    }
+
+    /**
+     * Test that the store is reopened, and replaced and removed certificates are
+     * recognized.
+     */
+    @Test
+    public void testReopen() throws Exception {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+
+        try (CertificateStore store = new CertificateStore(file)) {
+            store.put(Arrays.asList("example.org"), mockCertificate(now.plus(10, ChronoUnit.DAYS)),
+                            new X509Certificate[0], keyPair);
+            store.put(Arrays.asList("example.com"), mockCertificate(now.plus(20, ChronoUnit.DAYS)),
+                            new X509Certificate[0], keyPair);
+            assertThat(store.getGarbage(), is(0L));
+            store.put(Arrays.asList("example.org"), mockCertificate(now.plus(90, ChronoUnit.DAYS)),
+                            new X509Certificate[0], keyPair);
+            assertThat(store.remove(Arrays.asList("example.com")), is(true));
+            assertThat(store.remove(Arrays.asList("example.net")), is(false));
+            assertThat(store.getGarbage(), is(greaterThan(0L)));
+        }
+
+        try (CertificateStore store = new CertificateStore(file)) {
+            assertThat(store.size(), is(1));
+            assertThat(store.get(Arrays.asList("example.com")), is(nullValue()));
+            assertThat(store.getEntries().get(0).getNotAfter(), is(now.plus(90, ChronoUnit.DAYS)));
+            assertThat(store.get(Arrays.asList("example.org")).getCertificate(), is(cert));
+            assertThat(store.getGarbage(), is(greaterThan(0L)));
+
+            long size = Files.size(file);
+            store.compact();
+            assertThat(Files.size(file), is(lessThan(size)));
+            assertThat(store.getGarbage(), is(0L));
+            assertThat(store.get(Arrays.asList("example.org")).getCertificate(), is(cert));
+        }
+
+        try (CertificateStore store = new CertificateStore(file)) {
+            assertThat(store.size(), is(1));
+            assertThat(store.get(Arrays.asList("example.org")).getKeyPair().getPrivate(),
+                            is(keyPair.getPrivate()));
+        }
+    }
+
+    /**
+     * Test that expiring certificates are found, in the order of their expiry.
+     */
+    @Test
+    public void testExpiring() throws Exception {
+        Instant now = Instant.now();
+
+        try (CertificateStore store = new CertificateStore(file)) {
+            for (int ix = 1; ix <= 100; ix++) {
+                store.put(Arrays.asList("www" + ix + ".example.org"),
+                                mockCertificate(now.plus(ix, ChronoUnit.DAYS)),
+                                new X509Certificate[0], null);
+            }
+
+            List<Entry> expiring = store.getExpiring(Duration.ofDays(3).plusHours(12));
+            assertThat(expiring.stream().map(e -> e.getDomains().get(0)).collect(toList()),
+                            contains("www1.example.org", "www2.example.org", "www3.example.org"));
+
+            assertThat(store.getExpiringBefore(now).size(), is(0));
+            assertThat(store.getExpiring(Duration.ofDays(365)).size(), is(100));
+
+            store.put(Arrays.asList("www1.example.org"),
+                            mockCertificate(now.plus(200, ChronoUnit.DAYS)),
+                            new X509Certificate[0], null);
+            assertThat(store.getExpiring(Duration.ofDays(3).plusHours(12)).size(), is(2));
+
+            StoredCertificate stored = store.load(expiring.get(1));
+            assertThat(stored.getDomains(), contains("www2.example.org"));
+        }
+    }
+
+    /**
+     * Test that entries are resolved against the current index, after the store was
+     * compacted, and after their certificates were replaced or removed.
+     */
+    @Test
+    public void testStaleEntry() throws Exception {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+
+        try (CertificateStore store = new CertificateStore(file)) {
+            store.put(Arrays.asList("example.org"), mockCertificate(now.plus(10, ChronoUnit.DAYS)),
+                            new X509Certificate[0], keyPair);
+            store.put(Arrays.asList("example.com"), mockCertificate(now.plus(20, ChronoUnit.DAYS)),
+                            new X509Certificate[0], null);
+            store.put(Arrays.asList("example.net"), mockCertificate(now.plus(30, ChronoUnit.DAYS)),
+                            new X509Certificate[0], null);
+
+            List<Entry> entries = store.getEntries();
+            assertThat(entries.size(), is(3));
+
+            store.remove(Arrays.asList("example.org"));
+            store.compact();
+
+            assertThat(store.load(entries.get(0)), is(nullValue()));
+
+            StoredCertificate com = store.load(entries.get(1));
+            assertThat(com.getDomains(), contains("example.com"));
+            assertThat(com.getCertificate(), is(cert));
+            assertThat(com.getKeyPair(), is(nullValue()));
+
+            store.put(Arrays.asList("example.net"), mockCertificate(now.plus(90, ChronoUnit.DAYS)),
+                            new X509Certificate[0], keyPair);
+            store.compact();
+
+            StoredCertificate net = store.load(entries.get(2));
+            assertThat(net.getDomains(), contains("example.net"));
+            assertThat(net.getNotAfter(), is(now.plus(90, ChronoUnit.DAYS)));
+            assertThat(net.getKeyPair().getPrivate(), is(keyPair.getPrivate()));
+        }
+    }
+
+    /**
+     * Test that an incomplete record at the end of the file is dropped.
+     */
+    @Test
+    public void testTornRecord() throws Exception {
+        try (CertificateStore store = new CertificateStore(file)) {
+            store.put(Arrays.asList("example.org"), cert, new X509Certificate[0], keyPair);
+            store.put(Arrays.asList("example.com"), cert, new X509Certificate[0], keyPair);
+        }
+
+        long size = Files.size(file);
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            fc.truncate(size - 10);
+        }
+
+        try (CertificateStore store = new CertificateStore(file)) {
+            assertThat(store.size(), is(1));
+            assertThat(store.get(Arrays.asList("example.org")), is(notNullValue()));
+
+            store.put(Arrays.asList("example.com"), cert, new X509Certificate[0], keyPair);
+        }
+
+        try (CertificateStore store = new CertificateStore(file)) {
+            assertThat(store.size(), is(2));
+            assertThat(store.get(Arrays.asList("example.com")).getCertificate(), is(cert));
+        }
+    }
+
+    /**
+     * Test that other files are rejected.
+     */
+    @Test(expected = IOException.class)
+    public void testNoStore() throws Exception {
+        Files.write(file, "this is not a certificate store".getBytes());
+        new CertificateStore(file).close();
+    }
+
+    /**
+     * Mocks a certificate with the given expiry date, that is encoded as the test
+     * certificate.
+     */
+    private X509Certificate mockCertificate(Instant notAfter) throws Exception {
+        X509Certificate mock = mock(X509Certificate.class);
+        when(mock.getNotAfter()).thenReturn(Date.from(notAfter));
+        when(mock.getEncoded()).thenReturn(cert.getEncoded());
+        return mock;
+    }
+
+}
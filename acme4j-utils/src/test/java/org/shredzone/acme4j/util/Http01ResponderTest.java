@@ -0,0 +1,159 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.Status;
+import org.shredzone.acme4j.challenge.Http01Challenge;
+
+/**
+ * Unit tests for {@link Http01Responder}.
+ */
+public class Http01ResponderTest {
+
+    private static final String TOKEN = "rSoI9JpyvFi-ltdnBW0W1DjKstzG7cHixjzcOjwzAEQ";
+    private static final String AUTHORIZATION = TOKEN + ".HnWjTDnyqlCrm6tZ-6wX-TrEXgRdeNu9G71gqxSO6o0";
+
+    private Http01Responder responder;
+
+    @Before
+    public void setup() throws IOException {
+        responder = new Http01Responder(new InetSocketAddress("localhost", 0));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        responder.close();
+    }
+
+    /**
+     * Test that the key authorization is served.
+     */
+    @Test
+    public void testRespond() throws IOException {
+        assertThat(responder.getPort(), is(greaterThan(0)));
+        responder.add(TOKEN, AUTHORIZATION);
+        assertThat(responder.size(), is(1));
+
+        HttpURLConnection conn = open(TOKEN, "GET");
+        assertThat(conn.getResponseCode(), is(HttpURLConnection.HTTP_OK));
+        assertThat(conn.getContentType(), is("text/plain"));
+        assertThat(read(conn), is(AUTHORIZATION));
+
+        conn = open(TOKEN, "HEAD");
+        assertThat(conn.getResponseCode(), is(HttpURLConnection.HTTP_OK));
+        assertThat(conn.getContentLength(), is(AUTHORIZATION.length()));
+
+        conn = open("unknown", "GET");
+        assertThat(conn.getResponseCode(), is(HttpURLConnection.HTTP_NOT_FOUND));
+
+        conn = open(TOKEN, "DELETE");
+        assertThat(conn.getResponseCode(), is(HttpURLConnection.HTTP_BAD_METHOD));
+
+        responder.remove(TOKEN);
+        assertThat(responder.size(), is(0));
+        conn = open(TOKEN, "GET");
+        assertThat(conn.getResponseCode(), is(HttpURLConnection.HTTP_NOT_FOUND));
+
+        assertThat(responder.getRequests(), is(5L));
+    }
+
+    /**
+     * Test that many concurrent requests are served.
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+        for (int ix = 0; ix < 100; ix++) {
+            responder.add(TOKEN + ix, AUTHORIZATION + ix);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(50);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int ix = 0; ix < 1000; ix++) {
+                final int token = ix % 100;
+                results.add(executor.submit(() -> read(open(TOKEN + token, "GET"))));
+            }
+
+            for (int ix = 0; ix < results.size(); ix++) {
+                assertThat(results.get(ix).get(), is(AUTHORIZATION + (ix % 100)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(responder.getRequests(), is(1000L));
+    }
+
+    /**
+     * Test that challenges are removed when they reached a final status.
+     */
+    @Test
+    public void testCleanup() throws Exception {
+        Http01Challenge challenge = mock(Http01Challenge.class);
+        when(challenge.getToken()).thenReturn(TOKEN);
+        when(challenge.getAuthorization()).thenReturn(AUTHORIZATION);
+        when(challenge.getStatus()).thenReturn(Status.PENDING);
+
+        responder.add(challenge);
+        assertThat(read(open(TOKEN, "GET")), is(AUTHORIZATION));
+
+        when(challenge.getStatus()).thenReturn(Status.VALID);
+        for (int ix = 0; ix < 50 && responder.size() > 0; ix++) {
+            Thread.sleep(100L);
+        }
+        assertThat(responder.size(), is(0));
+        assertThat(open(TOKEN, "GET").getResponseCode(), is(HttpURLConnection.HTTP_NOT_FOUND));
+    }
+
+    private HttpURLConnection open(String token, String method) throws IOException {
+        URL url = new URL("http", "localhost", responder.getPort(),
+                        Http01Responder.PATH_PREFIX + token);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod(method);
+        return conn;
+    }
+
+    private static String read(HttpURLConnection conn) throws IOException {
+        try (InputStream in = conn.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int len;
+            while ((len = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, len);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
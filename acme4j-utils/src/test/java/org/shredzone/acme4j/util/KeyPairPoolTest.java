@@ -0,0 +1,117 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.security.KeyPair;
+import java.security.Security;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link KeyPairPool}.
+ */
+public class KeyPairPoolTest {
+    private static final int KEY_SIZE = 2048;
+    private static final String EC_CURVE = "secp256r1";
+
+    @BeforeClass
+    public static void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    /**
+     * Test that RSA key pairs are taken from the pool, and the pool is refilled.
+     */
+    @Test(timeout = 30000L)
+    public void testRsaPool() throws Exception {
+        try (KeyPairPool pool = new KeyPairPool(2)) {
+            pool.setDepth(2);
+            assertThat(pool.getDepth(), is(2));
+
+            pool.prepareKeyPair(KEY_SIZE);
+            awaitSize(pool, 2);
+            assertThat(pool.getRefills(), is(2L));
+            assertThat(pool.getAverageRefillTime(), is(greaterThan(Duration.ZERO)));
+
+            KeyPair pair1 = pool.takeKeyPair(KEY_SIZE);
+            KeyPair pair2 = pool.takeKeyPair(KEY_SIZE);
+            assertThat(pair1, is(not(sameInstance(pair2))));
+            assertThat(((RSAPublicKey) pair1.getPublic()).getModulus().bitLength(), is(KEY_SIZE));
+            assertThat(pool.getHits(), is(2L));
+            assertThat(pool.getMisses(), is(0L));
+
+            awaitSize(pool, 2);
+            assertThat(pool.getRefills(), is(4L));
+        }
+    }
+
+    /**
+     * Test that key pairs are generated on the calling thread if the pool is empty.
+     */
+    @Test(timeout = 30000L)
+    public void testMiss() throws Exception {
+        try (KeyPairPool pool = new KeyPairPool(1)) {
+            pool.setDepth(0);
+
+            KeyPair pair = pool.takeECKeyPair(EC_CURVE);
+            assertThat(pair.getPublic(), is(instanceOf(ECPublicKey.class)));
+            assertThat(pool.getHits(), is(0L));
+            assertThat(pool.getMisses(), is(1L));
+            assertThat(pool.getRefills(), is(0L));
+            assertThat(pool.getAverageRefillTime(), is(Duration.ZERO));
+            assertThat(pool.size(), is(0));
+
+            pool.setDepth(1);
+            awaitSize(pool, 1);
+            assertThat(pool.takeECKeyPair(EC_CURVE), is(notNullValue()));
+            assertThat(pool.getHits(), is(1L));
+        }
+    }
+
+    /**
+     * Test that key pairs are still available after the pool was closed.
+     */
+    @Test(timeout = 30000L)
+    public void testClose() throws Exception {
+        KeyPairPool pool = new KeyPairPool(1);
+        pool.setDepth(1);
+        pool.prepareECKeyPair(EC_CURVE);
+        awaitSize(pool, 1);
+        pool.close();
+
+        assertThat(pool.takeECKeyPair(EC_CURVE), is(notNullValue()));
+        assertThat(pool.takeECKeyPair(EC_CURVE), is(notNullValue()));
+        assertThat(pool.getHits(), is(1L));
+        assertThat(pool.getMisses(), is(1L));
+        assertThat(pool.size(), is(0));
+    }
+
+    /**
+     * Waits until the pool contains the given number of key pairs.
+     */
+    private static void awaitSize(KeyPairPool pool, int size) throws InterruptedException {
+        while (pool.size() < size) {
+            Thread.sleep(10L);
+        }
+    }
+
+}
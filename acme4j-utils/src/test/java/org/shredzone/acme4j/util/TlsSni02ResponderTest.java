@@ -0,0 +1,180 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.shredzone.acme4j.Status;
+import org.shredzone.acme4j.challenge.TlsSni02Challenge;
+
+/**
+ * Unit tests for {@link TlsSni02Responder}.
+ */
+public class TlsSni02ResponderTest {
+
+    private static final String SAN_A = "1082909237a535173c8415a44539f84e.248317530d8d1a0c71de8fd23f1beae4.token.acme.invalid";
+    private static final String SAN_B = "edc3a1d40199c1723358d57853bc23ff.4d4473417a6d76e80df17bbcfbe53d2c.ka.acme.invalid";
+
+    private static KeyPair keyPair;
+    private static TlsSni02Responder responder;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        keyPair = KeyPairUtils.createKeyPair(2048);
+        responder = new TlsSni02Responder(new InetSocketAddress("localhost", 0), keyPair);
+    }
+
+    @AfterClass
+    public static void teardown() throws IOException {
+        responder.close();
+    }
+
+    /**
+     * Test that the challenge certificate is selected by the requested server name.
+     */
+    @Test
+    public void testRespond() throws Exception {
+        assertThat(responder.getPort(), is(greaterThan(0)));
+
+        X509Certificate cert = responder.add(SAN_A, SAN_B).join();
+        assertThat(responder.size(), is(1));
+
+        X509Certificate served = handshake(SAN_A);
+        assertThat(served, is(cert));
+        assertThat(served.getPublicKey(), is(keyPair.getPublic()));
+        assertThat(getSANs(served), containsInAnyOrder(SAN_A, SAN_B));
+
+        assertThat(handshake("unknown.token.acme.invalid"), is(nullValue()));
+        assertThat(handshake(SAN_B), is(nullValue()));
+
+        responder.remove(SAN_A);
+        assertThat(responder.size(), is(0));
+        assertThat(handshake(SAN_A), is(nullValue()));
+    }
+
+    /**
+     * Test that many challenges are prepared at once, and removed when they reached a
+     * final status.
+     */
+    @Test
+    public void testChallenges() throws Exception {
+        List<TlsSni02Challenge> challenges = new ArrayList<>();
+        for (int ix = 0; ix < 10; ix++) {
+            TlsSni02Challenge challenge = mock(TlsSni02Challenge.class);
+            when(challenge.getSubject()).thenReturn(ix + "." + SAN_A);
+            when(challenge.getSanB()).thenReturn(ix + "." + SAN_B);
+            when(challenge.getStatus()).thenReturn(Status.PENDING);
+            challenges.add(challenge);
+        }
+
+        responder.addAll(challenges);
+        assertThat(responder.size(), is(10));
+
+        for (int ix = 0; ix < 10; ix++) {
+            X509Certificate served = handshake(ix + "." + SAN_A);
+            assertThat(getSANs(served), containsInAnyOrder(ix + "." + SAN_A, ix + "." + SAN_B));
+        }
+
+        for (TlsSni02Challenge challenge : challenges) {
+            when(challenge.getStatus()).thenReturn(Status.VALID);
+        }
+        for (int ix = 0; ix < 50 && responder.size() > 0; ix++) {
+            Thread.sleep(100L);
+        }
+        assertThat(responder.size(), is(0));
+    }
+
+    /**
+     * Connects to the responder, and returns the certificate that was served.
+     *
+     * @return Certificate, or {@code null} if the handshake failed
+     */
+    private static X509Certificate handshake(String serverName) throws GeneralSecurityException {
+        // a fresh context for every handshake, so sessions are not resumed
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[] { new TrustAllManager() }, null);
+
+        try (SSLSocket socket = (SSLSocket) context.getSocketFactory()
+                        .createSocket("localhost", responder.getPort())) {
+            SSLParameters parameters = socket.getSSLParameters();
+            parameters.setServerNames(Collections.singletonList(new SNIHostName(serverName)));
+            socket.setSSLParameters(parameters);
+            socket.startHandshake();
+            return (X509Certificate) socket.getSession().getPeerCertificates()[0];
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Extracts all DNSName SANs from a certificate.
+     */
+    private static Set<String> getSANs(X509Certificate cert) throws CertificateParsingException {
+        Set<String> result = new HashSet<>();
+
+        for (List<?> list : cert.getSubjectAlternativeNames()) {
+            if (((Number) list.get(0)).intValue() == GeneralName.dNSName) {
+                result.add((String) list.get(1));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Accepts all server certificates, as the challenge certificates are self-signed.
+     */
+    private static class TrustAllManager implements X509TrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            // not used
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            // accept all
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+
+}
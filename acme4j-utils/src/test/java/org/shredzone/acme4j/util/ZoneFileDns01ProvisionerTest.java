@@ -0,0 +1,102 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.util;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.Dns01Provisioner.TxtRecord;
+
+/**
+ * Unit tests for {@link ZoneFileDns01Provisioner}.
+ */
+public class ZoneFileDns01ProvisionerTest {
+
+    private final TxtRecord record1 = new TxtRecord("_acme-challenge.example.org", "digest1");
+    private final TxtRecord record2 = new TxtRecord("_acme-challenge.www.example.org", "digest2");
+
+    private Path directory;
+
+    @Before
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("acme4j");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Test that the zone file fragment is written and deleted.
+     */
+    @Test
+    public void testPublishRemove() throws Exception {
+        ZoneFileDns01Provisioner provisioner = new ZoneFileDns01Provisioner(directory);
+        provisioner.setTtl(300);
+        assertThat(provisioner.getTtl(), is(300));
+
+        Path file = provisioner.getZoneFile("example.org");
+        assertThat(file, is(directory.resolve("example.org.acme-challenge")));
+        assertThat(Files.exists(file), is(false));
+
+        provisioner.publish("example.org", Arrays.asList(record1, record2));
+        assertThat(Files.readAllLines(file, StandardCharsets.US_ASCII), contains(
+                        "_acme-challenge.example.org. 300 IN TXT \"digest1\"",
+                        "_acme-challenge.www.example.org. 300 IN TXT \"digest2\""));
+
+        provisioner.remove("example.org", Collections.singletonList(record1));
+        assertThat(Files.readAllLines(file, StandardCharsets.US_ASCII), contains(
+                        "_acme-challenge.www.example.org. 300 IN TXT \"digest2\""));
+
+        provisioner.remove("example.org", Collections.singletonList(record2));
+        assertThat(Files.exists(file), is(false));
+
+        provisioner.remove("example.com", Collections.singletonList(record2));
+        assertThat(Files.exists(provisioner.getZoneFile("example.com")), is(false));
+    }
+
+    /**
+     * Test that the propagation delay is awaited.
+     */
+    @Test
+    public void testPropagationDelay() throws Exception {
+        ZoneFileDns01Provisioner provisioner = new ZoneFileDns01Provisioner(directory);
+        assertThat(provisioner.getPropagationDelay(), is(Duration.ZERO));
+
+        provisioner.setPropagationDelay(Duration.ofMillis(200));
+        assertThat(provisioner.getPropagationDelay(), is(Duration.ofMillis(200)));
+
+        long start = System.nanoTime();
+        provisioner.awaitPropagation("example.org", Collections.singletonList(record1));
+        assertThat(System.nanoTime() - start, is(greaterThanOrEqualTo(200_000_000L)));
+    }
+
+}